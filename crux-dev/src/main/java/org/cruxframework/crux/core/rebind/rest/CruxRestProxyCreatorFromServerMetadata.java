@@ -18,6 +18,8 @@ package org.cruxframework.crux.core.rebind.rest;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.ArrayList;
@@ -31,6 +33,7 @@ import org.cruxframework.crux.core.client.utils.EscapeUtils;
 import org.cruxframework.crux.core.config.ConfigurationFactory;
 import org.cruxframework.crux.core.rebind.CruxGeneratorException;
 import org.cruxframework.crux.core.rebind.context.RebindContext;
+import org.cruxframework.crux.core.server.rest.core.DeferredResult;
 import org.cruxframework.crux.core.server.rest.core.registry.RestServiceFactoryInitializer;
 import org.cruxframework.crux.core.server.rest.util.HttpMethodHelper;
 import org.cruxframework.crux.core.server.rest.util.InvalidRestMethod;
@@ -38,6 +41,7 @@ import org.cruxframework.crux.core.shared.rest.RestException;
 import org.cruxframework.crux.core.shared.rest.annotation.GET;
 import org.cruxframework.crux.core.shared.rest.annotation.Path;
 import org.cruxframework.crux.core.shared.rest.annotation.StateValidationModel;
+import org.cruxframework.crux.core.utils.ClassUtils;
 import org.cruxframework.crux.core.utils.EncryptUtils;
 import org.cruxframework.crux.core.utils.JClassUtils;
 
@@ -287,12 +291,29 @@ public class CruxRestProxyCreatorFromServerMetadata extends CruxRestProxyCreator
 		}
 
 		JClassType lastParameterType = proxyTypes[proxyTypes.length - 1].isClassOrInterface();
-		if (!isTypesCompatiblesForSerialization(implementationMethod.getReturnType(), JClassUtils.getTypeArgForGenericType(lastParameterType)))
+		if (!isTypesCompatiblesForSerialization(getSerializedReturnType(implementationMethod), JClassUtils.getTypeArgForGenericType(lastParameterType)))
 		{
 			throw new CruxGeneratorException("Invalid signature for rest proxy method. Return type of implementation method is not compatible with Callback's type. Method["+method.getReadableDeclaration()+"]");
 		}
 	}
 
+	/**
+	 * Methods that return a {@link DeferredResult} send the type declared as its parameter to the client
+	 */
+	private Class<?> getSerializedReturnType(Method implementationMethod)
+	{
+		if (DeferredResult.class.equals(implementationMethod.getReturnType()))
+		{
+			Type returnType = ClassUtils.getGenericReturnTypeOfGenericInterfaceMethod(restImplementationClass, implementationMethod);
+			if (returnType instanceof ParameterizedType)
+			{
+				return ClassUtils.getRawType(((ParameterizedType) returnType).getActualTypeArguments()[0]);
+			}
+			return Object.class;
+		}
+		return implementationMethod.getReturnType();
+	}
+
 	private boolean isTypesCompatiblesForSerialization(Class<?> class1, JType jType)
 	{
 		if (jType.isEnum() != null)
@@ -42,7 +42,14 @@ import com.google.gwt.core.ext.typeinfo.JParameterizedType;
 import com.google.gwt.core.ext.typeinfo.JPrimitiveType;
 import com.google.gwt.core.ext.typeinfo.JType;
 import com.google.gwt.core.ext.typeinfo.NotFoundException;
+import com.google.gwt.http.client.Request;
+import com.google.gwt.http.client.RequestBuilder;
+import com.google.gwt.http.client.RequestCallback;
+import com.google.gwt.http.client.Response;
+import com.google.gwt.user.client.Command;
 import com.google.gwt.user.client.rpc.AsyncCallback;
+import com.google.gwt.user.client.rpc.IncompatibleRemoteServiceException;
+import com.google.gwt.user.client.rpc.RpcRequestBuilder;
 import com.google.gwt.user.rebind.ClassSourceFileComposerFactory;
 import com.google.gwt.user.rebind.SourceWriter;
 import com.google.gwt.user.rebind.rpc.ProxyCreator;
@@ -179,7 +186,8 @@ public class CruxProxyCreator extends ProxyCreator
 	 * @param methodDescVar 
 	 * @param blocksScreen 
 	 */
-	private void generateAsyncCallbackForSyncTokenMethod(SourceWriter srcWriter, JParameter parameter, String methodDescVar, boolean blocksScreen)
+	private void generateAsyncCallbackForSyncTokenMethod(SourceWriter srcWriter, JParameter parameter, String methodDescVar, 
+														boolean blocksScreen, String retryCommandVar)
 	{
 		JParameterizedType parameterizedType = parameter.getType().isParameterized();
 		String typeSourceName = parameterizedType.getParameterizedQualifiedSourceName();
@@ -202,6 +210,15 @@ public class CruxProxyCreator extends ProxyCreator
 
 		srcWriter.println("public void onFailure(Throwable caught){");
 		srcWriter.indent();
+		if (retryCommandVar != null)
+		{
+			srcWriter.println("if (caught instanceof IncompatibleRemoteServiceException){");
+			srcWriter.indent();
+			srcWriter.println(retryCommandVar+".execute();");
+			srcWriter.println("return;");
+			srcWriter.outdent();
+			srcWriter.println("}");
+		}
 		srcWriter.println("try{");
 		srcWriter.println(parameter.getName()+".onFailure(caught);");
 		srcWriter.println("}finally{");
@@ -223,7 +240,21 @@ public class CruxProxyCreator extends ProxyCreator
 	private void generateProxyMethodCall(SourceWriter srcWriter, JMethod asyncMethod,
 			List<JParameter> parameters, String methodDescVar, boolean blocksScreen)
 	{
-		
+		generateProxyMethodCall(srcWriter, asyncMethod, parameters, methodDescVar, blocksScreen, null);
+	}
+
+	/**
+	 * @param srcWriter
+	 * @param asyncMethod
+	 * @param parameters
+	 * @param methodDescVar
+	 * @param blocksScreen
+	 * @param retryCommandVar command used to fetch a new token and retry the call if the server rejects the token used. 
+	 */
+	private void generateProxyMethodCall(SourceWriter srcWriter, JMethod asyncMethod,
+			List<JParameter> parameters, String methodDescVar, boolean blocksScreen, String retryCommandVar)
+	{
+		srcWriter.println("__pendingMethodDesc = "+methodDescVar+";");
 		srcWriter.print(getProxyWrapperQualifiedName()+".super."+asyncMethod.getName() + "(");
 		boolean needsComma = false;
 		for (int i = 0; i < parameters.size(); ++i)
@@ -240,7 +271,7 @@ public class CruxProxyCreator extends ProxyCreator
 			}
 			else
 			{
-				generateAsyncCallbackForSyncTokenMethod(srcWriter, parameter, methodDescVar, blocksScreen);
+				generateAsyncCallbackForSyncTokenMethod(srcWriter, parameter, methodDescVar, blocksScreen, retryCommandVar);
 			}
 		}
 		srcWriter.println(");");
@@ -320,6 +351,10 @@ public class CruxProxyCreator extends ProxyCreator
 		srcWriter.println("if (__startMethodCall(methodDesc, "+blocksScreen+")){");
 		srcWriter.indent();
 
+		srcWriter.println("final Command fetchTokenAndCall = new Command(){");
+		srcWriter.indent();
+		srcWriter.println("public void execute(){");
+		srcWriter.indent();
 		srcWriter.println("__syncTokenService.getSynchronizerToken(methodDesc,");
 		srcWriter.println("new AsyncCallback<String>(){");
 		srcWriter.indent();
@@ -343,6 +378,24 @@ public class CruxProxyCreator extends ProxyCreator
 
 		srcWriter.outdent();
 		srcWriter.println("});");
+
+		srcWriter.outdent();
+		srcWriter.println("}");
+		srcWriter.outdent();
+		srcWriter.println("};");
+
+		// Tokens sent by the server on previous calls avoid the extra round trip to fetch the token
+		srcWriter.println("String cachedToken = __syncTokens.remove(methodDesc);");
+		srcWriter.println("if (cachedToken == null){");
+		srcWriter.indent();
+		srcWriter.println("fetchTokenAndCall.execute();");
+		srcWriter.outdent();
+		srcWriter.println("}else{");
+		srcWriter.indent();
+		srcWriter.println("__updateMethodToken(methodDesc, cachedToken);");
+		generateProxyMethodCall(srcWriter, asyncMethod, parameters, "methodDesc", blocksScreen, "fetchTokenAndCall");
+		srcWriter.outdent();
+		srcWriter.println("}");
 		
 		srcWriter.outdent();
 		srcWriter.println("}");
@@ -394,10 +447,8 @@ public class CruxProxyCreator extends ProxyCreator
 			}
 
 			JType paramType = param.getType();
-			if (i == (asyncParams.length-1))
-			{
-				srcWriter.print("final ");
-			}
+			// All parameters are used by the inner classes that fetch the token and make the call
+			srcWriter.print("final ");
 			srcWriter.print(paramType.getQualifiedSourceName());
 			srcWriter.print(" ");
 
@@ -517,6 +568,7 @@ public class CruxProxyCreator extends ProxyCreator
 		{
 			srcWriter.println("this.__baseEntrypoint = getServiceEntryPoint();");	
 			srcWriter.println("this.__syncTokenService = (CruxSynchronizerTokenServiceAsync)GWT.create(CruxSynchronizerTokenService.class);");
+			generateTokenCaptureRequestBuilder(srcWriter);
 		}
 		srcWriter.println("String locale = Screen.getLocale();");
 		srcWriter.println("if (locale != null && locale.trim().length() > 0){");
@@ -539,6 +591,51 @@ public class CruxProxyCreator extends ProxyCreator
 	}
 	
 	
+	/**
+	 * Generates a request builder that reads the token sent by the server for the next call to the method 
+	 * being invoked and caches it.
+	 * @param srcWriter
+	 */
+	private void generateTokenCaptureRequestBuilder(SourceWriter srcWriter)
+	{
+		srcWriter.println("setRpcRequestBuilder(new RpcRequestBuilder(){");
+		srcWriter.indent();
+		srcWriter.println("protected void doSetCallback(RequestBuilder rb, final RequestCallback callback){");
+		srcWriter.indent();
+		srcWriter.println("final String methodDesc = __pendingMethodDesc;");
+		srcWriter.println("__pendingMethodDesc = null;");
+		srcWriter.println("if (methodDesc == null){");
+		srcWriter.indent();
+		srcWriter.println("super.doSetCallback(rb, callback);");
+		srcWriter.println("return;");
+		srcWriter.outdent();
+		srcWriter.println("}");
+		srcWriter.println("super.doSetCallback(rb, new RequestCallback(){");
+		srcWriter.indent();
+		srcWriter.println("public void onResponseReceived(Request request, Response response){");
+		srcWriter.indent();
+		srcWriter.println("String token = response.getHeader(\""+CruxSynchronizerTokenService.CRUX_SYNC_TOKEN_HEADER+"\");");
+		srcWriter.println("if (token != null && token.length() > 0){");
+		srcWriter.indent();
+		srcWriter.println("__syncTokens.put(methodDesc, token);");
+		srcWriter.outdent();
+		srcWriter.println("}");
+		srcWriter.println("callback.onResponseReceived(request, response);");
+		srcWriter.outdent();
+		srcWriter.println("}");
+		srcWriter.println("public void onError(Request request, Throwable exception){");
+		srcWriter.indent();
+		srcWriter.println("callback.onError(request, exception);");
+		srcWriter.outdent();
+		srcWriter.println("}");
+		srcWriter.outdent();
+		srcWriter.println("});");
+		srcWriter.outdent();
+		srcWriter.println("}");
+		srcWriter.outdent();
+		srcWriter.println("});");
+	}
+	
 	/**
 	 * @param srcWriter
 	 * @param asyncServiceInterfaceName 
@@ -551,6 +648,8 @@ public class CruxProxyCreator extends ProxyCreator
 			srcWriter.println("private Map<String, Boolean> __syncProcessingMethods = new HashMap<String, Boolean>();");
 			srcWriter.println("private CruxSynchronizerTokenServiceAsync __syncTokenService;");
 			srcWriter.println("private String __baseEntrypoint;");
+			srcWriter.println("private Map<String, String> __syncTokens = new HashMap<String, String>();");
+			srcWriter.println("private String __pendingMethodDesc;");
 		}
 	}
 	
@@ -599,6 +698,13 @@ public class CruxProxyCreator extends ProxyCreator
 			composerFactory.addImport(CruxSynchronizerTokenService.class.getName());
 			composerFactory.addImport(CruxSynchronizerTokenServiceAsync.class.getName());
 			composerFactory.addImport(GWT.class.getName());
+			composerFactory.addImport(Command.class.getName());
+			composerFactory.addImport(IncompatibleRemoteServiceException.class.getName());
+			composerFactory.addImport(RpcRequestBuilder.class.getName());
+			composerFactory.addImport(RequestBuilder.class.getName());
+			composerFactory.addImport(RequestCallback.class.getName());
+			composerFactory.addImport(Request.class.getName());
+			composerFactory.addImport(Response.class.getName());
 		}
 		
 		composerFactory.setSuperclass(asyncServiceName);
@@ -17,8 +17,8 @@ package org.cruxframework.crux.core.config;
 
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Proxy;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -35,7 +35,7 @@ import org.cruxframework.crux.core.i18n.MessageException;
  */
 public abstract class AbstractPropertiesFactory
 {
-	private Map<String, Object> cachedProxies = new HashMap<String, Object>();
+	private Map<String, Object> cachedProxies = new ConcurrentHashMap<String, Object>();
 	private final Lock initLock = new ReentrantLock(true);
 			
 	/**
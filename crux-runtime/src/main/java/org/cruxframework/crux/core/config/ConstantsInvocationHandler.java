@@ -24,6 +24,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.PropertyResourceBundle;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.cruxframework.crux.core.i18n.DefaultServerMessage;
 import org.cruxframework.crux.core.i18n.MessageException;
@@ -40,6 +41,9 @@ public abstract class ConstantsInvocationHandler implements InvocationHandler
 {
 	private Class<?> targetInterface;
 	private Map<String, String> resolvedConstants = new ConcurrentHashMap<String, String>();
+	private ConcurrentMap<Method, MethodInfo> methods = new ConcurrentHashMap<Method, MethodInfo>();
+	private ConcurrentMap<PropertyResourceBundle, ConcurrentMap<String, MessageFormat>> formatters = 
+		new ConcurrentHashMap<PropertyResourceBundle, ConcurrentMap<String, MessageFormat>>();
 	private boolean isCacheable = true;
 	
 	/**
@@ -66,15 +70,20 @@ public abstract class ConstantsInvocationHandler implements InvocationHandler
 	 */
 	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
 	{
-		String name = method.getName();
-		if (this.isCacheable && resolvedConstants.containsKey(name))
+		MethodInfo methodInfo = getMethodInfo(method);
+		String name = methodInfo.name;
+		if (this.isCacheable)
 		{
-			return resolvedConstants.get(name);
+			String resolved = resolvedConstants.get(name);
+			if (resolved != null)
+			{
+				return resolved;
+			}
 		}
 		String message = null;
 		try
 		{
-			if (isValidPropertySetter(method))
+			if (methodInfo.propertySetter)
 			{
 				invokeSetter(method, args);
 			}
@@ -106,7 +115,7 @@ public abstract class ConstantsInvocationHandler implements InvocationHandler
 		String message = null;
 		if (properties != null)
 		{
-			message = MessageFormat.format(properties.getString(name),args);
+			message = format(getFormatter(properties, name), args);
 			if (this.isCacheable)
 			{
 				resolvedConstants.put(name, message);
@@ -123,16 +132,12 @@ public abstract class ConstantsInvocationHandler implements InvocationHandler
 	 */
 	protected String getMessageFromAnnotation(Method method, Object[] args, String name)
 	{
-		DefaultServerMessage serverAnnot = method.getAnnotation(DefaultServerMessage.class);
-		DefaultMessage clientAnnot = method.getAnnotation(DefaultMessage.class);
+		MessageFormat defaultFormat = getMethodInfo(method).defaultFormat;
 		
 		String value = null;
-		if (serverAnnot != null)
-		{
-			value = MessageFormat.format(serverAnnot.value(),args);
-		} else if(clientAnnot != null) 
+		if (defaultFormat != null)
 		{
-			value = MessageFormat.format(clientAnnot.value(),args);
+			value = format(defaultFormat, args);
 		}
 		
 		if (value != null)
@@ -238,6 +243,68 @@ public abstract class ConstantsInvocationHandler implements InvocationHandler
 		return properties;
 	}
 
+	/**
+	 * Retrieve the information about the given method, resolved on its first call.
+	 * @param method
+	 * @return
+	 */
+	private MethodInfo getMethodInfo(Method method)
+	{
+		MethodInfo methodInfo = methods.get(method);
+		if (methodInfo == null)
+		{
+			methodInfo = new MethodInfo(method);
+			MethodInfo previous = methods.putIfAbsent(method, methodInfo);
+			if (previous != null)
+			{
+				methodInfo = previous;
+			}
+		}
+		return methodInfo;
+	}
+
+	/**
+	 * Retrieve the compiled format for the given message. Patterns are parsed only once for each 
+	 * resource bundle.
+	 * @param properties
+	 * @param name
+	 * @return
+	 */
+	private MessageFormat getFormatter(PropertyResourceBundle properties, String name)
+	{
+		ConcurrentMap<String, MessageFormat> bundleFormatters = formatters.get(properties);
+		if (bundleFormatters == null)
+		{
+			bundleFormatters = new ConcurrentHashMap<String, MessageFormat>();
+			ConcurrentMap<String, MessageFormat> previous = formatters.putIfAbsent(properties, bundleFormatters);
+			if (previous != null)
+			{
+				bundleFormatters = previous;
+			}
+		}
+		MessageFormat format = bundleFormatters.get(name);
+		if (format == null)
+		{
+			format = new MessageFormat(properties.getString(name));
+			bundleFormatters.putIfAbsent(name, format);
+		}
+		return format;
+	}
+
+	/**
+	 * MessageFormat instances are not thread safe. Cached formats are used by one thread at a time.
+	 * @param format
+	 * @param args
+	 * @return
+	 */
+	private static String format(MessageFormat format, Object[] args)
+	{
+		synchronized (format)
+		{
+			return format.format(args);
+		}
+	}
+
 	/**
 	 * 
 	 * @param methodName
@@ -264,4 +331,35 @@ public abstract class ConstantsInvocationHandler implements InvocationHandler
 	 * @return
 	 */
 	protected abstract <T> PropertyResourceBundle getPropertiesForLocale(final Class<T> targetInterface); 
+
+	/**
+	 * Information about an interface method, resolved only once.
+	 */
+	private class MethodInfo
+	{
+		private final String name;
+		private final boolean propertySetter;
+		private final MessageFormat defaultFormat;
+		
+		private MethodInfo(Method method)
+		{
+			this.name = method.getName();
+			this.propertySetter = isValidPropertySetter(method);
+			
+			DefaultServerMessage serverAnnot = method.getAnnotation(DefaultServerMessage.class);
+			DefaultMessage clientAnnot = method.getAnnotation(DefaultMessage.class);
+			if (serverAnnot != null)
+			{
+				this.defaultFormat = new MessageFormat(serverAnnot.value());
+			} 
+			else if(clientAnnot != null) 
+			{
+				this.defaultFormat = new MessageFormat(clientAnnot.value());
+			}
+			else
+			{
+				this.defaultFormat = null;
+			}
+		}
+	}
 }
\ No newline at end of file
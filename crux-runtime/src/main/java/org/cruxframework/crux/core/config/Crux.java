@@ -41,9 +41,18 @@ public interface Crux
 	@DefaultServerMessage("true")
 	String enableResourceStateCacheForRestServices();
 
+	@DefaultServerMessage("false")
+	String enableRestAsyncMode();
+
 	@DefaultServerMessage("false")
 	String enableRestHostPageBaseURL();
 
+	@DefaultServerMessage("false")
+	String enableRestResponseBodyCache();
+
+	@DefaultServerMessage("false")
+	String enableRestResponseStreaming();
+
 	@DefaultServerMessage("org.cruxframework.crux.core.server.rest.state.ETagHandlerImpl")
 	String eTagHandler();
 
@@ -56,6 +65,24 @@ public interface Crux
 	@DefaultServerMessage("false")
 	String renderWidgetsWithIDs();
 	
+	@DefaultServerMessage("30000")
+	String restAsyncTimeout();
+
+	@DefaultServerMessage("100")
+	String restBackgroundRefreshQueueSize();
+
+	@DefaultServerMessage("2")
+	String restBackgroundRefreshThreads();
+
+	@DefaultServerMessage("-1")
+	String restCompressionLevel();
+
+	@DefaultServerMessage("128")
+	String restCompressionThreshold();
+
+	@DefaultServerMessage("10000")
+	String restRefreshWaitTimeout();
+
 	@DefaultServerMessage("org.cruxframework.crux.core.server.rest.core.dispatch.RestErrorHandlerImpl")
 	String restErrorHandler();
 
@@ -64,6 +91,12 @@ public interface Crux
 	
 	@DefaultServerMessage("org.cruxframework.crux.core.server.rest.state.ClusteredResourceStateHandler")
 	String restServiceResourceStateHandler();
+
+	@DefaultServerMessage("-1")
+	String restRequestBodyMaxSize();
+
+	@DefaultServerMessage("65536")
+	String restResponseStreamingBufferSize();
 	
 	@DefaultServerMessage("")
 	String scanAllowedLibs();
@@ -77,6 +110,12 @@ public interface Crux
 	@DefaultServerMessage("")
 	String scanIgnoredPackages();
 	
+	@DefaultServerMessage("")
+	String scanIndexCacheDir();
+	
+	@DefaultServerMessage("0")
+	String scanThreads();
+	
 	@DefaultServerMessage("false")
 	String sendCruxViewNameOnClientRequests();
 	
@@ -102,6 +141,7 @@ public interface Crux
 	void setScanAllowedPackages(String value);
 	void setScanIgnoredLibs(String value);
 	void setScanIgnoredPackages(String value);
+	void setScanIndexCacheDir(String value);
 	void setSendCruxViewNameOnClientRequests(Boolean value);
 	void setServiceFactory(String value);
 	void setUseCompileTimeClassScanning(Boolean value);
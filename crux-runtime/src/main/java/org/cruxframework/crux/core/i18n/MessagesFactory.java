@@ -15,10 +15,12 @@
  */
 package org.cruxframework.crux.core.i18n;
 
-import java.util.HashMap;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.util.Locale;
-import java.util.Map;
 import java.util.PropertyResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -68,8 +70,9 @@ public class MessagesFactory extends AbstractPropertiesFactory
  */
 class MessagesInvocationHandler extends ConstantsInvocationHandler
 {
-	Map<Locale, PropertyResourceBundle> localeMessages = new HashMap<Locale, PropertyResourceBundle>();
+	private static final PropertyResourceBundle NO_MESSAGES = createEmptyBundle();
 	private static final Lock propertiesLock = new ReentrantLock(true);	
+	private ConcurrentMap<Locale, PropertyResourceBundle> localeMessages = new ConcurrentHashMap<Locale, PropertyResourceBundle>();
 	
 	public MessagesInvocationHandler(Class<?> targetInterface) 
 	{
@@ -80,24 +83,44 @@ class MessagesInvocationHandler extends ConstantsInvocationHandler
 	protected <T> PropertyResourceBundle getPropertiesForLocale(final Class<T> targetInterface) 
 	{
 		Locale userLocale = LocaleResolverInitializer.getLocaleResolver().getUserLocale();
-		PropertyResourceBundle properties = null;
-		if (!localeMessages.containsKey(userLocale))
+		PropertyResourceBundle properties = localeMessages.get(userLocale);
+		if (properties == null)
 		{
 			propertiesLock.lock();
 			try
 			{
-				properties = loadProperties(targetInterface, userLocale);
-				localeMessages.put(userLocale, properties);
+				properties = localeMessages.get(userLocale);
+				if (properties == null)
+				{
+					properties = loadProperties(targetInterface, userLocale);
+					if (properties == null)
+					{
+						properties = NO_MESSAGES;
+					}
+					localeMessages.put(userLocale, properties);
+				}
 			}
 			finally
 			{
 				propertiesLock.unlock();	
 			}
 		}
-		else
+		return (properties == NO_MESSAGES)?null:properties;
+	}
+	
+	/**
+	 * Marks the locales that have no resource bundle available. ConcurrentHashMap does not accept null values.
+	 * @return
+	 */
+	private static PropertyResourceBundle createEmptyBundle()
+	{
+		try
+		{
+			return new PropertyResourceBundle(new ByteArrayInputStream(new byte[0]));
+		}
+		catch (IOException e)
 		{
-			properties = localeMessages.get(userLocale);
+			throw new MessageException(e.getMessage(), e);
 		}
-		return properties;
 	}
 }
\ No newline at end of file
@@ -23,6 +23,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.cruxframework.crux.core.server.dispatch.ServiceFactoryInitializer;
 import org.cruxframework.crux.core.server.rest.core.registry.RestServiceFactoryInitializer;
+import org.cruxframework.crux.core.server.rest.state.ResourceStateConfig;
 
 
 /**
@@ -41,6 +42,7 @@ public class InitializerListener implements ServletContextListener
 	 */
 	public void contextDestroyed(ServletContextEvent contextEvent) 
 	{
+		ResourceStateConfig.shutdown();
 	}
 
 	/**
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cruxframework.crux.core.server.ServiceScope.Scope;
+import org.cruxframework.crux.core.server.rest.core.HttpRequestAware;
+import org.cruxframework.crux.core.server.rest.core.HttpResponseAware;
+
+/**
+ * Provides service instances according to the {@link ServiceScope} declared by each service class.
+ * Instances obtained through {@link #getInstance(Class)} must be returned with {@link #releaseInstance(Object)}
+ * when the request finishes.
+ */
+public class ServiceInstanceProvider
+{
+	private static final Log logger = LogFactory.getLog(ServiceInstanceProvider.class);
+	private static final ConcurrentMap<Class<?>, InstanceProvider> providers = new ConcurrentHashMap<Class<?>, InstanceProvider>();
+
+	/**
+	 * Retrieve an instance of the given service class
+	 * @param serviceClass
+	 * @return
+	 */
+	public static Object getInstance(Class<?> serviceClass)
+	{
+		return getProvider(serviceClass).acquire();
+	}
+
+	/**
+	 * Inform that the given instance is not used by the current request anymore.
+	 * @param service
+	 */
+	public static void releaseInstance(Object service)
+	{
+		if (service != null)
+		{
+			InstanceProvider provider = providers.get(service.getClass());
+			if (provider != null)
+			{
+				provider.release(service);
+			}
+		}
+	}
+
+	/**
+	 * Retrieve the scope used for the given service class
+	 * @param serviceClass
+	 * @return
+	 */
+	public static Scope getScope(Class<?> serviceClass)
+	{
+		return getProvider(serviceClass).getScope();
+	}
+
+	private static InstanceProvider getProvider(Class<?> serviceClass)
+	{
+		InstanceProvider provider = providers.get(serviceClass);
+		if (provider == null)
+		{
+			provider = createProvider(serviceClass);
+			InstanceProvider previous = providers.putIfAbsent(serviceClass, provider);
+			if (previous != null)
+			{
+				provider = previous;
+			}
+		}
+		return provider;
+	}
+
+	private static InstanceProvider createProvider(Class<?> serviceClass)
+	{
+		ServiceScope serviceScope = serviceClass.getAnnotation(ServiceScope.class);
+		Scope scope = (serviceScope != null) ? serviceScope.value() : Scope.REQUEST;
+		if (scope == Scope.SINGLETON && (HttpRequestAware.class.isAssignableFrom(serviceClass) || HttpResponseAware.class.isAssignableFrom(serviceClass)))
+		{
+			// Rest request and response objects are not interfaces and can not be replaced by request bound proxies
+			logger.warn("REST service [" + serviceClass.getCanonicalName() + "] receives the request or the response objects and can not be shared " +
+					    "between concurrent requests. Using POOLED scope instead of SINGLETON.");
+			scope = Scope.POOLED;
+		}
+		switch (scope)
+		{
+			case SINGLETON:
+				return new SingletonProvider(serviceClass);
+			case POOLED:
+				return new PoolProvider(serviceClass, serviceScope.poolSize());
+			default:
+				return new InstanceProvider(serviceClass);
+		}
+	}
+
+	/**
+	 * Creates a new instance for each request
+	 */
+	private static class InstanceProvider
+	{
+		protected final Class<?> serviceClass;
+
+		private InstanceProvider(Class<?> serviceClass)
+		{
+			this.serviceClass = serviceClass;
+		}
+
+		protected Object acquire()
+		{
+			return newInstance();
+		}
+
+		protected void release(Object service)
+		{
+		}
+
+		protected Scope getScope()
+		{
+			return Scope.REQUEST;
+		}
+
+		protected Object newInstance()
+		{
+			try
+			{
+				return serviceClass.newInstance();
+			}
+			catch (Exception e)
+			{
+				throw new RuntimeException("Error creating service instance for class [" + serviceClass.getCanonicalName() + "].", e);
+			}
+		}
+	}
+
+	/**
+	 * Shares a single instance between all requests
+	 */
+	private static class SingletonProvider extends InstanceProvider
+	{
+		private volatile Object instance;
+
+		private SingletonProvider(Class<?> serviceClass)
+		{
+			super(serviceClass);
+		}
+
+		@Override
+		protected Object acquire()
+		{
+			Object result = instance;
+			if (result == null)
+			{
+				synchronized (this)
+				{
+					result = instance;
+					if (result == null)
+					{
+						result = newInstance();
+						instance = result;
+					}
+				}
+			}
+			return result;
+		}
+
+		@Override
+		protected Scope getScope()
+		{
+			return Scope.SINGLETON;
+		}
+	}
+
+	/**
+	 * Reuses instances kept into a bounded pool
+	 */
+	private static class PoolProvider extends InstanceProvider
+	{
+		private final BlockingQueue<Object> idleInstances;
+
+		private PoolProvider(Class<?> serviceClass, int poolSize)
+		{
+			super(serviceClass);
+			this.idleInstances = new ArrayBlockingQueue<Object>(Math.max(poolSize, 1));
+		}
+
+		@Override
+		protected Object acquire()
+		{
+			Object result = idleInstances.poll();
+			if (result == null)
+			{
+				result = newInstance();
+			}
+			return result;
+		}
+
+		@Override
+		protected void release(Object service)
+		{
+			// Instances that do not fit into the pool are discarded
+			idleInstances.offer(service);
+		}
+
+		@Override
+		protected Scope getScope()
+		{
+			return Scope.POOLED;
+		}
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Defines the lifecycle of the instances of a service class (a RPC service implementation
+ * or a REST service). Services not annotated are created for each request.
+ */
+@Target({ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ServiceScope
+{
+	/**
+	 * The service scope.
+	 * @return
+	 */
+	Scope value() default Scope.REQUEST;
+
+	/**
+	 * Max number of idle instances kept by a POOLED service. When all pooled instances are in use,
+	 * new instances are created to handle the extra requests, and discarded after that.
+	 * @return
+	 */
+	int poolSize() default 16;
+
+	public static enum Scope
+	{
+		/**
+		 * A new instance is created for each request.
+		 */
+		REQUEST,
+		/**
+		 * A single instance handles all requests. The service must be thread safe. RPC services
+		 * that implement RequestAware, ResponseAware or SessionAware receive proxies bound to the
+		 * current request.
+		 */
+		SINGLETON,
+		/**
+		 * Instances are reused from a pool. Each instance handles only one request at a time.
+		 */
+		POOLED
+	}
+}
@@ -16,14 +16,19 @@
 package org.cruxframework.crux.core.server.dispatch;
 
 import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.cruxframework.crux.core.i18n.LocaleResolver;
 import org.cruxframework.crux.core.i18n.LocaleResolverInitializer;
+import org.cruxframework.crux.core.server.ServiceInstanceProvider;
+import org.cruxframework.crux.core.server.ServiceScope.Scope;
 import org.cruxframework.crux.core.server.dispatch.st.CruxSynchronizerTokenHandler;
 import org.cruxframework.crux.core.server.dispatch.st.CruxSynchronizerTokenHandlerFactory;
 import org.cruxframework.crux.core.server.dispatch.st.InvalidTokenException;
+import org.cruxframework.crux.core.shared.rpc.st.CruxSynchronizerTokenService;
 import org.cruxframework.crux.core.shared.rpc.st.UseSynchronizerToken;
-import org.cruxframework.crux.core.utils.RegexpPatterns;
+import org.cruxframework.crux.core.utils.ClassUtils;
 
 import com.google.gwt.user.client.rpc.IncompatibleRemoteServiceException;
 import com.google.gwt.user.client.rpc.SerializationException;
@@ -37,6 +42,8 @@ import com.google.gwt.user.server.rpc.RPCRequest;
 public class RemoteServiceServlet extends com.google.gwt.user.server.rpc.RemoteServiceServlet
 {
 	private static final long serialVersionUID = -5471459247489132091L;
+	private static final int SERVICE_INTERFACE_FIELD = 5;
+	private static final ConcurrentMap<String, ServiceMetadata> serviceMetadata = new ConcurrentHashMap<String, ServiceMetadata>();
 
 	/**
 	 * @see com.google.gwt.user.server.rpc.RemoteServiceServlet#processCall(java.lang.String)
@@ -45,17 +52,24 @@ public class RemoteServiceServlet extends com.google.gwt.user.server.rpc.RemoteS
 	public String processCall(String payload) throws SerializationException 
 	{
 		boolean localeInitializedByServlet = false;
+		Object service = null;
 		try 
 		{
 			localeInitializedByServlet = initUserLocaleResolver();
-			Object service = getServiceForRequest(payload);
+			RequestScopedProxies.bind(getThreadLocalRequest(), getThreadLocalResponse());
+			String serviceIntfName = getServiceInterfaceName(payload);
+			service = getServiceForInterface(serviceIntfName);
 			RPCRequest rpcRequest = RPC.decodeRequest(payload, service.getClass(), this);
 			onAfterRequestDeserialized(rpcRequest);
 
 			//TODO: criar um ponto de injecao de comportamento aki.... para permitir que plugins sejam criados (ex: seguranca, logs, etc)
-			CruxSynchronizerTokenHandler handler = CruxSynchronizerTokenHandlerFactory.getCruxSynchronizerTokenHandler(getThreadLocalRequest());
-
-			boolean useToken = checkSynchonizerToken(rpcRequest, handler);
+			String methodFullSignature = getServiceMetadata(serviceIntfName, service.getClass()).getSynchronizerTokenMethod(rpcRequest.getMethod());
+			CruxSynchronizerTokenHandler handler = null;
+			if (methodFullSignature != null)
+			{
+				handler = CruxSynchronizerTokenHandlerFactory.getCruxSynchronizerTokenHandler(getThreadLocalRequest());
+				checkSynchonizerToken(methodFullSignature, handler);
+			}
 			try
 			{
 				return RPC.invokeAndEncodeResponse(service, rpcRequest.getMethod(),
@@ -63,10 +77,14 @@ public class RemoteServiceServlet extends com.google.gwt.user.server.rpc.RemoteS
 			}
 			finally
 			{
-				if (useToken)
+				if (handler != null)
 				{
-					String methodFullSignature = handler.getMethodDescription(rpcRequest.getMethod());
-					handler.endMethod(methodFullSignature);
+					// Send the token for the next call, so the client does not need to request it
+					String nextToken = handler.endMethodAndRenewToken(methodFullSignature);
+					if (nextToken != null)
+					{
+						getThreadLocalResponse().setHeader(CruxSynchronizerTokenService.CRUX_SYNC_TOKEN_HEADER, nextToken);
+					}
 				}
 			}
 		}
@@ -77,6 +95,8 @@ public class RemoteServiceServlet extends com.google.gwt.user.server.rpc.RemoteS
 		}
 		finally
 		{
+			RequestScopedProxies.unbind();
+			ServiceInstanceProvider.releaseInstance(service);
 			if (localeInitializedByServlet)
 			{
 				clearUserLocaleResolver();
@@ -85,35 +105,29 @@ public class RemoteServiceServlet extends com.google.gwt.user.server.rpc.RemoteS
 	}
 	
 	/**
-	 * @param rpcRequest
+	 * Check the synchronizer token received for a method annotated with {@link UseSynchronizerToken}
+	 * and mark the method as running.
+	 * @param methodFullSignature
 	 * @param handler
-	 * @return
 	 * @throws IncompatibleRemoteServiceException
 	 */
-	protected boolean checkSynchonizerToken(RPCRequest rpcRequest, CruxSynchronizerTokenHandler handler) throws IncompatibleRemoteServiceException
+	protected void checkSynchonizerToken(String methodFullSignature, CruxSynchronizerTokenHandler handler) throws IncompatibleRemoteServiceException
 	{
-		Method method = rpcRequest.getMethod();
-		if (method.getAnnotation(UseSynchronizerToken.class) != null)
+		if (!handler.isMethodRunning(methodFullSignature))
 		{
-			String methodFullSignature = handler.getMethodDescription(method);
-			if (!handler.isMethodRunning(methodFullSignature))
+			try
 			{
-				try
-				{
-					handler.startMethod(methodFullSignature);
-					return true;
-				}
-				catch (InvalidTokenException e)
-				{
-					throw new IncompatibleRemoteServiceException(e.getLocalizedMessage(), e);
-				}
+				handler.startMethod(methodFullSignature);
 			}
-			else
+			catch (InvalidTokenException e)
 			{
-				throw new IncompatibleRemoteServiceException("Invalid Synchronizer Token for method ["+methodFullSignature+"]. Possible CSRF attack.");
+				throw new IncompatibleRemoteServiceException(e.getLocalizedMessage(), e);
 			}
 		}
-		return false;
+		else
+		{
+			throw new IncompatibleRemoteServiceException("Invalid Synchronizer Token for method ["+methodFullSignature+"]. Possible CSRF attack.");
+		}
 	}
 	
 	/**
@@ -146,6 +160,17 @@ public class RemoteServiceServlet extends com.google.gwt.user.server.rpc.RemoteS
 	 * @throws IncompatibleRemoteServiceException
 	 */
 	protected Object getServiceForRequest(String encodedRequest) throws IncompatibleRemoteServiceException
+	{
+		return getServiceForInterface(getServiceInterfaceName(encodedRequest));
+	}
+
+	/**
+	 * Return the service that implements the given interface
+	 * @param serviceIntfName
+	 * @return
+	 * @throws IncompatibleRemoteServiceException
+	 */
+	protected Object getServiceForInterface(String serviceIntfName) throws IncompatibleRemoteServiceException
 	{
 		try 
 		{
@@ -154,27 +179,114 @@ public class RemoteServiceServlet extends com.google.gwt.user.server.rpc.RemoteS
 				ServiceFactoryInitializer.initialize(getServletContext());
 			}
 			
-			// We don't need to verify or parse the encodedRequest because it will be already done by
-			// RPC.decodeRequest. So, just read the interface name directly
-			String serviceIntfName = RegexpPatterns.REGEXP_PIPE.split(encodedRequest)[5];			
 			Object service = ServiceFactoryInitializer.getServiceFactory().getService(serviceIntfName);
-			if (service instanceof RequestAware)
+			if (service == null)
+			{
+				throw new IncompatibleRemoteServiceException("No service found for interface ["+serviceIntfName+"].");
+			}
+			ServiceMetadata metadata = getServiceMetadata(serviceIntfName, service.getClass());
+			// Singleton services are shared between concurrent requests, so they receive proxies 
+			// that delegate to the request bound to the current thread
+			if (metadata.requestAware)
 			{
-				((RequestAware)service).setRequest(getThreadLocalRequest());
+				((RequestAware)service).setRequest(metadata.shared?RequestScopedProxies.getRequestProxy():getThreadLocalRequest());
 			}
-			if (service instanceof ResponseAware)
+			if (metadata.responseAware)
 			{
-				((ResponseAware)service).setResponse(getThreadLocalResponse());
+				((ResponseAware)service).setResponse(metadata.shared?RequestScopedProxies.getResponseProxy():getThreadLocalResponse());
 			}
-			if (service instanceof SessionAware)
+			if (metadata.sessionAware)
 			{
-				((SessionAware)service).setSession(getThreadLocalRequest().getSession());
+				((SessionAware)service).setSession(metadata.shared?RequestScopedProxies.getSessionProxy():getThreadLocalRequest().getSession());
 			}
 			return service;
 		} 
+		catch (IncompatibleRemoteServiceException e) 
+		{
+			throw e;
+		} 
 		catch (Throwable e) 
 		{
 			throw new IncompatibleRemoteServiceException(e.getLocalizedMessage(), e);
 		} 
 	}
+
+	/**
+	 * Read the service interface name from the RPC payload. We don't need to verify or parse the encoded 
+	 * request because it will be already done by RPC.decodeRequest. So, just read the sixth field directly, 
+	 * without splitting the whole payload.
+	 * @param encodedRequest
+	 * @return
+	 * @throws IncompatibleRemoteServiceException
+	 */
+	protected String getServiceInterfaceName(String encodedRequest) throws IncompatibleRemoteServiceException
+	{
+		int start = 0;
+		for (int i = 0; i < SERVICE_INTERFACE_FIELD; i++)
+		{
+			start = encodedRequest.indexOf('|', start) + 1;
+			if (start == 0)
+			{
+				throw new IncompatibleRemoteServiceException("Invalid RPC payload. Can not read the service interface name.");
+			}
+		}
+		int end = encodedRequest.indexOf('|', start);
+		if (end < 0)
+		{
+			throw new IncompatibleRemoteServiceException("Invalid RPC payload. Can not read the service interface name.");
+		}
+		return encodedRequest.substring(start, end);
+	}
+
+	private ServiceMetadata getServiceMetadata(String serviceIntfName, Class<?> serviceClass)
+	{
+		ServiceMetadata metadata = serviceMetadata.get(serviceIntfName);
+		// The service class can change when classes are reloaded during development
+		if (metadata == null || metadata.serviceClass != serviceClass)
+		{
+			metadata = new ServiceMetadata(serviceClass);
+			serviceMetadata.put(serviceIntfName, metadata);
+		}
+		return metadata;
+	}
+
+	/**
+	 * Information about a service class, resolved on the first call to the service.
+	 */
+	private static class ServiceMetadata
+	{
+		private static final String NO_SYNC_TOKEN = "";
+		
+		private final Class<?> serviceClass;
+		private final boolean requestAware;
+		private final boolean responseAware;
+		private final boolean sessionAware;
+		private final boolean shared;
+		private final ConcurrentMap<Method, String> syncTokenMethods = new ConcurrentHashMap<Method, String>();
+
+		private ServiceMetadata(Class<?> serviceClass)
+		{
+			this.serviceClass = serviceClass;
+			this.requestAware = RequestAware.class.isAssignableFrom(serviceClass);
+			this.responseAware = ResponseAware.class.isAssignableFrom(serviceClass);
+			this.sessionAware = SessionAware.class.isAssignableFrom(serviceClass);
+			this.shared = ServiceInstanceProvider.getScope(serviceClass) == Scope.SINGLETON;
+		}
+
+		/**
+		 * Retrieve the signature used to control the synchronizer token of the given method
+		 * @param method
+		 * @return the method signature or null if the method does not use synchronizer tokens
+		 */
+		private String getSynchronizerTokenMethod(Method method)
+		{
+			String methodFullSignature = syncTokenMethods.get(method);
+			if (methodFullSignature == null)
+			{
+				methodFullSignature = (method.getAnnotation(UseSynchronizerToken.class) != null)?ClassUtils.getMethodDescription(method):NO_SYNC_TOKEN;
+				syncTokenMethods.putIfAbsent(method, methodFullSignature);
+			}
+			return (methodFullSignature == NO_SYNC_TOKEN)?null:methodFullSignature;
+		}
+	}
 }
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.dispatch;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+/**
+ * Proxies injected into singleton services (see {@link org.cruxframework.crux.core.server.ServiceScope}) that
+ * implement {@link RequestAware}, {@link ResponseAware} or {@link SessionAware}. Each proxy delegates
+ * its calls to the request being processed by the current thread.
+ */
+public class RequestScopedProxies
+{
+	private static final ThreadLocal<HttpServletRequest> currentRequest = new ThreadLocal<HttpServletRequest>();
+	private static final ThreadLocal<HttpServletResponse> currentResponse = new ThreadLocal<HttpServletResponse>();
+
+	private static final HttpServletRequest requestProxy = createProxy(HttpServletRequest.class, new ThreadBoundHandler()
+	{
+		@Override
+		protected Object getTarget()
+		{
+			return getCurrent(currentRequest);
+		}
+	});
+
+	private static final HttpServletResponse responseProxy = createProxy(HttpServletResponse.class, new ThreadBoundHandler()
+	{
+		@Override
+		protected Object getTarget()
+		{
+			return getCurrent(currentResponse);
+		}
+	});
+
+	private static final HttpSession sessionProxy = createProxy(HttpSession.class, new ThreadBoundHandler()
+	{
+		@Override
+		protected Object getTarget()
+		{
+			return getCurrent(currentRequest).getSession();
+		}
+	});
+
+	/**
+	 * Bind the given request to the current thread
+	 * @param request
+	 * @param response
+	 */
+	public static void bind(HttpServletRequest request, HttpServletResponse response)
+	{
+		currentRequest.set(request);
+		currentResponse.set(response);
+	}
+
+	/**
+	 * Remove the request bound to the current thread
+	 */
+	public static void unbind()
+	{
+		currentRequest.remove();
+		currentResponse.remove();
+	}
+
+	public static HttpServletRequest getRequestProxy()
+	{
+		return requestProxy;
+	}
+
+	public static HttpServletResponse getResponseProxy()
+	{
+		return responseProxy;
+	}
+
+	public static HttpSession getSessionProxy()
+	{
+		return sessionProxy;
+	}
+
+	private static <T> T getCurrent(ThreadLocal<T> threadLocal)
+	{
+		T current = threadLocal.get();
+		if (current == null)
+		{
+			throw new IllegalStateException("There is no request bound to the current thread.");
+		}
+		return current;
+	}
+
+	/**
+	 * Delegates the proxy calls to the object bound to the current thread. Methods declared by Object
+	 * are handled by the proxy itself, so they can be called outside of a request.
+	 */
+	private static abstract class ThreadBoundHandler implements InvocationHandler
+	{
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+		{
+			if (method.getDeclaringClass() == Object.class)
+			{
+				if (method.getName().equals("equals"))
+				{
+					return proxy == args[0];
+				}
+				if (method.getName().equals("hashCode"))
+				{
+					return System.identityHashCode(proxy);
+				}
+				return "Request scoped proxy for " + proxy.getClass().getInterfaces()[0].getName();
+			}
+			try
+			{
+				return method.invoke(getTarget(), args);
+			}
+			catch (InvocationTargetException e)
+			{
+				throw e.getTargetException();
+			}
+		}
+
+		protected abstract Object getTarget();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T createProxy(Class<T> type, InvocationHandler handler)
+	{
+		return (T) Proxy.newProxyInstance(RequestScopedProxies.class.getClassLoader(), new Class<?>[]{type}, handler);
+	}
+}
@@ -21,6 +21,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.cruxframework.crux.core.config.ConfigurationFactory;
 import org.cruxframework.crux.core.server.Environment;
+import org.cruxframework.crux.core.server.ServiceInstanceProvider;
 
 
 /**
@@ -102,7 +103,7 @@ public class ServiceFactoryImpl implements ServiceFactory
 		{
 			try 
 			{
-				return ServicesCompileMap.getService(serviceName).newInstance();
+				return ServiceInstanceProvider.getInstance(ServicesCompileMap.getService(serviceName));
 			} 
 			catch (Exception e) 
 			{
@@ -149,7 +150,7 @@ public class ServiceFactoryImpl implements ServiceFactory
 		{
 			try 
 			{
-				return Services.getService(serviceName).newInstance();
+				return ServiceInstanceProvider.getInstance(Services.getService(serviceName));
 			} 
 			catch (Exception e) 
 			{
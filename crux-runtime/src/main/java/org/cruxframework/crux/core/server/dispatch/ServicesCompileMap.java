@@ -33,7 +33,7 @@ import org.apache.commons.logging.LogFactory;
 public class ServicesCompileMap
 {
 	private static final Log logger = LogFactory.getLog(ServicesCompileMap.class);
-	private static Map<String, String> remoteServices = new HashMap<String, String>();
+	private static Map<String, Class<?>> remoteServices = new HashMap<String, Class<?>>();
 	
 	/**
 	 * @param serviceName
@@ -41,21 +41,12 @@ public class ServicesCompileMap
 	 */
 	public static Class<?> getService(String serviceName)
 	{
-		try 
+		Class<?> serviceClass =  remoteServices.get(serviceName);
+		if (serviceClass == null)
 		{
-			String implementationClassName =  remoteServices.get(serviceName);
-			if (implementationClassName != null)
-			{
-				Class<?> serviceClass = Class.forName(implementationClassName);
-				return serviceClass;
-			}
 			logger.error("No implementation class found to service interface: ["+serviceName+"].");
-		} 
-		catch (ClassNotFoundException e) 
-		{
-			logger.error("Error creating service ["+serviceName+"].",e);
 		}
-		return null;	
+		return serviceClass;	
 	}
 
 	/**
@@ -78,7 +69,16 @@ public class ServicesCompileMap
 			while (serviceNames.hasMoreElements())
 			{
 				String serviceName = (String) serviceNames.nextElement();
-				remoteServices.put(serviceName, properties.getProperty(serviceName));
+				String implementationClassName = properties.getProperty(serviceName);
+				try
+				{
+					// Classes are resolved only once, during initialization
+					remoteServices.put(serviceName, Class.forName(implementationClassName));
+				}
+				catch (ClassNotFoundException e)
+				{
+					logger.error("Error loading class ["+implementationClassName+"] for service ["+serviceName+"].", e);
+				}
 			}
 			return true;
 		}
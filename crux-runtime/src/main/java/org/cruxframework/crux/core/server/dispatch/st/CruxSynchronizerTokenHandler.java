@@ -31,6 +31,12 @@ public interface CruxSynchronizerTokenHandler extends SessionAware, RequestAware
 {
 	void startMethod(String methodFullSignature) throws InvalidTokenException;
 	void endMethod(String methodFullSignature);
+	/**
+	 * Finish the method processing and create the token expected by the next call to the same method.
+	 * @param methodFullSignature
+	 * @return the new token or null if it could not be created
+	 */
+	String endMethodAndRenewToken(String methodFullSignature);
 	boolean isMethodRunning(String methodFullSignature);
 	void setSession(HttpSession session);
 	String getMethodDescription(Method method);
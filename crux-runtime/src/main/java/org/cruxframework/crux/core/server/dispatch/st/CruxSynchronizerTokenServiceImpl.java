@@ -16,12 +16,11 @@
 package org.cruxframework.crux.core.server.dispatch.st;
 
 import java.lang.reflect.Method;
+import java.security.SecureRandom;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Random;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
@@ -40,11 +39,21 @@ public class CruxSynchronizerTokenServiceImpl implements CruxSynchronizerTokenSe
 	private static final String EXPECTED_TOKENS_ATT = "__CRUX_SYNC_TOKEN_";
 	private static final String PROCESSING_TOKENS_ATT = "__CRUX_SYNC_TOKEN_IN_USE_";
 
-	private static ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
-	private static Lock readLock = readWriteLock.readLock();
-	private static Lock writeLock = readWriteLock.writeLock();
+	private static final int SESSION_STRIPES = 64;
+
+	private static final SessionStripe[] sessionStripes = new SessionStripe[SESSION_STRIPES];
+	static
+	{
+		for (int i = 0; i < SESSION_STRIPES; i++)
+		{
+			sessionStripes[i] = new SessionStripe();
+		}
+	}
 	private HttpServletRequest request;
 	private HttpSession session;
+	private SessionStripe stripe;
+	private boolean expectedTokensChanged;
+	private boolean processingTokensChanged;
 
 	/**
 	 * @see org.cruxframework.crux.core.server.dispatch.RequestAware#setRequest(javax.servlet.http.HttpServletRequest)
@@ -60,6 +69,7 @@ public class CruxSynchronizerTokenServiceImpl implements CruxSynchronizerTokenSe
 	public void setSession(HttpSession session)
 	{
 		this.session = session;
+		this.stripe = null;
 	}		
 	
 	/**
@@ -67,7 +77,8 @@ public class CruxSynchronizerTokenServiceImpl implements CruxSynchronizerTokenSe
 	 */
 	public String getSynchronizerToken(String methodFullSignature)
 	{
-		writeLock.lock();
+		Lock lock = getSessionLock();
+		lock.lock();
 		try
 		{
 			if (createToken(methodFullSignature))
@@ -77,7 +88,14 @@ public class CruxSynchronizerTokenServiceImpl implements CruxSynchronizerTokenSe
 		}
 		finally
 		{
-			writeLock.unlock();
+			try
+			{
+				replicateChanges();
+			}
+			finally
+			{
+				lock.unlock();
+			}
 		}
 		
 		return null;
@@ -88,14 +106,15 @@ public class CruxSynchronizerTokenServiceImpl implements CruxSynchronizerTokenSe
 	 */
 	public boolean isMethodRunning(String methodFullSignature)
 	{
-		readLock.lock();
+		Lock lock = getSessionLock();
+		lock.lock();
 		try
 		{
 			return getProcessingTokens().containsKey(methodFullSignature);
 		}
 		finally
 		{
-			readLock.unlock();
+			lock.unlock();
 		}
 	}
 
@@ -104,7 +123,8 @@ public class CruxSynchronizerTokenServiceImpl implements CruxSynchronizerTokenSe
 	 */
 	public void startMethod(String methodFullSignature) throws InvalidTokenException
 	{
-		writeLock.lock();
+		Lock lock = getSessionLock();
+		lock.lock();
 		try
 		{
 			String expectedToken = getExpectedToken(methodFullSignature);
@@ -121,33 +141,34 @@ public class CruxSynchronizerTokenServiceImpl implements CruxSynchronizerTokenSe
 		}
 		finally
 		{
-			writeLock.unlock();
+			// Session replication is postponed to the end of the method (see endMethod)
+			lock.unlock();
 		}
 	}
 
 	private void registerProcessingToken(String methodFullSignature) 
 	{
 		getProcessingTokens().put(methodFullSignature, true);
-		forceProcessingTokensReplication();
+		processingTokensChanged = true;
 	}
 	
 	private void unregisterProcessingToken(String methodFullSignature) 
 	{
 		getProcessingTokens().remove(methodFullSignature);
-		forceProcessingTokensReplication();
+		processingTokensChanged = true;
 	}
 
 	private void unregisterExpectedToken(String methodFullSignature) 
 	{
 		getExpectedTokens().remove(methodFullSignature);
-		forceExpectedTokensReplication();
+		expectedTokensChanged = true;
 	}
 	
 
 	private void registerExpectedToken(String methodFullSignature, String token) 
 	{
 		getExpectedTokens().put(methodFullSignature, token);
-		forceExpectedTokensReplication();
+		expectedTokensChanged = true;
 	}
 	
 	private String getExpectedToken(String methodSignature)
@@ -160,14 +181,45 @@ public class CruxSynchronizerTokenServiceImpl implements CruxSynchronizerTokenSe
 	 */
 	public void endMethod(String methodFullSignature)
 	{
-		writeLock.lock();
+		Lock lock = getSessionLock();
+		lock.lock();
+		try
+		{
+			unregisterProcessingToken(methodFullSignature);
+			replicateChanges();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * @see org.cruxframework.crux.core.server.dispatch.st.CruxSynchronizerTokenHandler#endMethodAndRenewToken(java.lang.String)
+	 */
+	public String endMethodAndRenewToken(String methodFullSignature)
+	{
+		Lock lock = getSessionLock();
+		lock.lock();
 		try
 		{
 			unregisterProcessingToken(methodFullSignature);
+			if (createToken(methodFullSignature))
+			{
+				return getExpectedToken(methodFullSignature);
+			}
+			return null;
 		}
 		finally
 		{
-			writeLock.unlock();
+			try
+			{
+				replicateChanges();
+			}
+			finally
+			{
+				lock.unlock();
+			}
 		}
 	}
 	
@@ -187,7 +239,7 @@ public class CruxSynchronizerTokenServiceImpl implements CruxSynchronizerTokenSe
 	 */
 	private boolean createToken(String methodFullSignature)
 	{
-		if (!isMethodRunning(methodFullSignature))
+		if (!getProcessingTokens().containsKey(methodFullSignature))
 		{
 			String token = generateRandomToken();
 			registerExpectedToken(methodFullSignature, token);
@@ -204,10 +256,44 @@ public class CruxSynchronizerTokenServiceImpl implements CruxSynchronizerTokenSe
 	private String generateRandomToken()
 	{
 		byte[] token = new byte[32];
-		new Random().nextBytes(token);
+		stripe.getRandom().nextBytes(token);
 		return Base64Utils.toBase64(token);
 	}
 	
+	/**
+	 * Retrieve the lock that guards the tokens of the current session. Sessions are spread over a fixed 
+	 * set of locks, so requests from different users rarely contend with each other.
+	 * @return
+	 */
+	private Lock getSessionLock()
+	{
+		if (stripe == null)
+		{
+			int hash = session.getId().hashCode();
+			hash ^= (hash >>> 16);
+			stripe = sessionStripes[hash & (SESSION_STRIPES - 1)];
+		}
+		return stripe.lock;
+	}
+	
+	/**
+	 * Replicate the token maps changed by the current request. Each map is replicated only once, 
+	 * no matter how many changes were made on it.
+	 */
+	private void replicateChanges()
+	{
+		if (expectedTokensChanged)
+		{
+			expectedTokensChanged = false;
+			forceExpectedTokensReplication();
+		}
+		if (processingTokensChanged)
+		{
+			processingTokensChanged = false;
+			forceProcessingTokensReplication();
+		}
+	}
+	
 	/**
 	 * This is only necessary because Google AppEngine does not replicates sessions the same way other containers do.
 	 * The replication only occurs when you call the <code>setAttribute</code> method on the <code>session</code> object, 
@@ -265,4 +351,23 @@ public class CruxSynchronizerTokenServiceImpl implements CruxSynchronizerTokenSe
 		}
 		return inUsetokens;
 	}
+	
+	/**
+	 * Lock shared by a group of sessions. It also holds the random generator used to create the 
+	 * tokens for those sessions, which is only accessed by the lock owner.
+	 */
+	private static class SessionStripe
+	{
+		private final Lock lock = new ReentrantLock();
+		private SecureRandom random;
+		
+		private SecureRandom getRandom()
+		{
+			if (random == null)
+			{
+				random = new SecureRandom();
+			}
+			return random;
+		}
+	}
 }
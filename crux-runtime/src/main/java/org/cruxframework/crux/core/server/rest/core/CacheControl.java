@@ -66,6 +66,7 @@ public class CacheControl {
     private boolean proxyRevalidate;
     private int maxAge = -1;
     private int sMaxAge = -1;
+    private int staleWhileRevalidate = -1;
     private Map<String, String> cacheExtension;
     private boolean publicFlag = false;
 
@@ -190,6 +191,27 @@ public class CacheControl {
         this.sMaxAge = sMaxAge;
     }
 
+    /**
+     * Corresponds to the stale-while-revalidate cache control directive.
+     *
+     * @return the value of the stale-while-revalidate cache control directive, -1 if the directive is disabled.
+     * @see <a href="http://tools.ietf.org/html/rfc5861#section-3">RFC 5861 section 3</a>
+     */
+    public int getStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+
+    /**
+     * Corresponds to the stale-while-revalidate cache control directive.
+     *
+     * @param staleWhileRevalidate the value of the stale-while-revalidate cache control directive, a value of -1 
+     * will disable the directive.
+     * @see <a href="http://tools.ietf.org/html/rfc5861#section-3">RFC 5861 section 3</a>
+     */
+    public void setStaleWhileRevalidate(final int staleWhileRevalidate) {
+        this.staleWhileRevalidate = staleWhileRevalidate;
+    }
+
     public boolean isPublic() {
     	return publicFlag;
     }
@@ -368,6 +390,7 @@ public class CacheControl {
         hash = 41 * hash + (this.proxyRevalidate ? 1 : 0);
         hash = 41 * hash + this.maxAge;
         hash = 41 * hash + this.sMaxAge;
+        hash = 41 * hash + this.staleWhileRevalidate;
         hash = 41 * hash + (this.cacheExtension != null ? this.cacheExtension.hashCode() : 0);
         hash = 31 * hash + (this.publicFlag ? 1231 : 1237);
         return hash;
@@ -421,6 +444,9 @@ public class CacheControl {
         if (this.sMaxAge != other.sMaxAge) {
             return false;
         }
+        if (this.staleWhileRevalidate != other.staleWhileRevalidate) {
+            return false;
+        }
         if (this.cacheExtension != other.cacheExtension
                 && (this.cacheExtension == null || !this.cacheExtension.equals(other.cacheExtension))) {
             return false;
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.rest.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A result that a rest method will produce later, from any thread. Rest methods can declare it as return type 
+ * (DeferredResult&lt;MyType&gt;) to release the request thread while waiting for slow resources. 
+ * 
+ * Those methods are only accepted when the Crux property enableRestAsyncMode is true, and the rest servlet must 
+ * be declared with async-supported on web.xml. The request thread returns to the container and the response is 
+ * written by the thread that completes this result. Those methods can not declare a cacheTime, nor provide the 
+ * resource of a stateValidationModel, as the resource state would have to be refreshed on the request thread.
+ * 
+ * Pooled services (see {@link org.cruxframework.crux.core.server.ServiceScope}) only return to their pool when 
+ * the result is completed (or times out), so the code that completes the result can use the service instance. 
+ *
+ * @param <T> the type of the value produced by the rest method
+ */
+public class DeferredResult<T>
+{
+	private final long timeout;
+	private final CountDownLatch done = new CountDownLatch(1);
+	private T result;
+	private Throwable error;
+	private boolean completed;
+	private List<CompletionListener> listeners;
+
+	/**
+	 * Create a result that uses the default timeout (Crux property restAsyncTimeout).
+	 */
+	public DeferredResult()
+	{
+		this(-1);
+	}
+	
+	/**
+	 * Create a result with a custom timeout.
+	 * @param timeout time to wait for this result, in milliseconds. Use a negative value to use the default timeout.
+	 */
+	public DeferredResult(long timeout)
+	{
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Complete this result with the value produced by the rest method
+	 * @param result
+	 * @return false if this result was already completed (or timed out)
+	 */
+	public boolean setResult(T result)
+	{
+		return complete(result, null);
+	}
+
+	/**
+	 * Complete this result with an error. Checked exceptions declared by the rest method are sent to the client as 
+	 * they would be if thrown by the method itself.
+	 * @param error
+	 * @return false if this result was already completed (or timed out)
+	 */
+	public boolean setError(Throwable error)
+	{
+		if (error == null)
+		{
+			throw new IllegalArgumentException("error can not be null.");
+		}
+		return complete(null, error);
+	}
+
+	/**
+	 * @return true if this result was already completed
+	 */
+	public synchronized boolean isDone()
+	{
+		return completed;
+	}
+
+	/**
+	 * @return the timeout defined for this result, or a negative number if the default timeout must be used
+	 */
+	public long getTimeout()
+	{
+		return timeout;
+	}
+
+	/**
+	 * Used by the framework to be notified when this result is completed. Listeners are called in the order they 
+	 * were added. If the result is already completed, the listener is called immediately, by the current thread.
+	 * @param listener
+	 */
+	public void addCompletionListener(CompletionListener listener)
+	{
+		boolean notify;
+		synchronized (this)
+		{
+			notify = completed;
+			if (!notify)
+			{
+				if (listeners == null)
+				{
+					listeners = new ArrayList<CompletionListener>(2);
+				}
+				listeners.add(listener);
+			}
+		}
+		if (notify)
+		{
+			listener.onComplete(this);
+		}
+	}
+
+	/**
+	 * Block the current thread until this result is completed.
+	 * @param timeout maximum time to wait, in milliseconds
+	 * @return false if the timeout expired
+	 * @throws InterruptedException
+	 */
+	public boolean await(long timeout) throws InterruptedException
+	{
+		return done.await(timeout, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return the value informed through {@link #setResult(Object)}
+	 */
+	public synchronized T getResult()
+	{
+		return result;
+	}
+
+	/**
+	 * @return the error informed through {@link #setError(Throwable)}
+	 */
+	public synchronized Throwable getError()
+	{
+		return error;
+	}
+
+	private boolean complete(T result, Throwable error)
+	{
+		List<CompletionListener> toNotify;
+		synchronized (this)
+		{
+			if (completed)
+			{
+				return false;
+			}
+			this.result = result;
+			this.error = error;
+			this.completed = true;
+			toNotify = listeners;
+			listeners = null;
+		}
+		done.countDown();
+		if (toNotify != null)
+		{
+			for (CompletionListener listener : toNotify)
+			{
+				listener.onComplete(this);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Notified when a deferred result is completed
+	 */
+	public static interface CompletionListener
+	{
+		void onComplete(DeferredResult<?> result);
+	}
+}
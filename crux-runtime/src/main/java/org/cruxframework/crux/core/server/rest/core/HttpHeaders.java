@@ -22,7 +22,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
-import org.cruxframework.crux.core.server.rest.util.DateUtil;
+import org.cruxframework.crux.core.server.rest.util.HttpDateCodec;
 import org.cruxframework.crux.core.server.rest.util.HttpHeaderNames;
 import org.cruxframework.crux.core.server.rest.util.LocaleHelper;
 import org.cruxframework.crux.core.server.rest.util.MediaTypeHelper;
@@ -59,6 +59,15 @@ public class HttpHeaders
 			MediaTypeHelper.sortByWeight(acceptableMediaTypes);
 	}
 
+	/**
+	 * Set the acceptable media types without sorting them. The list must be already sorted by weight.
+	 * @param acceptableMediaTypes
+	 */
+	protected void setSortedAcceptableMediaTypes(List<MediaType> acceptableMediaTypes)
+	{
+		this.acceptableMediaTypes = acceptableMediaTypes;
+	}
+
 	public MediaType getMediaType()
 	{
 		return mediaType;
@@ -131,15 +140,15 @@ public class HttpHeaders
 
 	public Date getDate()
 	{
-		String date = requestHeaders.getFirst(HttpHeaderNames.DATE);
+		String date = getHeaderString(HttpHeaderNames.DATE);
 		if (date == null)
 			return null;
-		return DateUtil.parseDate(date);
+		return new Date(HttpDateCodec.parse(date));
 	}
 
 	public int getLength()
 	{
-		String cl = requestHeaders.getFirst(HttpHeaderNames.CONTENT_LENGTH);
+		String cl = getHeaderString(HttpHeaderNames.CONTENT_LENGTH);
 		if (cl == null)
 			return -1;
 		return Integer.parseInt(cl);
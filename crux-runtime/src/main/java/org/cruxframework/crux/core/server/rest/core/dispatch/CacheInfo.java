@@ -17,6 +17,7 @@ package org.cruxframework.crux.core.server.rest.core.dispatch;
 
 import org.cruxframework.crux.core.shared.rest.annotation.GET;
 import org.cruxframework.crux.core.shared.rest.annotation.GET.CacheControl;
+import org.cruxframework.crux.core.shared.rest.annotation.GET.RefreshCoalescing;
 
 /**
  * @author Thiago da Rosa de Bustamante
@@ -29,6 +30,8 @@ public class CacheInfo
 	private boolean mustRevalidate;
 	private boolean proxyRevalidate;
 	private CacheControl cacheControl;
+	private RefreshCoalescing refreshCoalescing = RefreshCoalescing.NONE;
+	private int staleWhileRevalidate;
 
 	private CacheInfo(){}
 	
@@ -99,6 +102,31 @@ public class CacheInfo
     	this.proxyRevalidate = proxyRevalidate;
     }
 
+	public RefreshCoalescing getRefreshCoalescing()
+    {
+    	return refreshCoalescing;
+    }
+
+	public void setRefreshCoalescing(RefreshCoalescing refreshCoalescing)
+    {
+    	this.refreshCoalescing = refreshCoalescing;
+    }
+
+	public int getStaleWhileRevalidate()
+    {
+    	return staleWhileRevalidate;
+    }
+
+	public void setStaleWhileRevalidate(int staleWhileRevalidate)
+    {
+    	this.staleWhileRevalidate = staleWhileRevalidate;
+    }
+
+	public boolean isStaleWhileRevalidateEnabled()
+	{
+		return isCacheEnabled() && staleWhileRevalidate > 0;
+	}
+
 	public static CacheInfo parseCacheInfo(GET get)
     {
 		CacheInfo cacheInfo = new CacheInfo();
@@ -107,6 +135,8 @@ public class CacheInfo
 		cacheInfo.setNoTransform(get.noTransform());
 		cacheInfo.setMustRevalidate(get.mustRevalidate());
 		cacheInfo.setProxyRevalidate(get.proxyRevalidate());
+		cacheInfo.setRefreshCoalescing(get.refreshCoalescing());
+		cacheInfo.setStaleWhileRevalidate(get.staleWhileRevalidate());
 	    return cacheInfo;
     }
 }
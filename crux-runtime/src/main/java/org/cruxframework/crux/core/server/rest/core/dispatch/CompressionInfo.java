@@ -0,0 +1,135 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.rest.core.dispatch;
+
+import java.util.zip.Deflater;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cruxframework.crux.core.config.ConfigurationFactory;
+import org.cruxframework.crux.core.shared.rest.annotation.GET;
+import org.cruxframework.crux.core.shared.rest.annotation.GET.Compression;
+
+/**
+ * Describes how the responses of a rest method must be compressed.
+ */
+public class CompressionInfo
+{
+	private static final Log logger = LogFactory.getLog(CompressionInfo.class);
+	private static final int DEFAULT_THRESHOLD = 128;
+
+	private Compression compression;
+	private int level;
+	private int threshold;
+
+	private CompressionInfo(){}
+
+	public Compression getCompression()
+	{
+		return compression;
+	}
+
+	/**
+	 * The Deflater compression level
+	 * @return
+	 */
+	public int getLevel()
+	{
+		return level;
+	}
+
+	/**
+	 * Minimum size (in bytes) of the responses that are compressed
+	 * @return
+	 */
+	public int getThreshold()
+	{
+		return threshold;
+	}
+
+	public boolean isCompressionEnabled()
+	{
+		return compression != Compression.NONE;
+	}
+
+	/**
+	 * Check if a response with the given size should be compressed
+	 * @param length response size, in bytes
+	 * @return
+	 */
+	public boolean shouldCompress(int length)
+	{
+		return compression != Compression.NONE && length > threshold;
+	}
+
+	/**
+	 * Create the compression info for a method annotated with {@link GET}.
+	 * @param get
+	 * @return
+	 */
+	public static CompressionInfo parseCompressionInfo(GET get)
+	{
+		CompressionInfo compressionInfo = new CompressionInfo();
+		compressionInfo.compression = get.compression();
+		compressionInfo.level = (get.compressionLevel() == GET.DEFAULT_COMPRESSION_LEVEL) ? getDefaultLevel() : get.compressionLevel();
+		compressionInfo.threshold = (get.compressionThreshold() == GET.DEFAULT_COMPRESSION_THRESHOLD) ? getDefaultThreshold() : get.compressionThreshold();
+		return compressionInfo;
+	}
+
+	/**
+	 * Create the compression info for methods that do not customize their compression (non GET methods).
+	 * @return
+	 */
+	public static CompressionInfo getDefaultCompressionInfo()
+	{
+		CompressionInfo compressionInfo = new CompressionInfo();
+		compressionInfo.compression = Compression.AUTO;
+		compressionInfo.level = getDefaultLevel();
+		compressionInfo.threshold = getDefaultThreshold();
+		return compressionInfo;
+	}
+
+	private static int getDefaultLevel()
+	{
+		try
+		{
+			int level = Integer.parseInt(ConfigurationFactory.getConfigurations().restCompressionLevel());
+			if (level == Deflater.DEFAULT_COMPRESSION || (level >= Deflater.NO_COMPRESSION && level <= Deflater.BEST_COMPRESSION))
+			{
+				return level;
+			}
+			logger.error("Invalid value for restCompressionLevel property: " + level + ". Using default level.");
+		}
+		catch (Exception e)
+		{
+			logger.error("Invalid value for restCompressionLevel property. Using default level.", e);
+		}
+		return Deflater.DEFAULT_COMPRESSION;
+	}
+
+	private static int getDefaultThreshold()
+	{
+		try
+		{
+			return Integer.parseInt(ConfigurationFactory.getConfigurations().restCompressionThreshold());
+		}
+		catch (Exception e)
+		{
+			logger.error("Invalid value for restCompressionThreshold property. Using default threshold.", e);
+		}
+		return DEFAULT_THRESHOLD;
+	}
+}
@@ -36,7 +36,7 @@ public class HeaderParamInjector extends StringParameterInjector implements Valu
 
 	public Object inject(HttpRequest request)
 	{
-		List<String> list = request.getHttpHeaders().getRequestHeaders().get(paramName);
+		List<String> list = request.getHttpHeaders().getRequestHeader(paramName);
 		if (list != null && list.size() > 0)
 		{
 			return extractValue(Encode.decode(list.get(list.size() - 1)));
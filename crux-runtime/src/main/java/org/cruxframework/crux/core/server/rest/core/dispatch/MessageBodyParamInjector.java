@@ -15,51 +15,101 @@
  */
 package org.cruxframework.crux.core.server.rest.core.dispatch;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
 import org.codehaus.jackson.map.ObjectReader;
+import org.cruxframework.crux.core.config.ConfigurationFactory;
 import org.cruxframework.crux.core.server.rest.core.MediaType;
 import org.cruxframework.crux.core.server.rest.spi.BadRequestException;
 import org.cruxframework.crux.core.server.rest.spi.HttpRequest;
+import org.cruxframework.crux.core.server.rest.spi.RequestEntityTooLargeException;
 import org.cruxframework.crux.core.server.rest.spi.UnsupportedMediaTypeException;
 import org.cruxframework.crux.core.server.rest.util.JsonUtil;
 import org.cruxframework.crux.core.utils.ClassUtils;
 import org.cruxframework.crux.core.utils.StreamUtils;
 
 /**
- * 
+ * Injects the request body into a rest method parameter.
+ *
+ * JSON bodies are deserialized directly from the request stream, without reading the whole body
+ * into memory first. Parameters declared as {@link Iterator} receive the elements of a JSON array
+ * body as they are parsed, so the service can process huge collections without loading them at once.
+ *
+ * The maximum body size accepted can be configured through the Crux property restRequestBodyMaxSize.
+ *
  * @author Thiago da Rosa de Bustamante
- * 
+ *
  */
 public class MessageBodyParamInjector extends StringParameterInjector implements ValueInjector
 {
+	private static final Log logger = LogFactory.getLog(MessageBodyParamInjector.class);
 	private static final Lock lock = new ReentrantLock();
+	private static long maxBodySize = -2;
 	private ObjectReader reader;
 	private Type type;
+	private Type elementType;
+	private boolean jsonBody;
 
 	public MessageBodyParamInjector(Class<?> declaringClass, Type type)
 	{
 		super(ClassUtils.getRawType(type), "body", null);
+		if (Iterator.class.equals(rawType))
+		{
+			if (type instanceof ParameterizedType)
+			{
+				this.elementType = ((ParameterizedType) type).getActualTypeArguments()[0];
+			}
+			else
+			{
+				this.elementType = Object.class;
+			}
+		}
 		this.type = type;
+		this.jsonBody = constructor == null && valueOf == null && !rawType.isPrimitive();
 	}
 
 	public Object inject(HttpRequest request)
 	{
-		InputStream is = request.getInputStream();
-		String body;
+		InputStream is = getBodyInputStream(request);
+		if (!jsonBody)
+		{
+			String body;
+			try
+			{
+				body = StreamUtils.readAsUTF8(is);
+			}
+			catch (IOException e)
+			{
+				throw createReadException(request, e);
+			}
+			return extractValue(body, request);
+		}
+
+		checkMediaType(request);
+		if (elementType != null)
+		{
+			return createIterator(request, is);
+		}
 		try
 		{
-			body = StreamUtils.readAsUTF8(is);
+			return getReader().readValue(is);
 		}
-		catch (IOException e)
+		catch (Exception e)
 		{
-			throw new BadRequestException("Can not read request body for path: " + request.getUri().getPath());
+			throw createReadException(request, e);
 		}
-		return extractValue(body, request);
 	}
 
 	public Object extractValue(String strVal, HttpRequest request)
@@ -67,46 +117,278 @@ public class MessageBodyParamInjector extends StringParameterInjector implements
 		Object value = extractValue(strVal);
 		if (strVal != null && value == null)
 		{
-			MediaType mediaType = request.getHttpHeaders().getMediaType();
-			if (mediaType == null)
+			checkMediaType(request);
+			try
+			{
+				if (strVal == null || strVal.length()==0)
+				{
+					strVal = defaultValue;
+				}
+				value = getReader().readValue(strVal);
+			}
+			catch (Exception e)
 			{
-				mediaType = MediaType.WILDCARD_TYPE;
+				throw new BadRequestException("Can not read request body for path: " + request.getUri().getPath(), e);
 			}
-			if (mediaType.isCompatible(MediaType.APPLICATION_JSON_TYPE))
+		}
+		return value;
+	}
+
+	private void checkMediaType(HttpRequest request)
+	{
+		MediaType mediaType = request.getHttpHeaders().getMediaType();
+		if (mediaType == null)
+		{
+			mediaType = MediaType.WILDCARD_TYPE;
+		}
+		if (!mediaType.isCompatible(MediaType.APPLICATION_JSON_TYPE))
+		{
+			throw new UnsupportedMediaTypeException("Media type not supported: " + mediaType.toString());
+		}
+	}
+
+	private ObjectReader getReader()
+	{
+		if (this.reader == null)
+		{
+			lock.lock();
+			try
 			{
 				if (this.reader == null)
 				{
-					lock.lock();
+					this.reader = JsonUtil.createReader(elementType != null ? elementType : type);
+				}
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+		return reader;
+	}
+
+	private Iterator<Object> createIterator(HttpRequest request, InputStream is)
+	{
+		try
+		{
+			JsonParser parser = JsonUtil.createParser(elementType, is);
+			JsonToken token = parser.nextToken();
+			if (token != null && token != JsonToken.START_ARRAY)
+			{
+				parser.close();
+				throw new BadRequestException("Can not read request body for path: " + request.getUri().getPath() +
+											". Expected a JSON array.");
+			}
+			return new JsonArrayIterator(request, parser, token == null);
+		}
+		catch (IOException e)
+		{
+			throw createReadException(request, e);
+		}
+	}
+
+	private InputStream getBodyInputStream(HttpRequest request)
+	{
+		long maxSize = getMaxBodySize();
+		if (maxSize < 0)
+		{
+			return request.getInputStream();
+		}
+		try
+		{
+			if (request.getHttpHeaders().getLength() > maxSize)
+			{
+				throw createTooLargeException(request);
+			}
+		}
+		catch (NumberFormatException e)
+		{
+			// Invalid Content-Length. The limit is checked while the body is read
+		}
+		return new LimitedInputStream(request.getInputStream(), maxSize);
+	}
+
+	private RuntimeException createReadException(HttpRequest request, Exception e)
+	{
+		Throwable cause = e;
+		while (cause != null)
+		{
+			if (cause instanceof BodyTooLargeException)
+			{
+				return createTooLargeException(request);
+			}
+			cause = cause.getCause();
+		}
+		return new BadRequestException("Can not read request body for path: " + request.getUri().getPath(), e);
+	}
+
+	private RequestEntityTooLargeException createTooLargeException(HttpRequest request)
+	{
+		return new RequestEntityTooLargeException("Request body exceeds the maximum size allowed (" + getMaxBodySize() +
+												" bytes) for path: " + request.getUri().getPath(), "Request body is too large.");
+	}
+
+	private static long getMaxBodySize()
+	{
+		if (maxBodySize < -1)
+		{
+			lock.lock();
+			try
+			{
+				if (maxBodySize < -1)
+				{
+					maxBodySize = Long.parseLong(ConfigurationFactory.getConfigurations().restRequestBodyMaxSize());
+				}
+			}
+			catch (Exception e)
+			{
+				logger.error("Invalid value for restRequestBodyMaxSize property. Request body size will not be limited.", e);
+				maxBodySize = -1;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+		return maxBodySize;
+	}
+
+	/**
+	 * Reads the elements of a JSON array on demand.
+	 */
+	private class JsonArrayIterator implements Iterator<Object>
+	{
+		private final HttpRequest request;
+		private final JsonParser parser;
+		private boolean finished;
+		private boolean hasNext;
+		private boolean nextChecked;
+
+		private JsonArrayIterator(HttpRequest request, JsonParser parser, boolean emptyBody)
+		{
+			this.request = request;
+			this.parser = parser;
+			this.finished = emptyBody;
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			if (!nextChecked)
+			{
+				nextChecked = true;
+				hasNext = false;
+				if (!finished)
+				{
 					try
 					{
-						if (this.reader == null)
+						JsonToken token = parser.nextToken();
+						hasNext = token != null && token != JsonToken.END_ARRAY;
+						if (!hasNext)
 						{
-							this.reader = JsonUtil.createReader(type);
+							finished = true;
+							parser.close();
 						}
 					}
-					finally
+					catch (IOException e)
 					{
-						lock.unlock();
+						finished = true;
+						throw createReadException(request, e);
 					}
 				}
-				try
-                {
-					if (strVal == null || strVal.length()==0)
-					{
-						strVal = defaultValue;
-					}
-	                value = this.reader.readValue(strVal);
-                }
-                catch (Exception e)
-                {
-        			throw new BadRequestException("Can not read request body for path: " + request.getUri().getPath(), e);
-                }
 			}
-			else
+			return hasNext;
+		}
+
+		@Override
+		public Object next()
+		{
+			if (!hasNext())
+			{
+				throw new NoSuchElementException();
+			}
+			nextChecked = false;
+			try
 			{
-				throw new UnsupportedMediaTypeException("Media type not supported: " + mediaType.toString());
+				return getReader().readValue(parser);
+			}
+			catch (IOException e)
+			{
+				finished = true;
+				throw createReadException(request, e);
 			}
 		}
-		return value;
+
+		@Override
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * Signals that the request body exceeded the configured limit.
+	 */
+	private static class BodyTooLargeException extends IOException
+	{
+		private static final long serialVersionUID = 4702165405713522178L;
+	}
+
+	/**
+	 * Input stream that fails as soon as more than the allowed number of bytes are read.
+	 */
+	private static class LimitedInputStream extends FilterInputStream
+	{
+		private long remaining;
+
+		private LimitedInputStream(InputStream in, long maxSize)
+		{
+			super(in);
+			this.remaining = maxSize;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			int b = super.read();
+			if (b >= 0 && --remaining < 0)
+			{
+				throw new BodyTooLargeException();
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			int read = super.read(b, off, len);
+			if (read > 0)
+			{
+				remaining -= read;
+				if (remaining < 0)
+				{
+					throw new BodyTooLargeException();
+				}
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException
+		{
+			long skipped = super.skip(n);
+			remaining -= skipped;
+			if (remaining < 0)
+			{
+				throw new BodyTooLargeException();
+			}
+			return skipped;
+		}
+
+		@Override
+		public boolean markSupported()
+		{
+			return false;
+		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.rest.core.dispatch;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Calls a rest resource method. Implementations are created by {@link MethodCallerFactory}
+ * when the rest method is registered.
+ */
+public interface MethodCaller
+{
+	/**
+	 * Call the resource method on the given target.
+	 * @param target the resource instance
+	 * @param args method arguments. Can be null if the method does not receive any parameter
+	 * @return the value returned by the method, boxed if primitive, or null for void methods
+	 * @throws InvocationTargetException if the resource method throws an exception
+	 * @throws IllegalAccessException
+	 */
+	Object invoke(Object target, Object[] args) throws InvocationTargetException, IllegalAccessException;
+}
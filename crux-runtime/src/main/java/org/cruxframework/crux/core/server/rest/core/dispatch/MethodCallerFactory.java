@@ -0,0 +1,399 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.rest.core.dispatch;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtMethod;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+import javassist.LoaderClassPath;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Creates the {@link MethodCaller} used to call each rest resource method. When the method and all types
+ * on its signature are public, a class that calls the method directly is generated with javassist,
+ * avoiding the reflective access checks and argument validations made by {@link Method#invoke(Object, Object...)}
+ * on each request. Otherwise (non public signatures, static methods or a generation failure), the method is
+ * called through a {@link MethodHandle} adapted to the {@link MethodCaller} signature, which skips the same
+ * per call checks. Plain reflection is only used when the method handle can not be created.
+ * 
+ * All callers receive the arguments produced by the method {@link ValueInjector}s, which return objects. 
+ * So primitive parameters are still boxed by the injectors and unboxed by the caller, and the arguments 
+ * are still passed on an array.
+ * 
+ * Only exceptions thrown by the resource method are wrapped into an {@link InvocationTargetException}. 
+ * Failures to adapt the arguments (a ClassCastException or a NullPointerException on unboxing) are 
+ * thrown as they are.
+ */
+public class MethodCallerFactory
+{
+	private static final Log logger = LogFactory.getLog(MethodCallerFactory.class);
+	private static final String CALLER_CLASS_SUFFIX = "$$CruxMethodCaller";
+	private static final AtomicInteger callerCounter = new AtomicInteger();
+	// One pool for each class loader of resource classes. Pools only keep weak references to their loaders
+	private static final Map<ClassLoader, ClassPool> classPools = new WeakHashMap<ClassLoader, ClassPool>();
+
+	/**
+	 * Create a caller for the given method
+	 * @param resourceClass the rest resource class
+	 * @param method the method to be called
+	 * @return
+	 */
+	public static MethodCaller createCaller(Class<?> resourceClass, Method method)
+	{
+		if (canGenerateCaller(method))
+		{
+			try
+			{
+				return generateCaller(resourceClass, method);
+			}
+			catch (Throwable e)
+			{
+				logger.info("Can not generate an optimized caller for method [" + method.toString() + "]. Using a method handle to call it.", e);
+			}
+		}
+		try
+		{
+			return createMethodHandleCaller(method);
+		}
+		catch (Exception e)
+		{
+			logger.info("Can not create a method handle for method [" + method.toString() + "]. Using reflection to call it.", e);
+		}
+		return createReflectionCaller(method);
+	}
+
+	static MethodCaller createMethodHandleCaller(Method method) throws IllegalAccessException, NoSuchMethodException
+	{
+		method.setAccessible(true);
+		MethodHandle handle = MethodHandles.lookup().unreflect(method);
+		// Exceptions thrown by the method are wrapped before the handle is adapted, so adaptation errors are not wrapped
+		MethodHandle wrapException = MethodHandles.lookup().findStatic(MethodCallerFactory.class, "wrapException", 
+			MethodType.methodType(Object.class, Throwable.class));
+		wrapException = wrapException.asType(MethodType.methodType(handle.type().returnType(), Throwable.class));
+		handle = MethodHandles.catchException(handle, Throwable.class, 
+			MethodHandles.dropArguments(wrapException, 1, handle.type().parameterList()));
+		int parameterCount = method.getParameterTypes().length;
+		if (Modifier.isStatic(method.getModifiers()))
+		{
+			handle = MethodHandles.dropArguments(handle, 0, Object.class);
+		}
+		handle = handle.asType(MethodType.genericMethodType(parameterCount + 1)).asSpreader(Object[].class, parameterCount);
+		return new MethodHandleMethodCaller(handle, parameterCount);
+	}
+
+	@SuppressWarnings("unused") // called through a method handle
+	private static Object wrapException(Throwable e) throws InvocationTargetException
+	{
+		throw new InvocationTargetException(e);
+	}
+
+	static MethodCaller createReflectionCaller(Method method)
+	{
+		return new ReflectionMethodCaller(method);
+	}
+
+	private static MethodCaller generateCaller(Class<?> resourceClass, Method method) throws Exception
+	{
+		ClassLoader classLoader = resourceClass.getClassLoader();
+		ClassPool pool = getClassPool(classLoader);
+		// Class pools are not thread safe
+		synchronized (pool)
+		{
+			return generateCaller(resourceClass, method, classLoader, pool);
+		}
+	}
+
+	private static ClassPool getClassPool(ClassLoader classLoader)
+	{
+		synchronized (classPools)
+		{
+			ClassPool pool = classPools.get(classLoader);
+			if (pool == null)
+			{
+				pool = new ClassPool(false);
+				pool.appendSystemPath();
+				pool.insertClassPath(new LoaderClassPath(classLoader));
+				pool.insertClassPath(new LoaderClassPath(MethodCaller.class.getClassLoader()));
+				classPools.put(classLoader, pool);
+			}
+			return pool;
+		}
+	}
+
+	private static MethodCaller generateCaller(Class<?> resourceClass, Method method, ClassLoader classLoader, ClassPool pool) 
+		throws Exception
+	{
+		CtClass callerClass = pool.makeClass(resourceClass.getName() + CALLER_CLASS_SUFFIX + callerCounter.incrementAndGet());
+		try
+		{
+			callerClass.addInterface(pool.get(MethodCaller.class.getName()));
+			callerClass.addConstructor(CtNewConstructor.defaultConstructor(callerClass));
+
+			CtMethod callMethod = CtNewMethod.make(getCallMethodSource(method), callerClass);
+			callMethod.addCatch("{throw new java.lang.reflect.InvocationTargetException($e);}", pool.get(Throwable.class.getName()));
+			callerClass.addMethod(callMethod);
+			callerClass.addMethod(CtNewMethod.make(getInvokeMethodSource(method), callerClass));
+
+			Class<?> generated = callerClass.toClass(classLoader, resourceClass.getProtectionDomain());
+			return (MethodCaller) generated.newInstance();
+		}
+		finally
+		{
+			callerClass.detach();
+		}
+	}
+
+	/**
+	 * Generates a static method that receives the target and the arguments already converted to the exact
+	 * types declared by the resource method. Any exception thrown by the resource method is wrapped into
+	 * an InvocationTargetException, as done by reflection.
+	 */
+	private static String getCallMethodSource(Method method)
+	{
+		Class<?>[] parameterTypes = method.getParameterTypes();
+		StringBuilder source = new StringBuilder();
+		source.append("private static Object call(").append(getSourceName(method.getDeclaringClass())).append(" target");
+		for (int i = 0; i < parameterTypes.length; i++)
+		{
+			source.append(", ").append(getSourceName(parameterTypes[i])).append(" arg").append(i);
+		}
+		source.append(") throws java.lang.reflect.InvocationTargetException {");
+		if (method.getReturnType() == Void.TYPE)
+		{
+			source.append("target.").append(method.getName()).append("(");
+			appendArgNames(source, parameterTypes.length);
+			source.append("); return null;");
+		}
+		else
+		{
+			source.append("return ($w)target.").append(method.getName()).append("(");
+			appendArgNames(source, parameterTypes.length);
+			source.append(");");
+		}
+		source.append("}");
+		return source.toString();
+	}
+
+	/**
+	 * Generates the {@link MethodCaller#invoke(Object, Object[])} implementation. Arguments are cast (and unboxed)
+	 * before calling the resource method, so any failure here is not confused with errors thrown by the resource.
+	 */
+	private static String getInvokeMethodSource(Method method)
+	{
+		Class<?>[] parameterTypes = method.getParameterTypes();
+		StringBuilder source = new StringBuilder();
+		source.append("public Object invoke(Object target, Object[] args) throws java.lang.reflect.InvocationTargetException {");
+		source.append("return call((").append(getSourceName(method.getDeclaringClass())).append(")target");
+		for (int i = 0; i < parameterTypes.length; i++)
+		{
+			source.append(", ");
+			appendArgConversion(source, parameterTypes[i], i);
+		}
+		source.append(");}");
+		return source.toString();
+	}
+
+	private static void appendArgNames(StringBuilder source, int count)
+	{
+		for (int i = 0; i < count; i++)
+		{
+			if (i > 0)
+			{
+				source.append(", ");
+			}
+			source.append("arg").append(i);
+		}
+	}
+
+	private static void appendArgConversion(StringBuilder source, Class<?> type, int index)
+	{
+		if (type.isPrimitive())
+		{
+			Class<?> boxType = getBoxType(type);
+			source.append("((").append(boxType.getName()).append(")args[").append(index).append("]).")
+			      .append(type.getName()).append("Value()");
+		}
+		else
+		{
+			source.append("(").append(getSourceName(type)).append(")args[").append(index).append("]");
+		}
+	}
+
+	private static Class<?> getBoxType(Class<?> primitiveType)
+	{
+		if (primitiveType == Integer.TYPE)
+		{
+			return Integer.class;
+		}
+		if (primitiveType == Long.TYPE)
+		{
+			return Long.class;
+		}
+		if (primitiveType == Boolean.TYPE)
+		{
+			return Boolean.class;
+		}
+		if (primitiveType == Double.TYPE)
+		{
+			return Double.class;
+		}
+		if (primitiveType == Float.TYPE)
+		{
+			return Float.class;
+		}
+		if (primitiveType == Short.TYPE)
+		{
+			return Short.class;
+		}
+		if (primitiveType == Byte.TYPE)
+		{
+			return Byte.class;
+		}
+		return Character.class;
+	}
+
+	/**
+	 * Javassist compiler expects the binary name for nested classes (Outer$Inner) and the java syntax for arrays.
+	 */
+	private static String getSourceName(Class<?> type)
+	{
+		if (type.isArray())
+		{
+			return getSourceName(type.getComponentType()) + "[]";
+		}
+		return type.getName();
+	}
+
+	private static boolean canGenerateCaller(Method method)
+	{
+		if (!Modifier.isPublic(method.getModifiers()) || Modifier.isStatic(method.getModifiers()) || !isPublicType(method.getDeclaringClass()))
+		{
+			return false;
+		}
+		for (Class<?> parameterType : method.getParameterTypes())
+		{
+			if (!isPublicType(parameterType))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isPublicType(Class<?> type)
+	{
+		while (type.isArray())
+		{
+			type = type.getComponentType();
+		}
+		if (type.isPrimitive())
+		{
+			return true;
+		}
+		for (Class<?> current = type; current != null; current = current.getDeclaringClass())
+		{
+			if (!Modifier.isPublic(current.getModifiers()))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Calls the resource method through a method handle of type (Object, Object[])Object. Exceptions thrown 
+	 * by the resource method are already wrapped by the handle (see {@link MethodCallerFactory#wrapException(Throwable)}).
+	 */
+	private static class MethodHandleMethodCaller implements MethodCaller
+	{
+		private static final Object[] NO_ARGS = new Object[0];
+		private final MethodHandle handle;
+		private final int parameterCount;
+
+		private MethodHandleMethodCaller(MethodHandle handle, int parameterCount)
+		{
+			this.handle = handle;
+			this.parameterCount = parameterCount;
+		}
+
+		@Override
+		public Object invoke(Object target, Object[] args) throws InvocationTargetException
+		{
+			if (args == null)
+			{
+				args = NO_ARGS;
+			}
+			if (args.length != parameterCount)
+			{
+				throw new IllegalArgumentException("Wrong number of arguments. Expected: " + parameterCount + ", received: " + args.length);
+			}
+			try
+			{
+				return (Object) handle.invokeExact(target, args);
+			}
+			catch (InvocationTargetException e)
+			{
+				throw e;
+			}
+			catch (RuntimeException e)
+			{
+				throw e;
+			}
+			catch (Error e)
+			{
+				throw e;
+			}
+			catch (Throwable e)
+			{
+				// The adapted handle only throws the exceptions listed above
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	/**
+	 * Calls the resource method through reflection
+	 */
+	private static class ReflectionMethodCaller implements MethodCaller
+	{
+		private final Method method;
+
+		private ReflectionMethodCaller(Method method)
+		{
+			this.method = method;
+		}
+
+		@Override
+		public Object invoke(Object target, Object[] args) throws InvocationTargetException, IllegalAccessException
+		{
+			return method.invoke(target, args);
+		}
+	}
+}
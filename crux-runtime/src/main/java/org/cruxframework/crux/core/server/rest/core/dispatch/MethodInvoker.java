@@ -50,6 +50,7 @@ public class MethodInvoker
 	private static final Log logger = LogFactory.getLog(MethodInvoker.class);
 
 	protected Method method;
+	protected MethodCaller caller;
 	protected Class<?> rootClass;
 	protected ValueInjector[] params;
 	protected List<RequestPreprocessor> preprocessors;
@@ -61,6 +62,7 @@ public class MethodInvoker
 		this.method = method;
 		this.rootClass = root;
 		this.restErrorHandler = RestErrorHandlerFactory.createErrorHandler(method);
+		this.caller = MethodCallerFactory.createCaller(root, method);
 		this.params = new ValueInjector[method.getParameterTypes().length];
 		Type[] genericParameterTypes = method.getGenericParameterTypes();
 		for (int i = 0; i < genericParameterTypes.length; i++)
@@ -114,7 +116,7 @@ public class MethodInvoker
 
 		try
 		{
-			Object result = method.invoke(resource, args);
+			Object result = caller.invoke(resource, args);
 			return result;
 		}
 		catch (IllegalAccessException e)
@@ -125,8 +127,9 @@ public class MethodInvoker
 		{
 			return restErrorHandler.handleError(e);
 		}
-		catch (IllegalArgumentException e)
+		catch (RuntimeException e)
 		{
+			// Generated callers report invalid arguments through ClassCastException or NullPointerException (unboxing)
 			String msg = "Bad arguments passed to " + method.toString() + "  (";
 			if (args != null)
 			{
@@ -158,6 +161,18 @@ public class MethodInvoker
 		}
 	}
 
+	/**
+	 * Handle an error reported asynchronously, through a {@link org.cruxframework.crux.core.server.rest.core.DeferredResult}, 
+	 * as if it was thrown by the rest method.
+	 * @param error
+	 * @return the checked exception to be sent to the client
+	 * @throws RestFailure for any other error
+	 */
+	public Object handleError(Throwable error) throws RestFailure
+	{
+		return restErrorHandler.handleError(new InvocationTargetException(error));
+	}
+
 	protected void initializePostprocessors() throws RequestProcessorException
     {
 		RequestProcessorContext context = new RequestProcessorContext();
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.rest.core.dispatch;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A refresh of an expired resource state in progress. Only one refresh runs for each resource URI at a
+ * time on this server. The caller that starts it (the leader) must call {@link #complete()} when the
+ * new state is stored, even if the refresh runs on another thread. Other requests that join it can wait for its completion and reuse the response
+ * body produced by the leader, when it was published through {@link #setResponse(String, long, String)}.
+ */
+class RefreshFlight
+{
+	private static final ConcurrentMap<String, RefreshFlight> flights = new ConcurrentHashMap<String, RefreshFlight>();
+
+	private final String key;
+	private final CountDownLatch done = new CountDownLatch(1);
+	private volatile RefreshedResponse response;
+
+	private RefreshFlight(String key)
+	{
+		this.key = key;
+	}
+
+	/**
+	 * Start the refresh of the given resource, if no refresh is in progress. The caller becomes its leader.
+	 * @param key the resource URI
+	 * @return the new refresh, or null if another refresh is in progress
+	 */
+	static RefreshFlight start(String key)
+	{
+		RefreshFlight flight = new RefreshFlight(key);
+		return (flights.putIfAbsent(key, flight) == null)?flight:null;
+	}
+
+	/**
+	 * Retrieve the refresh of the given resource in progress, to wait for it
+	 * @param key the resource URI
+	 * @return the refresh or null, if no refresh is in progress
+	 */
+	static RefreshFlight get(String key)
+	{
+		return flights.get(key);
+	}
+
+	/**
+	 * Wait for the refresh to complete
+	 * @param timeout maximum time to wait (ms)
+	 * @return false if the timeout expired before the refresh completed
+	 * @throws InterruptedException
+	 */
+	boolean await(long timeout) throws InterruptedException
+	{
+		return done.await(timeout, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Publish the response body produced by the leader. Called before {@link #complete()}.
+	 * @param content the serialized response
+	 * @param dateModified date of the resource state created for this response
+	 * @param variant identifies the request properties that change the response body
+	 */
+	void setResponse(String content, long dateModified, String variant)
+	{
+		this.response = new RefreshedResponse(content, dateModified, variant);
+	}
+
+	/**
+	 * Retrieve the response body produced by the leader, if it can be sent to another request
+	 * @param dateModified date of the current resource state
+	 * @param variant identifies the request properties that change the response body
+	 * @return the content or null, if no response was published for that state and variant
+	 */
+	String getResponse(long dateModified, String variant)
+	{
+		RefreshedResponse response = this.response;
+		if (response != null && response.dateModified == dateModified && response.variant.equals(variant))
+		{
+			return response.content;
+		}
+		return null;
+	}
+
+	/**
+	 * Finish the refresh, releasing the waiting requests. Called by the leader, even if the refresh failed.
+	 */
+	void complete()
+	{
+		flights.remove(key, this);
+		done.countDown();
+	}
+
+	private static class RefreshedResponse
+	{
+		private final String content;
+		private final long dateModified;
+		private final String variant;
+
+		private RefreshedResponse(String content, long dateModified, String variant)
+		{
+			this.content = content;
+			this.dateModified = dateModified;
+			this.variant = variant;
+		}
+	}
+}
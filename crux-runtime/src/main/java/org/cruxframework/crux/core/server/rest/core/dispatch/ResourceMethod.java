@@ -16,33 +16,46 @@
 package org.cruxframework.crux.core.server.rest.core.dispatch;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.security.NoSuchAlgorithmException;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.codehaus.jackson.map.ObjectWriter;
+import org.cruxframework.crux.core.config.ConfigurationFactory;
+import org.cruxframework.crux.core.server.ServiceInstanceProvider;
 import org.cruxframework.crux.core.server.rest.annotation.RestService.CorsSupport;
 import org.cruxframework.crux.core.server.rest.annotation.RestService.JsonPSupport;
+import org.cruxframework.crux.core.server.rest.core.DeferredResult;
+import org.cruxframework.crux.core.server.rest.core.DeferredResult.CompletionListener;
 import org.cruxframework.crux.core.server.rest.core.EntityTag;
 import org.cruxframework.crux.core.server.rest.core.HttpRequestAware;
 import org.cruxframework.crux.core.server.rest.core.HttpResponseAware;
+import org.cruxframework.crux.core.server.rest.core.MediaType;
 import org.cruxframework.crux.core.server.rest.core.registry.RestServiceFactoryInitializer;
+import org.cruxframework.crux.core.server.rest.spi.AcceptHeaderCache;
 import org.cruxframework.crux.core.server.rest.spi.HttpRequest;
 import org.cruxframework.crux.core.server.rest.spi.HttpResponse;
 import org.cruxframework.crux.core.server.rest.spi.HttpServletResponseHeaders;
 import org.cruxframework.crux.core.server.rest.spi.InternalServerErrorException;
 import org.cruxframework.crux.core.server.rest.spi.RestFailure;
+import org.cruxframework.crux.core.server.rest.spi.ServiceUnavailableException;
 import org.cruxframework.crux.core.server.rest.state.ResourceStateConfig;
+import org.cruxframework.crux.core.server.rest.state.ResponseBodyCache.CachedResponse;
 import org.cruxframework.crux.core.server.rest.util.HttpHeaderNames;
 import org.cruxframework.crux.core.server.rest.util.HttpMethodHelper;
 import org.cruxframework.crux.core.server.rest.util.JsonUtil;
+import org.cruxframework.crux.core.shared.rest.annotation.GET.CacheControl;
+import org.cruxframework.crux.core.shared.rest.annotation.GET.RefreshCoalescing;
 import org.cruxframework.crux.core.utils.ClassUtils;
 import org.cruxframework.crux.core.utils.EncryptUtils;
 
@@ -53,8 +66,18 @@ import org.cruxframework.crux.core.utils.EncryptUtils;
  */
 public class ResourceMethod
 {
+	private static final Log logger = LogFactory.getLog(ResourceMethod.class);
 	private static final Lock lock = new ReentrantLock();
-	private static final Lock exceptionlock = new ReentrantLock();
+	private static final long DEFAULT_ASYNC_TIMEOUT = 30000;
+	private static long asyncTimeout = -1;
+	private static final ClassValue<ExceptionDescriptor> exceptionDescriptors = new ClassValue<ExceptionDescriptor>()
+	{
+		@Override
+		protected ExceptionDescriptor computeValue(Class<?> clazz)
+		{
+			return createExceptionDescriptor(clazz);
+		}
+	};
 
 	protected String httpMethod;
 	protected Method method;
@@ -62,15 +85,16 @@ public class ResourceMethod
 	protected Type genericReturnType;
 	protected MethodInvoker methodInvoker;
 	protected ObjectWriter writer;
-	protected Map<String, ObjectWriter> exceptionWriters = new HashMap<String, ObjectWriter>();
-	protected Map<String, String> exceptionIds = new HashMap<String, String>();
 	protected CacheInfo cacheInfo;
+	protected CompressionInfo compressionInfo;
 	protected boolean hasReturnType;
 	protected JsonPData jsonPData;
 	protected CorsData corsData;
 	private boolean etagGenerationEnabled = false;
 	private boolean isRequestAware;
-	private boolean isResponseAware;;
+	private boolean isResponseAware;
+	private boolean streamingEnabled;
+	private boolean bodyCacheable;
 
 	public ResourceMethod(Class<?> clazz, Method method, String httpMethod)
 	{
@@ -79,16 +103,30 @@ public class ResourceMethod
 		this.isRequestAware = HttpRequestAware.class.isAssignableFrom(resourceClass);
 		this.isResponseAware = HttpResponseAware.class.isAssignableFrom(resourceClass);
 		this.method = method;
-		this.genericReturnType = ClassUtils.getGenericReturnTypeOfGenericInterfaceMethod(clazz, method);
+		this.genericReturnType = getEntityType(ClassUtils.getGenericReturnTypeOfGenericInterfaceMethod(clazz, method));
 		this.hasReturnType = genericReturnType != null && !genericReturnType.equals(Void.class) && !genericReturnType.equals(Void.TYPE);
 		if (!hasReturnType && httpMethod.equals("GET"))
 		{
 			throw new InternalServerErrorException("Invalid rest method: " + method.toString() + ". @GET methods " +
 					"can not be void.", "Can not execute requested service");
 		}
+		if (isDeferred() && 
+			!Boolean.parseBoolean(ConfigurationFactory.getConfigurations().enableRestAsyncMode()))
+		{
+			// The request thread would be blocked waiting for the result
+			throw new InternalServerErrorException("Invalid rest method: " + method.toString() + ". Methods that return " +
+					"DeferredResult require the Crux property enableRestAsyncMode.", "Can not execute requested service");
+		}
 
 		this.methodInvoker = new MethodInvoker(resourceClass, method, httpMethod);
 		this.cacheInfo = HttpMethodHelper.getCacheInfoForGET(method);
+		if (isDeferred() && cacheInfo != null && cacheInfo.isCacheEnabled())
+		{
+			// Expired resource states are refreshed before the request preconditions are evaluated
+			throw new InternalServerErrorException("Invalid rest method: " + method.toString() + ". Methods that return " +
+					"DeferredResult can not declare a cacheTime.", "Can not execute requested service");
+		}
+		this.compressionInfo = HttpMethodHelper.getCompressionInfo(method);
 		CorsSupport corsSupport = method.getAnnotation(CorsSupport.class);
 		if (corsSupport == null)
 		{
@@ -101,6 +139,49 @@ public class ResourceMethod
 			jsonPSupport = resourceClass.getAnnotation(JsonPSupport.class);			
 		}
 		this.jsonPData = JsonPData.parseJsonPData(jsonPSupport);
+		this.streamingEnabled = Boolean.parseBoolean(ConfigurationFactory.getConfigurations().enableRestResponseStreaming());
+		// Only public responses can be shared between users. Response aware services can write
+		// headers that would not be reproduced by a cached response.
+		this.bodyCacheable = cacheInfo != null && cacheInfo.isCacheEnabled() && 
+							 cacheInfo.getCacheControl() == CacheControl.PUBLIC && !isResponseAware;
+		if (cacheInfo != null && cacheInfo.getRefreshCoalescing() != RefreshCoalescing.NONE && !bodyCacheable)
+		{
+			// Requests that join a refresh are answered with the response produced by another request
+			throw new InternalServerErrorException("Invalid rest method: " + method.toString() + ". refreshCoalescing " +
+					"can only be used by methods with a public cache that are not HttpResponseAware.", "Can not execute requested service");
+		}
+	}
+
+	/**
+	 * Methods that return a {@link DeferredResult} produce the type declared as its parameter
+	 */
+	private static Type getEntityType(Type returnType)
+	{
+		if (returnType instanceof ParameterizedType && ((ParameterizedType) returnType).getRawType().equals(DeferredResult.class))
+		{
+			return ((ParameterizedType) returnType).getActualTypeArguments()[0];
+		}
+		if (DeferredResult.class.equals(returnType))
+		{
+			return Object.class;
+		}
+		return returnType;
+	}
+
+	/**
+	 * Checks if the response produced by this method is accepted by the client. All methods produce JSON,
+	 * so the answer is shared by all of them and kept with the parsed Accept header (see 
+	 * {@link AcceptHeaderCache#isJsonAccepted(List)}).
+	 * @param accepts media types accepted by the client, sorted by weight
+	 * @return
+	 */
+	public boolean isResponseMediaTypeAllowed(List<MediaType> accepts)
+	{
+		if (accepts == null || accepts.isEmpty())
+		{
+			return true;
+		}
+		return AcceptHeaderCache.isJsonAccepted(accepts);
 	}
 
 	public boolean supportsCors()
@@ -146,9 +227,24 @@ public class ResourceMethod
 
 	public void forceEtagGeneration()
 	{
+		if (isDeferred())
+		{
+			// Same as cacheable methods: the state of the resource would be refreshed on the request thread
+			throw new InternalServerErrorException("Invalid rest method: " + method.toString() + ". Methods that return " +
+					"DeferredResult can not provide the resource for a stateValidationModel.", "Can not execute requested service");
+		}
 		etagGenerationEnabled = true;
 	}
 
+	/**
+	 * Inform if this method produces its result asynchronously, through a {@link DeferredResult}
+	 * @return
+	 */
+	public boolean isDeferred()
+	{
+		return DeferredResult.class.equals(method.getReturnType());
+	}
+
 	public boolean isEtagGenerationEnabled()
 	{
 		return etagGenerationEnabled || (cacheInfo != null && cacheInfo.isCacheEnabled()); 
@@ -159,17 +255,21 @@ public class ResourceMethod
 	{
 		try
 		{
+			MethodReturn ret;
 			if (ResourceStateConfig.isResourceStateCacheEnabled())
 			{
 				StateHandler stateHandler = new StateHandler(this, request, response);
-				MethodReturn ret = stateHandler.handledByCache();
-				return ret;
+				ret = stateHandler.handledByCache();
 			}
 			else
 			{
-				Object target = createTarget(request, response);
-				return invoke(request, response, target);
+				ret = doInvoke(request, response);
+			}
+			if (ret != null)
+			{
+				ret.compressionInfo = compressionInfo;
 			}
+			return ret;
 		}
 		catch (RestFailure e)
 		{
@@ -181,6 +281,35 @@ public class ResourceMethod
 		}
 	}
 
+	/**
+	 * Inform if the encoded responses of this method can be stored on response body cache.
+	 * @return
+	 */
+	public boolean isBodyCacheable()
+	{
+		return bodyCacheable;
+	}
+
+	/**
+	 * Inform if this method can be invoked outside the client request, to refresh its resource states. 
+	 * Response aware services need the response of the request that invoked them. Request aware services 
+	 * can check the user roles or use other request features that are not available after it is completed.
+	 * @return
+	 */
+	public boolean isBackgroundRefreshAllowed()
+	{
+		return !isResponseAware && !isRequestAware;
+	}
+
+	/**
+	 * Compression settings used by the responses of this method
+	 * @return
+	 */
+	public CompressionInfo getCompressionInfo()
+	{
+		return compressionInfo;
+	}
+
 	public String getHttpMethod()
 	{
 		return httpMethod;
@@ -233,10 +362,34 @@ public class ResourceMethod
 
 	protected MethodReturn doInvoke(HttpRequest request, HttpResponse response) throws InstantiationException, IllegalAccessException
     {
-	    MethodReturn ret;
-	    Object target = createTarget(request, response);
-	    ret = invoke(request, response, target);
-	    return ret;
+	    final Object target = createTarget(request, response);
+	    boolean releaseTarget = true;
+	    try
+	    {
+	    	MethodReturn methodReturn = invoke(request, response, target);
+	    	if (methodReturn.isDeferred())
+	    	{
+	    		// The service can still be used to complete the result
+	    		releaseTarget = false;
+	    		methodReturn.getDeferredResult().addCompletionListener(new CompletionListener()
+	    		{
+	    			@Override
+	    			public void onComplete(DeferredResult<?> result)
+	    			{
+	    				ServiceInstanceProvider.releaseInstance(target);
+	    			}
+	    		});
+	    	}
+	    	return methodReturn;
+	    }
+	    finally
+	    {
+	    	// Pooled services return to their pool
+	    	if (releaseTarget)
+	    	{
+	    		ServiceInstanceProvider.releaseInstance(target);
+	    	}
+	    }
     }
 
 	private Object createTarget(HttpRequest request, HttpResponse response) throws InstantiationException, IllegalAccessException
@@ -258,98 +411,125 @@ public class ResourceMethod
 	private MethodReturn invoke(HttpRequest request, HttpResponse response, Object target)
 	{
 		Object rtn = methodInvoker.invoke(request, response, target);
-		String retVal = null;
-		String exeptionData = null;
+		MethodReturn methodReturn = new MethodReturn(hasReturnType, null, null, cacheInfo, null, isEtagGenerationEnabled());
+		if (rtn instanceof DeferredResult)
+		{
+			// The value is only converted when the result is completed. See MethodReturn.resolve()
+			methodReturn.setDeferredResult(this, request, (DeferredResult<?>) rtn);
+		}
+		else
+		{
+			setReturnValue(request, methodReturn, rtn);
+		}
+		return methodReturn;
+	}
+
+	private void setReturnValue(HttpRequest request, MethodReturn methodReturn, Object rtn)
+	{
 		try
 		{
 			if (rtn != null && rtn instanceof Exception)
 			{
-				exeptionData = getReturnedValue(request, getExceptionData((Exception) rtn));
+				methodReturn.checkedExceptionData = getReturnedValue(request, getExceptionData((Exception) rtn));
 			}
 			else if (hasReturnType && rtn != null)
 			{
-				retVal = getReturnedValue(request, getReturnWriter().writeValueAsString(rtn));
+				if (streamingEnabled)
+				{
+					// The entity is serialized later, directly into the response stream
+					methodReturn.setEntity(rtn, getReturnWriter(), getJsonPCallback(request));
+				}
+				else
+				{
+					methodReturn.ret = getReturnedValue(request, getReturnWriter().writeValueAsString(rtn));
+				}
 			}
 		}
 		catch (Exception e)
 		{
 			throw new InternalServerErrorException("Error serializing rest service return", "Error processing requested service", e); 
 		}
-		return new MethodReturn(hasReturnType, retVal, exeptionData, cacheInfo, null, isEtagGenerationEnabled());
 	}
 
-	private String getReturnedValue(HttpRequest request, String value)
+	private void setDeferredReturnValue(HttpRequest request, MethodReturn methodReturn, DeferredResult<?> deferredResult)
 	{
-		if (supportsJsonP())
+		Throwable error = deferredResult.getError();
+		Object rtn = (error != null)?methodInvoker.handleError(error):deferredResult.getResult();
+		setReturnValue(request, methodReturn, rtn);
+	}
+
+	private static long getDefaultAsyncTimeout()
+	{
+		if (asyncTimeout < 0)
 		{
-			String callbackParam = request.getUri().getQueryParameters().getFirst(jsonPData.getCallbackParameter());
-			if (callbackParam != null && callbackParam.length() > 0)
+			lock.lock();
+			try
 			{
-				value = callbackParam+"("+value+");";
+				if (asyncTimeout < 0)
+				{
+					asyncTimeout = Long.parseLong(ConfigurationFactory.getConfigurations().restAsyncTimeout());
+				}
+			}
+			catch (Exception e)
+			{
+				logger.error("Invalid value for restAsyncTimeout property. Using default timeout.", e);
+				asyncTimeout = DEFAULT_ASYNC_TIMEOUT;
+			}
+			finally
+			{
+				lock.unlock();
 			}
 		}
-		return value;
+		return asyncTimeout;
 	}
-	
-	private String getExceptionData(Exception e) throws IOException 
-    {
-	    return "{\"exId\": \"" + getExceptionId(e) + "\", \"exData\": " + getExceptionWriter(e).writeValueAsString(e) + "}";
-    }
 
-	private String getExceptionId(Exception e)
+	private String getReturnedValue(HttpRequest request, String value)
 	{
-		Class<?> clazz = e.getClass();
-		String className = clazz.getCanonicalName();
-		String exceptionId = exceptionIds.get(className);
-		if (exceptionId == null)
+		String callbackParam = getJsonPCallback(request);
+		if (callbackParam != null)
 		{
-			initializeExceptionObjects(clazz, className);
+			value = callbackParam+"("+value+");";
 		}
-		return exceptionIds.get(className);
+		return value;
 	}
 
-	private ObjectWriter getExceptionWriter(Exception e)
+	String getJsonPCallback(HttpRequest request)
 	{
-		Class<?> clazz = e.getClass();
-		String className = clazz.getCanonicalName();
-		ObjectWriter objectWriter = exceptionWriters.get(className);
-		if (objectWriter == null)
+		if (supportsJsonP())
 		{
-			initializeExceptionObjects(clazz, className);
+			String callbackParam = request.getUri().getQueryParameters().getFirst(jsonPData.getCallbackParameter());
+			if (callbackParam != null && callbackParam.length() > 0)
+			{
+				return callbackParam;
+			}
 		}
-		return exceptionWriters.get(className);
+		return null;
 	}
+	
+	private String getExceptionData(Exception e) throws IOException 
+    {
+		ExceptionDescriptor descriptor = exceptionDescriptors.get(e.getClass());
+		StringWriter out = new StringWriter(256);
+		out.write(descriptor.prefix);
+		descriptor.writer.writeValue(out, e);
+		out.write('}');
+	    return out.toString();
+    }
 
-	private void initializeExceptionObjects(Class<?> clazz, String className)
+	private static ExceptionDescriptor createExceptionDescriptor(Class<?> clazz)
     {
-	    exceptionlock.lock();
-	    try
-	    {
-	    	ObjectWriter objectWriter = exceptionWriters.get(className);
-	    	if (objectWriter == null)
-	    	{
-	    		Class<?> jsonSubTypesSuperClass = JsonUtil.getJsonSubTypesSuperClass(clazz, clazz);
-	    		if(jsonSubTypesSuperClass == null)
-	    		{
-	    			objectWriter = JsonUtil.createWriter(clazz);
-	    			exceptionWriters.put(className, objectWriter);
-	    			exceptionIds.put(className, hash(className));
-	    		} 
-	    		else
-	    		{
-	    			objectWriter = JsonUtil.createWriter(jsonSubTypesSuperClass);
-	    			exceptionWriters.put(className, objectWriter);
-	    			exceptionIds.put(className, hash(jsonSubTypesSuperClass.getCanonicalName()));
-	    		}
-	    	}
-	    }
-	    finally
-	    {
-	    	exceptionlock.unlock();
-	    }
+		Class<?> jsonSubTypesSuperClass = JsonUtil.getJsonSubTypesSuperClass(clazz, clazz);
+		if(jsonSubTypesSuperClass == null)
+		{
+			return new ExceptionDescriptor(JsonUtil.createWriter(clazz), hash(clazz.getCanonicalName()));
+		} 
+		else
+		{
+			return new ExceptionDescriptor(JsonUtil.createWriter(jsonSubTypesSuperClass), hash(jsonSubTypesSuperClass.getCanonicalName()));
+		}
     }
 
-	private String hash(String s)
+	private static String hash(String s)
 	{
 		try
 		{
@@ -382,16 +562,41 @@ public class ResourceMethod
 		return writer;
 	}
 
+	/**
+	 * Everything needed to serialize a checked exception of a given class, computed only once for each class.
+	 */
+	private static class ExceptionDescriptor
+	{
+		private final ObjectWriter writer;
+		private final String prefix;
+
+		private ExceptionDescriptor(ObjectWriter writer, String exceptionId)
+		{
+			this.writer = writer;
+			this.prefix = "{\"exId\": \"" + exceptionId + "\", \"exData\": ";
+		}
+	}
+
 	public static class MethodReturn
 	{
 		protected final boolean hasReturnType;
-		protected final String ret;
+		protected String ret;
 		private final CacheInfo cacheInfo;
 		private final ConditionalResponse conditionalResponse;
 		protected EntityTag etag;
 		protected long dateModified;
 		protected final boolean etagGenerationEnabled;
 		protected String checkedExceptionData;
+		protected Object entity;
+		protected ObjectWriter entityWriter;
+		protected String jsonPCallback;
+		private StateHandler deferredStateHandler;
+		private StateHandler streamedStateHandler;
+		private DeferredResult<?> deferredResult;
+		private ResourceMethod resourceMethod;
+		private HttpRequest request;
+		private CachedResponse cachedResponse;
+		private CompressionInfo compressionInfo;
 
 		protected MethodReturn(boolean hasReturnType, String ret, String exceptionData, CacheInfo cacheInfo, ConditionalResponse conditionalResponse, 
 							   boolean etagGenerationEnabled)
@@ -419,6 +624,19 @@ public class ResourceMethod
 			return cacheInfo;
 		}
 
+		/**
+		 * Compression settings of the method that produced this return
+		 * @return
+		 */
+		public CompressionInfo getCompressionInfo()
+		{
+			if (compressionInfo == null)
+			{
+				compressionInfo = CompressionInfo.getDefaultCompressionInfo();
+			}
+			return compressionInfo;
+		}
+
 		public ConditionalResponse getConditionalResponse()
 		{
 			return conditionalResponse;
@@ -458,5 +676,202 @@ public class ResourceMethod
 		{
 			this.checkedExceptionData = checkedExceptionData;
 		}
+
+		/**
+		 * Retrieve the already encoded response, when this return was served by the response body cache.
+		 * @return the cached response or null
+		 */
+		public CachedResponse getCachedResponse()
+		{
+			return cachedResponse;
+		}
+
+		void setCachedResponse(CachedResponse cachedResponse)
+		{
+			this.cachedResponse = cachedResponse;
+		}
+
+		/**
+		 * Inform if this return carries an entity that was not serialized yet. Those entities
+		 * must be written through {@link #writeEntity(OutputStream)}.
+		 * @return true if the entity must be streamed to the response
+		 */
+		public boolean isStreamingEntity()
+		{
+			return entityWriter != null;
+		}
+
+		/**
+		 * Serializes the returned entity straight to the given stream, including the JsonP 
+		 * callback wrapping, if needed.
+		 * @param out
+		 * @throws IOException
+		 */
+		public void writeEntity(OutputStream out) throws IOException
+		{
+			if (jsonPCallback != null)
+			{
+				out.write((jsonPCallback+"(").getBytes("UTF-8"));
+			}
+			entityWriter.writeValue(out, entity);
+			if (jsonPCallback != null)
+			{
+				out.write(");".getBytes("UTF-8"));
+			}
+		}
+
+		/**
+		 * Inform if the resource state must be updated only after the entity is written.
+		 * @return
+		 */
+		public boolean hasDeferredStateUpdate()
+		{
+			return deferredStateHandler != null;
+		}
+
+		/**
+		 * Update the resource state after the streamed entity is encoded. 
+		 * @param content the serialized content, or null if the entity was too large to be buffered
+		 * @param length number of bytes of content
+		 * @param etag the eTag computed while the content was encoded, or null to let the ETagHandler compute it 
+		 */
+		public void updateDeferredState(byte[] content, int length, String etag)
+		{
+			if (deferredStateHandler != null)
+			{
+				StateHandler stateHandler = deferredStateHandler;
+				deferredStateHandler = null;
+				stateHandler.updateState(this, content, length, etag);
+				if (content == null)
+				{
+					streamedStateHandler = stateHandler;
+				}
+			}
+		}
+
+		/**
+		 * Inform the eTag of an entity that was streamed without being buffered, after it is completely written.
+		 * @param etag
+		 */
+		public void updateStreamedEtag(String etag)
+		{
+			if (streamedStateHandler != null)
+			{
+				StateHandler stateHandler = streamedStateHandler;
+				streamedStateHandler = null;
+				stateHandler.updateStreamedEtag(this, etag);
+			}
+		}
+
+		/**
+		 * Inform if the rest method returned a {@link DeferredResult} that was not resolved yet. The return 
+		 * value is only available after {@link #resolve()} is called.
+		 * @return
+		 */
+		public boolean isDeferred()
+		{
+			return deferredResult != null;
+		}
+
+		/**
+		 * Retrieve the result returned by the rest method, if it was not resolved yet.
+		 * @return
+		 */
+		public DeferredResult<?> getDeferredResult()
+		{
+			return deferredResult;
+		}
+
+		/**
+		 * Time to wait for the deferred result, in milliseconds
+		 * @return
+		 */
+		public long getDeferredTimeout()
+		{
+			long timeout = (deferredResult != null)?deferredResult.getTimeout():-1;
+			return (timeout >= 0)?timeout:getDefaultAsyncTimeout();
+		}
+
+		/**
+		 * Create the failure used when the deferred result is not completed in time.
+		 * @return
+		 */
+		public RestFailure createTimeoutFailure()
+		{
+			return new ServiceUnavailableException("Timeout waiting for the result of method " + resourceMethod.getMethod().toString(), 
+												   "Service did not respond in time");
+		}
+
+		/**
+		 * Convert the value of a completed {@link DeferredResult} into this return, as done for values returned 
+		 * directly by the rest methods. Pending resource state updates are also executed.
+		 * @throws RestFailure if the result was completed with an error not declared by the rest method
+		 */
+		public void resolve() throws RestFailure
+		{
+			if (deferredResult != null)
+			{
+				DeferredResult<?> result = deferredResult;
+				deferredResult = null;
+				try
+				{
+					resourceMethod.setDeferredReturnValue(request, this, result);
+				}
+				catch (RestFailure e)
+				{
+					deferredStateHandler = null;
+					throw e;
+				}
+				if (deferredStateHandler != null && (checkedExceptionData != null || !isStreamingEntity()))
+				{
+					StateHandler stateHandler = deferredStateHandler;
+					deferredStateHandler = null;
+					if (checkedExceptionData == null)
+					{
+						stateHandler.updateState(request.getUri(), this);
+					}
+				}
+			}
+		}
+
+		void setDeferredResult(ResourceMethod resourceMethod, HttpRequest request, DeferredResult<?> deferredResult)
+		{
+			this.resourceMethod = resourceMethod;
+			this.request = request;
+			this.deferredResult = deferredResult;
+		}
+
+		void setEntity(Object entity, ObjectWriter entityWriter, String jsonPCallback)
+		{
+			this.entity = entity;
+			this.entityWriter = entityWriter;
+			this.jsonPCallback = jsonPCallback;
+		}
+
+		void deferStateUpdate(StateHandler stateHandler)
+		{
+			this.deferredStateHandler = stateHandler;
+		}
+
+		/**
+		 * Serializes the streaming entity into memory. Used when the content is needed before 
+		 * the response is written (to evaluate preconditions against a refreshed state, for example).
+		 * @throws IOException
+		 */
+		void materializeEntity() throws IOException
+		{
+			if (isStreamingEntity())
+			{
+				String value = entityWriter.writeValueAsString(entity);
+				if (jsonPCallback != null)
+				{
+					value = jsonPCallback+"("+value+");";
+				}
+				this.ret = value;
+				this.entity = null;
+				this.entityWriter = null;
+				this.jsonPCallback = null;
+			}
+		}
 	}
 }
\ No newline at end of file
@@ -15,8 +15,9 @@
  */
 package org.cruxframework.crux.core.server.rest.core.dispatch;
 
-import java.util.ArrayList;
-import java.util.Date;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -26,17 +27,26 @@ import org.apache.commons.logging.LogFactory;
 import org.cruxframework.crux.core.config.ConfigurationFactory;
 import org.cruxframework.crux.core.server.rest.core.EntityTag;
 import org.cruxframework.crux.core.server.rest.core.dispatch.ResourceMethod.MethodReturn;
+import org.cruxframework.crux.core.server.rest.spi.DetachedHttpRequest;
 import org.cruxframework.crux.core.server.rest.spi.HttpRequest;
 import org.cruxframework.crux.core.server.rest.spi.HttpResponse;
+import org.cruxframework.crux.core.server.rest.spi.HttpUtil;
+import org.cruxframework.crux.core.server.rest.spi.InternalServerErrorException;
+import org.cruxframework.crux.core.server.rest.spi.ResponseCompressor.Encoding;
 import org.cruxframework.crux.core.server.rest.spi.UriInfo;
 import org.cruxframework.crux.core.server.rest.state.ETagHandler;
 import org.cruxframework.crux.core.server.rest.state.ResourceStateConfig;
 import org.cruxframework.crux.core.server.rest.state.ResourceStateHandler;
+import org.cruxframework.crux.core.server.rest.state.ResourceStateHandler.ExtendedResourceState;
 import org.cruxframework.crux.core.server.rest.state.ResourceStateHandler.ResourceState;
-import org.cruxframework.crux.core.server.rest.util.DateUtil;
+import org.cruxframework.crux.core.server.rest.state.ResponseBodyCache;
+import org.cruxframework.crux.core.server.rest.state.ResponseBodyCache.CachedResponse;
+import org.cruxframework.crux.core.server.rest.util.HttpDateCodec;
 import org.cruxframework.crux.core.server.rest.util.HttpHeaderNames;
 import org.cruxframework.crux.core.server.rest.util.HttpResponseCodes;
 import org.cruxframework.crux.core.shared.rest.annotation.GET;
+import org.cruxframework.crux.core.shared.rest.annotation.GET.Compression;
+import org.cruxframework.crux.core.shared.rest.annotation.GET.RefreshCoalescing;
 import org.cruxframework.crux.core.shared.rest.annotation.HttpMethod;
 
 /**
@@ -48,11 +58,17 @@ public class StateHandler
 	private static final Log logger = LogFactory.getLog(StateHandler.class);
 	private static final Lock eTagLock = new ReentrantLock();
 	private static ETagHandler eTagHandler = null;
+	private static final Lock refreshLock = new ReentrantLock();
+	private static final long DEFAULT_REFRESH_WAIT_TIMEOUT = 10000;
+	private static long refreshWaitTimeout = -1;
 	private final HttpRequest request;
 	private final ResourceMethod resourceMethod;
 	private String httpMethod;
 	private String key;
 	private HttpResponse response;
+	private long stateDateModified;
+	private long stateExpires;
+	private String stateEtag;
 
 	public StateHandler(ResourceMethod resourceMethod, HttpRequest request, HttpResponse response)
     {
@@ -60,8 +76,20 @@ public class StateHandler
 		this.request = request;
 		this.response = response;
 		this.httpMethod = request.getHttpMethod();
-		this.key = request.getUri().getRequestUri().toString();
     }
+
+	/**
+	 * The resource state key (the request URI). Built on first use, as most requests do not consult the state cache.
+	 * @return
+	 */
+	private String getKey()
+	{
+		if (key == null)
+		{
+			key = request.getUri().getRequestUri().toString();
+		}
+		return key;
+	}
 	
 	public MethodReturn handledByCache() throws Exception
 	{
@@ -78,15 +106,76 @@ public class StateHandler
 		if (ret == null)
 		{
 			ret = resourceMethod.doInvoke(request, response);
-			if (ret.getCheckedExceptionData() == null)
+			if (ret.isDeferred())
 			{
-				updateState(request.getUri(), ret);
+				// State is updated when the result is resolved
+				ret.deferStateUpdate(this);
+			}
+			else if (ret.getCheckedExceptionData() == null)
+			{
+				if (ret.isStreamingEntity())
+				{
+					// ETag can only be known after the entity is encoded by the response writer
+					ret.deferStateUpdate(this);
+				}
+				else
+				{
+					updateState(request.getUri(), ret);
+				}
 			}
 		}
 		return ret;		
 	}
 
 	public void updateState(UriInfo uriInfo, MethodReturn ret)
+	{
+		try
+		{
+			ret.materializeEntity();
+		}
+		catch (IOException e)
+		{
+			throw new InternalServerErrorException("Error serializing rest service return", "Error processing requested service", e); 
+		}
+		String content = ret.getReturn();
+		updateState(uriInfo, ret, content, null, 0, null);
+	}
+
+	/**
+	 * Update the state after a streamed entity is encoded
+	 * @param ret
+	 * @param content the encoded content, or null if the entity was too large to be buffered
+	 * @param length number of content bytes
+	 * @param contentEtag the eTag already computed while the content was encoded, if available
+	 */
+	void updateState(MethodReturn ret, byte[] content, int length, String contentEtag)
+	{
+		updateState(request.getUri(), ret, null, content, length, contentEtag);
+	}
+
+	/**
+	 * Record the eTag of an entity that was streamed to the client after the response headers were 
+	 * committed. The tag could not be sent with this response, but it is used to answer the next 
+	 * conditional requests.
+	 * @param ret
+	 * @param etag
+	 */
+	void updateStreamedEtag(MethodReturn ret, String etag)
+	{
+		if (etag == null || stateEtag != null || stateDateModified == 0)
+		{
+			return;
+		}
+		ResourceStateHandler resourceStateHandler = ResourceStateConfig.getResourceStateHandler();
+		ResourceState resourceState = resourceStateHandler.get(getKey());
+		// Only complete the state created by this request. It could be replaced by a concurrent request
+		if (resourceState != null && resourceState.getEtag() == null && resourceState.getDateModified() == stateDateModified)
+		{
+			resourceStateHandler.add(getKey(), stateDateModified, stateExpires, etag);
+		}
+	}
+
+	private void updateState(UriInfo uriInfo, MethodReturn ret, String content, byte[] contentBytes, int contentLength, String contentEtag)
 	{
 		ResourceStateHandler resourceStateHandler = ResourceStateConfig.getResourceStateHandler();
 		if (ret.getCacheInfo() != null && (ret.getCacheInfo().isCacheEnabled() || ret.isEtagGenerationEnabled())) // only GET can declare cache
@@ -94,7 +183,7 @@ public class StateHandler
 			long dateModified;
 			long expires = 0;
 			String etag;
-			ResourceState resourceState = resourceStateHandler.get(key);
+			ResourceState resourceState = resourceStateHandler.get(getKey());
 			if (!ret.getCacheInfo().isCacheEnabled())
 			{
 				expires = (GET.ONE_DAY*1000)+System.currentTimeMillis();
@@ -110,21 +199,27 @@ public class StateHandler
 			}
 			else
 			{
-				etag = getETagHandler().generateEtag(uriInfo, ret.getReturn());
+				etag = (contentEtag != null)?contentEtag:generateEtag(uriInfo, content, contentBytes, contentLength);
 				dateModified = System.currentTimeMillis();
 				if (ret.getCacheInfo().isCacheEnabled())
 				{
 					expires = ret.getCacheInfo().defineExpires(dateModified);
 				}
 			}
-			resourceStateHandler.add(key, dateModified, expires, etag);
+			ResourceState newState = resourceStateHandler.add(getKey(), dateModified, expires, etag);
+			stateDateModified = dateModified;
+			stateExpires = expires;
+			stateEtag = etag;
 			ret.setDateModified(dateModified);
-			EntityTag entityTag = (etag != null)?new EntityTag(etag):null;
-			ret.setEtag(entityTag);
+			ret.setEtag((newState != null)?getEntityTag(newState):((etag != null)?new EntityTag(etag):null));
+			if ((content != null || contentBytes != null) && resourceMethod.isBodyCacheable())
+			{
+				cacheResponseBody(content, contentBytes, contentLength, dateModified, etag);
+			}
 		}
 		else
 		{
-			resourceStateHandler.remove(key);
+			resourceStateHandler.remove(getKey());
 		}
 	}
 
@@ -135,7 +230,7 @@ public class StateHandler
 	private MethodReturn handleCacheableOperation() throws Exception
 	{
 		ResourceStateHandler resourceStateHandler = ResourceStateConfig.getResourceStateHandler();
-		ResourceState resourceState = resourceStateHandler.get(key);
+		ResourceState resourceState = resourceStateHandler.get(getKey());
 		MethodReturn ret = null;
 		if (resourceState == null)
 		{
@@ -145,15 +240,43 @@ public class StateHandler
 		{
 			if (resourceState.isExpired())
 			{
-				ret = resourceMethod.doInvoke(request, response);
-				if (ret.getCheckedExceptionData() == null)
+				MethodReturn staleReturn = handleStaleState(resourceState);
+				if (staleReturn != null)
 				{
-					updateState(request.getUri(), ret);
-					resourceState = resourceStateHandler.get(key);
+					return staleReturn;
 				}
-				else
+				RefreshFlight flight = null;
+				if (resourceMethod.cacheInfo.getRefreshCoalescing() != RefreshCoalescing.NONE)
+				{
+					flight = RefreshFlight.start(getKey());
+					if (flight == null)
+					{
+						MethodReturn followerReturn = followRefresh(RefreshFlight.get(getKey()), resourceState, resourceStateHandler);
+						if (followerReturn != null)
+						{
+							return followerReturn;
+						}
+						// The other refresh failed or is taking too long. Refresh the state on this request
+					}
+				}
+				try
+				{
+					ret = refreshState(resourceStateHandler, flight);
+				}
+				finally
 				{
-					resourceStateHandler.remove(key);
+					if (flight != null)
+					{
+						flight.complete();
+					}
+				}
+				if (ret.getCheckedExceptionData() == null)
+				{
+					resourceState = resourceStateHandler.get(getKey());
+					if (resourceState == null)
+					{
+						return ret;
+					}
 				}
 			}
 			ConditionalResponse conditionalResponse = evaluatePreconditions(resourceState);
@@ -161,10 +284,260 @@ public class StateHandler
 			{
 				return new MethodReturn(resourceMethod.hasReturnType, null, null, resourceMethod.cacheInfo, conditionalResponse, resourceMethod.isEtagGenerationEnabled());
 			}
+			if (ret == null && resourceMethod.isBodyCacheable())
+			{
+				ret = getCachedResponseBody(resourceState);
+			}
 		}
 		return ret;
 	}
 
+	/**
+	 * Answer a request that found the expired state being refreshed by another request. With STALE coalescing, 
+	 * the request is answered from the expired state, if possible. Otherwise, it waits for the refresh and is 
+	 * answered from the new state or with the response body produced by the request that refreshed it.
+	 * @param flight the refresh in progress, or null if it was completed in the meantime 
+	 * @return null if the refresh failed or is taking too long, or if the response produced by the other request 
+	 * can not be used by this request (a different Accept-Language, for example) 
+	 */
+	private MethodReturn followRefresh(RefreshFlight flight, ResourceState expiredState, ResourceStateHandler resourceStateHandler) 
+		throws InterruptedException
+	{
+		if (flight != null && resourceMethod.cacheInfo.getRefreshCoalescing() == RefreshCoalescing.STALE)
+		{
+			MethodReturn ret = answerFromState(expiredState);
+			if (ret != null)
+			{
+				return ret;
+			}
+		}
+		if (flight == null || flight.await(getRefreshWaitTimeout()))
+		{
+			ResourceState refreshedState = resourceStateHandler.get(getKey());
+			if (refreshedState != null && !refreshedState.isExpired())
+			{
+				MethodReturn ret = answerFromState(refreshedState);
+				if (ret == null && flight != null)
+				{
+					String content = flight.getResponse(refreshedState.getDateModified(), getResponseVariant());
+					if (content != null)
+					{
+						ret = new MethodReturn(resourceMethod.hasReturnType, content, null, resourceMethod.cacheInfo, null, resourceMethod.isEtagGenerationEnabled());
+						ret.setDateModified(refreshedState.getDateModified());
+						ret.setEtag(getEntityTag(refreshedState));
+					}
+				}
+				return ret;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Answer the request from the given state, with a 304 (or 412) response or from the response body cache
+	 * @return null if the method must be invoked to answer the request
+	 */
+	private MethodReturn answerFromState(ResourceState resourceState)
+	{
+		ConditionalResponse conditionalResponse = evaluatePreconditions(resourceState);
+		if (conditionalResponse != null)
+		{
+			return new MethodReturn(resourceMethod.hasReturnType, null, null, resourceMethod.cacheInfo, conditionalResponse, resourceMethod.isEtagGenerationEnabled());
+		}
+		if (resourceMethod.isBodyCacheable())
+		{
+			return getCachedResponseBody(resourceState);
+		}
+		return null;
+	}
+
+	/**
+	 * The request properties that change the response body of the method, besides the URI
+	 */
+	private String getResponseVariant()
+	{
+		return getAcceptLanguage() + "\n" + resourceMethod.getJsonPCallback(request);
+	}
+
+	/**
+	 * Invoke the method and store the new resource state
+	 * @param flight the refresh led by this request, if any. The response body is published to the requests that 
+	 * joined it. 
+	 */
+	private MethodReturn refreshState(ResourceStateHandler resourceStateHandler, RefreshFlight flight) throws Exception
+	{
+		// Methods that return a DeferredResult have no resource state (see ResourceMethod), so the result is available
+		MethodReturn ret = resourceMethod.doInvoke(request, response);
+		if (ret.getCheckedExceptionData() == null)
+		{
+			updateState(request.getUri(), ret);
+			if (flight != null && ret.getReturn() != null && stateDateModified != 0)
+			{
+				flight.setResponse(ret.getReturn(), stateDateModified, getResponseVariant());
+			}
+		}
+		else
+		{
+			resourceStateHandler.remove(getKey());
+		}
+		return ret;
+	}
+
+	/**
+	 * Answer the request from an expired state, if it is still inside the stale-while-revalidate window 
+	 * declared by the method. The state is refreshed in background.
+	 * @return null if the request can not be answered from the expired state
+	 */
+	private MethodReturn handleStaleState(ResourceState resourceState)
+	{
+		CacheInfo cacheInfo = resourceMethod.cacheInfo;
+		// The window can only be checked for states that expose their expiration time
+		if (!cacheInfo.isStaleWhileRevalidateEnabled() || !resourceMethod.isBackgroundRefreshAllowed() 
+			|| !(resourceState instanceof ExtendedResourceState) || System.currentTimeMillis() >= 
+				((ExtendedResourceState) resourceState).getExpires() + (cacheInfo.getStaleWhileRevalidate() * 1000L))
+		{
+			return null;
+		}
+		MethodReturn ret = answerFromState(resourceState);
+		if (ret != null)
+		{
+			scheduleRefresh();
+		}
+		return ret;
+	}
+
+	/**
+	 * Refresh the resource state on a background thread, unless a refresh is already in progress
+	 */
+	private void scheduleRefresh()
+	{
+		final RefreshFlight flight = RefreshFlight.start(getKey());
+		if (flight == null)
+		{
+			return;
+		}
+		boolean scheduled = false;
+		try
+		{
+			// The refresh can run after this request is completed
+			final StateHandler refreshHandler = new StateHandler(resourceMethod, new DetachedHttpRequest(request), null);
+			scheduled = StateRefreshExecutor.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						refreshHandler.refreshInBackground(flight);
+					}
+					finally
+					{
+						flight.complete();
+					}
+				}
+			});
+		}
+		catch (RuntimeException e)
+		{
+			logger.error("Error scheduling the refresh of resource state for ["+getKey()+"].", e);
+		}
+		finally
+		{
+			if (!scheduled)
+			{
+				// The expired state is still used until the window ends. A later request can schedule the refresh again
+				flight.complete();
+			}
+		}
+	}
+
+	private void refreshInBackground(RefreshFlight flight)
+	{
+		ResourceStateHandler resourceStateHandler = ResourceStateConfig.getResourceStateHandler();
+		try
+		{
+			refreshState(resourceStateHandler, flight);
+		}
+		catch (Exception e)
+		{
+			// Next requests will refresh the state and report the error
+			logger.error("Error refreshing resource state for ["+getKey()+"].", e);
+			resourceStateHandler.remove(getKey());
+		}
+	}
+
+	private MethodReturn getCachedResponseBody(ResourceState resourceState)
+	{
+		ResponseBodyCache responseBodyCache = ResourceStateConfig.getResponseBodyCache();
+		if (responseBodyCache != null)
+		{
+			CachedResponse cachedResponse = responseBodyCache.get(getKey(), getAcceptLanguage(), resourceState.getDateModified(), resourceState.getEtag());
+			if (cachedResponse != null)
+			{
+				MethodReturn ret = new MethodReturn(resourceMethod.hasReturnType, null, null, resourceMethod.cacheInfo, null, resourceMethod.isEtagGenerationEnabled());
+				ret.setCachedResponse(cachedResponse);
+				ret.setDateModified(cachedResponse.getDateModified());
+				// The cached body is only returned when its etag matches the resource state
+				ret.setEtag(getEntityTag(resourceState));
+				return ret;
+			}
+		}
+		return null;
+	}
+
+	private String generateEtag(UriInfo uriInfo, String content, byte[] contentBytes, int contentLength)
+	{
+		if (content == null && contentBytes != null)
+		{
+			try
+			{
+				content = new String(contentBytes, 0, contentLength, "UTF-8");
+			}
+			catch (UnsupportedEncodingException e)
+			{
+				throw new InternalServerErrorException("Error decoding rest service return", "Error processing requested service", e); 
+			}
+		}
+		return (content != null)?getETagHandler().generateEtag(uriInfo, content):null;
+	}
+
+	private void cacheResponseBody(String content, byte[] encodedContent, int encodedLength, long dateModified, String etag)
+	{
+		ResponseBodyCache responseBodyCache = ResourceStateConfig.getResponseBodyCache();
+		if (responseBodyCache != null)
+		{
+			try
+			{
+				byte[] contentBytes;
+				if (content != null)
+				{
+					contentBytes = content.getBytes("UTF-8");
+				}
+				else
+				{
+					contentBytes = (encodedContent.length == encodedLength)?encodedContent:Arrays.copyOf(encodedContent, encodedLength);
+				}
+				// Only the gzip form is stored. It is the preferred encoding when both gzip and deflate are accepted
+				CompressionInfo compressionInfo = resourceMethod.getCompressionInfo();
+				byte[] gzippedBytes = null;
+				if (compressionInfo.shouldCompress(contentBytes.length) && compressionInfo.getCompression() != Compression.DEFLATE)
+				{
+					gzippedBytes = HttpUtil.compress(contentBytes, contentBytes.length, Encoding.GZIP, compressionInfo.getLevel());
+				}
+				responseBodyCache.put(getKey(), getAcceptLanguage(), dateModified, etag, contentBytes, gzippedBytes);
+			}
+			catch (IOException e)
+			{
+				logger.error("Error caching response body for ["+getKey()+"].", e);
+			}
+		}
+	}
+
+	private String getAcceptLanguage()
+	{
+		return request.getHttpHeaders().getHeaderString(HttpHeaderNames.ACCEPT_LANGUAGE);
+	}
+
 	/**
 	 * Handle PUT/POST/DELETE/uncacheable GETs
 	 * @return
@@ -172,20 +545,19 @@ public class StateHandler
 	private MethodReturn handleUncacheableOperation() throws Exception
 	{
 		ResourceStateHandler resourceStateHandler = ResourceStateConfig.getResourceStateHandler();
-		ResourceState resourceState = resourceStateHandler.get(key);
+		ResourceState resourceState = resourceStateHandler.get(getKey());
 
 		MethodReturn ret = null;
 		if (resourceMethod.getHttpMethod().equals(HttpMethod.GET) && resourceState != null && resourceState.isExpired())
 		{
-			ret = resourceMethod.doInvoke(request, response);
+			// Refresh coalescing is only accepted for methods whose responses are cached (see ResourceMethod)
+			ret = refreshState(resourceStateHandler, null);
 			if (ret.getCheckedExceptionData() == null)
 			{
-				updateState(request.getUri(), ret);
-				resourceState = resourceStateHandler.get(key);
+				resourceState = resourceStateHandler.get(getKey());
 			}
 			else
 			{
-				resourceStateHandler.remove(key);
 				resourceState = null;
 			}
 		}
@@ -219,14 +591,27 @@ public class StateHandler
 		return etag;
 	}
 
+	/**
+	 * The entity tag of the given state. It is pre-built by the states that implement {@link ExtendedResourceState}.
+	 */
+	private static EntityTag getEntityTag(ResourceState resourceState)
+	{
+		if (resourceState instanceof ExtendedResourceState)
+		{
+			return ((ExtendedResourceState) resourceState).getEntityTag();
+		}
+		String etag = resourceState.getEtag();
+		return (etag != null)?new EntityTag(etag):null;
+	}
+
 	private ConditionalResponse evaluateEtagPreConditions(ResourceState resourceState)
 	{
 		ConditionalResponse result = null;
-		EntityTag eTag = (resourceState!= null && resourceState.getEtag() != null)?new EntityTag(resourceState.getEtag()):null;
+		EntityTag eTag = (resourceState != null)?getEntityTag(resourceState):null;
 		List<String> ifMatch = request.getHttpHeaders().getRequestHeader(HttpHeaderNames.IF_MATCH);
 		if (ifMatch != null && ifMatch.size() > 0)
 		{
-			if (!ifMatch(convertEtag(ifMatch), eTag))
+			if (!ifMatch(ifMatch, eTag))
 			{
 				result = new ConditionalResponse(eTag, 0, HttpResponseCodes.SC_PRECONDITION_FAILED);
 			}
@@ -236,7 +621,7 @@ public class StateHandler
 			List<String> ifNoneMatch = request.getHttpHeaders().getRequestHeader(HttpHeaderNames.IF_NONE_MATCH);
 			if (ifNoneMatch != null && ifNoneMatch.size() > 0)
 			{
-				if (!ifNoneMatch(convertEtag(ifNoneMatch), eTag))
+				if (!ifNoneMatch(ifNoneMatch, eTag))
 				{
 					if (httpMethod.equals("GET"))
 					{
@@ -279,13 +664,13 @@ public class StateHandler
 		return result;
 	}
 
-	private boolean ifMatch(List<EntityTag> ifMatch, EntityTag eTag)
+	private boolean ifMatch(List<String> ifMatch, EntityTag eTag)
 	{
 		if (eTag != null)
 		{
-			for (EntityTag tag : ifMatch)
+			for (String tags : ifMatch)
 			{
-				if (tag.equals(eTag) || tag.getValue().equals("*"))
+				if (containsEtag(tags, eTag.getValue()))
 				{
 					return true;
 				}
@@ -294,64 +679,108 @@ public class StateHandler
 		return false;
 	}
 
-	private boolean ifNoneMatch(List<EntityTag> ifMatch, EntityTag eTag)
+	private boolean ifNoneMatch(List<String> ifNoneMatch, EntityTag eTag)
 	{
 		if (eTag != null)
 		{
-			if (ifMatch != null && ifMatch.size() > 0)
+			for (String tags : ifNoneMatch)
 			{
-				for (EntityTag tag : ifMatch)
+				if (containsEtag(tags, eTag.getValue()))
 				{
-					if (tag.equals(eTag) || tag.getValue().equals("*"))
-					{
-						return false;
-					}
+					return false;
 				}
 			}
 		}
 		return true;
 	}
 
-	private boolean ifModifiedSince(String strDate, long lastModified)
+	static boolean ifModifiedSince(String strDate, long lastModified)
 	{
-		Date date = DateUtil.parseDate(strDate);
-
-		if (date.getTime() >= lastModified)
-		{
-			return false;
-		}
-		return true;
-
+		// HTTP dates have a precision of seconds
+		return (HttpDateCodec.parse(strDate) / 1000) < (lastModified / 1000);
 	}
 
-	private boolean ifUnmodifiedSince(String strDate, long lastModified)
+	static boolean ifUnmodifiedSince(String strDate, long lastModified)
 	{
-		Date date = DateUtil.parseDate(strDate);
+		return (HttpDateCodec.parse(strDate) / 1000) >= (lastModified / 1000);
+	}
 
-		if (date.getTime() >= lastModified)
+	/**
+	 * Check if a If-Match or If-None-Match header value references the given (strong) etag. The header is 
+	 * scanned in place, so no EntityTag needs to be created for the tags sent by the client.
+	 * @param tags comma separated list of tags
+	 * @param etag
+	 * @return true if the list contains the etag or the wildcard *
+	 */
+	static boolean containsEtag(String tags, String etag)
+	{
+		int length = tags.length();
+		int start = 0;
+		while (start < length)
 		{
-			return true;
+			int end = tags.indexOf(',', start);
+			if (end < 0)
+			{
+				end = length;
+			}
+			int tagStart = start;
+			int tagEnd = end;
+			start = end + 1;
+			while (tagStart < tagEnd && tags.charAt(tagStart) <= ' ')
+			{
+				tagStart++;
+			}
+			while (tagEnd > tagStart && tags.charAt(tagEnd - 1) <= ' ')
+			{
+				tagEnd--;
+			}
+			if (tagStart < tagEnd && tags.charAt(tagStart) == '"')
+			{
+				tagStart++;
+			}
+			if (tagStart < tagEnd && tags.charAt(tagEnd - 1) == '"')
+			{
+				tagEnd--;
+			}
+			if (tags.startsWith("W/", tagStart))
+			{
+				continue; // weak tags never match the strong tags generated for resource states
+			}
+			int tagLength = tagEnd - tagStart;
+			if ((tagLength == 1 && tags.charAt(tagStart) == '*') 
+				|| (tagLength == etag.length() && tags.regionMatches(tagStart, etag, 0, tagLength)))
+			{
+				return true;
+			}
 		}
 		return false;
 	}
-
-	private List<EntityTag> convertEtag(List<String> tags)
+	
+	private static long getRefreshWaitTimeout()
 	{
-		ArrayList<EntityTag> result = new ArrayList<EntityTag>();
-		if (tags != null)
+		if (refreshWaitTimeout < 0)
 		{
-			for (String tag : tags)
+			refreshLock.lock();
+			try
 			{
-				String[] split = tag.split(",");
-				for (String etag : split)
+				if (refreshWaitTimeout < 0)
 				{
-					result.add(EntityTag.valueOf(etag.trim()));
+					refreshWaitTimeout = Long.parseLong(ConfigurationFactory.getConfigurations().restRefreshWaitTimeout());
 				}
 			}
+			catch (Exception e)
+			{
+				logger.error("Invalid value for restRefreshWaitTimeout property. Using default timeout.", e);
+				refreshWaitTimeout = DEFAULT_REFRESH_WAIT_TIMEOUT;
+			}
+			finally
+			{
+				refreshLock.unlock();
+			}
 		}
-		return result;
+		return refreshWaitTimeout;
 	}
-	
+
 	public static ETagHandler getETagHandler()
 	{
 		if (eTagHandler != null) return eTagHandler;
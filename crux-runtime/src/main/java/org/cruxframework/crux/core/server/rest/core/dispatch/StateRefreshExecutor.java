@@ -0,0 +1,113 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.rest.core.dispatch;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cruxframework.crux.core.config.ConfigurationFactory;
+
+/**
+ * Runs the background refreshes of resource states that are served stale (see {@link CacheInfo#getStaleWhileRevalidate()}).
+ * The number of threads and the number of refreshes waiting for a thread are limited by Crux properties
+ * restBackgroundRefreshThreads and restBackgroundRefreshQueueSize. Refreshes that do not fit into the queue
+ * are rejected.
+ */
+class StateRefreshExecutor
+{
+	private static final Log logger = LogFactory.getLog(StateRefreshExecutor.class);
+	private static final Lock lock = new ReentrantLock();
+	private static final int DEFAULT_THREADS = 2;
+	private static final int DEFAULT_QUEUE_SIZE = 100;
+	private static final AtomicLong rejectedCount = new AtomicLong();
+	private static volatile ThreadPoolExecutor executor;
+
+	/**
+	 * Schedule a refresh
+	 * @param refresh
+	 * @return false if the refresh was rejected because the queue is full
+	 */
+	static boolean execute(Runnable refresh)
+	{
+		try
+		{
+			getExecutor().execute(refresh);
+			return true;
+		}
+		catch (RejectedExecutionException e)
+		{
+			if (rejectedCount.incrementAndGet() == 1)
+			{
+				logger.warn("Resource state refresh queue is full. Refreshes are being rejected. Consider increasing restBackgroundRefreshQueueSize.");
+			}
+			return false;
+		}
+	}
+
+	private static ThreadPoolExecutor getExecutor()
+	{
+		if (executor != null) return executor;
+
+		lock.lock();
+		try
+		{
+			if (executor == null)
+			{
+				int threads = DEFAULT_THREADS;
+				int queueSize = DEFAULT_QUEUE_SIZE;
+				try
+				{
+					threads = Integer.parseInt(ConfigurationFactory.getConfigurations().restBackgroundRefreshThreads());
+					queueSize = Integer.parseInt(ConfigurationFactory.getConfigurations().restBackgroundRefreshQueueSize());
+				}
+				catch (Exception e)
+				{
+					logger.error("Invalid value for restBackgroundRefreshThreads or restBackgroundRefreshQueueSize property. Using default values.", e);
+				}
+				threads = Math.max(threads, 1);
+				ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<Runnable>(Math.max(queueSize, 1)), new ThreadFactory()
+				{
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r)
+					{
+						Thread thread = new Thread(r, "crux-rest-refresh-" + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+				pool.allowCoreThreadTimeOut(true);
+				executor = pool;
+			}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		return executor;
+	}
+}
@@ -38,6 +38,7 @@ public class StringParameterInjector
 	protected String paramName;
 	private boolean isDate;
 	private boolean isSQLDate;
+	private SimpleTypeParser simpleTypeParser;
 
 	protected StringParameterInjector()
     {
@@ -55,6 +56,8 @@ public class StringParameterInjector
 		this.defaultValue = defaultValue;
 		this.isDate = Date.class.isAssignableFrom(type);
 		this.isSQLDate = java.sql.Date.class.isAssignableFrom(type);
+		// Primitives, their wrappers and Strings are converted directly, with no reflection
+		this.simpleTypeParser = SimpleTypeParser.forType(type);
 
 		if (ClassUtils.isSimpleType(rawType))
 		{
@@ -152,9 +155,16 @@ public class StringParameterInjector
 		{
 			return new Date(Long.parseLong(strVal));
 		}  
-		else if (rawType.isPrimitive())
+		else if (simpleTypeParser != null)
 		{
-			return ClassUtils.stringToPrimitiveBoxType(rawType, strVal);
+			try
+			{
+				return simpleTypeParser.parse(strVal);
+			}
+			catch (RuntimeException e)
+			{
+				throw new BadRequestException("Unable to extract parameter from http request for " + getParamSignature(), CAN_NOT_INVOKE_USING_ARGUMENTS_MSG, e);
+			}
 		}
 		else if (constructor != null)
 		{
@@ -195,6 +205,129 @@ public class StringParameterInjector
 		return null;
 	}
 
+	/**
+	 * Converts strings to primitive types, their wrappers and Strings. Selected once, when the injector
+	 * is created.
+	 */
+	private static enum SimpleTypeParser
+	{
+		STRING
+		{
+			@Override
+			Object parse(String value)
+			{
+				return value;
+			}
+		},
+		BOOLEAN
+		{
+			@Override
+			Object parse(String value)
+			{
+				return Boolean.valueOf(value);
+			}
+		},
+		CHARACTER
+		{
+			@Override
+			Object parse(String value)
+			{
+				return Character.valueOf(value.charAt(0));
+			}
+		},
+		BYTE
+		{
+			@Override
+			Object parse(String value)
+			{
+				return Byte.valueOf(value);
+			}
+		},
+		SHORT
+		{
+			@Override
+			Object parse(String value)
+			{
+				return Short.valueOf(value);
+			}
+		},
+		INTEGER
+		{
+			@Override
+			Object parse(String value)
+			{
+				return Integer.valueOf(value);
+			}
+		},
+		LONG
+		{
+			@Override
+			Object parse(String value)
+			{
+				return Long.valueOf(value);
+			}
+		},
+		FLOAT
+		{
+			@Override
+			Object parse(String value)
+			{
+				return Float.valueOf(value);
+			}
+		},
+		DOUBLE
+		{
+			@Override
+			Object parse(String value)
+			{
+				return Double.valueOf(value);
+			}
+		};
+
+		abstract Object parse(String value);
+
+		static SimpleTypeParser forType(Class<?> type)
+		{
+			if (type.equals(String.class))
+			{
+				return STRING;
+			}
+			if (type.equals(Integer.TYPE) || type.equals(Integer.class))
+			{
+				return INTEGER;
+			}
+			if (type.equals(Long.TYPE) || type.equals(Long.class))
+			{
+				return LONG;
+			}
+			if (type.equals(Boolean.TYPE) || type.equals(Boolean.class))
+			{
+				return BOOLEAN;
+			}
+			if (type.equals(Double.TYPE) || type.equals(Double.class))
+			{
+				return DOUBLE;
+			}
+			if (type.equals(Float.TYPE) || type.equals(Float.class))
+			{
+				return FLOAT;
+			}
+			if (type.equals(Short.TYPE) || type.equals(Short.class))
+			{
+				return SHORT;
+			}
+			if (type.equals(Byte.TYPE) || type.equals(Byte.class))
+			{
+				return BYTE;
+			}
+			if (type.equals(Character.TYPE) || type.equals(Character.class))
+			{
+				return CHARACTER;
+			}
+			return null;
+		}
+	}
+
 	private boolean isNumeric(String str)
     {
 		if (str == null)
@@ -42,6 +42,13 @@ public class PathParamSegment extends Segment implements Comparable<PathParamSeg
 	protected int literalCharacters;
 	protected int numCapturingGroups;
 	protected int numNonDefaultGroups;
+	/**
+	 * For expressions composed only by literal segments and default {param} segments, 
+	 * contains the literal segments (null for param segments), allowing the match without 
+	 * regular expressions. Null for any other expression.
+	 */
+	protected String[] simpleSegments;
+	protected String[] simpleSegmentParams;
 
 	private static class Group
 	{
@@ -148,6 +155,32 @@ public class PathParamSegment extends Segment implements Comparable<PathParamSeg
 		regex = buffer.toString();
 		pattern = Pattern.compile(regex);
 		numCapturingGroups = groups.size();
+		compileSimpleSegments(replacedCurlySegment);
+	}
+
+	private void compileSimpleSegments(String replacedCurlySegment)
+	{
+		if (numNonDefaultGroups > 0)
+		{
+			return;
+		}
+		String[] segments = replacedCurlySegment.split("/", -1);
+		String[] params = new String[segments.length];
+		for (int i = 0; i < segments.length; i++)
+		{
+			if (segments[i].indexOf('{') >= 0 || segments[i].indexOf('}') >= 0)
+			{
+				Matcher matcher = PathHelper.URI_PARAM_PATTERN.matcher(segments[i]);
+				if (!matcher.matches() || matcher.group(3) != null)
+				{
+					return;
+				}
+				params[i] = matcher.group(1);
+				segments[i] = null;
+			}
+		}
+		simpleSegments = segments;
+		simpleSegmentParams = params;
 	}
 
 	public String getRegex()
@@ -162,56 +195,106 @@ public class PathParamSegment extends Segment implements Comparable<PathParamSeg
 
 	protected void populatePathParams(HttpRequest request, Matcher matcher, String path)
 	{
-		UriInfo uriInfo = (UriInfo) request.getUri();
 		for (Group group : groups)
 		{
-			String value = matcher.group(group.group);
-			uriInfo.addEncodedPathParameter(group.name, value);
-			int index = matcher.start(group.group);
-
-			int start = 0;
-			if (path.charAt(0) == '/')
-				start++;
-			int segmentIndex = 0;
+			populatePathParam(request, group.name, matcher.group(group.group), matcher.start(group.group), path);
+		}
+	}
 
-			if (start < path.length())
+	protected void populateSimplePathParams(HttpRequest request, String path, int start)
+	{
+		int pos = start;
+		for (int i = 0; i < simpleSegments.length; i++)
+		{
+			if (i > 0)
 			{
-				int count = 0;
-				for (int i = start; i < index && i < path.length(); i++)
-				{
-					if (path.charAt(i) == '/')
-						count++;
-				}
-				segmentIndex = count;
+				pos++; // skip '/'
 			}
-
-			int numSegments = 1;
-			for (int i = 0; i < value.length(); i++)
+			int end = path.indexOf('/', pos);
+			if (end < 0)
 			{
-				if (value.charAt(i) == '/')
-					numSegments++;
+				end = path.length();
 			}
-
-			if (segmentIndex + numSegments > request.getUri().getPathSegments().size())
+			if (simpleSegments[i] == null)
 			{
-
-				throw new BadRequestException("Number of matched segments greater than actual", "Can not invoke requested service");
+				populatePathParam(request, simpleSegmentParams[i], path.substring(pos, end), pos, path);
 			}
-			PathSegment[] encodedSegments = new PathSegment[numSegments];
-			PathSegment[] decodedSegments = new PathSegment[numSegments];
-			for (int i = 0; i < numSegments; i++)
+			pos = end;
+		}
+	}
+
+	private void populatePathParam(HttpRequest request, String name, String value, int index, String path)
+	{
+		UriInfo uriInfo = (UriInfo) request.getUri();
+		uriInfo.addEncodedPathParameter(name, value);
+		int start = 0;
+		if (path.charAt(0) == '/')
+			start++;
+		int segmentIndex = 0;
+
+		if (start < path.length())
+		{
+			int count = 0;
+			for (int i = start; i < index && i < path.length(); i++)
 			{
-				decodedSegments[i] = request.getUri().getPathSegments().get(segmentIndex + i);
-				encodedSegments[i] = request.getUri().getPathSegments(false).get(segmentIndex + i);
+				if (path.charAt(i) == '/')
+					count++;
 			}
-			uriInfo.getEncodedPathParameterPathSegments().add(group.name, encodedSegments);
-			uriInfo.getPathParameterPathSegments().add(group.name, decodedSegments);
+			segmentIndex = count;
 		}
+
+		int numSegments = 1;
+		for (int i = 0; i < value.length(); i++)
+		{
+			if (value.charAt(i) == '/')
+				numSegments++;
+		}
+
+		if (segmentIndex + numSegments > request.getUri().getPathSegments().size())
+		{
+
+			throw new BadRequestException("Number of matched segments greater than actual", "Can not invoke requested service");
+		}
+		PathSegment[] encodedSegments = new PathSegment[numSegments];
+		PathSegment[] decodedSegments = new PathSegment[numSegments];
+		for (int i = 0; i < numSegments; i++)
+		{
+			decodedSegments[i] = request.getUri().getPathSegments().get(segmentIndex + i);
+			encodedSegments[i] = request.getUri().getPathSegments(false).get(segmentIndex + i);
+		}
+		uriInfo.getEncodedPathParameterPathSegments().add(name, encodedSegments);
+		uriInfo.getPathParameterPathSegments().add(name, decodedSegments);
 	}
 
 	public ResourceMethod matchPattern(HttpRequest request, String path, int start)
+	{
+		ResourceMethod invoker = tryMatchPattern(request, path, start);
+		if (invoker == null)
+		{
+			throw new NotFoundException("Could not find resource for relative : " + path + " of full path: " + request.getUri().getRequestUri());
+		}
+		return invoker;
+	}
+
+	/**
+	 * Same as {@link #matchPattern(HttpRequest, String, int)}, but returns null if the path does not 
+	 * match this expression.
+	 */
+	protected ResourceMethod tryMatchPattern(HttpRequest request, String path, int start)
 	{
 		UriInfo uriInfo = (UriInfo) request.getUri();
+		if (simpleSegments != null)
+		{
+			if (!matchSimpleSegments(path, start))
+			{
+				return null;
+			}
+			ResourceMethod invoker = match(request.getHttpMethod(), request);
+			uriInfo.pushMatchedURI(path, Encode.decode(path));
+			populateSimplePathParams(request, path, start);
+			return invoker;
+		}
+		
 		Matcher matcher = pattern.matcher(path);
 		matcher.region(start, path.length());
 
@@ -219,15 +302,66 @@ public class PathParamSegment extends Segment implements Comparable<PathParamSeg
 		{
 			// we consumed entire path string
 			ResourceMethod invoker = match(request.getHttpMethod(), request);
-			if (invoker == null)
-			{
-				throw new NotFoundException("Could not find resource for relative : " + path + " of full path: " + request.getUri().getRequestUri());
-			}
 			uriInfo.pushMatchedURI(path, Encode.decode(path));
 			populatePathParams(request, matcher, path);
 			return invoker;
 		}
-		throw new NotFoundException("Could not find resource for relative : " + path + " of full path: " + request.getUri().getRequestUri());
+		return null;
+	}
+
+	/**
+	 * Check if the path, from the given start index, matches this expression. No parameter is extracted.
+	 * @param path
+	 * @param start
+	 * @return
+	 */
+	boolean matches(String path, int start)
+	{
+		if (simpleSegments != null)
+		{
+			return matchSimpleSegments(path, start);
+		}
+		return pattern.matcher(path).region(start, path.length()).matches();
+	}
+
+	/**
+	 * Equivalent to the regular expression match, for expressions composed only by literal 
+	 * and default {param} segments (where each param matches [^/]+). 
+	 */
+	private boolean matchSimpleSegments(String path, int start)
+	{
+		int pos = start;
+		int length = path.length();
+		for (int i = 0; i < simpleSegments.length; i++)
+		{
+			if (i > 0)
+			{
+				if (pos >= length || path.charAt(pos) != '/')
+				{
+					return false;
+				}
+				pos++;
+			}
+			int end = path.indexOf('/', pos);
+			if (end < 0)
+			{
+				end = length;
+			}
+			String literal = simpleSegments[i];
+			if (literal == null)
+			{
+				if (end == pos)
+				{
+					return false;
+				}
+			}
+			else if (end - pos != literal.length() || !path.regionMatches(pos, literal, 0, literal.length()))
+			{
+				return false;
+			}
+			pos = end;
+		}
+		return pos == length;
 	}
 
 	public static int pathSegmentIndex(String string, int start, int stop)
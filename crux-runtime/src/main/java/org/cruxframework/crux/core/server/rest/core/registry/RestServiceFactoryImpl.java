@@ -23,6 +23,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.cruxframework.crux.core.config.ConfigurationFactory;
 import org.cruxframework.crux.core.server.Environment;
+import org.cruxframework.crux.core.server.ServiceInstanceProvider;
 
 
 /**
@@ -58,7 +59,7 @@ public class RestServiceFactoryImpl implements RestServiceFactory
     {
 		try 
 		{
-			return serviceClass.newInstance();
+			return ServiceInstanceProvider.getInstance(serviceClass);
 		} 
 		catch (Exception e) 
 		{
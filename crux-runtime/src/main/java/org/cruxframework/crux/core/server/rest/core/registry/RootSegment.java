@@ -180,7 +180,13 @@ public class RootSegment extends Segment
 		{
 			try
 			{
-				return pathParamSegment.matchPattern(request, path, start);
+				// Paths that do not match the expression return null instead of throwing a 
+				// NotFoundException, to avoid creating an exception for each expression tried.
+				ResourceMethod invoker = pathParamSegment.tryMatchPattern(request, path, start);
+				if (invoker != null)
+				{
+					return invoker;
+				}
 			}
 			catch (RestFailure e)
 			{
@@ -194,7 +200,11 @@ public class RootSegment extends Segment
 		{
 			try
 			{
-				return pathParamSegment.matchPattern(request, path, start);
+				ResourceMethod invoker = pathParamSegment.tryMatchPattern(request, path, start);
+				if (invoker != null)
+				{
+					return invoker;
+				}
 			}
 			catch (RestFailure e)
 			{
@@ -16,17 +16,19 @@
 package org.cruxframework.crux.core.server.rest.core.registry;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 
 import org.cruxframework.crux.core.server.rest.core.MediaType;
 import org.cruxframework.crux.core.server.rest.core.dispatch.ResourceMethod;
 import org.cruxframework.crux.core.server.rest.spi.AmbiguousServiceException;
 import org.cruxframework.crux.core.server.rest.spi.HttpRequest;
-import org.cruxframework.crux.core.server.rest.spi.InternalServerErrorException;
 import org.cruxframework.crux.core.server.rest.spi.MethodNotAllowedException;
 import org.cruxframework.crux.core.server.rest.spi.NotAcceptableException;
 import org.cruxframework.crux.core.server.rest.spi.NotFoundException;
+import org.cruxframework.crux.core.server.rest.util.MediaTypeHelper;
 
 /**
  * 
@@ -36,6 +38,7 @@ import org.cruxframework.crux.core.server.rest.spi.NotFoundException;
 public class Segment
 {
 	private List<ResourceMethod> methods = new ArrayList<ResourceMethod>();
+	private Map<String, ResourceMethod> methodsByHttpMethod = new HashMap<String, ResourceMethod>();
 
 	protected boolean isEmpty()
 	{
@@ -47,23 +50,13 @@ public class Segment
 		// MediaType contentType = request.getHttpHeaders().getMediaType();
 		List<MediaType> accepts = request.getHttpHeaders().getAcceptableMediaTypes();
 
-		if (!isResponseMediaTypeAllowed(accepts))
-		{
-			throw new NotAcceptableException("No match for accept header");
-		}
-
-		ResourceMethod invoker = null;
+		// addMethod ensures that there is only one method for each HTTP method
+		ResourceMethod invoker = methodsByHttpMethod.get(httpMethod);
 
-		for (ResourceMethod rm : methods)
+		boolean responseMediaTypeAllowed = (invoker != null) ? invoker.isResponseMediaTypeAllowed(accepts) : isResponseMediaTypeAllowed(accepts);
+		if (!responseMediaTypeAllowed)
 		{
-			if (rm.getHttpMethod() != null && rm.getHttpMethod().equals(httpMethod))
-			{
-				if (invoker != null)
-				{
-					throw new InternalServerErrorException("More than one method is bound to the same REST operation (URI + Method Type)", "Error processing requested operation.");
-				}
-				invoker = rm;
-			}
+			throw new NotAcceptableException("No match for accept header");
 		}
 
 		if (invoker == null)
@@ -90,26 +83,15 @@ public class Segment
 			}
 		}
 		methods.add(invoker);
+		if (invoker.getHttpMethod() != null)
+		{
+			methodsByHttpMethod.put(invoker.getHttpMethod(), invoker);
+		}
 	}
 	
 	protected boolean isResponseMediaTypeAllowed(List<MediaType> accepts)
 	{
-		boolean responseMediaTypeAllowed = false;
-		if (accepts == null || accepts.isEmpty())
-		{ // assumes accepts '*' if not informed
-			responseMediaTypeAllowed = true;
-		}
-		else
-		{
-			for (MediaType accept : accepts)
-			{
-				if (MediaType.APPLICATION_JSON_TYPE.isCompatible(accept))
-				{
-					responseMediaTypeAllowed = true;
-					break;
-				}
-			}
-		}
-		return responseMediaTypeAllowed;
+		// assumes accepts '*' if not informed
+		return MediaTypeHelper.isAccepted(MediaType.APPLICATION_JSON_TYPE, accepts);
 	}
 }
\ No newline at end of file
@@ -17,6 +17,9 @@ package org.cruxframework.crux.core.server.rest.servlet;
 
 import java.io.IOException;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -27,6 +30,8 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.cruxframework.crux.core.i18n.LocaleResolver;
 import org.cruxframework.crux.core.i18n.LocaleResolverInitializer;
+import org.cruxframework.crux.core.server.rest.core.DeferredResult;
+import org.cruxframework.crux.core.server.rest.core.DeferredResult.CompletionListener;
 import org.cruxframework.crux.core.server.rest.core.HttpHeaders;
 import org.cruxframework.crux.core.server.rest.core.RequestProcessors;
 import org.cruxframework.crux.core.server.rest.core.dispatch.ResourceMethod.MethodReturn;
@@ -35,12 +40,17 @@ import org.cruxframework.crux.core.server.rest.core.registry.RestServiceFactoryI
 import org.cruxframework.crux.core.server.rest.spi.HttpRequest;
 import org.cruxframework.crux.core.server.rest.spi.HttpResponse;
 import org.cruxframework.crux.core.server.rest.spi.HttpUtil;
+import org.cruxframework.crux.core.server.rest.spi.InternalServerErrorException;
 import org.cruxframework.crux.core.server.rest.spi.RestFailure;
 import org.cruxframework.crux.core.server.rest.spi.UriInfo;
 import org.cruxframework.crux.core.server.rest.util.HttpHeaderNames;
 import org.cruxframework.crux.core.shared.rest.annotation.HttpMethod;
 
 /**
+ * Requests handled by rest methods that return a {@link DeferredResult} (only accepted when the Crux property 
+ * enableRestAsyncMode is true) are put in asynchronous mode (Servlet 3.0), releasing the container thread until
+ * the result is available. This servlet must be declared with async-supported on web.xml for that. 
+ * 
  * @author Thiago da Rosa de Bustamante
  *
  */
@@ -129,6 +139,19 @@ public class RestServlet extends HttpServlet
 		{
 			localeInitializedByServlet = initUserLocaleResolver(request);
 			MethodReturn methodReturn = RestDispatcher.dispatch(request, response, false);
+			if (methodReturn != null && methodReturn.isDeferred())
+			{
+				if (req.isAsyncSupported())
+				{
+					processAsyncRequest(req, res, request, response, methodReturn);
+					return;
+				}
+				// Never block the container thread waiting for the result
+				InternalServerErrorException error = new InternalServerErrorException("Rest method returned a DeferredResult, but " +
+						"the rest servlet is not declared with async-supported on web.xml.", "Can not execute requested service");
+				methodReturn.getDeferredResult().setError(error);
+				throw error;
+			}
 			if (!response.isCommitted())
 			{
 				HttpUtil.writeResponse(request, response, methodReturn);
@@ -136,13 +159,92 @@ public class RestServlet extends HttpServlet
 		}
 		catch (RestFailure e) 
 		{
-			response.sendException(e.getResponseCode(), e.getResponseMessage());
-			logger.error(e.getMessage(), e);
+			handleFailure(response, e);
 		}
 		catch (Exception e) 
 		{
-			response.sendException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Server error processing request.");
-			logger.error(e.getMessage(), e);
+			handleError(response, e);
+		}
+		finally
+		{
+			if (localeInitializedByServlet)
+			{
+				LocaleResolverInitializer.clearLocaleResolverThreadData();
+			}
+		}
+	}
+
+	/**
+	 * Release the container thread. The response is written by the thread that completes the deferred result, or 
+	 * by the container, when the timeout expires.
+	 */
+	protected void processAsyncRequest(HttpServletRequest req, HttpServletResponse res, final HttpRequest request, 
+									   final HttpResponse response, final MethodReturn methodReturn)
+	{
+		final DeferredResult<?> deferredResult = methodReturn.getDeferredResult();
+		final AsyncContext asyncContext = req.startAsync(req, res);
+		asyncContext.setTimeout(methodReturn.getDeferredTimeout());
+		asyncContext.addListener(new AsyncListener()
+		{
+			@Override
+			public void onTimeout(AsyncEvent event) throws IOException
+			{
+				deferredResult.setError(methodReturn.createTimeoutFailure());
+			}
+			
+			@Override
+			public void onError(AsyncEvent event) throws IOException
+			{
+				Throwable error = event.getThrowable();
+				deferredResult.setError((error != null)?error:new IOException("Error processing asynchronous request."));
+			}
+			
+			@Override
+			public void onStartAsync(AsyncEvent event) throws IOException
+			{
+			}
+			
+			@Override
+			public void onComplete(AsyncEvent event) throws IOException
+			{
+			}
+		});
+		deferredResult.addCompletionListener(new CompletionListener()
+		{
+			@Override
+			public void onComplete(DeferredResult<?> result)
+			{
+				try
+				{
+					completeAsyncRequest(request, response, methodReturn, asyncContext);
+				}
+				catch (IOException e)
+				{
+					logger.error("Error writing asynchronous response.", e);
+				}
+			}
+		});
+	}
+
+	protected void completeAsyncRequest(HttpRequest request, HttpResponse response, MethodReturn methodReturn, AsyncContext asyncContext) throws IOException
+	{
+		boolean localeInitializedByServlet = false;
+		try
+		{
+			localeInitializedByServlet = initUserLocaleResolver(request);
+			methodReturn.resolve();
+			if (!response.isCommitted())
+			{
+				HttpUtil.writeResponse(request, response, methodReturn);
+			}
+		}
+		catch (RestFailure e) 
+		{
+			handleFailure(response, e);
+		}
+		catch (Exception e) 
+		{
+			handleError(response, e);
 		}
 		finally
 		{
@@ -150,7 +252,26 @@ public class RestServlet extends HttpServlet
 			{
 				LocaleResolverInitializer.clearLocaleResolverThreadData();
 			}
+			asyncContext.complete();
+		}
+	}
+
+	private void handleFailure(HttpResponse response, RestFailure e) throws IOException
+	{
+		if (!response.isCommitted()) // streamed responses can fail after headers were sent
+		{
+			response.sendException(e.getResponseCode(), e.getResponseMessage());
+		}
+		logger.error(e.getMessage(), e);
+	}
+
+	private void handleError(HttpResponse response, Exception e) throws IOException
+	{
+		if (!response.isCommitted())
+		{
+			response.sendException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Server error processing request.");
 		}
+		logger.error(e.getMessage(), e);
 	}
 	
 	/**
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.rest.spi;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cruxframework.crux.core.server.rest.core.MediaType;
+import org.cruxframework.crux.core.server.rest.state.ConcurrentLRUMap;
+import org.cruxframework.crux.core.server.rest.util.MediaTypeHelper;
+
+/**
+ * Cache for parsed Accept headers. Clients send only a few distinct Accept values, so each raw header
+ * value is parsed and sorted by weight only once. The same immutable list instance is returned for
+ * every request that sends that value, and it also carries the result of the content negotiation for the
+ * JSON responses produced by the resource methods (see {@link #isJsonAccepted(List)}).
+ *
+ * The cache is bounded, so clients sending random headers can not exhaust the server memory.
+ */
+public class AcceptHeaderCache
+{
+	private final ConcurrentLRUMap<String, List<MediaType>> entries;
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	/**
+	 * @param maxEntries max number of distinct header values kept by the cache
+	 */
+	public AcceptHeaderCache(int maxEntries)
+	{
+		this.entries = new ConcurrentLRUMap<String, List<MediaType>>(maxEntries)
+		{
+			@Override
+			protected void onEviction(String key, List<MediaType> value)
+			{
+				evictionCount.incrementAndGet();
+			}
+		};
+	}
+
+	/**
+	 * Retrieve the media types accepted by the given header value, sorted by weight.
+	 * @param header raw Accept header value
+	 * @return an immutable list of media types
+	 */
+	public List<MediaType> get(String header)
+	{
+		List<MediaType> result = entries.get(header);
+		if (result != null)
+		{
+			hitCount.incrementAndGet();
+			return result;
+		}
+		missCount.incrementAndGet();
+		List<MediaType> mediaTypes = MediaTypeHelper.parseHeader(header);
+		MediaTypeHelper.sortByWeight(mediaTypes);
+		result = new MediaTypeList(mediaTypes.toArray(new MediaType[mediaTypes.size()]));
+		entries.put(header, result);
+		return result;
+	}
+
+	/**
+	 * Check if JSON responses are accepted by the given media types. For lists returned by this cache, 
+	 * the answer is computed only once, when the header is parsed.
+	 * @param accepts media types accepted by the client, sorted by weight
+	 * @return
+	 */
+	public static boolean isJsonAccepted(List<MediaType> accepts)
+	{
+		if (accepts instanceof MediaTypeList)
+		{
+			return ((MediaTypeList) accepts).jsonAccepted;
+		}
+		return MediaTypeHelper.isAccepted(MediaType.APPLICATION_JSON_TYPE, accepts);
+	}
+
+	/**
+	 * Remove all cached headers.
+	 */
+	public void clear()
+	{
+		entries.clear();
+	}
+
+	/**
+	 * Number of headers served from this cache
+	 * @return
+	 */
+	public long getHitCount()
+	{
+		return hitCount.get();
+	}
+
+	/**
+	 * Number of headers that needed to be parsed
+	 * @return
+	 */
+	public long getMissCount()
+	{
+		return missCount.get();
+	}
+
+	/**
+	 * Number of entries removed to respect the cache size bound
+	 * @return
+	 */
+	public long getEvictionCount()
+	{
+		return evictionCount.get();
+	}
+
+	/**
+	 * Fraction of the lookups served from this cache
+	 * @return
+	 */
+	public double getHitRatio()
+	{
+		long hits = hitCount.get();
+		long total = hits + missCount.get();
+		return (total == 0) ? 0 : (double) hits / total;
+	}
+
+	/**
+	 * Number of entries currently stored
+	 * @return
+	 */
+	public int getEntryCount()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * Immutable list that computes its hash code and the JSON negotiation result only once.
+	 */
+	private static class MediaTypeList extends AbstractList<MediaType> implements RandomAccess
+	{
+		private final MediaType[] mediaTypes;
+		private final int hashCode;
+		private final boolean jsonAccepted;
+
+		private MediaTypeList(MediaType[] mediaTypes)
+		{
+			this.mediaTypes = mediaTypes;
+			this.hashCode = Arrays.hashCode(mediaTypes);
+			this.jsonAccepted = MediaTypeHelper.isAccepted(MediaType.APPLICATION_JSON_TYPE, Arrays.asList(mediaTypes));
+		}
+
+		@Override
+		public MediaType get(int index)
+		{
+			return mediaTypes[index];
+		}
+
+		@Override
+		public int size()
+		{
+			return mediaTypes.length;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			return o == this || super.equals(o);
+		}
+	}
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.rest.spi;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.http.HttpSession;
+
+import org.cruxframework.crux.core.server.rest.core.HttpHeaders;
+import org.cruxframework.crux.core.server.rest.core.HttpRequestAware;
+
+/**
+ * A copy of an {@link HttpRequest} that does not depend on the servlet request, so it can be used after the
+ * original request is completed (to invoke a rest method on a background thread, for example).
+ *
+ * The copy must be created on the thread that is processing the original request. It has no body and
+ * it can not check the user roles, as the container only does it inside the request. So it must not be
+ * handed to services that are {@link HttpRequestAware}.
+ */
+public class DetachedHttpRequest extends HttpRequest
+{
+	private final Map<String, Object> attributes;
+	private final Principal userPrincipal;
+	private final HttpSession session;
+	private final String contextPath;
+	private final Locale locale;
+	private final String remoteHost;
+	private final String remoteAddr;
+	private final int remotePort;
+	private final String remoteUser;
+
+	public DetachedHttpRequest(HttpRequest request)
+	{
+		// The original UriInfo is still used by the request thread
+		super(null, new DetachedHttpHeaders(request.getHttpHeaders()), new UriInfo(request.getUri()), request.getHttpMethod());
+		this.formParameters = request.getFormParameters();
+		this.decodedFormParameters = request.getDecodedFormParameters();
+		this.attributes = Collections.synchronizedMap(new HashMap<String, Object>());
+		Enumeration<String> names = request.getAttributeNames();
+		while (names.hasMoreElements())
+		{
+			String name = names.nextElement();
+			attributes.put(name, request.getAttribute(name));
+		}
+		this.userPrincipal = request.getUserPrincipal();
+		this.session = request.getSession(false);
+		this.contextPath = request.getContextPath();
+		this.locale = request.getLocale();
+		this.remoteHost = request.getRemoteHost();
+		this.remoteAddr = request.getRemoteAddr();
+		this.remotePort = request.getRemotePort();
+		this.remoteUser = request.getRemoteUser();
+	}
+
+	@Override
+	public Object getAttribute(String attribute)
+	{
+		return attributes.get(attribute);
+	}
+
+	@Override
+	public void setAttribute(String name, Object value)
+	{
+		attributes.put(name, value);
+	}
+
+	@Override
+	public void removeAttribute(String name)
+	{
+		attributes.remove(name);
+	}
+
+	@Override
+	public Enumeration<String> getAttributeNames()
+	{
+		synchronized (attributes)
+		{
+			return Collections.enumeration(new ArrayList<String>(attributes.keySet()));
+		}
+	}
+
+	@Override
+	public Principal getUserPrincipal()
+	{
+		return userPrincipal;
+	}
+
+	@Override
+	public InputStream getInputStream()
+	{
+		return new ByteArrayInputStream(new byte[0]);
+	}
+
+	@Override
+	public HttpSession getSession()
+	{
+		return session;
+	}
+
+	@Override
+	public HttpSession getSession(boolean create)
+	{
+		return session;
+	}
+
+	@Override
+	public String getContextPath()
+	{
+		return contextPath;
+	}
+
+	@Override
+	public Locale getLocale()
+	{
+		return locale;
+	}
+
+	@Override
+	public String getRemoteHost()
+	{
+		return remoteHost;
+	}
+
+	@Override
+	public String getRemoteAddr()
+	{
+		return remoteAddr;
+	}
+
+	@Override
+	public int getRemotePort()
+	{
+		return remotePort;
+	}
+
+	@Override
+	public boolean isUserInRole(String role)
+	{
+		throw new UnsupportedOperationException("User roles can not be checked outside the original request");
+	}
+
+	@Override
+	public String getRemoteUser()
+	{
+		return remoteUser;
+	}
+
+	/**
+	 * Request headers copied from the original request
+	 */
+	private static class DetachedHttpHeaders extends HttpHeaders
+	{
+		private final Locale language;
+		private final List<Locale> acceptableLanguages;
+
+		private DetachedHttpHeaders(HttpHeaders headers)
+		{
+			setRequestHeaders(headers.getRequestHeaders());
+			setSortedAcceptableMediaTypes(headers.getAcceptableMediaTypes());
+			setMediaType(headers.getMediaType());
+			setCookies(headers.getCookies());
+			this.language = headers.getLanguage();
+			this.acceptableLanguages = headers.getAcceptableLanguages();
+		}
+
+		@Override
+		public Locale getLanguage()
+		{
+			return language;
+		}
+
+		@Override
+		public List<Locale> getAcceptableLanguages()
+		{
+			return acceptableLanguages;
+		}
+	}
+}
@@ -31,6 +31,7 @@ import org.cruxframework.crux.core.server.rest.core.MediaType;
 import org.cruxframework.crux.core.server.rest.core.MultivaluedMap;
 import org.cruxframework.crux.core.server.rest.core.NewCookie;
 import org.cruxframework.crux.core.server.rest.util.CaseInsensitiveMap;
+import org.cruxframework.crux.core.server.rest.util.HttpDateCodec;
 import org.cruxframework.crux.core.server.rest.util.header.CacheControlHeaderParser;
 import org.cruxframework.crux.core.server.rest.util.header.CookieHeaderParser;
 import org.cruxframework.crux.core.server.rest.util.header.EntityTagHeaderParser;
@@ -268,6 +269,7 @@ public class HttpServletResponseHeaders implements MultivaluedMap<String, Object
 	
 	public void addDateHeader(String name, long date)
 	{
-		response.addDateHeader(name, date);
+		// Dates are formatted by crux, so the formatted values can be reused between responses
+		response.addHeader(name, HttpDateCodec.format(date));
 	}
 }
\ No newline at end of file
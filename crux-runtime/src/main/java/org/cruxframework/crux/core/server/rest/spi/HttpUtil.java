@@ -16,7 +16,6 @@
 package org.cruxframework.crux.core.server.rest.spi;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -27,11 +26,11 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -45,13 +44,17 @@ import org.cruxframework.crux.core.server.rest.core.MediaType;
 import org.cruxframework.crux.core.server.rest.core.MultivaluedMap;
 import org.cruxframework.crux.core.server.rest.core.UriBuilder;
 import org.cruxframework.crux.core.server.rest.core.dispatch.CacheInfo;
+import org.cruxframework.crux.core.server.rest.core.dispatch.CompressionInfo;
 import org.cruxframework.crux.core.server.rest.core.dispatch.ConditionalResponse;
 import org.cruxframework.crux.core.server.rest.core.dispatch.ResourceMethod.MethodReturn;
+import org.cruxframework.crux.core.server.rest.spi.ResponseCompressor.Encoding;
+import org.cruxframework.crux.core.server.rest.state.ResponseBodyCache.CachedResponse;
 import org.cruxframework.crux.core.server.rest.util.HttpHeaderNames;
 import org.cruxframework.crux.core.server.rest.util.HttpResponseCodes;
-import org.cruxframework.crux.core.server.rest.util.MediaTypeHelper;
 import org.cruxframework.crux.core.server.rest.util.PathHelper;
 import org.cruxframework.crux.core.server.rest.util.header.MediaTypeHeaderParser;
+import org.cruxframework.crux.core.shared.rest.annotation.GET;
+import org.cruxframework.crux.core.shared.rest.annotation.GET.Compression;
 
 /**
  * 
@@ -60,6 +63,9 @@ import org.cruxframework.crux.core.server.rest.util.header.MediaTypeHeaderParser
  */
 public class HttpUtil
 {
+	private static final int ACCEPT_HEADER_CACHE_SIZE = 256;
+	private static final AcceptHeaderCache acceptHeaderCache = new AcceptHeaderCache(ACCEPT_HEADER_CACHE_SIZE);
+
 	public static UriInfo extractUriInfo(HttpServletRequest request)
 	{
 		String servletPrefix = request.getServletPath();
@@ -72,6 +78,51 @@ public class HttpUtil
 			}
 			contextPath += servletPrefix;
 		}
+		String requestPath = request.getRequestURI();
+		if (isPlainPath(requestPath))
+		{
+			// No need to encode or decode anything. The URIs are only built if some service asks for them.
+			String path = PathHelper.getEncodedPathInfo(requestPath, contextPath);
+			return new UriInfo(request, contextPath, path.startsWith("/")?path:"/"+path);
+		}
+		URI[] uris = extractRequestURIs(request, contextPath);
+		return new UriInfo(uris[0], uris[1]);
+	}
+
+	/**
+	 * Check if the given path contains only unreserved characters, sub-delims, '@' and '/'.
+	 * @param path
+	 * @return
+	 */
+	private static boolean isPlainPath(String path)
+	{
+		if (path == null || !path.startsWith("/"))
+		{
+			return false;
+		}
+		for (int i = 0; i < path.length(); i++)
+		{
+			char c = path.charAt(i);
+			if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9'))
+			{
+				continue;
+			}
+			if ("-._~!$&'()*+,;=@/".indexOf(c) < 0)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Build the base and the relative URIs for the given request.
+	 * @param request
+	 * @param contextPath
+	 * @return an array containing the base URI and the relative URI
+	 */
+	static URI[] extractRequestURIs(HttpServletRequest request, String contextPath)
+	{
 		URI absolutePath = null;
 		try
 		{
@@ -103,32 +154,18 @@ public class HttpUtil
 			}
 			baseURI = UriBuilder.fromUri(absolutePath).replacePath(tmpContextPath).build();
 		}
-		UriInfo uriInfo = new UriInfo(baseURI, relativeURI);
-		return uriInfo;
+		return new URI[]{baseURI, relativeURI};
 	}
 
+	/**
+	 * Create the HttpHeaders for the given request. Headers are read from the request 
+	 * only when they are needed.
+	 * @param request
+	 * @return
+	 */
 	public static HttpHeaders extractHttpHeaders(HttpServletRequest request)
 	{
-		HttpHeaders headers = new HttpHeaders();
-
-		MultivaluedMap<String, String> requestHeaders = extractRequestHeaders(request);
-		headers.setRequestHeaders(requestHeaders);
-		List<MediaType> acceptableMediaTypes = extractAccepts(requestHeaders);
-		List<String> acceptableLanguages = extractLanguages(requestHeaders);
-		headers.setAcceptableMediaTypes(acceptableMediaTypes);
-		headers.setAcceptableLanguages(acceptableLanguages);
-		headers.setLanguage(requestHeaders.getFirst(HttpHeaderNames.CONTENT_LANGUAGE));
-
-		String contentType = request.getContentType();
-		if (contentType != null)
-		{
-			headers.setMediaType(MediaType.valueOf(contentType));
-		}
-
-		Map<String, Cookie> cookies = extractCookies(request);
-		headers.setCookies(cookies);
-		return headers;
-
+		return new LazyHttpHeaders(request);
 	}
 
 	public static String wGet(String targetURL, String urlParameters, String method, String locale)
@@ -202,24 +239,59 @@ public class HttpUtil
 
 	public static List<MediaType> extractAccepts(MultivaluedMap<String, String> requestHeaders)
 	{
-		List<MediaType> acceptableMediaTypes = new ArrayList<MediaType>();
-		List<String> accepts = requestHeaders.get(HttpHeaderNames.ACCEPT);
-		if (accepts == null)
+		return new ArrayList<MediaType>(extractAccepts(requestHeaders.get(HttpHeaderNames.ACCEPT)));
+	}
+
+	/**
+	 * Parse the Accept header values. The result is an immutable list, already sorted by weight,
+	 * that is shared by all requests that send the same header.
+	 * @param accepts
+	 * @return
+	 */
+	static List<MediaType> extractAccepts(List<String> accepts)
+	{
+		if (accepts == null || accepts.isEmpty())
 		{
-			return acceptableMediaTypes;
+			return Collections.emptyList();
 		}
-
-		for (String accept : accepts)
+		String header;
+		if (accepts.size() == 1)
+		{
+			header = accepts.get(0);
+		}
+		else
 		{
-			acceptableMediaTypes.addAll(MediaTypeHelper.parseHeader(accept));
+			StringBuilder str = new StringBuilder();
+			for (String accept : accepts)
+			{
+				if (str.length() > 0)
+				{
+					str.append(',');
+				}
+				str.append(accept);
+			}
+			header = str.toString();
 		}
-		return acceptableMediaTypes;
+		return acceptHeaderCache.get(header);
+	}
+
+	/**
+	 * Cache used to parse the Accept headers
+	 * @return
+	 */
+	public static AcceptHeaderCache getAcceptHeaderCache()
+	{
+		return acceptHeaderCache;
 	}
 
 	public static List<String> extractLanguages(MultivaluedMap<String, String> requestHeaders)
+	{
+		return extractLanguages(requestHeaders.get(HttpHeaderNames.ACCEPT_LANGUAGE));
+	}
+
+	static List<String> extractLanguages(List<String> accepts)
 	{
 		List<String> acceptable = new ArrayList<String>();
-		List<String> accepts = requestHeaders.get(HttpHeaderNames.ACCEPT_LANGUAGE);
 		if (accepts == null)
 		{
 			return acceptable;
@@ -262,12 +334,24 @@ public class HttpUtil
 		assert (request != null);
 
 		String acceptEncoding = request.getHttpHeaders().getHeaderString(HttpHeaderNames.ACCEPT_ENCODING);
-		if (null == acceptEncoding)
+		return ResponseCompressor.negotiate(acceptEncoding, Compression.GZIP) != null;
+	}
+
+	/**
+	 * Choose the encoding used to compress a response.
+	 * @param request
+	 * @param compressionInfo compression settings of the rest method
+	 * @param contentBytesLength uncompressed response size
+	 * @return the encoding or null if the response must not be compressed
+	 */
+	static Encoding negotiateContentEncoding(HttpRequest request, CompressionInfo compressionInfo, int contentBytesLength)
+	{
+		if (!compressionInfo.shouldCompress(contentBytesLength))
 		{
-			return false;
+			return null;
 		}
-
-		return (acceptEncoding.indexOf("gzip") != -1);
+		String acceptEncoding = request.getHttpHeaders().getHeaderString(HttpHeaderNames.ACCEPT_ENCODING);
+		return ResponseCompressor.negotiate(acceptEncoding, compressionInfo.getCompression());
 	}
 
 	private static final int UNCOMPRESSED_BYTE_SIZE_LIMIT = 256;
@@ -277,6 +361,7 @@ public class HttpUtil
 		return (content != null) && ((content.length() * 2) > UNCOMPRESSED_BYTE_SIZE_LIMIT);
 	}
 
+
 	public static boolean shouldGzipResponseContent(HttpRequest request, String responseContent)
 	{
 		return acceptsGzipEncoding(request) && exceedsUncompressedContentLengthLimit(responseContent);
@@ -302,27 +387,69 @@ public class HttpUtil
 		{
 			writeConditionalResponse(response, methodReturn, outputHeaders);
 		}
+		else if (methodReturn.isStreamingEntity())
+		{
+			StreamingResponseWriter.writeEntity(request, response, methodReturn);
+		}
+		else if (methodReturn.getCachedResponse() != null)
+		{
+			writeCachedResponse(request, response, methodReturn);
+		}
 		else
 		{
-			CacheInfo cacheInfo = methodReturn.getCacheInfo();
-			if (cacheInfo != null)
-			{
-				writeCacheHeaders(response, cacheInfo, methodReturn.getEtag(), methodReturn.getDateModified(), methodReturn.isEtagGenerationEnabled());
-			}
+			writeEntityHeaders(response, methodReturn);
 
 			String responseContent = methodReturn.getReturn();
-			byte[] responseBytes = getResponseBytes(request, response, responseContent);
+			byte[] responseBytes = getResponseBytes(request, response, responseContent, methodReturn.getCompressionInfo());
 			response.setContentLength(responseBytes.length);
-			response.setStatus(HttpServletResponse.SC_OK);
-			outputHeaders.putSingle(HttpHeaderNames.CONTENT_TYPE, new MediaType("application", "json", "UTF-8"));
 			response.getOutputStream().write(responseBytes);
 		}
 	}
 
+	static void writeEntityHeaders(HttpResponse response, MethodReturn methodReturn)
+	{
+		CacheInfo cacheInfo = methodReturn.getCacheInfo();
+		if (cacheInfo != null)
+		{
+			writeCacheHeaders(response, cacheInfo, methodReturn.getEtag(), methodReturn.getDateModified(), methodReturn.isEtagGenerationEnabled());
+		}
+		if (methodReturn.getCompressionInfo().isCompressionEnabled())
+		{
+			response.getOutputHeaders().add(HttpHeaderNames.VARY, HttpHeaderNames.ACCEPT_ENCODING);
+		}
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.getOutputHeaders().putSingle(HttpHeaderNames.CONTENT_TYPE, new MediaType("application", "json", "UTF-8"));
+	}
+
+	private static void writeCachedResponse(HttpRequest request, HttpResponse response, MethodReturn methodReturn) throws IOException
+	{
+		writeEntityHeaders(response, methodReturn);
+		CachedResponse cachedResponse = methodReturn.getCachedResponse();
+		byte[] responseBytes = cachedResponse.getContent();
+		Encoding encoding = negotiateContentEncoding(request, methodReturn.getCompressionInfo(), responseBytes.length);
+		if (encoding == Encoding.GZIP && cachedResponse.getGzippedContent() != null)
+		{
+			// Reuse the compressed form stored by the cache
+			responseBytes = cachedResponse.getGzippedContent();
+			response.getOutputHeaders().putSingle(HttpHeaderNames.CONTENT_ENCODING, encoding.getName());
+		}
+		else if (encoding != null)
+		{
+			responseBytes = compressResponseBytes(response, responseBytes, responseBytes.length, encoding, methodReturn.getCompressionInfo().getLevel());
+		}
+		response.setContentLength(responseBytes.length);
+		response.getOutputStream().write(responseBytes);
+	}
+
 	private static void writeConditionalResponse(HttpResponse response, MethodReturn methodReturn, HttpServletResponseHeaders outputHeaders)
 	{
 		ConditionalResponse conditionalResponse = methodReturn.getConditionalResponse();
 		response.setStatus(conditionalResponse.getStatus());
+		if (conditionalResponse.getStatus() == HttpServletResponse.SC_NOT_MODIFIED && methodReturn.getCompressionInfo().isCompressionEnabled())
+		{
+			// A 304 must carry the same Vary header of the 200 response it replaces
+			outputHeaders.add(HttpHeaderNames.VARY, HttpHeaderNames.ACCEPT_ENCODING);
+		}
 
 		EntityTag etag = conditionalResponse.getEtag();
 		long dateModified = conditionalResponse.getLastModified();
@@ -386,6 +513,10 @@ public class HttpUtil
 				cacheControl.setNoCache(true);
 				break;
 			}
+			if (cacheInfo.isStaleWhileRevalidateEnabled() && cacheInfo.getCacheControl() != GET.CacheControl.NO_CACHE)
+			{
+				cacheControl.setStaleWhileRevalidate(cacheInfo.getStaleWhileRevalidate());
+			}
 			cacheControl.setNoTransform(cacheInfo.isNoTransform());
 			cacheControl.setMustRevalidate(cacheInfo.isMustRevalidate());
 			cacheControl.setProxyRevalidate(cacheInfo.isProxyRevalidate());
@@ -393,43 +524,36 @@ public class HttpUtil
 		outputHeaders.putSingle(HttpHeaderNames.CACHE_CONTROL, cacheControl);
 	}
 
-	private static byte[] getResponseBytes(HttpRequest request, HttpResponse response, String responseContent) throws UnsupportedEncodingException, IOException
+	private static byte[] getResponseBytes(HttpRequest request, HttpResponse response, String responseContent, CompressionInfo compressionInfo) throws UnsupportedEncodingException, IOException
 	{
-		boolean gzipResponse = shouldGzipResponseContent(request, responseContent);
 		byte[] responseBytes = (responseContent!=null?responseContent.getBytes("UTF-8"):new byte[0]);
-		if (gzipResponse)
+		Encoding encoding = negotiateContentEncoding(request, compressionInfo, responseBytes.length);
+		if (encoding != null)
 		{
-			ByteArrayOutputStream output = null;
-			GZIPOutputStream gzipOutputStream = null;
-			try
-			{
-				output = new ByteArrayOutputStream(responseBytes.length);
-				gzipOutputStream = new GZIPOutputStream(output);
-				gzipOutputStream.write(responseBytes);
-				gzipOutputStream.finish();
-				gzipOutputStream.flush();
-				response.getOutputHeaders().putSingle(HttpHeaderNames.CONTENT_ENCODING, "gzip");
-				responseBytes = output.toByteArray();
-			}
-			catch (IOException e)
-			{
-				throw new InternalServerErrorException("Unable to compress response", "Error processing requested service", e);
-			}
-			finally
-			{
-				if (null != gzipOutputStream)
-				{
-					gzipOutputStream.close();
-				}
-				if (null != output)
-				{
-					output.close();
-				}
-			}
+			responseBytes = compressResponseBytes(response, responseBytes, responseBytes.length, encoding, compressionInfo.getLevel());
 		}
 		return responseBytes;
 	}
 
+	static byte[] compressResponseBytes(HttpResponse response, byte[] responseBytes, int length, Encoding encoding, int level) throws IOException
+	{
+		byte[] result = compress(responseBytes, length, encoding, level);
+		response.getOutputHeaders().putSingle(HttpHeaderNames.CONTENT_ENCODING, encoding.getName());
+		return result;
+	}
+
+	public static byte[] compress(byte[] responseBytes, int length, Encoding encoding, int level)
+	{
+		try
+		{
+			return ResponseCompressor.compress(responseBytes, length, encoding, level);
+		}
+		catch (IOException e)
+		{
+			throw new InternalServerErrorException("Unable to compress response", "Error processing requested service", e);
+		}
+	}
+
 	public static void sendError(HttpServletResponse response, int status, String message) throws IOException
 	{
 		response.setStatus(status);
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.rest.spi;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.cruxframework.crux.core.server.rest.core.Cookie;
+import org.cruxframework.crux.core.server.rest.core.HttpHeaders;
+import org.cruxframework.crux.core.server.rest.core.MediaType;
+import org.cruxframework.crux.core.server.rest.core.MultivaluedMap;
+import org.cruxframework.crux.core.server.rest.util.HttpHeaderNames;
+
+/**
+ * HttpHeaders implementation that reads the servlet request headers on demand.
+ * Single header lookups go straight to the servlet request. Header maps, media types,
+ * languages and cookies are only extracted the first time they are requested.
+ */
+class LazyHttpHeaders extends HttpHeaders
+{
+	private final HttpServletRequest request;
+	private boolean requestHeadersExtracted;
+	private boolean acceptableMediaTypesExtracted;
+	private boolean acceptableLanguagesExtracted;
+	private boolean languageExtracted;
+	private boolean mediaTypeExtracted;
+	private boolean cookiesExtracted;
+
+	LazyHttpHeaders(HttpServletRequest request)
+	{
+		this.request = request;
+	}
+
+	@Override
+	public MultivaluedMap<String, String> getRequestHeaders()
+	{
+		if (!requestHeadersExtracted)
+		{
+			setRequestHeaders(HttpUtil.extractRequestHeaders(request));
+		}
+		return super.getRequestHeaders();
+	}
+
+	@Override
+	public void setRequestHeaders(MultivaluedMap<String, String> requestHeaders)
+	{
+		requestHeadersExtracted = true;
+		super.setRequestHeaders(requestHeaders);
+	}
+
+	@Override
+	public List<String> getRequestHeader(String name)
+	{
+		if (requestHeadersExtracted)
+		{
+			return super.getRequestHeader(name);
+		}
+		@SuppressWarnings("unchecked")
+		Enumeration<String> values = request.getHeaders(name);
+		if (values == null || !values.hasMoreElements())
+		{
+			return null;
+		}
+		List<String> result = new ArrayList<String>(1);
+		while (values.hasMoreElements())
+		{
+			result.add(values.nextElement());
+		}
+		return result;
+	}
+
+	@Override
+	public String getHeaderString(String name)
+	{
+		if (requestHeadersExtracted)
+		{
+			return super.getHeaderString(name);
+		}
+		return request.getHeader(name);
+	}
+
+	@Override
+	public List<MediaType> getAcceptableMediaTypes()
+	{
+		if (!acceptableMediaTypesExtracted)
+		{
+			try
+			{
+				setSortedAcceptableMediaTypes(HttpUtil.extractAccepts(getRequestHeader(HttpHeaderNames.ACCEPT)));
+			}
+			catch (RuntimeException e)
+			{
+				throw new BadRequestException("Failed to parse request: Invalid Accept header", "Failed to parse request.", e);
+			}
+		}
+		return super.getAcceptableMediaTypes();
+	}
+
+	@Override
+	public void setAcceptableMediaTypes(List<MediaType> acceptableMediaTypes)
+	{
+		acceptableMediaTypesExtracted = true;
+		super.setAcceptableMediaTypes(acceptableMediaTypes);
+	}
+
+	@Override
+	protected void setSortedAcceptableMediaTypes(List<MediaType> acceptableMediaTypes)
+	{
+		acceptableMediaTypesExtracted = true;
+		super.setSortedAcceptableMediaTypes(acceptableMediaTypes);
+	}
+
+	@Override
+	public List<Locale> getAcceptableLanguages()
+	{
+		if (!acceptableLanguagesExtracted)
+		{
+			setAcceptableLanguages(HttpUtil.extractLanguages(getRequestHeader(HttpHeaderNames.ACCEPT_LANGUAGE)));
+		}
+		return super.getAcceptableLanguages();
+	}
+
+	@Override
+	public void setAcceptableLanguages(List<String> acceptableLanguages)
+	{
+		acceptableLanguagesExtracted = true;
+		super.setAcceptableLanguages(acceptableLanguages);
+	}
+
+	@Override
+	public Locale getLanguage()
+	{
+		if (!languageExtracted)
+		{
+			setLanguage(getHeaderString(HttpHeaderNames.CONTENT_LANGUAGE));
+		}
+		return super.getLanguage();
+	}
+
+	@Override
+	public void setLanguage(String language)
+	{
+		languageExtracted = true;
+		super.setLanguage(language);
+	}
+
+	@Override
+	public MediaType getMediaType()
+	{
+		if (!mediaTypeExtracted)
+		{
+			String contentType = request.getContentType();
+			if (contentType != null)
+			{
+				try
+				{
+					setMediaType(MediaType.valueOf(contentType));
+				}
+				catch (RuntimeException e)
+				{
+					throw new BadRequestException("Failed to parse request: Invalid Content-Type header", "Failed to parse request.", e);
+				}
+			}
+			mediaTypeExtracted = true;
+		}
+		return super.getMediaType();
+	}
+
+	@Override
+	public void setMediaType(MediaType mediaType)
+	{
+		mediaTypeExtracted = true;
+		super.setMediaType(mediaType);
+	}
+
+	@Override
+	public Map<String, Cookie> getCookies()
+	{
+		if (!cookiesExtracted)
+		{
+			setCookies(HttpUtil.extractCookies(request));
+		}
+		return super.getCookies();
+	}
+
+	@Override
+	public void setCookies(Map<String, Cookie> cookies)
+	{
+		cookiesExtracted = true;
+		super.setCookies(cookies);
+	}
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.rest.spi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.cruxframework.crux.core.shared.rest.annotation.GET.Compression;
+
+/**
+ * Compresses rest responses. It negotiates the content encoding with the client (honoring the
+ * q-values of the Accept-Encoding header) and compresses the content with pooled {@link Deflater}
+ * instances, avoiding the native memory allocated by each new Deflater.
+ */
+public class ResponseCompressor
+{
+	private static final int MAX_POOLED_DEFLATERS = 64;
+	private static final int BUFFER_SIZE = 8192;
+	private static final byte[] GZIP_HEADER = new byte[]{(byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+	private static final DeflaterPool gzipDeflaters = new DeflaterPool(true);
+	private static final DeflaterPool zlibDeflaters = new DeflaterPool(false);
+
+	/**
+	 * Content encodings supported
+	 */
+	public static enum Encoding
+	{
+		GZIP("gzip"), DEFLATE("deflate");
+
+		private final String name;
+
+		private Encoding(String name)
+		{
+			this.name = name;
+		}
+
+		/**
+		 * The encoding name, as used on Content-Encoding header
+		 * @return
+		 */
+		public String getName()
+		{
+			return name;
+		}
+	}
+
+	/**
+	 * Choose the content encoding for a response.
+	 * @param acceptEncoding the Accept-Encoding header sent by the client
+	 * @param compression the algorithms allowed by the rest method
+	 * @return the encoding to use or null if the response must not be compressed
+	 */
+	public static Encoding negotiate(String acceptEncoding, Compression compression)
+	{
+		if (acceptEncoding == null || compression == Compression.NONE)
+		{
+			return null;
+		}
+		float gzipQ = -1;
+		float deflateQ = -1;
+		float wildcardQ = -1;
+		int length = acceptEncoding.length();
+		int start = 0;
+		while (start < length)
+		{
+			int end = acceptEncoding.indexOf(',', start);
+			if (end < 0)
+			{
+				end = length;
+			}
+			int paramsStart = acceptEncoding.indexOf(';', start);
+			if (paramsStart < 0 || paramsStart > end)
+			{
+				paramsStart = end;
+			}
+			String coding = acceptEncoding.substring(start, paramsStart).trim();
+			float q = parseQValue(acceptEncoding, paramsStart, end);
+			if (coding.equalsIgnoreCase("gzip") || coding.equalsIgnoreCase("x-gzip"))
+			{
+				gzipQ = q;
+			}
+			else if (coding.equalsIgnoreCase("deflate"))
+			{
+				deflateQ = q;
+			}
+			else if (coding.equals("*"))
+			{
+				wildcardQ = q;
+			}
+			start = end + 1;
+		}
+		if (gzipQ < 0)
+		{
+			gzipQ = wildcardQ;
+		}
+		if (deflateQ < 0)
+		{
+			deflateQ = wildcardQ;
+		}
+
+		switch (compression)
+		{
+			case GZIP:
+				return (gzipQ > 0) ? Encoding.GZIP : null;
+			case DEFLATE:
+				return (deflateQ > 0) ? Encoding.DEFLATE : null;
+			default:
+				if (gzipQ > 0 && gzipQ >= deflateQ)
+				{
+					return Encoding.GZIP;
+				}
+				return (deflateQ > 0) ? Encoding.DEFLATE : null;
+		}
+	}
+
+	/**
+	 * Compress the given content.
+	 * @param content
+	 * @param length number of bytes to compress
+	 * @param encoding
+	 * @param level Deflater compression level
+	 * @return compressed content
+	 * @throws IOException
+	 */
+	public static byte[] compress(byte[] content, int length, Encoding encoding, int level) throws IOException
+	{
+		ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(length / 2, 64));
+		CompressingOutputStream out = createOutputStream(output, encoding, level);
+		try
+		{
+			out.write(content, 0, length);
+			out.finish();
+		}
+		finally
+		{
+			out.release();
+		}
+		return output.toByteArray();
+	}
+
+	/**
+	 * Create a stream that compresses all content written into the target stream. The stream must be
+	 * finished (or closed) to complete the compressed content and to return its deflater to the pool.
+	 * @param target
+	 * @param encoding
+	 * @param level Deflater compression level
+	 * @return
+	 * @throws IOException
+	 */
+	public static CompressingOutputStream createOutputStream(OutputStream target, Encoding encoding, int level) throws IOException
+	{
+		return new CompressingOutputStream(target, encoding, level);
+	}
+
+	private static float parseQValue(String acceptEncoding, int paramsStart, int end)
+	{
+		int qIndex = acceptEncoding.indexOf("q=", paramsStart);
+		if (qIndex < 0 || qIndex >= end)
+		{
+			return 1;
+		}
+		try
+		{
+			return Float.parseFloat(acceptEncoding.substring(qIndex + 2, end).trim());
+		}
+		catch (NumberFormatException e)
+		{
+			return 0;
+		}
+	}
+
+	/**
+	 * Output stream that compresses content using gzip or deflate (zlib) formats.
+	 */
+	public static class CompressingOutputStream extends DeflaterOutputStream
+	{
+		private final DeflaterPool pool;
+		private final CRC32 crc;
+		private boolean finished;
+		private boolean released;
+
+		private CompressingOutputStream(OutputStream target, Encoding encoding, int level) throws IOException
+		{
+			this(target, (encoding == Encoding.GZIP) ? gzipDeflaters : zlibDeflaters, level);
+		}
+
+		private CompressingOutputStream(OutputStream target, DeflaterPool pool, int level) throws IOException
+		{
+			super(target, pool.acquire(level), BUFFER_SIZE);
+			this.pool = pool;
+			if (pool.nowrap)
+			{
+				crc = new CRC32();
+				out.write(GZIP_HEADER);
+			}
+			else
+			{
+				crc = null;
+			}
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException
+		{
+			if (released)
+			{
+				throw new IOException("Stream already finished");
+			}
+			super.write(b, off, len);
+			if (crc != null)
+			{
+				crc.update(b, off, len);
+			}
+		}
+
+		@Override
+		public void finish() throws IOException
+		{
+			if (!finished)
+			{
+				finished = true;
+				try
+				{
+					super.finish();
+					if (crc != null)
+					{
+						writeInt((int) crc.getValue());
+						writeInt(def.getTotalIn());
+					}
+				}
+				finally
+				{
+					release();
+				}
+			}
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			try
+			{
+				finish();
+				out.close();
+			}
+			finally
+			{
+				release();
+			}
+		}
+
+		/**
+		 * Return the deflater to the pool. The stream can not be used after that, as the deflater 
+		 * can be already in use by another stream.
+		 */
+		void release()
+		{
+			if (!released)
+			{
+				released = true;
+				Deflater deflater = def;
+				def = null;
+				pool.release(deflater);
+			}
+		}
+
+		private void writeInt(int i) throws IOException
+		{
+			out.write(i & 0xff);
+			out.write((i >> 8) & 0xff);
+			out.write((i >> 16) & 0xff);
+			out.write((i >> 24) & 0xff);
+		}
+	}
+
+	/**
+	 * A bounded pool of Deflaters. Deflaters that do not fit into the pool are ended immediately,
+	 * releasing their native memory.
+	 */
+	private static class DeflaterPool
+	{
+		private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+		private final AtomicInteger size = new AtomicInteger();
+		private final boolean nowrap;
+
+		private DeflaterPool(boolean nowrap)
+		{
+			this.nowrap = nowrap;
+		}
+
+		private Deflater acquire(int level)
+		{
+			Deflater deflater = deflaters.poll();
+			if (deflater == null)
+			{
+				return new Deflater(level, nowrap);
+			}
+			size.decrementAndGet();
+			deflater.setLevel(level);
+			return deflater;
+		}
+
+		private void release(Deflater deflater)
+		{
+			if (size.incrementAndGet() <= MAX_POOLED_DEFLATERS)
+			{
+				deflater.reset();
+				deflaters.offer(deflater);
+			}
+			else
+			{
+				size.decrementAndGet();
+				deflater.end();
+			}
+		}
+	}
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.rest.spi;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cruxframework.crux.core.config.ConfigurationFactory;
+import org.cruxframework.crux.core.server.rest.core.dispatch.CompressionInfo;
+import org.cruxframework.crux.core.server.rest.core.dispatch.ResourceMethod.MethodReturn;
+import org.cruxframework.crux.core.server.rest.core.dispatch.StateHandler;
+import org.cruxframework.crux.core.server.rest.spi.ResponseCompressor.CompressingOutputStream;
+import org.cruxframework.crux.core.server.rest.spi.ResponseCompressor.Encoding;
+import org.cruxframework.crux.core.server.rest.state.ETagDigest;
+import org.cruxframework.crux.core.server.rest.state.ETagHandler;
+import org.cruxframework.crux.core.server.rest.state.StreamingETagHandler;
+import org.cruxframework.crux.core.server.rest.util.HttpHeaderNames;
+
+/**
+ * Writes rest methods return values directly to the servlet output stream, without building
+ * the whole serialized body as a String.
+ *
+ * The entity is serialized into a bounded buffer. If the whole content fits into that buffer,
+ * the response is written as usual (with Content-Length, ETag and compression).
+ * Otherwise, headers are committed as soon as the buffer overflows and the remaining content is
+ * streamed to the client (through a streaming compressor, if the client accepts it).
+ *
+ * The buffer size can be configured through the Crux property restResponseStreamingBufferSize.
+ *
+ * When the configured {@link ETagHandler} is a {@link StreamingETagHandler}, the eTag is computed 
+ * from the bytes as they are encoded, so no other copy of the content is needed to obtain it.
+ */
+public class StreamingResponseWriter
+{
+	private static final Log logger = LogFactory.getLog(StreamingResponseWriter.class);
+	private static final Lock lock = new ReentrantLock();
+	private static final int DEFAULT_BUFFER_SIZE = 65536;
+	private static int bufferSize = -1;
+
+	public static void writeEntity(HttpRequest request, HttpResponse response, MethodReturn methodReturn) throws IOException
+	{
+		ETagDigest digest = getDigest(methodReturn);
+		EntityOutputStream out = new EntityOutputStream(request, response, methodReturn, getBufferSize(), digest);
+		try
+		{
+			try
+			{
+				methodReturn.writeEntity((digest != null)?new DigestingOutputStream(out, digest):out);
+			}
+			catch (IOException e)
+			{
+				throw new InternalServerErrorException("Error serializing rest service return", "Error processing requested service", e);
+			}
+			out.finish();
+		}
+		finally
+		{
+			// The response may fail after the streaming started. Make sure the deflater goes back to its pool
+			out.release();
+		}
+	}
+
+	private static ETagDigest getDigest(MethodReturn methodReturn)
+	{
+		if (methodReturn.hasDeferredStateUpdate())
+		{
+			ETagHandler eTagHandler = StateHandler.getETagHandler();
+			if (eTagHandler instanceof StreamingETagHandler)
+			{
+				return ((StreamingETagHandler) eTagHandler).getDigest();
+			}
+		}
+		return null;
+	}
+
+	private static int getBufferSize()
+	{
+		if (bufferSize < 0)
+		{
+			lock.lock();
+			try
+			{
+				if (bufferSize < 0)
+				{
+					bufferSize = Integer.parseInt(ConfigurationFactory.getConfigurations().restResponseStreamingBufferSize());
+				}
+			}
+			catch (Exception e)
+			{
+				logger.error("Invalid value for restResponseStreamingBufferSize property. Using default size.", e);
+				bufferSize = DEFAULT_BUFFER_SIZE;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+		return bufferSize;
+	}
+
+	/**
+	 * Buffers the entity content until the buffer limit is reached. After that,
+	 * it starts to send the content to the client.
+	 */
+	private static class EntityOutputStream extends OutputStream
+	{
+		private final HttpRequest request;
+		private final HttpResponse response;
+		private final MethodReturn methodReturn;
+		private final int bufferLimit;
+		private byte[] buffer;
+		private int count;
+		private final ETagDigest digest;
+		private OutputStream target;
+		private CompressingOutputStream compressingOutputStream;
+
+		private EntityOutputStream(HttpRequest request, HttpResponse response, MethodReturn methodReturn, int bufferLimit, ETagDigest digest)
+		{
+			this.request = request;
+			this.response = response;
+			this.methodReturn = methodReturn;
+			this.bufferLimit = bufferLimit;
+			this.digest = digest;
+			this.buffer = new byte[Math.min(bufferLimit, 4096)];
+		}
+
+		@Override
+		public void write(int b) throws IOException
+		{
+			if (target == null)
+			{
+				if (count < bufferLimit)
+				{
+					ensureCapacity(count + 1);
+					buffer[count++] = (byte) b;
+					return;
+				}
+				startStreaming();
+			}
+			target.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException
+		{
+			if (target == null)
+			{
+				if (count + len <= bufferLimit)
+				{
+					ensureCapacity(count + len);
+					System.arraycopy(b, off, buffer, count, len);
+					count += len;
+					return;
+				}
+				startStreaming();
+			}
+			target.write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException
+		{
+			// Content is only flushed when the entity is completely written
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			// The serializer closes the stream when it finishes. Nothing to do here: finish()
+			// is responsible for completing the response
+		}
+
+		private void ensureCapacity(int minCapacity)
+		{
+			if (minCapacity > buffer.length)
+			{
+				int newCapacity = Math.min(Math.max(buffer.length << 1, minCapacity), bufferLimit);
+				byte[] newBuffer = new byte[newCapacity];
+				System.arraycopy(buffer, 0, newBuffer, 0, count);
+				buffer = newBuffer;
+			}
+		}
+
+		/**
+		 * Content does not fit on buffer. Commit headers and start sending content.
+		 * @throws IOException
+		 */
+		private void startStreaming() throws IOException
+		{
+			if (logger.isDebugEnabled())
+			{
+				logger.debug("Response content for ["+request.getUri().getPath()+"] exceeds buffer size. Streaming it to client.");
+			}
+			methodReturn.updateDeferredState(null, 0, null);
+			HttpUtil.writeEntityHeaders(response, methodReturn);
+			target = response.getOutputStream();
+			CompressionInfo compressionInfo = methodReturn.getCompressionInfo();
+			Encoding encoding = HttpUtil.negotiateContentEncoding(request, compressionInfo, Integer.MAX_VALUE);
+			if (encoding != null)
+			{
+				response.getOutputHeaders().putSingle(HttpHeaderNames.CONTENT_ENCODING, encoding.getName());
+				compressingOutputStream = ResponseCompressor.createOutputStream(target, encoding, compressionInfo.getLevel());
+				target = compressingOutputStream;
+			}
+			target.write(buffer, 0, count);
+			buffer = null;
+		}
+
+		private void finish() throws IOException
+		{
+			if (target == null)
+			{
+				if (methodReturn.hasDeferredStateUpdate())
+				{
+					methodReturn.updateDeferredState(buffer, count, (digest != null && count > 0)?digest.finish():null);
+				}
+				HttpUtil.writeEntityHeaders(response, methodReturn);
+				byte[] responseBytes = buffer;
+				int length = count;
+				CompressionInfo compressionInfo = methodReturn.getCompressionInfo();
+				Encoding encoding = HttpUtil.negotiateContentEncoding(request, compressionInfo, count);
+				if (encoding != null)
+				{
+					responseBytes = HttpUtil.compressResponseBytes(response, buffer, count, encoding, compressionInfo.getLevel());
+					length = responseBytes.length;
+				}
+				response.setContentLength(length);
+				response.getOutputStream().write(responseBytes, 0, length);
+			}
+			else
+			{
+				if (compressingOutputStream != null)
+				{
+					// Returns the deflater to the pool
+					compressingOutputStream.finish();
+					compressingOutputStream = null;
+				}
+				if (digest != null)
+				{
+					methodReturn.updateStreamedEtag(digest.finish());
+				}
+			}
+			buffer = null;
+		}
+
+		/**
+		 * Release the compression resources, if the response was not finished.
+		 */
+		private void release()
+		{
+			if (compressingOutputStream != null)
+			{
+				compressingOutputStream.release();
+				compressingOutputStream = null;
+			}
+			target = null;
+			buffer = null;
+		}
+	}
+
+	/**
+	 * Feeds the eTag digest with the entity bytes, as they are written.
+	 */
+	private static class DigestingOutputStream extends FilterOutputStream
+	{
+		private final ETagDigest digest;
+
+		private DigestingOutputStream(OutputStream out, ETagDigest digest)
+		{
+			super(out);
+			this.digest = digest;
+		}
+
+		@Override
+		public void write(int b) throws IOException
+		{
+			digest.update(b);
+			out.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException
+		{
+			digest.update(b, off, len);
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			out.close();
+		}
+	}
+}
@@ -20,7 +20,9 @@ import java.net.URI;
 import java.net.URLDecoder;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
+import javax.servlet.http.HttpServletRequest;
 
 import org.cruxframework.crux.core.server.rest.core.MultivaluedMap;
 import org.cruxframework.crux.core.server.rest.core.MultivaluedMapImpl;
@@ -55,12 +57,13 @@ public class UriInfo
    private List<String> matchedUris;
    private List<String> encodedMatchedUris;
    private List<Object> ancestors;
+   private boolean queryParametersExtracted;
+   private HttpServletRequest request;
+   private String contextPath;
 
 
    public UriInfo(URI base, URI relative)
    {
-      String b = base.toString();
-      if (!b.endsWith("/")) b += "/";
       String r = relative.getRawPath();
       if (r.startsWith("/"))
       {
@@ -72,33 +75,126 @@ public class UriInfo
          encodedPath = "/" + r;
          path = "/" + relative.getPath();
       }
+      initURIs(base, relative);
+   }
+
+   /**
+    * Creates an UriInfo for a request path that contains no escaped or reserved characters 
+    * (so the encoded and decoded paths are the same). The request URIs are only built 
+    * when they are requested.
+    *  
+    * @param request
+    * @param contextPath
+    * @param encodedPath
+    */
+   UriInfo(HttpServletRequest request, String contextPath, String encodedPath)
+   {
+      this.request = request;
+      this.contextPath = contextPath;
+      this.encodedPath = encodedPath;
+      this.path = encodedPath;
+   }
+
+   /**
+    * Creates a copy of the given UriInfo that does not depend on the servlet request. 
+    * Parameters and matched URIs extracted from the request so far are copied, so 
+    * changes made to one instance are not seen by the other.
+    * 
+    * @param uriInfo
+    */
+   UriInfo(UriInfo uriInfo)
+   {
+      uriInfo.ensureURIs();
+      uriInfo.ensureQueryParameters();
+      this.path = uriInfo.path;
+      this.encodedPath = uriInfo.encodedPath;
+      this.matchingPath = uriInfo.matchingPath;
+      this.requestURI = uriInfo.requestURI;
+      this.baseURI = uriInfo.baseURI;
+      this.absolutePath = uriInfo.absolutePath;
+      this.contextPath = uriInfo.contextPath;
+      this.queryParametersExtracted = true;
+      this.queryParameters = copy(uriInfo.queryParameters);
+      this.encodedQueryParameters = copy(uriInfo.encodedQueryParameters);
+      this.pathParameters = copy(uriInfo.pathParameters);
+      this.encodedPathParameters = copy(uriInfo.encodedPathParameters);
+      this.pathParameterPathSegments = copy(uriInfo.pathParameterPathSegments);
+      this.encodedPathParameterPathSegments = copy(uriInfo.encodedPathParameterPathSegments);
+      this.pathSegments = copy(uriInfo.pathSegments);
+      this.encodedPathSegments = copy(uriInfo.encodedPathSegments);
+      this.matchedUris = copy(uriInfo.matchedUris);
+      this.encodedMatchedUris = copy(uriInfo.encodedMatchedUris);
+      this.ancestors = copy(uriInfo.ancestors);
+   }
+
+   private static <K, V> MultivaluedMap<K, V> copy(MultivaluedMap<K, V> map)
+   {
+      if (map == null)
+      {
+         return null;
+      }
+      MultivaluedMapImpl<K, V> result = new MultivaluedMapImpl<K, V>();
+      for (Map.Entry<K, List<V>> entry : map.entrySet())
+      {
+         result.put(entry.getKey(), new ArrayList<V>(entry.getValue()));
+      }
+      return result;
+   }
+
+   private static <T> List<T> copy(List<T> list)
+   {
+      return (list == null) ? null : new ArrayList<T>(list);
+   }
+
+   private void initURIs(URI base, URI relative)
+   {
       requestURI = UriBuilder.fromUri(base).path(relative.getRawPath()).replaceQuery(relative.getRawQuery()).build();
       baseURI = base;
-      encodedPathSegments = PathSegment.parseSegments(encodedPath, false);
-      this.pathSegments = new ArrayList<PathSegment>(encodedPathSegments.size());
-      for (PathSegment segment : encodedPathSegments)
+      absolutePath = UriBuilder.fromUri(requestURI).replaceQuery(null).build();
+   }
+
+   private void ensureURIs()
+   {
+      if (requestURI == null)
       {
-         pathSegments.add(new PathSegment(((PathSegment) segment).getOriginal(), true));
+         URI[] uris = HttpUtil.extractRequestURIs(request, contextPath);
+         initURIs(uris[0], uris[1]);
+         request = null;
       }
-      extractParameters(requestURI.getRawQuery());
-      extractMatchingPath(encodedPathSegments);
+   }
 
-      absolutePath = UriBuilder.fromUri(requestURI).replaceQuery(null).build();
+   private void ensurePathSegments()
+   {
+      if (encodedPathSegments == null)
+      {
+         encodedPathSegments = PathSegment.parseSegments(encodedPath, false);
+         this.pathSegments = new ArrayList<PathSegment>(encodedPathSegments.size());
+         for (PathSegment segment : encodedPathSegments)
+         {
+            pathSegments.add(new PathSegment(((PathSegment) segment).getOriginal(), true));
+         }
+      }
    }
 
    /**
-    * matching path without matrix parameters
-    *
-    * @param encodedPathSegments
+    * matching path without matrix parameters. Same result of joining the 
+    * segments created by {@link PathSegment#parseSegments(String, boolean)}, 
+    * without creating them.
     */
-   protected void extractMatchingPath(List<PathSegment> encodedPathSegments)
+   protected void extractMatchingPath()
    {
-      StringBuilder preprocessedPath = new StringBuilder();
-      for (PathSegment pathSegment : encodedPathSegments)
+      String segments = encodedPath.startsWith("/") ? encodedPath.substring(1) : encodedPath;
+      if (segments.length() == 0)
+      {
+         matchingPath = "/";
+         return;
+      }
+      int end = segments.length();
+      while (end > 0 && segments.charAt(end - 1) == '/')
       {
-         preprocessedPath.append("/").append(pathSegment.getPath());
+         end--;
       }
-      matchingPath = preprocessedPath.toString();
+      matchingPath = (end == 0) ? "" : "/" + segments.substring(0, end);
    }
 
    /**
@@ -108,6 +204,10 @@ public class UriInfo
     */
    public String getMatchingPath()
    {
+      if (matchingPath == null)
+      {
+         extractMatchingPath();
+      }
       return matchingPath;
    }
 
@@ -119,7 +219,7 @@ public class UriInfo
     */
    public UriInfo relative(URI relative)
    {
-      return new UriInfo(baseURI, relative);
+      return new UriInfo(getBaseUri(), relative);
    }
 
    public String getPath()
@@ -135,43 +235,48 @@ public class UriInfo
 
    public List<PathSegment> getPathSegments()
    {
+      ensurePathSegments();
       return pathSegments;
    }
 
    public List<PathSegment> getPathSegments(boolean decode)
    {
       if (decode) return getPathSegments();
+      ensurePathSegments();
       return encodedPathSegments;
    }
 
    public URI getRequestUri()
    {
+      ensureURIs();
       return requestURI;
    }
 
    public UriBuilder getRequestUriBuilder()
    {
-      return UriBuilder.fromUri(requestURI);
+      return UriBuilder.fromUri(getRequestUri());
    }
 
    public URI getAbsolutePath()
    {
+      ensureURIs();
       return absolutePath;
    }
 
    public UriBuilder getAbsolutePathBuilder()
    {
-      return UriBuilder.fromUri(absolutePath);
+      return UriBuilder.fromUri(getAbsolutePath());
    }
 
    public URI getBaseUri()
    {
+      ensureURIs();
       return baseURI;
    }
 
    public UriBuilder getBaseUriBuilder()
    {
-      return UriBuilder.fromUri(baseURI);
+      return UriBuilder.fromUri(getBaseUri());
    }
 
    public MultivaluedMap<String, String> getPathParameters()
@@ -225,6 +330,7 @@ public class UriInfo
 
    public MultivaluedMap<String, String> getQueryParameters()
    {
+      ensureQueryParameters();
       if (queryParameters == null)
       {
          queryParameters = new MultivaluedMapImpl<String, String>();
@@ -234,6 +340,7 @@ public class UriInfo
 
    protected MultivaluedMap<String, String> getEncodedQueryParameters()
    {
+      ensureQueryParameters();
       if (encodedQueryParameters == null)
       {
          this.encodedQueryParameters = new MultivaluedMapImpl<String, String>();
@@ -248,6 +355,15 @@ public class UriInfo
       else return getEncodedQueryParameters();
    }
 
+   private void ensureQueryParameters()
+   {
+      if (!queryParametersExtracted)
+      {
+         queryParametersExtracted = true;
+         extractParameters(getRequestUri().getRawQuery());
+      }
+   }
+
    protected void extractParameters(String queryString)
    {
       if (queryString == null || queryString.equals("")) return;
@@ -350,7 +466,7 @@ public class UriInfo
 
    public URI resolve(URI uri)
    {
-      return baseURI.resolve(uri);
+      return getBaseUri().resolve(uri);
    }
 
    public URI resolve(URI baseUri, URI uri)
@@ -360,7 +476,7 @@ public class UriInfo
 
    public URI relativize(URI uri)
    {
-      return baseURI.relativize(uri);
+      return getBaseUri().relativize(uri);
    }
 
    public URI relativize(URI from, URI uri)
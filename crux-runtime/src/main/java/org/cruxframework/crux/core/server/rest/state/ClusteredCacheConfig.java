@@ -54,4 +54,19 @@ public interface ClusteredCacheConfig
 
 	@DefaultServerMessage("2")
 	String replCount();
+
+	@DefaultServerMessage("false")
+	String asyncReplication();
+
+	@DefaultServerMessage("10000")
+	String replicationQueueSize();
+
+	@DefaultServerMessage("100")
+	String replicationBatchSize();
+
+	@DefaultServerMessage("50")
+	String replicationFlushInterval();
+
+	@DefaultServerMessage("20")
+	String invalidationFlushInterval();
 }
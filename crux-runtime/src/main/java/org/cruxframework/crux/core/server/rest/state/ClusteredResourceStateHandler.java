@@ -15,12 +15,22 @@
  */
 package org.cruxframework.crux.core.server.rest.state;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.cruxframework.crux.core.server.rest.core.EntityTag;
 import org.jgroups.blocks.Cache;
 import org.jgroups.blocks.ReplCache;
 
@@ -43,27 +53,63 @@ import org.jgroups.blocks.ReplCache;
  * l1MaxNumberOfEntries - The max number of entries for L2 Cache
  * clusterName - The name of the cluster to be used by this cache
  * replCount - The number of nodes in cluster where the information will be replicated 
+ * asyncReplication - If true, state updates are replicated by a background thread, instead of the request thread
+ * replicationQueueSize - If asyncReplication is enabled, the max number of updates waiting for replication
+ * replicationBatchSize - If asyncReplication is enabled, the number of waiting updates that wakes the replication thread
+ * replicationFlushInterval - If asyncReplication is enabled, the max time (ms) an update waits before the replication thread wakes
+ * 
+ * With asyncReplication, updates to the same URI are coalesced while they wait, and updates that do not fit 
+ * into the queue are dropped. Each state is still sent by its own ReplCache put. States waiting for (or under) 
+ * replication are visible to the local node only. The replication lag and the number of dropped updates can 
+ * be monitored through this class getters.
+ * 
+ * The keys stored on the local L2 cache are indexed by an {@link UriSegmentTrie}, so removeSegments 
+ * only visits the entries that must be removed. Keys removed from L2 cache are dropped from the index 
+ * as they are removed. Keys evicted by the L2 cache (it evicts the oldest insertions first when it
+ * exceeds l2MaxNumberOfEntries) are dropped on each l2ReapingInterval. The index also keeps its keys in
+ * insertion order, so each cleanup only visits the evicted keys and the oldest one still cached.
+ * 
+ * Call {@link #close()} to stop the cleanup and leave the cluster.
  * 
  * @author Thiago da Rosa de Bustamante
  */
-public class ClusteredResourceStateHandler implements ResourceStateHandler
+public class ClusteredResourceStateHandler implements ResourceStateHandler, Closeable
 {
 	private static final Log logger = LogFactory.getLog(ClusteredResourceStateHandler.class);
 	private ReplCache<String, CacheEntry> cache;
 	private short replCount;
+	private final UriSegmentTrie index = new UriSegmentTrie();
+	// Indexed keys, from the oldest to the newest insertion on L2 cache. Guarded by the index monitor
+	private final Set<String> insertionOrder = new LinkedHashSet<String>();
+	private StateReplicationQueue replicationQueue;
+	private Timer indexCleaner;
 
-	public static class CacheEntry implements ResourceState, Serializable
+	public static class CacheEntry implements ExtendedResourceState, Serializable
 	{
 		private static final long serialVersionUID = -7144309067971959838L;
 		private final long dateModifiedMilis;
 		private final long expires;
 		private final String etag;
+		private transient EntityTag entityTag;
 
-		private CacheEntry(long dateModifiedMilis, long expires, String etag)
+		CacheEntry(long dateModifiedMilis, long expires, String etag)
 		{
 			this.dateModifiedMilis = dateModifiedMilis;
 			this.expires = expires;
 			this.etag = etag;
+			this.entityTag = createEntityTag();
+		}
+
+		private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+		{
+			in.defaultReadObject();
+			// The tag is not sent to other nodes
+			this.entityTag = createEntityTag();
+		}
+
+		private EntityTag createEntityTag()
+		{
+			return (etag != null)?new EntityTag(etag):null;
 		}
 
 		@Override
@@ -72,12 +118,24 @@ public class ClusteredResourceStateHandler implements ResourceStateHandler
 			return dateModifiedMilis;
 		}
 
+		@Override
+		public long getExpires()
+		{
+			return expires;
+		}
+
 		@Override
 		public String getEtag()
 		{
 			return etag;
 		}
 
+		@Override
+		public EntityTag getEntityTag()
+		{
+			return entityTag;
+		}
+
 		@Override
 		public boolean isExpired()
 		{
@@ -95,7 +153,45 @@ public class ClusteredResourceStateHandler implements ResourceStateHandler
 			ClusteredCacheConfig config = ClusteredCacheConfigurationFactory.getConfigurations();
 
 			replCount = Short.parseShort(config.replCount());
-			cache = new ReplCache<String, CacheEntry>(config.channelConfigPropertyFile(), config.clusterName());
+			cache = new ReplCache<String, CacheEntry>(config.channelConfigPropertyFile(), config.clusterName())
+			{
+				// Invoked (locally or by remote nodes) every time an entry is stored on the local L2 cache
+				@Override
+				public CacheEntry _put(String key, CacheEntry val, short repl_count, long timeout, boolean force)
+				{
+					CacheEntry result = super._put(key, val, repl_count, timeout, force);
+					synchronized (index)
+					{
+						if (getL2Cache().getInternalMap().containsKey(key))
+						{
+							index.add(key);
+							// Move the key to the end, as the L2 cache
+							insertionOrder.remove(key);
+							insertionOrder.add(key);
+						}
+					}
+					return result;
+				}
+
+				// Invoked (locally or by remote nodes) every time an entry is removed from the local L2 cache
+				@Override
+				public CacheEntry _remove(String key)
+				{
+					CacheEntry result = super._remove(key);
+					removeFromIndex(key);
+					return result;
+				}
+
+				@Override
+				public void _removeMany(Set<String> keys)
+				{
+					super._removeMany(keys);
+					for (String key : keys)
+					{
+						removeFromIndex(key);
+					}
+				}
+			};
 			cache.setMigrateData(true);
 			cache.setCallTimeout(Integer.parseInt(config.rpcTimeout()));
 			cache.setCachingTime(Integer.parseInt(config.cachingTime()));
@@ -120,6 +216,7 @@ public class ClusteredResourceStateHandler implements ResourceStateHandler
 			if (l2ReapingInterval > 0)
 			{
 				l2Cache.enableReaping(l2ReapingInterval);
+				startIndexCleaner(l2ReapingInterval);
 			}
 			int l2MaxNumberOfEntries = Integer.parseInt(config.l2MaxNumberOfEntries());
 			if (l2MaxNumberOfEntries > 0)
@@ -128,6 +225,24 @@ public class ClusteredResourceStateHandler implements ResourceStateHandler
 			}
 
 			cache.start();
+			if (Boolean.parseBoolean(config.asyncReplication()))
+			{
+				replicationQueue = new StateReplicationQueue(new StateReplicationQueue.Replicator()
+				{
+					@Override
+					public void replicate(String uri, CacheEntry entry)
+					{
+						cache.put(uri, entry, replCount, entry.expires);
+					}
+
+					@Override
+					public void remove(String uri)
+					{
+						cache.remove(uri);
+					}
+				}, Integer.parseInt(config.replicationQueueSize()), Integer.parseInt(config.replicationBatchSize()), 
+				   Long.parseLong(config.replicationFlushInterval()));
+			}
 		}
 		catch (Exception e)
 		{
@@ -140,36 +255,59 @@ public class ClusteredResourceStateHandler implements ResourceStateHandler
 	public ResourceState add(String uri, long dateModified, long expires, String etag)
 	{
 		CacheEntry cacheEntry = new CacheEntry(dateModified, expires, etag);
-		cache.put(uri, cacheEntry, replCount, expires);//(key, val, repl_count, timeout, synchronous)
+		if (replicationQueue != null)
+		{
+			replicationQueue.offer(uri, cacheEntry);
+		}
+		else
+		{
+			cache.put(uri, cacheEntry, replCount, expires);//(key, val, repl_count, timeout, synchronous)
+		}
 		return cacheEntry;
 	}
 
 	@Override
 	public ResourceState get(String uri)
 	{
+		if (replicationQueue != null)
+		{
+			CacheEntry pending = replicationQueue.getPending(uri);
+			if (pending != null)
+			{
+				return pending;
+			}
+		}
 		return cache.get(uri);
 	}
 
 	@Override
 	public void remove(String uri)
 	{
+		if (replicationQueue != null)
+		{
+			replicationQueue.discard(uri);
+		}
 		cache.remove(uri);
 	}
 
 	@Override
 	public void removeSegments(String... baseURIs)
 	{
-		Set<String> keys = cache.getL2Cache().getInternalMap().keySet();
 		Set<String> keysToRemove = new HashSet<String>();
-		for (String key : keys)
+		for (String baseURI: baseURIs)
 		{
-			for (String baseURI: baseURIs)
+			if (replicationQueue != null)
 			{
-				if (key.startsWith(baseURI))
+				replicationQueue.discardPrefix(baseURI);
+			}
+			synchronized (index)
+			{
+				List<String> keys = index.removePrefix(baseURI);
+				for (String key : keys)
 				{
-					keysToRemove.add(key);
-					break;
+					insertionOrder.remove(key);
 				}
+				keysToRemove.addAll(keys);
 			}
 		}
 		for (String key : keysToRemove)
@@ -181,6 +319,157 @@ public class ClusteredResourceStateHandler implements ResourceStateHandler
 	@Override
 	public void clear()
 	{
+		if (replicationQueue != null)
+		{
+			replicationQueue.clear();
+		}
 		cache.clear();
+		synchronized (index)
+		{
+			index.clear();
+			insertionOrder.clear();
+		}
+	}
+
+	/**
+	 * Stop the index cleanup, the asynchronous replication and the replication cache, leaving the cluster.
+	 */
+	@Override
+	public void close()
+	{
+		if (indexCleaner != null)
+		{
+			indexCleaner.cancel();
+		}
+		if (replicationQueue != null)
+		{
+			replicationQueue.close();
+		}
+		if (cache != null)
+		{
+			cache.stop();
+		}
+	}
+
+	/**
+	 * Number of state updates waiting for replication (asyncReplication only)
+	 * @return
+	 */
+	public int getPendingReplicationCount()
+	{
+		return (replicationQueue != null)?replicationQueue.getPendingCount():0;
+	}
+
+	/**
+	 * Number of state updates replaced by a newer update to the same URI before being replicated (asyncReplication only)
+	 * @return
+	 */
+	public long getCoalescedUpdateCount()
+	{
+		return (replicationQueue != null)?replicationQueue.getCoalescedCount():0;
+	}
+
+	/**
+	 * Number of state updates not replicated because the replication queue was full (asyncReplication only)
+	 * @return
+	 */
+	public long getDroppedUpdateCount()
+	{
+		return (replicationQueue != null)?replicationQueue.getDroppedCount():0;
+	}
+
+	/**
+	 * Number of state updates replicated by the background thread (asyncReplication only)
+	 * @return
+	 */
+	public long getReplicatedUpdateCount()
+	{
+		return (replicationQueue != null)?replicationQueue.getReplicatedCount():0;
+	}
+
+	/**
+	 * Number of state updates that failed to be replicated (asyncReplication only)
+	 * @return
+	 */
+	public long getFailedUpdateCount()
+	{
+		return (replicationQueue != null)?replicationQueue.getFailedCount():0;
+	}
+
+	/**
+	 * Time (ms) the last replicated update waited on the queue (asyncReplication only)
+	 * @return
+	 */
+	public long getReplicationLag()
+	{
+		return (replicationQueue != null)?replicationQueue.getLastLag():0;
+	}
+
+	/**
+	 * Max time (ms) an update waited on the queue before being replicated (asyncReplication only)
+	 * @return
+	 */
+	public long getMaxReplicationLag()
+	{
+		return (replicationQueue != null)?replicationQueue.getMaxLag():0;
+	}
+
+	private void startIndexCleaner(long interval)
+	{
+		indexCleaner = new Timer("ClusteredResourceStateHandler index cleaner", true);
+		indexCleaner.schedule(new TimerTask()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					removeStaleKeysFromIndex();
+				}
+				catch (Exception e)
+				{
+					logger.error("Error cleaning resource state index", e);
+				}
+			}
+		}, interval, interval);
+	}
+
+	/**
+	 * Remove from the index the keys evicted from L2 cache. L2 cache evicts the oldest insertions first, so
+	 * the keys are visited in insertion order, up to the first one still present on L2 cache.
+	 */
+	private void removeStaleKeysFromIndex()
+	{
+		Map<String, ?> l2Entries = cache.getL2Cache().getInternalMap();
+		synchronized (index)
+		{
+			Iterator<String> iterator = insertionOrder.iterator();
+			while (iterator.hasNext())
+			{
+				String key = iterator.next();
+				if (l2Entries.containsKey(key))
+				{
+					break;
+				}
+				iterator.remove();
+				index.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * The check is done holding the index monitor, so a key concurrently added again is not removed. 
+	 * @param key
+	 */
+	private void removeFromIndex(String key)
+	{
+		synchronized (index)
+		{
+			if (!cache.getL2Cache().getInternalMap().containsKey(key))
+			{
+				index.remove(key);
+				insertionOrder.remove(key);
+			}
+		}
 	}
 }
\ No newline at end of file
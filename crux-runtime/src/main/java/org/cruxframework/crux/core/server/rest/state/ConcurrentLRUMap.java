@@ -0,0 +1,269 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.rest.state;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded map that approximates a LRU eviction policy without a global lock.
+ *
+ * Entries are kept into a {@link ConcurrentHashMap}, so reads never block each other. Each read
+ * only records the access time on the entry, instead of reordering a shared linked list. When the
+ * map exceeds its max size, a single thread (the first one that gets the eviction lock) samples
+ * a few entries, following a clock hand that walks through the map, and evicts the least recently
+ * used of each sample. Other writers do not wait for the eviction to finish, so the map can
+ * temporarily hold a little more entries than its bound.
+ *
+ * Iterators are weakly consistent, as the ConcurrentHashMap ones. They can be used while other
+ * threads modify the map.
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class ConcurrentLRUMap<K, V> extends AbstractMap<K, V>
+{
+	private static final int SAMPLE_SIZE = 8;
+
+	private final ConcurrentHashMap<K, Node<K, V>> map;
+	private final AtomicInteger size = new AtomicInteger();
+	private final Lock evictionLock = new ReentrantLock();
+	private final int maxEntries;
+	private Iterator<Node<K, V>> clockHand;
+	private Set<Entry<K, V>> entrySet;
+
+	private static class Node<K, V> implements Entry<K, V>
+	{
+		private final K key;
+		private final V value;
+		private volatile long lastAccess;
+
+		private Node(K key, V value)
+		{
+			this.key = key;
+			this.value = value;
+			this.lastAccess = System.nanoTime();
+		}
+
+		@Override
+		public K getKey()
+		{
+			return key;
+		}
+
+		@Override
+		public V getValue()
+		{
+			return value;
+		}
+
+		@Override
+		public V setValue(V value)
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	public ConcurrentLRUMap(int maxEntries)
+	{
+		this.maxEntries = maxEntries;
+		this.map = new ConcurrentHashMap<K, Node<K, V>>(Math.min(maxEntries, 1024), 0.75f, 64);
+	}
+
+	@Override
+	public V get(Object key)
+	{
+		Node<K, V> node = map.get(key);
+		if (node == null)
+		{
+			return null;
+		}
+		node.lastAccess = System.nanoTime();
+		return node.value;
+	}
+
+	@Override
+	public boolean containsKey(Object key)
+	{
+		return map.containsKey(key);
+	}
+
+	@Override
+	public V put(K key, V value)
+	{
+		Node<K, V> previous = map.put(key, new Node<K, V>(key, value));
+		if (previous == null)
+		{
+			if (size.incrementAndGet() > maxEntries)
+			{
+				evict();
+			}
+			return null;
+		}
+		return previous.value;
+	}
+
+	@Override
+	public V remove(Object key)
+	{
+		Node<K, V> node = map.remove(key);
+		if (node == null)
+		{
+			return null;
+		}
+		size.decrementAndGet();
+		return node.value;
+	}
+
+	@Override
+	public void clear()
+	{
+		Iterator<K> iterator = map.keySet().iterator();
+		while (iterator.hasNext())
+		{
+			remove(iterator.next());
+		}
+	}
+
+	@Override
+	public int size()
+	{
+		return Math.max(size.get(), 0);
+	}
+
+	@Override
+	public Set<Entry<K, V>> entrySet()
+	{
+		if (entrySet == null)
+		{
+			entrySet = new EntrySet();
+		}
+		return entrySet;
+	}
+
+	/**
+	 * Called after an entry is evicted to respect the map bound.
+	 * @param key
+	 * @param value
+	 */
+	protected void onEviction(K key, V value)
+	{
+	}
+
+	private void evict()
+	{
+		if (!evictionLock.tryLock())
+		{
+			// Another thread is already evicting
+			return;
+		}
+		try
+		{
+			while (size.get() > maxEntries)
+			{
+				Node<K, V> victim = null;
+				for (int i = 0; i < SAMPLE_SIZE; i++)
+				{
+					if (clockHand == null || !clockHand.hasNext())
+					{
+						clockHand = map.values().iterator();
+						if (!clockHand.hasNext())
+						{
+							break;
+						}
+					}
+					Node<K, V> node = clockHand.next();
+					if (victim == null || node.lastAccess < victim.lastAccess)
+					{
+						victim = node;
+					}
+				}
+				if (victim == null)
+				{
+					break;
+				}
+				if (map.remove(victim.key, victim))
+				{
+					size.decrementAndGet();
+					onEviction(victim.key, victim.value);
+				}
+			}
+		}
+		finally
+		{
+			evictionLock.unlock();
+		}
+	}
+
+	private class EntrySet extends AbstractSet<Entry<K, V>>
+	{
+		@Override
+		public Iterator<Entry<K, V>> iterator()
+		{
+			final Iterator<Node<K, V>> iterator = map.values().iterator();
+			return new Iterator<Map.Entry<K, V>>()
+			{
+				private Node<K, V> current;
+
+				@Override
+				public boolean hasNext()
+				{
+					return iterator.hasNext();
+				}
+
+				@Override
+				public Entry<K, V> next()
+				{
+					current = iterator.next();
+					return current;
+				}
+
+				@Override
+				public void remove()
+				{
+					if (current == null)
+					{
+						throw new IllegalStateException();
+					}
+					if (map.remove(current.key, current))
+					{
+						size.decrementAndGet();
+					}
+					current = null;
+				}
+			};
+		}
+
+		@Override
+		public int size()
+		{
+			return ConcurrentLRUMap.this.size();
+		}
+
+		@Override
+		public void clear()
+		{
+			ConcurrentLRUMap.this.clear();
+		}
+	}
+}
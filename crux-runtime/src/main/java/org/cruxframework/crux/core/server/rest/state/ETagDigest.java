@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.rest.state;
+
+/**
+ * Computes an eTag incrementally, while the response content is encoded. Instances are 
+ * provided by a {@link StreamingETagHandler} and are bound to the thread that requested them.
+ */
+public abstract class ETagDigest
+{
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	/**
+	 * Add one byte of content to the digest
+	 * @param b
+	 */
+	public abstract void update(int b);
+
+	/**
+	 * Add a range of content bytes to the digest
+	 * @param b
+	 * @param off
+	 * @param len
+	 */
+	public abstract void update(byte[] b, int off, int len);
+
+	/**
+	 * Compute the eTag for all content added since the last reset and reset the digest.
+	 * @return
+	 */
+	public abstract String finish();
+
+	/**
+	 * Discard any content added to the digest
+	 */
+	public abstract void reset();
+
+	/**
+	 * Format the given bytes as an hexadecimal number, without leading zeros.
+	 * @param bytes
+	 * @return
+	 */
+	protected static String toHex(byte[] bytes)
+	{
+		char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++)
+		{
+			chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+			chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+		}
+		int start = 0;
+		while (start < chars.length - 1 && chars[start] == '0')
+		{
+			start++;
+		}
+		return new String(chars, start, chars.length - start);
+	}
+}
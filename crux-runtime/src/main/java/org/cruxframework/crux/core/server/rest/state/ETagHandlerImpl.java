@@ -26,10 +26,17 @@ import org.cruxframework.crux.core.server.rest.util.Crc32c;
  * 
  * @author @author Thiago da Rosa de Bustamante
  */
-public class ETagHandlerImpl implements ETagHandler
+public class ETagHandlerImpl implements StreamingETagHandler
 {
 	private static final Log logger = LogFactory.getLog(ETagHandlerImpl.class);
-
+	private static final ThreadLocal<Crc32cDigest> digests = new ThreadLocal<Crc32cDigest>()
+	{
+		@Override
+		protected Crc32cDigest initialValue()
+		{
+			return new Crc32cDigest();
+		}
+	};
 	
 	@Override
     public String generateEtag(UriInfo uri, String content)
@@ -41,11 +48,10 @@ public class ETagHandlerImpl implements ETagHandler
 		
         try
         {
-        	Crc32c hash = new Crc32c();
+        	ETagDigest digest = getDigest();
         	byte[] bytes = content.getBytes("UTF-8");
-        	hash.update(bytes, 0, bytes.length);
-        	String hexString = Long.toHexString(hash.getValue());
-        	return hexString;
+        	digest.update(bytes, 0, bytes.length);
+        	return digest.finish();
         }
         catch (Exception e)
         {
@@ -53,4 +59,46 @@ public class ETagHandlerImpl implements ETagHandler
         }
 		return null;
     }
+
+	@Override
+	public ETagDigest getDigest()
+	{
+		ETagDigest digest = digests.get();
+		digest.reset();
+		return digest;
+	}
+
+	/**
+	 * Computes the eTag with CRC32c algorithm
+	 */
+	private static class Crc32cDigest extends ETagDigest
+	{
+		private final Crc32c hash = new Crc32c();
+
+		@Override
+		public void update(int b)
+		{
+			hash.update(b);
+		}
+
+		@Override
+		public void update(byte[] b, int off, int len)
+		{
+			hash.update(b, off, len);
+		}
+
+		@Override
+		public String finish()
+		{
+			String hexString = Long.toHexString(hash.getValue());
+			hash.reset();
+			return hexString;
+		}
+
+		@Override
+		public void reset()
+		{
+			hash.reset();
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.rest.state;
+
+import java.io.Closeable;
+import java.io.Serializable;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jgroups.Address;
+import org.jgroups.JChannel;
+import org.jgroups.MergeView;
+import org.jgroups.Message;
+import org.jgroups.ReceiverAdapter;
+import org.jgroups.View;
+
+/**
+ * ResourceStateHandler for clustered environments where each node keeps its own resource states, into a
+ * {@link NoClusteredResourceStateHandler}. Resource states are never replicated. Only the invalidations
+ * (remove, removeSegments and clear) are broadcast to the other nodes, through a JGroups channel.
+ *
+ * Invalidations are applied locally at once and sent to the cluster in batches, on each flush interval.
+ * If you choose to use this implementation, you must include jgroups.jar on your classpath.
+ *
+ * The channel is configured by the following properties of ClusteredCacheConfig.properties:
+ *
+ * channelConfigPropertyFile - JGroups channel config file name
+ * clusterName - The name of the cluster. The channel joins the cluster clusterName-invalidation
+ * invalidationFlushInterval - Interval (ms) between invalidation batches
+ *
+ * The local states are configured through NoClusteredCacheConfig.properties. When the cluster is
+ * partitioned and merged again, all local states are discarded, as invalidations may have been lost.
+ * If the channel can not be connected, the handler works only with the local states.
+ */
+public class InvalidatingResourceStateHandler implements ResourceStateHandler, Closeable
+{
+	private static final Log logger = LogFactory.getLog(InvalidatingResourceStateHandler.class);
+	private static final String CLUSTER_NAME_SUFFIX = "-invalidation";
+
+	private final ResourceStateHandler localStates = new NoClusteredResourceStateHandler();
+	private final Set<String> pendingUris = new LinkedHashSet<String>();
+	private final Set<String> pendingPrefixes = new LinkedHashSet<String>();
+	private final AtomicLong sentBatchCount = new AtomicLong();
+	private final AtomicLong receivedBatchCount = new AtomicLong();
+	private boolean pendingClear;
+	private volatile JChannel channel;
+	private Timer flusher;
+
+	/**
+	 * Create the handler using the channel defined on ClusteredCacheConfig.properties
+	 */
+	public InvalidatingResourceStateHandler()
+	{
+		JChannel channel = null;
+		try
+		{
+			ClusteredCacheConfig config = ClusteredCacheConfigurationFactory.getConfigurations();
+			channel = new JChannel(config.channelConfigPropertyFile());
+			start(channel, config.clusterName() + CLUSTER_NAME_SUFFIX, Long.parseLong(config.invalidationFlushInterval()));
+		}
+		catch (Exception e)
+		{
+			logger.error("Error connecting to resources invalidation channel", e);
+			if (channel != null)
+			{
+				channel.close();
+			}
+		}
+	}
+
+	/**
+	 * Create the handler using the given channel. Several handlers can run on the same JVM, with channels
+	 * built over an in-memory protocol stack (SHARED_LOOPBACK, for example).
+	 * @param channel a channel not connected yet
+	 * @param clusterName
+	 * @param flushInterval interval (ms) between invalidation batches
+	 * @throws Exception if the channel can not be connected
+	 */
+	public InvalidatingResourceStateHandler(JChannel channel, String clusterName, long flushInterval) throws Exception
+	{
+		start(channel, clusterName, flushInterval);
+	}
+
+	private void start(JChannel channel, String clusterName, long flushInterval) throws Exception
+	{
+		channel.setReceiver(new ReceiverAdapter()
+		{
+			@Override
+			public void receive(Message msg)
+			{
+				onMessage(msg);
+			}
+
+			@Override
+			public void viewAccepted(View view)
+			{
+				if (view instanceof MergeView)
+				{
+					localStates.clear();
+				}
+			}
+		});
+		channel.connect(clusterName);
+		this.channel = channel;
+		flusher = new Timer("InvalidatingResourceStateHandler flusher", true);
+		long interval = Math.max(flushInterval, 1);
+		flusher.schedule(new TimerTask()
+		{
+			@Override
+			public void run()
+			{
+				flush();
+			}
+		}, interval, interval);
+	}
+
+	@Override
+	public ResourceState add(String uri, long dateModified, long expires, String etag)
+	{
+		return localStates.add(uri, dateModified, expires, etag);
+	}
+
+	@Override
+	public ResourceState get(String uri)
+	{
+		return localStates.get(uri);
+	}
+
+	@Override
+	public void remove(String uri)
+	{
+		localStates.remove(uri);
+		if (channel == null)
+		{
+			return;
+		}
+		synchronized (pendingUris)
+		{
+			if (!pendingClear)
+			{
+				pendingUris.add(uri);
+			}
+		}
+	}
+
+	@Override
+	public void removeSegments(String... baseURIs)
+	{
+		localStates.removeSegments(baseURIs);
+		if (channel == null)
+		{
+			return;
+		}
+		synchronized (pendingUris)
+		{
+			if (!pendingClear)
+			{
+				for (String baseURI : baseURIs)
+				{
+					pendingPrefixes.add(baseURI);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void clear()
+	{
+		localStates.clear();
+		if (channel == null)
+		{
+			return;
+		}
+		synchronized (pendingUris)
+		{
+			// A clear makes any other pending invalidation useless
+			pendingClear = true;
+			pendingUris.clear();
+			pendingPrefixes.clear();
+		}
+	}
+
+	/**
+	 * Send the pending invalidations and close the channel, leaving the cluster. Called by 
+	 * {@link ResourceStateConfig#shutdown()}.
+	 */
+	@Override
+	public void close()
+	{
+		if (flusher != null)
+		{
+			flusher.cancel();
+		}
+		JChannel channel = this.channel;
+		if (channel != null)
+		{
+			flush();
+			this.channel = null;
+			channel.close();
+		}
+	}
+
+	/**
+	 * Number of invalidation batches sent to the cluster
+	 * @return
+	 */
+	public long getSentBatchCount()
+	{
+		return sentBatchCount.get();
+	}
+
+	/**
+	 * Number of invalidation batches received from other nodes
+	 * @return
+	 */
+	public long getReceivedBatchCount()
+	{
+		return receivedBatchCount.get();
+	}
+
+	/**
+	 * Send the pending invalidations in a single message
+	 */
+	protected void flush()
+	{
+		JChannel channel = this.channel;
+		if (channel == null)
+		{
+			return;
+		}
+		InvalidationBatch batch;
+		synchronized (pendingUris)
+		{
+			if (!pendingClear && pendingUris.isEmpty() && pendingPrefixes.isEmpty())
+			{
+				return;
+			}
+			batch = new InvalidationBatch(pendingClear, pendingUris.toArray(new String[pendingUris.size()]),
+										  pendingPrefixes.toArray(new String[pendingPrefixes.size()]));
+			pendingClear = false;
+			pendingUris.clear();
+			pendingPrefixes.clear();
+		}
+		try
+		{
+			channel.send(new Message(null, null, batch));
+			sentBatchCount.incrementAndGet();
+		}
+		catch (Exception e)
+		{
+			logger.error("Error sending resource state invalidations to the cluster.", e);
+		}
+	}
+
+	private void onMessage(Message msg)
+	{
+		JChannel channel = this.channel;
+		Address localAddress = (channel != null)?channel.getAddress():null;
+		if (localAddress != null && localAddress.equals(msg.getSrc()))
+		{
+			return; // Already applied locally
+		}
+		try
+		{
+			InvalidationBatch batch = (InvalidationBatch) msg.getObject();
+			receivedBatchCount.incrementAndGet();
+			if (batch.clear)
+			{
+				localStates.clear();
+				return;
+			}
+			for (String uri : batch.uris)
+			{
+				localStates.remove(uri);
+			}
+			if (batch.prefixes.length > 0)
+			{
+				localStates.removeSegments(batch.prefixes);
+			}
+		}
+		catch (Exception e)
+		{
+			logger.error("Error applying resource state invalidations received from [" + msg.getSrc() + "].", e);
+		}
+	}
+
+	/**
+	 * Invalidations sent in a single cluster message
+	 */
+	private static class InvalidationBatch implements Serializable
+	{
+		private static final long serialVersionUID = 3409917452263785217L;
+
+		private final boolean clear;
+		private final String[] uris;
+		private final String[] prefixes;
+
+		private InvalidationBatch(boolean clear, String[] uris, String[] prefixes)
+		{
+			this.clear = clear;
+			this.uris = uris;
+			this.prefixes = prefixes;
+		}
+	}
+}
@@ -15,8 +15,8 @@
  */
 package org.cruxframework.crux.core.server.rest.state;
 
-import java.math.BigInteger;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
@@ -28,9 +28,24 @@ import org.cruxframework.crux.core.server.rest.spi.UriInfo;
  * 
  * @author @author Thiago da Rosa de Bustamante
  */
-public class MD5ETagHandlerImpl implements ETagHandler
+public class MD5ETagHandlerImpl implements StreamingETagHandler
 {
 	private static final Log logger = LogFactory.getLog(MD5ETagHandlerImpl.class);
+	private static final ThreadLocal<MD5Digest> digests = new ThreadLocal<MD5Digest>()
+	{
+		@Override
+		protected MD5Digest initialValue()
+		{
+			try
+			{
+				return new MD5Digest(MessageDigest.getInstance("MD5"));
+			}
+			catch (NoSuchAlgorithmException e)
+			{
+				throw new IllegalStateException("MD5 algorithm is not available.", e);
+			}
+		}
+	};
 
 	@Override
     public String generateEtag(UriInfo uri, String content)
@@ -43,11 +58,9 @@ public class MD5ETagHandlerImpl implements ETagHandler
 		try
         {
 			byte[] bytes = content.getBytes("UTF-8");
-	        MessageDigest digest = MessageDigest.getInstance("MD5");
-	        byte[] hashBytes = digest.digest(bytes);
-	        BigInteger bigInt = new BigInteger(1, hashBytes);
-	        String hashtext = bigInt.toString(16);
-			return hashtext;
+			ETagDigest digest = getDigest();
+			digest.update(bytes, 0, bytes.length);
+			return digest.finish();
         }
         catch (Exception e)
         {
@@ -55,4 +68,50 @@ public class MD5ETagHandlerImpl implements ETagHandler
         }
 		return null;
     }
+
+	@Override
+	public ETagDigest getDigest()
+	{
+		ETagDigest digest = digests.get();
+		digest.reset();
+		return digest;
+	}
+
+	/**
+	 * Computes the eTag with MD5 algorithm
+	 */
+	private static class MD5Digest extends ETagDigest
+	{
+		private final MessageDigest digest;
+
+		private MD5Digest(MessageDigest digest)
+		{
+			this.digest = digest;
+		}
+
+		@Override
+		public void update(int b)
+		{
+			digest.update((byte) b);
+		}
+
+		@Override
+		public void update(byte[] b, int off, int len)
+		{
+			digest.update(b, off, len);
+		}
+
+		@Override
+		public String finish()
+		{
+			// digest() also resets the MessageDigest
+			return toHex(digest.digest());
+		}
+
+		@Override
+		public void reset()
+		{
+			digest.reset();
+		}
+	}
 }
\ No newline at end of file
@@ -25,4 +25,13 @@ public interface NoClusteredCacheConfig
 {
 	@DefaultServerMessage("1000000")
 	String maxNumberOfEntries();
+
+	@DefaultServerMessage("concurrent")
+	String mapType();
+
+	@DefaultServerMessage("33554432")
+	String responseBodyCacheMaxSize();
+
+	@DefaultServerMessage("LRU")
+	String responseBodyCacheEvictionPolicy();
 }
@@ -16,19 +16,28 @@
 package org.cruxframework.crux.core.server.rest.state;
 
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.cruxframework.crux.core.server.rest.core.EntityTag;
 
 /**
  * It is a very basic implementation for ResourceStateHandler interface that is
- * designed to run only on NO CUSTERED environment. It uses a simple LRUMap to
+ * designed to run only on NO CUSTERED environment. It uses a LRU map to
  * keep the resource state into local machine's memory.
  * 
  * To configure the cache, you can create a file named
  * NoClusteredCacheConfig.properties and configure the property
- * maxNumberOfEntries to set the max number of entries into the map.
+ * maxNumberOfEntries to set the max number of entries into the map. The property
+ * mapType chooses the map implementation: concurrent (default, a {@link ConcurrentLRUMap}, 
+ * where reads do not block each other) or synchronized (a {@link LRUMap} guarded by a
+ * global lock).
+ * 
+ * The keys are also indexed by an {@link UriSegmentTrie}, so removeSegments only visits the
+ * entries that must be removed.
  * 
  * @author Thiago da Rosa de Bustamante
  * 
@@ -49,21 +58,37 @@ public class NoClusteredResourceStateHandler implements ResourceStateHandler
 		@Override
 		protected boolean removeEldestEntry(java.util.Map.Entry<K, V> eldest)
 		{
-			return super.size() > maxEntries;
+			if (super.size() > maxEntries)
+			{
+				onEviction(eldest.getKey(), eldest.getValue());
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Called when an entry is about to be evicted to respect the map bound.
+		 * @param key
+		 * @param value
+		 */
+		protected void onEviction(K key, V value)
+		{
 		}
 	}
 
-	public static class CacheEntry implements ResourceState
+	public static class CacheEntry implements ExtendedResourceState
 	{
 		private final long dateModifiedMilis;
 		private final long expires;
 		private final String etag;
+		private final EntityTag entityTag;
 
 		private CacheEntry(long dateModifiedMilis, long expires, String etag)
 		{
 			this.dateModifiedMilis = dateModifiedMilis;
 			this.expires = expires;
 			this.etag = etag;
+			this.entityTag = (etag != null)?new EntityTag(etag):null;
 		}
 
 		@Override
@@ -72,12 +97,24 @@ public class NoClusteredResourceStateHandler implements ResourceStateHandler
 			return dateModifiedMilis;
 		}
 
+		@Override
+		public long getExpires()
+		{
+			return expires;
+		}
+
 		@Override
 		public String getEtag()
 		{
 			return etag;
 		}
 
+		@Override
+		public EntityTag getEntityTag()
+		{
+			return entityTag;
+		}
+
 		@Override
 		public boolean isExpired()
 		{
@@ -85,22 +122,72 @@ public class NoClusteredResourceStateHandler implements ResourceStateHandler
 		}
 	}
 
+	public static final String MAP_TYPE_CONCURRENT = "concurrent";
+	public static final String MAP_TYPE_SYNCHRONIZED = "synchronized";
+
 	private Map<String, CacheEntry> cache;
+	final UriSegmentTrie index = new UriSegmentTrie();
+	private final Queue<String> evictedKeys = new ConcurrentLinkedQueue<String>();
 
 	/**
 	 * 
 	 */
 	public NoClusteredResourceStateHandler()
 	{
-		int maxCacheItems = Integer.parseInt(NoClusteredCacheConfigurationFactory.getConfigurations().maxNumberOfEntries());
-		cache = Collections.synchronizedMap(new LRUMap<String, CacheEntry>(maxCacheItems));
+		NoClusteredCacheConfig config = NoClusteredCacheConfigurationFactory.getConfigurations();
+		int maxCacheItems = Integer.parseInt(config.maxNumberOfEntries());
+		if (MAP_TYPE_SYNCHRONIZED.equalsIgnoreCase(config.mapType().trim()))
+		{
+			cache = Collections.synchronizedMap(new LRUMap<String, CacheEntry>(maxCacheItems)
+			{
+				private static final long serialVersionUID = 4604425428416454924L;
+
+				@Override
+				protected void onEviction(String key, CacheEntry value)
+				{
+					evictedKeys.add(key);
+				}
+			});
+		}
+		else
+		{
+			cache = new ConcurrentLRUMap<String, CacheEntry>(maxCacheItems)
+			{
+				@Override
+				protected void onEviction(String key, CacheEntry value)
+				{
+					evictedKeys.add(key);
+				}
+			};
+		}
+	}
+
+	/**
+	 * Create a handler that stores the states on the given map
+	 * @param cache
+	 */
+	NoClusteredResourceStateHandler(Map<String, CacheEntry> cache)
+	{
+		this.cache = cache;
 	}
 
 	@Override
 	public ResourceState add(String uri, long dateModified, long expires, String etag)
 	{
 		CacheEntry cacheEntry = new CacheEntry(dateModified, expires, etag);
-		cache.put(uri, cacheEntry);
+		if (cache.put(uri, cacheEntry) == null)
+		{
+			synchronized (index)
+			{
+				// A concurrent removal can run before the key is indexed. It does not find the key on index, 
+				// so the key is only indexed if it is still cached
+				if (cache.containsKey(uri))
+				{
+					index.add(uri);
+				}
+			}
+		}
+		removeEvictedKeysFromIndex();
 		return cacheEntry;
 	}
 
@@ -113,31 +200,58 @@ public class NoClusteredResourceStateHandler implements ResourceStateHandler
 	@Override
 	public void remove(String uri)
 	{
-		cache.remove(uri);
+		if (cache.remove(uri) != null)
+		{
+			removeFromIndex(uri);
+		}
 	}
 
 	@Override
 	public void clear()
 	{
-		cache.clear();
+		synchronized (index)
+		{
+			cache.clear();
+			index.clear();
+			evictedKeys.clear();
+		}
 	}
 
 	@Override
 	public void removeSegments(String... baseURIs)
 	{
-		Set<String> keys = cache.keySet();
+		for (String baseURI : baseURIs)
+		{
+			List<String> keys = index.removePrefix(baseURI);
+			for (String key : keys)
+			{
+				cache.remove(key);
+			}
+		}
+	}
+
+	private void removeEvictedKeysFromIndex()
+	{
+		String key;
+		while ((key = evictedKeys.poll()) != null)
+		{
+			removeFromIndex(key);
+		}
+	}
 
-		Iterator<String> iterator = keys.iterator();
-		while (iterator.hasNext())
+	/**
+	 * A key can be added again between its removal from the cache and from the index. Additions 
+	 * also check the cache while holding the index monitor (see {@link #add(String, long, long, String)}), 
+	 * so a key is indexed if, and only if, it is cached when the last of them releases the monitor.
+	 * @param key
+	 */
+	private void removeFromIndex(String key)
+	{
+		synchronized (index)
 		{
-			String key = iterator.next();
-			for (String baseURI : baseURIs)
+			if (!cache.containsKey(key))
 			{
-				if (key.startsWith(baseURI))
-				{
-					iterator.remove();
-					break;
-				}
+				index.remove(key);
 			}
 		}
 	}
@@ -15,6 +15,7 @@
  */
 package org.cruxframework.crux.core.server.rest.state;
 
+import java.io.Closeable;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -31,8 +32,11 @@ public class ResourceStateConfig
 	private static final Log logger = LogFactory.getLog(ResourceStateConfig.class);
 	private static final Lock handlerLock = new ReentrantLock();
 	private static final Lock enabledLock = new ReentrantLock();
+	private static final Lock bodyCacheLock = new ReentrantLock();
 	private static ResourceStateHandler resourceStateHandler  = null;
 	private static Boolean enabled;
+	private static ResponseBodyCache responseBodyCache = null;
+	private static volatile boolean responseBodyCacheInitialized = false;
 
 	public static boolean isResourceStateCacheEnabled()
 	{
@@ -74,4 +78,67 @@ public class ResourceStateConfig
 		}
 		return resourceStateHandler;
 	}
+
+	/**
+	 * Retrieve the cache used to store the bodies of cacheable responses.
+	 * @return the cache or null, if the body cache is not enabled (Crux property enableRestResponseBodyCache).
+	 */
+	public static ResponseBodyCache getResponseBodyCache()
+	{
+		if (responseBodyCacheInitialized) return responseBodyCache;
+
+		try
+		{
+			bodyCacheLock.lock();
+			if (responseBodyCacheInitialized) return responseBodyCache;
+			if (Boolean.parseBoolean(ConfigurationFactory.getConfigurations().enableRestResponseBodyCache()))
+			{
+				responseBodyCache = new ResponseBodyCache();
+			}
+		}
+		catch (Exception e)
+		{
+			logger.error("Error initializing responseBodyCache.", e);
+		}
+		finally
+		{
+			responseBodyCacheInitialized = true;
+			bodyCacheLock.unlock();
+		}
+		return responseBodyCache;
+	}
+
+	/**
+	 * Release the resources held by the resource state handler (threads and cluster channels), if it 
+	 * implements {@link Closeable}, and log the response body cache statistics. Called when the 
+	 * application is stopped.
+	 */
+	public static void shutdown()
+	{
+		ResponseBodyCache bodyCache = responseBodyCacheInitialized?responseBodyCache:null;
+		if (bodyCache != null && logger.isInfoEnabled())
+		{
+			logger.info("Response body cache: " + bodyCache.getHitCount() + " hit(s), " + bodyCache.getMissCount() + " miss(es), " 
+				+ bodyCache.getEvictionCount() + " eviction(s). " + bodyCache.getEntryCount() + " entries stored, using " 
+				+ bodyCache.getSize() + " of " + bodyCache.getMaxSize() + " bytes.");
+		}
+
+		handlerLock.lock();
+		try
+		{
+			if (resourceStateHandler instanceof Closeable)
+			{
+				((Closeable)resourceStateHandler).close();
+			}
+		}
+		catch (Exception e)
+		{
+			logger.error("Error closing resourceStateHandler.", e);
+		}
+		finally
+		{
+			resourceStateHandler = null;
+			handlerLock.unlock();
+		}
+	}
 }
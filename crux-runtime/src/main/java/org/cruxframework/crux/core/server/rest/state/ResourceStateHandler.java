@@ -15,6 +15,7 @@
  */
 package org.cruxframework.crux.core.server.rest.state;
 
+import org.cruxframework.crux.core.server.rest.core.EntityTag;
 
 /**
  * Control the etags, dateModified and expires of rest services that can be cached. 
@@ -34,6 +35,23 @@ public interface ResourceStateHandler
 		String getEtag();
 	}
 
+	/**
+	 * A resource state that also exposes the data used to answer conditional requests without extra work. 
+	 * The states created by the handlers shipped with Crux implement it. States of other handlers, that only 
+	 * implement {@link ResourceState}, are still accepted: their entity tag is built on each request and they 
+	 * are never served after they expire (see {@link org.cruxframework.crux.core.shared.rest.annotation.GET#staleWhileRevalidate()}).
+	 */
+	public static interface ExtendedResourceState extends ResourceState
+	{
+		long getExpires();
+		/**
+		 * The entity tag built from {@link #getEtag()}. It is built once, when the state is created (or 
+		 * received from another node), and shared by all the requests that read this state.
+		 * @return the tag or null if the state has no etag
+		 */
+		EntityTag getEntityTag();
+	}
+
 	/**
 	 * Add state information about one rest URI
 	 * @param uri
@@ -0,0 +1,342 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.rest.state;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Local memory cache for the encoded bodies of cacheable rest responses. It works together with
+ * the {@link ResourceStateHandler}: an entry is only served if its etag and modification date still
+ * match the current resource state. It means that any change on resource state (expiration, removal,
+ * or an update from another cluster node) automatically invalidates the cached body.
+ *
+ * Entries are keyed by the request URI and the Accept-Language header. The cache is bounded by the total
+ * size (in bytes) of the stored content. When that bound is exceeded, entries are evicted following the
+ * configured {@link EvictionPolicy}.
+ *
+ * Like {@link ConcurrentLRUMap}, lookups take no lock: they only record the access time and the hit
+ * count on the entry. A single thread at a time evicts entries, choosing each victim among a sample
+ * taken by a clock hand that walks through the entries.
+ *
+ * To configure the cache, you can create a file named NoClusteredCacheConfig.properties and set the
+ * properties responseBodyCacheMaxSize and responseBodyCacheEvictionPolicy.
+ *
+ */
+public class ResponseBodyCache
+{
+	/**
+	 * Number of entries inspected to choose each eviction victim.
+	 */
+	private static final int SAMPLE_SIZE = 16;
+
+	public static enum EvictionPolicy
+	{
+		/**
+		 * Evicts the least recently used entry
+		 */
+		LRU,
+		/**
+		 * Evicts the least frequently used entry among the oldest ones
+		 */
+		LFU
+	}
+
+	public static class CachedResponse
+	{
+		private final String key;
+		private final byte[] content;
+		private final byte[] gzippedContent;
+		private final long dateModified;
+		private final String etag;
+		private final AtomicLong hits = new AtomicLong();
+		private volatile long lastAccess;
+
+		private CachedResponse(String key, byte[] content, byte[] gzippedContent, long dateModified, String etag)
+		{
+			this.key = key;
+			this.content = content;
+			this.gzippedContent = gzippedContent;
+			this.dateModified = dateModified;
+			this.etag = etag;
+			this.lastAccess = System.nanoTime();
+		}
+
+		/**
+		 * Uncompressed content, encoded in UTF-8
+		 * @return
+		 */
+		public byte[] getContent()
+		{
+			return content;
+		}
+
+		/**
+		 * Gzip compressed content, or null if the content is too small to be compressed
+		 * @return
+		 */
+		public byte[] getGzippedContent()
+		{
+			return gzippedContent;
+		}
+
+		public long getDateModified()
+		{
+			return dateModified;
+		}
+
+		public String getEtag()
+		{
+			return etag;
+		}
+
+		private int size()
+		{
+			return content.length + (gzippedContent != null ? gzippedContent.length : 0);
+		}
+
+		private boolean matches(long dateModified, String etag)
+		{
+			return this.dateModified == dateModified && (this.etag == null ? etag == null : this.etag.equals(etag));
+		}
+	}
+
+	private final ConcurrentHashMap<String, CachedResponse> entries = new ConcurrentHashMap<String, CachedResponse>(1024, 0.75f, 64);
+	private final long maxSize;
+	private final EvictionPolicy evictionPolicy;
+	private final AtomicLong size = new AtomicLong();
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+	private final Lock evictionLock = new ReentrantLock();
+	private Iterator<CachedResponse> clockHand;
+
+	/**
+	 *
+	 */
+	public ResponseBodyCache()
+	{
+		this(Long.parseLong(NoClusteredCacheConfigurationFactory.getConfigurations().responseBodyCacheMaxSize()),
+			EvictionPolicy.valueOf(NoClusteredCacheConfigurationFactory.getConfigurations().responseBodyCacheEvictionPolicy().trim().toUpperCase()));
+	}
+
+	/**
+	 * @param maxSize max number of bytes kept by the cache
+	 * @param evictionPolicy
+	 */
+	public ResponseBodyCache(long maxSize, EvictionPolicy evictionPolicy)
+	{
+		this.maxSize = maxSize;
+		this.evictionPolicy = evictionPolicy;
+	}
+
+	/**
+	 * Retrieve the cached body for the given request, if it is still consistent with the
+	 * resource state informed.
+	 * @param uri
+	 * @param acceptLanguage
+	 * @param dateModified resource state modification date
+	 * @param etag resource state etag
+	 * @return the cached response or null if there is no valid entry
+	 */
+	public CachedResponse get(String uri, String acceptLanguage, long dateModified, String etag)
+	{
+		String key = getKey(uri, acceptLanguage);
+		CachedResponse cachedResponse = entries.get(key);
+		if (cachedResponse != null && !cachedResponse.matches(dateModified, etag))
+		{
+			remove(cachedResponse);
+			cachedResponse = null;
+		}
+		if (cachedResponse == null)
+		{
+			missCount.incrementAndGet();
+			return null;
+		}
+		hitCount.incrementAndGet();
+		cachedResponse.hits.incrementAndGet();
+		cachedResponse.lastAccess = System.nanoTime();
+		return cachedResponse;
+	}
+
+	/**
+	 * Store the encoded body for the given request.
+	 * @param uri
+	 * @param acceptLanguage
+	 * @param dateModified resource state modification date
+	 * @param etag resource state etag
+	 * @param content uncompressed content
+	 * @param gzippedContent compressed content (optional)
+	 */
+	public void put(String uri, String acceptLanguage, long dateModified, String etag, byte[] content, byte[] gzippedContent)
+	{
+		String key = getKey(uri, acceptLanguage);
+		CachedResponse cachedResponse = new CachedResponse(key, content, gzippedContent, dateModified, etag);
+		int entrySize = cachedResponse.size();
+		if (entrySize > maxSize)
+		{
+			return;
+		}
+		CachedResponse previous = entries.put(key, cachedResponse);
+		long currentSize = size.addAndGet(previous != null ? entrySize - previous.size() : entrySize);
+		if (currentSize > maxSize)
+		{
+			evict(cachedResponse);
+		}
+	}
+
+	/**
+	 * Remove all cached bodies.
+	 */
+	public void clear()
+	{
+		Iterator<CachedResponse> iterator = entries.values().iterator();
+		while (iterator.hasNext())
+		{
+			remove(iterator.next());
+		}
+	}
+
+	/**
+	 * Number of requests served from this cache
+	 * @return
+	 */
+	public long getHitCount()
+	{
+		return hitCount.get();
+	}
+
+	/**
+	 * Number of lookups that did not find a valid entry
+	 * @return
+	 */
+	public long getMissCount()
+	{
+		return missCount.get();
+	}
+
+	/**
+	 * Number of entries removed to respect the cache size bound
+	 * @return
+	 */
+	public long getEvictionCount()
+	{
+		return evictionCount.get();
+	}
+
+	/**
+	 * Number of bytes currently stored
+	 * @return
+	 */
+	public long getSize()
+	{
+		return Math.max(size.get(), 0);
+	}
+
+	/**
+	 * Number of entries currently stored
+	 * @return
+	 */
+	public int getEntryCount()
+	{
+		return entries.size();
+	}
+
+	public long getMaxSize()
+	{
+		return maxSize;
+	}
+
+	private boolean remove(CachedResponse cachedResponse)
+	{
+		if (entries.remove(cachedResponse.key, cachedResponse))
+		{
+			size.addAndGet(-cachedResponse.size());
+			return true;
+		}
+		return false;
+	}
+
+	private void evict(CachedResponse newEntry)
+	{
+		if (!evictionLock.tryLock())
+		{
+			// Another thread is already evicting
+			return;
+		}
+		try
+		{
+			while (size.get() > maxSize)
+			{
+				CachedResponse victim = null;
+				for (int i = 0; i < SAMPLE_SIZE; i++)
+				{
+					if (clockHand == null || !clockHand.hasNext())
+					{
+						clockHand = entries.values().iterator();
+						if (!clockHand.hasNext())
+						{
+							break;
+						}
+					}
+					CachedResponse candidate = clockHand.next();
+					if (candidate != newEntry && (victim == null || isBetterVictim(candidate, victim)))
+					{
+						victim = candidate;
+					}
+				}
+				if (victim == null)
+				{
+					break;
+				}
+				if (remove(victim))
+				{
+					evictionCount.incrementAndGet();
+				}
+			}
+		}
+		finally
+		{
+			evictionLock.unlock();
+		}
+	}
+
+	private boolean isBetterVictim(CachedResponse candidate, CachedResponse victim)
+	{
+		if (evictionPolicy == EvictionPolicy.LFU)
+		{
+			long candidateHits = candidate.hits.get();
+			long victimHits = victim.hits.get();
+			if (candidateHits != victimHits)
+			{
+				return candidateHits < victimHits;
+			}
+		}
+		return candidate.lastAccess < victim.lastAccess;
+	}
+
+	private String getKey(String uri, String acceptLanguage)
+	{
+		if (acceptLanguage == null)
+		{
+			return uri;
+		}
+		return uri + '\n' + acceptLanguage;
+	}
+}
@@ -0,0 +1,373 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.rest.state;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cruxframework.crux.core.server.rest.state.ClusteredResourceStateHandler.CacheEntry;
+
+/**
+ * Bounded queue of resource state updates waiting to be replicated to the cluster. Updates to the same
+ * URI are coalesced, so only the last state of each URI is sent. A background thread wakes up when 
+ * flushSize updates are waiting or when the flush interval expires, and sends each state through its 
+ * own {@link Replicator#replicate(String, CacheEntry)} call.
+ *
+ * Updates that do not fit into the queue are dropped. They are not replicated, and the resource state
+ * will be computed again by the next request that needs it.
+ *
+ * Each URI waiting for replication has one {@link PendingUpdate}, that is referenced by the pending map 
+ * and by the queue. Coalesced updates only replace the state carried by it, and discarded updates are 
+ * removed from both structures, so they do not take queue slots. The update stays on the pending map 
+ * while its state is being sent, so it is still visible to {@link #getPending(String)}. If it is 
+ * discarded during that time, the state just sent is removed again through {@link Replicator#remove(String)}, 
+ * so a removed state is never restored by a late replication.
+ */
+class StateReplicationQueue implements Closeable
+{
+	private static final Log logger = LogFactory.getLog(StateReplicationQueue.class);
+	private static final long CLOSE_TIMEOUT = 5000;
+
+	private final ConcurrentMap<String, PendingUpdate> pending = new ConcurrentHashMap<String, PendingUpdate>();
+	private final BlockingQueue<PendingUpdate> queue;
+	private final Thread flusher;
+	private final Replicator replicator;
+	private final int flushSize;
+	private final long flushInterval;
+	private final AtomicLong coalescedCount = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+	private final AtomicLong replicatedCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+	private volatile long lastLag;
+	private volatile long maxLag;
+	private volatile boolean closed;
+
+	/**
+	 * Sends states to the cluster
+	 */
+	static interface Replicator
+	{
+		void replicate(String uri, CacheEntry entry);
+		void remove(String uri);
+	}
+
+	StateReplicationQueue(Replicator replicator, int capacity, int flushSize, long flushInterval)
+	{
+		this.replicator = replicator;
+		this.queue = new ArrayBlockingQueue<PendingUpdate>(Math.max(capacity, 1));
+		this.flushSize = Math.max(flushSize, 1);
+		this.flushInterval = Math.max(flushInterval, 1);
+		this.flusher = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				flushLoop();
+			}
+		}, "ClusteredResourceStateHandler replication");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Schedule the replication of a resource state
+	 * @param uri
+	 * @param entry
+	 * @return false if the update was dropped because the queue is full or closed
+	 */
+	boolean offer(String uri, CacheEntry entry)
+	{
+		if (closed)
+		{
+			return false;
+		}
+		while (true)
+		{
+			PendingUpdate update = new PendingUpdate(uri, entry, System.currentTimeMillis());
+			PendingUpdate previous = pending.putIfAbsent(uri, update);
+			if (previous == null)
+			{
+				if (queue.offer(update))
+				{
+					return true;
+				}
+				// Only the update inserted here is undone
+				pending.remove(uri, update);
+				if (droppedCount.incrementAndGet() == 1)
+				{
+					logger.warn("Resource state replication queue is full. Updates are being dropped. Consider increasing replicationQueueSize.");
+				}
+				return false;
+			}
+			// The URI is already queued or being sent. Its replication will send this newer state, unless the 
+			// update was completed, discarded or dropped in the meantime.
+			synchronized (previous)
+			{
+				if (!previous.completed && pending.get(uri) == previous)
+				{
+					previous.entry = entry;
+					coalescedCount.incrementAndGet();
+					return true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Retrieve a state that was not replicated yet
+	 * @param uri
+	 * @return
+	 */
+	CacheEntry getPending(String uri)
+	{
+		PendingUpdate update = pending.get(uri);
+		return (update != null)?update.entry:null;
+	}
+
+	/**
+	 * Cancel the replication of a resource state
+	 * @param uri
+	 */
+	void discard(String uri)
+	{
+		PendingUpdate update = pending.remove(uri);
+		if (update != null)
+		{
+			queue.remove(update);
+		}
+	}
+
+	/**
+	 * Cancel the replication of any resource state whose URI starts with the given prefix
+	 * @param prefix
+	 */
+	void discardPrefix(String prefix)
+	{
+		Set<PendingUpdate> discarded = new HashSet<PendingUpdate>();
+		Iterator<Entry<String, PendingUpdate>> updates = pending.entrySet().iterator();
+		while (updates.hasNext())
+		{
+			Entry<String, PendingUpdate> update = updates.next();
+			if (update.getKey().startsWith(prefix) && pending.remove(update.getKey(), update.getValue()))
+			{
+				discarded.add(update.getValue());
+			}
+		}
+		if (!discarded.isEmpty())
+		{
+			queue.removeAll(discarded);
+		}
+	}
+
+	void clear()
+	{
+		discardPrefix("");
+	}
+
+	/**
+	 * Stop the replication thread. Updates not replicated yet are discarded.
+	 */
+	@Override
+	public void close()
+	{
+		closed = true;
+		flusher.interrupt();
+		try
+		{
+			flusher.join(CLOSE_TIMEOUT);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		clear();
+	}
+
+	int getPendingCount()
+	{
+		return pending.size();
+	}
+
+	long getCoalescedCount()
+	{
+		return coalescedCount.get();
+	}
+
+	long getDroppedCount()
+	{
+		return droppedCount.get();
+	}
+
+	long getReplicatedCount()
+	{
+		return replicatedCount.get();
+	}
+
+	long getFailedCount()
+	{
+		return failedCount.get();
+	}
+
+	long getLastLag()
+	{
+		return lastLag;
+	}
+
+	long getMaxLag()
+	{
+		return maxLag;
+	}
+
+	private void flushLoop()
+	{
+		List<PendingUpdate> updates = new ArrayList<PendingUpdate>(flushSize);
+		while (!closed)
+		{
+			try
+			{
+				PendingUpdate first = queue.take();
+				updates.add(first);
+				long deadline = System.currentTimeMillis() + flushInterval;
+				while (updates.size() < flushSize)
+				{
+					if (queue.drainTo(updates, flushSize - updates.size()) == 0)
+					{
+						long wait = deadline - System.currentTimeMillis();
+						PendingUpdate next = (wait > 0)?queue.poll(wait, TimeUnit.MILLISECONDS):null;
+						if (next == null)
+						{
+							break;
+						}
+						updates.add(next);
+					}
+				}
+				flush(updates);
+			}
+			catch (InterruptedException e)
+			{
+				return;
+			}
+			catch (Exception e)
+			{
+				logger.error("Error replicating resource states.", e);
+			}
+			finally
+			{
+				updates.clear();
+			}
+		}
+	}
+
+	private void flush(List<PendingUpdate> updates)
+	{
+		for (PendingUpdate update : updates)
+		{
+			if (pending.get(update.uri) != update)
+			{
+				continue; // discarded
+			}
+			CacheEntry entry = update.entry;
+			if (!entry.isExpired())
+			{
+				send(update, entry);
+			}
+			complete(update, entry);
+		}
+		if (logger.isDebugEnabled())
+		{
+			logger.debug(updates.size() + " resource state update(s) flushed. Replication lag: " + lastLag + " ms.");
+		}
+	}
+
+	private void send(PendingUpdate update, CacheEntry entry)
+	{
+		try
+		{
+			replicator.replicate(update.uri, entry);
+			replicatedCount.incrementAndGet();
+			if (pending.get(update.uri) != update)
+			{
+				// Discarded while it was sent. The removal could have reached the cluster before it
+				replicator.remove(update.uri);
+			}
+		}
+		catch (Exception e)
+		{
+			failedCount.incrementAndGet();
+			logger.error("Error replicating resource state for [" + update.uri + "].", e);
+		}
+		long lag = System.currentTimeMillis() - update.queuedAt;
+		lastLag = lag;
+		if (lag > maxLag)
+		{
+			maxLag = lag;
+		}
+	}
+
+	/**
+	 * Remove the update from the pending map, unless a newer state was coalesced into it while the previous 
+	 * one was sent. In that case, the update is queued again.
+	 */
+	private void complete(PendingUpdate update, CacheEntry sentEntry)
+	{
+		synchronized (update)
+		{
+			if (update.entry == sentEntry)
+			{
+				update.completed = true;
+				pending.remove(update.uri, update);
+				return;
+			}
+		}
+		if (pending.get(update.uri) == update && !queue.offer(update))
+		{
+			synchronized (update)
+			{
+				update.completed = true;
+				pending.remove(update.uri, update);
+			}
+			droppedCount.incrementAndGet();
+		}
+	}
+
+	private static class PendingUpdate
+	{
+		private final String uri;
+		private final long queuedAt;
+		private volatile CacheEntry entry;
+		private boolean completed; // guarded by the update monitor
+
+		private PendingUpdate(String uri, CacheEntry entry, long queuedAt)
+		{
+			this.uri = uri;
+			this.entry = entry;
+			this.queuedAt = queuedAt;
+		}
+	}
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.rest.state;
+
+/**
+ * An {@link ETagHandler} able to compute the eTag while the response entity is written, 
+ * without keeping a copy of the whole encoded content.
+ */
+public interface StreamingETagHandler extends ETagHandler
+{
+	/**
+	 * Retrieve the digest bound to the current thread, already reset.
+	 * @return
+	 */
+	ETagDigest getDigest();
+}
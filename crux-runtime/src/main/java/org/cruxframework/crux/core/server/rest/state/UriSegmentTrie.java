@@ -0,0 +1,212 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.rest.state;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * Index of URIs organized by path segments. It is used by resource state handlers to find
+ * all URIs that start with a given prefix (see {@link ResourceStateHandler#removeSegments(String...)})
+ * in time proportional to the number of URIs found, and not to the number of URIs indexed.
+ *
+ * The prefix match has the same semantics of {@link String#startsWith(String)}: the last segment
+ * of the prefix can be partial ("/orders/1" matches "/orders/1", "/orders/12/items" and "/orders/1?x=y").
+ *
+ * All methods are synchronized on the trie instance. Callers can synchronize on it to run compound
+ * operations atomically.
+ */
+public class UriSegmentTrie
+{
+	private static class Node
+	{
+		private final Node parent;
+		private final String segment;
+		private TreeMap<String, Node> children;
+		private String uri;
+
+		private Node(Node parent, String segment)
+		{
+			this.parent = parent;
+			this.segment = segment;
+		}
+
+		private Node getChild(String segment)
+		{
+			return (children != null) ? children.get(segment) : null;
+		}
+
+		private Node getOrCreateChild(String segment)
+		{
+			Node child = getChild(segment);
+			if (child == null)
+			{
+				if (children == null)
+				{
+					children = new TreeMap<String, Node>();
+				}
+				child = new Node(this, segment);
+				children.put(segment, child);
+			}
+			return child;
+		}
+
+		private boolean isEmpty()
+		{
+			return uri == null && (children == null || children.isEmpty());
+		}
+	}
+
+	private final Node root = new Node(null, null);
+	private int size;
+
+	/**
+	 * Add an URI to the index
+	 * @param uri
+	 */
+	public synchronized void add(String uri)
+	{
+		Node node = root;
+		int start = 0;
+		int end;
+		while ((end = uri.indexOf('/', start)) >= 0)
+		{
+			node = node.getOrCreateChild(uri.substring(start, end));
+			start = end + 1;
+		}
+		node = node.getOrCreateChild(uri.substring(start));
+		if (node.uri == null)
+		{
+			node.uri = uri;
+			size++;
+		}
+	}
+
+	/**
+	 * Remove an URI from the index
+	 * @param uri
+	 * @return true if the URI was indexed
+	 */
+	public synchronized boolean remove(String uri)
+	{
+		Node node = root;
+		int start = 0;
+		int end;
+		while (node != null && (end = uri.indexOf('/', start)) >= 0)
+		{
+			node = node.getChild(uri.substring(start, end));
+			start = end + 1;
+		}
+		if (node != null)
+		{
+			node = node.getChild(uri.substring(start));
+		}
+		if (node == null || node.uri == null)
+		{
+			return false;
+		}
+		node.uri = null;
+		size--;
+		prune(node);
+		return true;
+	}
+
+	/**
+	 * Remove from the index all URIs that starts with the given prefix
+	 * @param prefix
+	 * @return the URIs removed
+	 */
+	public synchronized List<String> removePrefix(String prefix)
+	{
+		List<String> result = new ArrayList<String>();
+		Node node = root;
+		int start = 0;
+		int end;
+		while (node != null && (end = prefix.indexOf('/', start)) >= 0)
+		{
+			node = node.getChild(prefix.substring(start, end));
+			start = end + 1;
+		}
+		if (node == null || node.children == null)
+		{
+			return result;
+		}
+		String partialSegment = prefix.substring(start);
+		Iterator<Entry<String, Node>> iterator = node.children.tailMap(partialSegment).entrySet().iterator();
+		while (iterator.hasNext())
+		{
+			Entry<String, Node> child = iterator.next();
+			if (!child.getKey().startsWith(partialSegment))
+			{
+				break;
+			}
+			collectUris(child.getValue(), result);
+			iterator.remove();
+		}
+		size -= result.size();
+		prune(node);
+		return result;
+	}
+
+	/**
+	 * Retrieve all URIs indexed
+	 * @return
+	 */
+	public synchronized List<String> getUris()
+	{
+		List<String> result = new ArrayList<String>(size);
+		collectUris(root, result);
+		return result;
+	}
+
+	public synchronized int size()
+	{
+		return size;
+	}
+
+	public synchronized void clear()
+	{
+		root.children = null;
+		size = 0;
+	}
+
+	private void collectUris(Node node, List<String> result)
+	{
+		if (node.uri != null)
+		{
+			result.add(node.uri);
+		}
+		if (node.children != null)
+		{
+			for (Node child : node.children.values())
+			{
+				collectUris(child, result);
+			}
+		}
+	}
+
+	private void prune(Node node)
+	{
+		while (node != root && node.isEmpty())
+		{
+			node.parent.children.remove(node.segment);
+			node = node.parent;
+		}
+	}
+}
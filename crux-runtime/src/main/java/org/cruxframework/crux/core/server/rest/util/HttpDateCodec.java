@@ -0,0 +1,190 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.rest.util;
+
+import java.util.Date;
+
+import org.cruxframework.crux.core.server.rest.util.DateUtil.DateParseException;
+
+/**
+ * Thread safe parser and formatter for HTTP dates in RFC 1123 format (Sun, 06 Nov 1994 08:49:37 GMT).
+ *
+ * Formatted dates are cached by second, so the dates written on most responses (Expires and
+ * Last-Modified) are built only once per second. Dates received in the other formats accepted by
+ * HTTP are parsed by {@link DateUtil}.
+ */
+public class HttpDateCodec
+{
+	private static final int RFC1123_LENGTH = 29;
+	private static final int CACHE_SIZE = 256;
+	// The first day of the epoch (1970-01-01) was a Thursday
+	private static final String[] DAYS = {"Thu", "Fri", "Sat", "Sun", "Mon", "Tue", "Wed"};
+	private static final String[] MONTHS = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+	private static final FormattedDate[] formatCache = new FormattedDate[CACHE_SIZE];
+
+	/**
+	 * Format the given date according to RFC 1123.
+	 * @param date milliseconds since the epoch
+	 * @return
+	 */
+	public static String format(long date)
+	{
+		if (date < 0)
+		{
+			return DateUtil.formatDate(new Date(date));
+		}
+		long second = date / 1000;
+		int index = (int) (second & (CACHE_SIZE - 1));
+		FormattedDate cached = formatCache[index];
+		if (cached != null && cached.second == second)
+		{
+			return cached.text;
+		}
+		String text = formatSecond(second);
+		// FormattedDate is immutable, so it can be safely shared without synchronization
+		formatCache[index] = new FormattedDate(second, text);
+		return text;
+	}
+
+	/**
+	 * Parse an HTTP date.
+	 * @param date
+	 * @return milliseconds since the epoch
+	 * @throws DateParseException if the value is not a valid HTTP date
+	 */
+	public static long parse(String date) throws DateParseException
+	{
+		if (date == null)
+		{
+			throw new IllegalArgumentException("dateValue is null");
+		}
+		long result = parseRfc1123(date);
+		if (result < 0)
+		{
+			result = DateUtil.parseDate(date).getTime();
+		}
+		return result;
+	}
+
+	private static String formatSecond(long second)
+	{
+		long days = second / 86400;
+		int secondOfDay = (int) (second % 86400);
+
+		// Civil date from days since the epoch (proleptic gregorian calendar)
+		long z = days + 719468;
+		long era = z / 146097;
+		long dayOfEra = z - era * 146097;
+		long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		long mp = (5 * dayOfYear + 2) / 153;
+		int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+		int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+		long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+		StringBuilder result = new StringBuilder(RFC1123_LENGTH);
+		result.append(DAYS[(int) (days % 7)]).append(", ");
+		appendTwoDigits(result, day);
+		result.append(' ').append(MONTHS[month - 1]).append(' ').append(year).append(' ');
+		appendTwoDigits(result, secondOfDay / 3600);
+		result.append(':');
+		appendTwoDigits(result, (secondOfDay / 60) % 60);
+		result.append(':');
+		appendTwoDigits(result, secondOfDay % 60);
+		result.append(" GMT");
+		return result.toString();
+	}
+
+	/**
+	 * Parse a date in the format EEE, dd MMM yyyy HH:mm:ss GMT
+	 * @param date
+	 * @return the date or -1 if the value is not in the expected format
+	 */
+	private static long parseRfc1123(String date)
+	{
+		if (date.length() != RFC1123_LENGTH || date.charAt(3) != ',' || date.charAt(4) != ' ' || date.charAt(7) != ' '
+			|| date.charAt(11) != ' ' || date.charAt(16) != ' ' || date.charAt(19) != ':' || date.charAt(22) != ':'
+			|| !date.startsWith(" GMT", 25))
+		{
+			return -1;
+		}
+		int day = parseDigits(date, 5, 2);
+		int year = parseDigits(date, 12, 4);
+		int hour = parseDigits(date, 17, 2);
+		int minute = parseDigits(date, 20, 2);
+		int second = parseDigits(date, 23, 2);
+		int month = 0;
+		while (month < 12 && !date.regionMatches(8, MONTHS[month], 0, 3))
+		{
+			month++;
+		}
+		if (day < 1 || day > 31 || year < 1970 || hour < 0 || hour > 23 || minute < 0 || minute > 59
+			|| second < 0 || second > 60 || month == 12)
+		{
+			return -1;
+		}
+		month++;
+
+		// Days since the epoch from civil date (proleptic gregorian calendar)
+		long y = (month <= 2) ? year - 1 : year;
+		long era = y / 400;
+		long yearOfEra = y - era * 400;
+		long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		long days = era * 146097 + dayOfEra - 719468;
+
+		return ((days * 86400) + (hour * 3600) + (minute * 60) + second) * 1000;
+	}
+
+	private static int parseDigits(String value, int start, int count)
+	{
+		int result = 0;
+		for (int i = start; i < start + count; i++)
+		{
+			char c = value.charAt(i);
+			if (c < '0' || c > '9')
+			{
+				return -1;
+			}
+			result = result * 10 + (c - '0');
+		}
+		return result;
+	}
+
+	private static void appendTwoDigits(StringBuilder result, int value)
+	{
+		result.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+	}
+
+	private static class FormattedDate
+	{
+		private final long second;
+		private final String text;
+
+		private FormattedDate(long second, String text)
+		{
+			this.second = second;
+			this.text = text;
+		}
+	}
+
+	/**
+	 * This class should not be instantiated.
+	 */
+	private HttpDateCodec()
+	{
+	}
+}
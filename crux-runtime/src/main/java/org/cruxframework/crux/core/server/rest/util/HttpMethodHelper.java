@@ -19,6 +19,7 @@ import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
 
 import org.cruxframework.crux.core.server.rest.core.dispatch.CacheInfo;
+import org.cruxframework.crux.core.server.rest.core.dispatch.CompressionInfo;
 import org.cruxframework.crux.core.shared.rest.annotation.GET;
 import org.cruxframework.crux.core.shared.rest.annotation.HttpMethod;
 import org.cruxframework.crux.core.shared.rest.annotation.POST;
@@ -80,6 +81,21 @@ public class HttpMethodHelper
 		
 		return null;
 	}
+
+	/**
+	 * Retrieve the compression settings for the given method. Only GET methods can customize those settings.
+	 * @param method
+	 * @return
+	 */
+	public static CompressionInfo getCompressionInfo(Method method)
+	{
+		GET get = method.getAnnotation(GET.class);
+		if (get != null)
+		{
+			return CompressionInfo.parseCompressionInfo(get);
+		}
+		return CompressionInfo.getDefaultCompressionInfo();
+	}
 	
 	public static StateValidationModel getStateValidationModel(Method method)
     {
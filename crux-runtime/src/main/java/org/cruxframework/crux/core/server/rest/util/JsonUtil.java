@@ -15,6 +15,8 @@
  */
 package org.cruxframework.crux.core.server.rest.util;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Method;
 import java.lang.reflect.Type;
 import java.util.HashSet;
@@ -26,6 +28,7 @@ import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.codehaus.jackson.JsonParser;
 import org.codehaus.jackson.annotate.JsonTypeInfo;
 import org.codehaus.jackson.map.DeserializationConfig;
 import org.codehaus.jackson.map.ObjectMapper;
@@ -71,6 +74,18 @@ public class JsonUtil
 		return reader;
 	}
 
+	/**
+	 * Creates a parser to read JSON content incrementally from the given stream.
+	 * @param type the type of the values that will be read.
+	 * @param in the JSON source
+	 * @return the Jackson JsonParser.
+	 * @throws IOException 
+	 */
+	public static JsonParser createParser(Type type, InputStream in) throws IOException
+	{
+		return getObjectMapper(type).getJsonFactory().createJsonParser(in);
+	}
+
 	/**
 	 * @param type the class type. 
 	 * @return the Jackson ObjectWriter.
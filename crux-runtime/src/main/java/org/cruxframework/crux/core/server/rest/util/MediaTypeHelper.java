@@ -184,6 +184,24 @@ public class MediaTypeHelper
       return null;
    }
 
+   /**
+    * Checks if any of the accepted media types is compatible with the given type.
+    * An empty accept list means that any type is accepted.
+    *
+    * @param type
+    * @param accepts
+    * @return
+    */
+   public static boolean isAccepted(MediaType type, List<MediaType> accepts)
+   {
+      if (accepts == null || accepts.isEmpty()) return true;
+      for (MediaType accept : accepts)
+      {
+         if (type.isCompatible(accept)) return true;
+      }
+      return false;
+   }
+
    public static List<MediaType> parseHeader(String header)
    {
       ArrayList<MediaType> types = new ArrayList<MediaType>();
@@ -78,6 +78,12 @@ public class CacheControlHeaderParser
                throw new IllegalArgumentException("CacheControl s-maxage header does not have a value: " + value);
             result.setSMaxAge(Integer.valueOf(val));
          }
+         else if ("stale-while-revalidate".equals(lowercase))
+         {
+            if (val == null)
+               throw new IllegalArgumentException("CacheControl stale-while-revalidate header does not have a value: " + value);
+            result.setStaleWhileRevalidate(Integer.valueOf(val));
+         }
          else if ("no-transform".equals(lowercase))
          {
             result.setNoTransform(true);
@@ -138,6 +144,7 @@ public class CacheControlHeaderParser
       if (value.isProxyRevalidate()) addDirective("proxy-revalidate", buffer);
       if (value.getSMaxAge() > -1) addDirective("s-maxage", buffer).append("=").append(value.getSMaxAge());
       if (value.getMaxAge() > -1) addDirective("max-age", buffer).append("=").append(value.getMaxAge());
+      if (value.getStaleWhileRevalidate() > -1) addDirective("stale-while-revalidate", buffer).append("=").append(value.getStaleWhileRevalidate());
       if (value.isPrivate())
       {
          List<String> fields = value.getPrivateFields();
@@ -63,6 +63,48 @@ public @interface GET
 	 * @return
 	 */
 	CacheControl cacheControl() default CacheControl.PUBLIC;
+
+	/**
+	 * The algorithm used to compress the response. AUTO chooses between gzip and deflate, according to the 
+	 * preferences informed by the client on Accept-Encoding header.
+	 * @return
+	 */
+	Compression compression() default Compression.AUTO;
+
+	/**
+	 * The compression level, from 1 (best speed) to 9 (best compression). If not informed, the level 
+	 * configured by Crux property restCompressionLevel is used.
+	 * @return
+	 */
+	int compressionLevel() default DEFAULT_COMPRESSION_LEVEL;
+
+	/**
+	 * The minimum size (in bytes) of a response to be compressed. If not informed, the threshold 
+	 * configured by Crux property restCompressionThreshold is used.
+	 * @return
+	 */
+	int compressionThreshold() default DEFAULT_COMPRESSION_THRESHOLD;
+
+	/**
+	 * How concurrent requests behave when the cached state of the resource expires. By default, each request 
+	 * that finds the state expired invokes the method to refresh it. The other modes let only the first 
+	 * request refresh the state. The other requests are answered from the resource state (with a 304 
+	 * response or from the response body cache) or with the response produced by the first request, when 
+	 * they send the same Accept-Language (and JsonP callback). The other modes can only be used with a 
+	 * PUBLIC cacheControl, by services that are not HttpResponseAware.
+	 * @return
+	 */
+	RefreshCoalescing refreshCoalescing() default RefreshCoalescing.NONE;
+
+	/**
+	 * The number of seconds, after the cached state of the resource expires, during which requests are still 
+	 * answered from the expired state (with a 304 response or from the response body cache) while the state 
+	 * is refreshed in background. The value is also sent to the clients through the stale-while-revalidate 
+	 * cache-control directive. Only used when cacheTime is a positive number. Services that are HttpRequestAware
+	 * or HttpResponseAware are never refreshed in background, so their requests wait for the refresh.
+	 * @return
+	 */
+	int staleWhileRevalidate() default NEVER;
 	
 	/**
 	 * If cacheTime is zero or a negative number, than cache control assumes that no cache must be used, and 
@@ -98,6 +140,56 @@ public @interface GET
 		NO_CACHE
 	}
 	
+	/**
+	 * Algorithms that can be used to compress the response.
+	 * @author Thiago da Rosa de Bustamante
+	 *
+	 */
+	public static enum Compression
+	{
+		/**
+		 * Uses gzip or deflate, according to the client preferences.
+		 */
+		AUTO,
+		/**
+		 * Uses gzip, if the client accepts it.
+		 */
+		GZIP,
+		/**
+		 * Uses deflate, if the client accepts it.
+		 */
+		DEFLATE,
+		/**
+		 * Never compress the response.
+		 */
+		NONE
+	}
+	
+	/**
+	 * Defines how concurrent requests for an expired resource are coalesced.
+	 *
+	 */
+	public static enum RefreshCoalescing
+	{
+		/**
+		 * Each request refreshes the expired state.
+		 */
+		NONE,
+		/**
+		 * Only the first request refreshes the state. Concurrent requests for the same resource wait for that 
+		 * refresh (up to the time configured by Crux property restRefreshWaitTimeout) and are answered from the 
+		 * new state.
+		 */
+		WAIT,
+		/**
+		 * Only the first request refreshes the state. Concurrent requests for the same resource do not wait. They 
+		 * are answered from the previous state. Requests that can not be answered from it wait as in WAIT mode.
+		 */
+		STALE
+	}
+	
+	public static final int DEFAULT_COMPRESSION_LEVEL = -1;
+	public static final int DEFAULT_COMPRESSION_THRESHOLD = -1;
 	public static final int NEVER = -1;
 	public static final int ONE_MINUTE = 60;
 	public static final int ONE_HOUR = ONE_MINUTE * 60;
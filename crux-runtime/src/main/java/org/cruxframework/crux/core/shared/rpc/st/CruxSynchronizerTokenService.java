@@ -24,5 +24,6 @@ import com.google.gwt.user.client.rpc.RemoteService;
 public interface CruxSynchronizerTokenService extends RemoteService
 {
 	String CRUX_SYNC_TOKEN_PARAM = "__CruxSyncToken_";
+	String CRUX_SYNC_TOKEN_HEADER = "X-Crux-Sync-Token";
 	String getSynchronizerToken(String methodFullSignature);
 }
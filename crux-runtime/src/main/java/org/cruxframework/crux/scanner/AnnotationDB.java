@@ -17,17 +17,31 @@ package org.cruxframework.crux.scanner;
 
 import java.io.BufferedInputStream;
 import java.io.DataInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
 
 import javassist.bytecode.AnnotationsAttribute;
 import javassist.bytecode.ClassFile;
@@ -36,6 +50,10 @@ import javassist.bytecode.MethodInfo;
 import javassist.bytecode.ParameterAnnotationsAttribute;
 import javassist.bytecode.annotation.Annotation;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cruxframework.crux.core.config.ConfigurationFactory;
+import org.cruxframework.crux.scanner.ScannerIndexCache.CachedArchive;
 import org.cruxframework.crux.scanner.ScannerRegistration.ScannerMatch;
 import org.cruxframework.crux.scanner.Scanners.ScannerCallback;
 import org.cruxframework.crux.scanner.archiveiterator.Filter;
@@ -46,12 +64,20 @@ import org.cruxframework.crux.scanner.archiveiterator.Filter;
  * 
  * Based on Scannotation library from Bill Burke.
  * 
+ * Class files are parsed by {@link #readClass(InputStream)}, possibly on several threads, and the results 
+ * are merged into the indexes by {@link #indexClass(ScannedClass)}. The scanClass, scanMethods and scanFields 
+ * hooks only collect annotation names into the given set, and must not change any index. Subclasses that 
+ * overrode the former scanClass(ClassFile), scanMethods(ClassFile), scanFields(ClassFile), 
+ * populate(Annotation[], String) or populateInterfaces(ClassFile) methods must move that code to these ones.
+ * 
  * @author <a href="mailto:bill@burkecentral.com">Bill Burke</a>
  * @author Thiago da Rosa de Bustamante
  */
 public class AnnotationDB extends AbstractScanner implements Serializable
 {
 	private static final long serialVersionUID = 7685125058283200626L;
+	private static final Log logger = LogFactory.getLog(AnnotationDB.class);
+	private static final int DIRECTORY_SCAN_BATCH_SIZE = 256;
 	protected Map<String, Set<String>> annotationIndex = new HashMap<String, Set<String>>();
 	protected Map<String, Set<String>> implementsIndex = new HashMap<String, Set<String>>();
 	protected Map<String, Set<String>> classIndex = new HashMap<String, Set<String>>();
@@ -63,6 +89,7 @@ public class AnnotationDB extends AbstractScanner implements Serializable
 	protected transient boolean scanMethodAnnotations = true;
 	protected transient boolean scanParameterAnnotations = true;
 	protected transient boolean scanFieldAnnotations = true;
+	protected transient int scanThreads = Runtime.getRuntime().availableProcessors();
 
 	/**
 	 * returns a map keyed by the fully qualified string name of a annotation
@@ -148,31 +175,39 @@ public class AnnotationDB extends AbstractScanner implements Serializable
 			@Override
 			public void onFound(List<ScannerMatch> scanResult)
 			{
+				Map<URL, List<URL>> archives = new LinkedHashMap<URL, List<URL>>();
 				for (ScannerMatch match : scanResult)
 				{
 					URL found = match.getMatch();
 					if (!scannedURLs.contains(found))
 					{
 						scannedURLs.add(found);
-						URLStreamManager manager = new URLStreamManager(found);
-						try
-						{
-							scanClass(manager.open());
-						}
-						catch (IOException e)
+						List<URL> classes = archives.get(match.getParentURL());
+						if (classes == null)
 						{
-							throw new ScannerException("Error creating index of annotations.", e);
+							classes = new ArrayList<URL>();
+							archives.put(match.getParentURL(), classes);
 						}
-
-						manager.close();
+						classes.add(found);
 					}
 				}
+				scanArchives(archives);
 				ClassScanner.setInitialized();
 				populateInterfacesFromSuperClass();
 			}
 		};
 	}
 
+	/**
+	 * Number of threads used to parse the class files. Defaults to the number of available processors, 
+	 * also used when scanThreads is lower than 1.
+	 * @param scanThreads
+	 */
+	public void setScanThreads(int scanThreads)
+	{
+		this.scanThreads = (scanThreads < 1)?Runtime.getRuntime().availableProcessors():scanThreads;
+	}
+
 	/**
 	 * Scan a url that represents an "archive" this is a classpath directory or
 	 * jar file
@@ -214,48 +249,235 @@ public class AnnotationDB extends AbstractScanner implements Serializable
 	 */
 	public void scanClass(InputStream bits) throws IOException
 	{
-		DataInputStream dstream = new DataInputStream(new BufferedInputStream(bits));
-		ClassFile cf = null;
+		indexClass(readClass(bits));
+	}
+
+	/**
+	 * Parse the class files found on each archive. Class files are parsed by a fork join pool, and the 
+	 * results are merged into the indexes by the calling thread, following the archives order. 
+	 * When the Crux property scanIndexCacheDir is defined, classes indexed by a previous execution are 
+	 * read from that directory, and only the archives (or class files, for directories) modified since 
+	 * then are parsed again. 
+	 * @param archives class files found, grouped by the archive (jar file or directory) that contains them
+	 */
+	protected void scanArchives(Map<URL, List<URL>> archives)
+	{
+		long scanStart = System.currentTimeMillis();
+		ScannerIndexCache indexCache = getIndexCache();
+		List<ArchiveScanTask> tasks = new ArrayList<ArchiveScanTask>();
+		Map<URL, CachedArchive> cachedArchives = new LinkedHashMap<URL, CachedArchive>();
+		for (Entry<URL, List<URL>> archive : archives.entrySet())
+		{
+			List<URL> classes = archive.getValue();
+			CachedArchive cachedArchive = (indexCache != null)?indexCache.load(archive.getKey()):null;
+			if (cachedArchive != null)
+			{
+				cachedArchives.put(archive.getKey(), cachedArchive);
+			}
+			// Big directories are split, so their classes can be parsed by different threads
+			boolean splitArchive = !isJarArchive(archive.getKey());
+			for (int start = 0; start < classes.size(); start += (splitArchive?DIRECTORY_SCAN_BATCH_SIZE:classes.size()))
+			{
+				int end = splitArchive?Math.min(start + DIRECTORY_SCAN_BATCH_SIZE, classes.size()):classes.size();
+				tasks.add(new ArchiveScanTask(archive.getKey(), classes.subList(start, end), cachedArchive));
+			}
+		}
+		
+		int threads = Math.min(scanThreads, tasks.size());
+		List<ScannedArchive> scannedArchives = new ArrayList<ScannedArchive>(tasks.size());
 		try
 		{
-			cf = new ClassFile(dstream);
-			classIndex.put(cf.getName(), new HashSet<String>());
-			scanClass(cf);
-			if (scanMethodAnnotations || scanParameterAnnotations)
+			if (threads <= 1)
 			{
-				scanMethods(cf);
+				for (ArchiveScanTask task : tasks)
+				{
+					scannedArchives.add(indexArchive(task.call()));
+				}
 			}
-			if (scanFieldAnnotations)
+			else
 			{
-				scanFields(cf);
+				scanArchivesInParallel(tasks, threads, scannedArchives);
 			}
+		}
+		catch (IOException e)
+		{
+			throw new ScannerException("Error creating index of annotations.", e);
+		}
+		if (indexCache != null)
+		{
+			updateIndexCache(indexCache, archives, cachedArchives, scannedArchives);
+		}
+		if (logger.isInfoEnabled() && tasks.size() > 0)
+		{
+			logger.info("Classes from " + archives.size() + " archive(s) indexed in " + (System.currentTimeMillis() - scanStart) + " ms, using " + 
+					Math.max(threads, 1) + " thread(s).");
+		}
+	}
+
+	private ScannerIndexCache getIndexCache()
+	{
+		String cacheDir = ConfigurationFactory.getConfigurations().scanIndexCacheDir();
+		if (cacheDir == null || cacheDir.trim().length() == 0)
+		{
+			return null;
+		}
+		String scanSettings = "methods=" + scanMethodAnnotations + ";parameters=" + scanParameterAnnotations + ";fields=" + scanFieldAnnotations;
+		return new ScannerIndexCache(new File(cacheDir.trim()), scanSettings);
+	}
 
-			// create an index of interfaces the class implements
-			if (cf.getInterfaces() != null)
+	/**
+	 * Add the parsed classes to the cached indexes, drop the classes that were not found by this scan and 
+	 * store the archives that changed. The cached indexes are only changed here, after all tasks (that read 
+	 * them) finished.
+	 */
+	private void updateIndexCache(ScannerIndexCache indexCache, Map<URL, List<URL>> archives, Map<URL, CachedArchive> cachedArchives, List<ScannedArchive> scannedArchives)
+	{
+		Set<CachedArchive> changedArchives = new LinkedHashSet<CachedArchive>();
+		for (ScannedArchive archive : scannedArchives)
+		{
+			if (archive.cachedArchive != null && !archive.parsedClasses.isEmpty())
 			{
-				Set<String> intfs = new HashSet<String>();
-				for (String intf : cf.getInterfaces())
+				for (Entry<URL, ScannedClass> parsed : archive.parsedClasses.entrySet())
 				{
-					intfs.add(intf);
+					archive.cachedArchive.put(parsed.getKey(), parsed.getValue());
+				}
+				changedArchives.add(archive.cachedArchive);
+			}
+		}
+		for (Entry<URL, CachedArchive> cachedArchive : cachedArchives.entrySet())
+		{
+			if (cachedArchive.getValue().retain(archives.get(cachedArchive.getKey())))
+			{
+				changedArchives.add(cachedArchive.getValue());
+			}
+		}
+		for (CachedArchive cachedArchive : changedArchives)
+		{
+			indexCache.store(cachedArchive);
+		}
+		indexCache.removeDeletedArchives();
+	}
+
+	private void scanArchivesInParallel(List<ArchiveScanTask> tasks, int threads, List<ScannedArchive> scannedArchives) throws IOException
+	{
+		// Async mode keeps the submitted archives in FIFO order, so the ones indexed first are parsed first
+		ForkJoinPool pool = new ForkJoinPool(threads, new ForkJoinWorkerThreadFactory()
+		{
+			private final AtomicInteger count = new AtomicInteger();
+			
+			@Override
+			public ForkJoinWorkerThread newThread(ForkJoinPool pool)
+			{
+				ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+				thread.setName("crux-scanner-" + count.incrementAndGet());
+				return thread;
+			}
+		}, null, true);
+		try
+		{
+			List<ForkJoinTask<ScannedArchive>> results = new ArrayList<ForkJoinTask<ScannedArchive>>(tasks.size());
+			for (ArchiveScanTask task : tasks)
+			{
+				results.add(pool.submit(task));
+			}
+			for (ForkJoinTask<ScannedArchive> result : results)
+			{
+				try
+				{
+					scannedArchives.add(indexArchive(result.get()));
+				}
+				catch (ExecutionException e)
+				{
+					Throwable cause = e.getCause();
+					if (cause instanceof IOException)
+					{
+						throw (IOException) cause;
+					}
+					throw new ScannerException("Error creating index of annotations.", cause);
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					throw new ScannerException("Scanning interrupted.", e);
 				}
-				implementsIndex.put(cf.getName(), intfs);
 			}
 		}
 		finally
 		{
-			dstream.close();
-			bits.close();
+			pool.shutdownNow();
 		}
 	}
 
-	protected void populateInterfaces(ClassFile cf)
+	private ScannedArchive indexArchive(ScannedArchive archive)
 	{
-		String className = cf.getName();
-		String superClassName = cf.getSuperclass();
+		for (ScannedClass scannedClass : archive.classes)
+		{
+			indexClass(scannedClass);
+		}
+		if (logger.isDebugEnabled())
+		{
+			logger.debug("Archive [" + archive.url + "] scanned: " + archive.classes.size() + " classes found (" + archive.parsedClasses.size() + 
+					" parsed) in " + archive.scanTime + " ms.");
+		}
+		return archive;
+	}
 
-		populateInterfaces(cf.getInterfaces(), className);
+	/**
+	 * Parse a .class file, collecting the information needed by the indexes. This method does not change 
+	 * any index, so it can be called concurrently.
+	 * 
+	 * @param bits
+	 *            input stream pointing to .class file bits
+	 * @return
+	 * @throws IOException
+	 */
+	protected ScannedClass readClass(InputStream bits) throws IOException
+	{
+		DataInputStream dstream = new DataInputStream(new BufferedInputStream(bits));
+		try
+		{
+			ClassFile cf = new ClassFile(dstream);
+			ScannedClass scannedClass = new ScannedClass(cf.getName(), cf.getSuperclass(), cf.getInterfaces());
+			scanClass(cf, scannedClass.annotations);
+			if (scanMethodAnnotations || scanParameterAnnotations)
+			{
+				scanMethods(cf, scannedClass.annotations);
+			}
+			if (scanFieldAnnotations)
+			{
+				scanFields(cf, scannedClass.annotations);
+			}
+			return scannedClass;
+		}
+		finally
+		{
+			dstream.close();
+			bits.close();
+		}
+	}
 
-		superClasses.put(className, superClassName);
+	/**
+	 * Add a parsed class to the indexes
+	 * @param scannedClass
+	 */
+	protected void indexClass(ScannedClass scannedClass)
+	{
+		String className = scannedClass.name;
+		classIndex.put(className, new HashSet<String>());
+		populate(scannedClass.annotations, className);
+		populateInterfaces(scannedClass.interfaces, className);
+		superClasses.put(className, scannedClass.superClass);
+
+		// create an index of interfaces the class implements
+		if (scannedClass.interfaces != null)
+		{
+			Set<String> intfs = new HashSet<String>();
+			for (String intf : scannedClass.interfaces)
+			{
+				intfs.add(intf);
+			}
+			implementsIndex.put(className, intfs);
+		}
 	}
 
 	protected void populateInterfaces(String[] interfaces, String className)
@@ -347,29 +569,28 @@ public class AnnotationDB extends AbstractScanner implements Serializable
 		}
 	}
 
-	protected void scanClass(ClassFile cf)
+	protected void scanClass(ClassFile cf, Set<String> annotations)
 	{
-		String className = cf.getName();
 		AnnotationsAttribute visible = (AnnotationsAttribute) cf.getAttribute(AnnotationsAttribute.visibleTag);
 		AnnotationsAttribute invisible = (AnnotationsAttribute) cf.getAttribute(AnnotationsAttribute.invisibleTag);
 
 		if (visible != null)
 		{
-			populate(visible.getAnnotations(), className);
+			collect(visible.getAnnotations(), annotations);
 		}
 		if (invisible != null)
 		{
-			populate(invisible.getAnnotations(), className);
+			collect(invisible.getAnnotations(), annotations);
 		}
-		populateInterfaces(cf);
 	}
 
 	/**
 	 * Scanns both the method and its parameters for annotations.
 	 * 
 	 * @param cf
+	 * @param annotations
 	 */
-	protected void scanMethods(ClassFile cf)
+	protected void scanMethods(ClassFile cf, Set<String> annotations)
 	{
 		List<?> methods = cf.getMethods();
 		if (methods == null)
@@ -386,11 +607,11 @@ public class AnnotationDB extends AbstractScanner implements Serializable
 
 				if (visible != null)
 				{
-					populate(visible.getAnnotations(), cf.getName());
+					collect(visible.getAnnotations(), annotations);
 				}
 				if (invisible != null)
 				{
-					populate(invisible.getAnnotations(), cf.getName());
+					collect(invisible.getAnnotations(), annotations);
 				}
 			}
 			if (scanParameterAnnotations)
@@ -402,21 +623,21 @@ public class AnnotationDB extends AbstractScanner implements Serializable
 				{
 					for (Annotation[] anns : paramsVisible.getAnnotations())
 					{
-						populate(anns, cf.getName());
+						collect(anns, annotations);
 					}
 				}
 				if (paramsInvisible != null && paramsInvisible.getAnnotations() != null)
 				{
 					for (Annotation[] anns : paramsInvisible.getAnnotations())
 					{
-						populate(anns, cf.getName());
+						collect(anns, annotations);
 					}
 				}
 			}
 		}
 	}
 
-	protected void scanFields(ClassFile cf)
+	protected void scanFields(ClassFile cf, Set<String> annotations)
 	{
 		List<?> fields = cf.getFields();
 		if (fields == null)
@@ -431,32 +652,40 @@ public class AnnotationDB extends AbstractScanner implements Serializable
 
 			if (visible != null)
 			{
-				populate(visible.getAnnotations(), cf.getName());
+				collect(visible.getAnnotations(), annotations);
 			}
 			if (invisible != null)
 			{
-				populate(invisible.getAnnotations(), cf.getName());
+				collect(invisible.getAnnotations(), annotations);
 			}
 		}
 	}
 
-	protected void populate(Annotation[] annotations, String className)
+	protected void collect(Annotation[] annotations, Set<String> result)
 	{
 		if (annotations == null)
 		{
 			return;
 		}
-		Set<String> classAnnotations = classIndex.get(className);
 		for (Annotation ann : annotations)
 		{
-			Set<String> classes = annotationIndex.get(ann.getTypeName());
+			result.add(ann.getTypeName());
+		}
+	}
+
+	protected void populate(Set<String> annotations, String className)
+	{
+		Set<String> classAnnotations = classIndex.get(className);
+		for (String annotation : annotations)
+		{
+			Set<String> classes = annotationIndex.get(annotation);
 			if (classes == null)
 			{
 				classes = new HashSet<String>();
-				annotationIndex.put(ann.getTypeName(), classes);
+				annotationIndex.put(annotation, classes);
 			}
 			classes.add(className);
-			classAnnotations.add(ann.getTypeName());
+			classAnnotations.add(annotation);
 		}
 	}
 
@@ -484,4 +713,144 @@ public class AnnotationDB extends AbstractScanner implements Serializable
 			writer.println();
 		}
 	}
+
+	private static boolean isJarArchive(URL archiveURL)
+	{
+		String url = archiveURL.toString();
+		return url.startsWith("jar:file:") && url.indexOf("!/") == url.length() - 2;
+	}
+
+	/**
+	 * Information collected from a class file
+	 */
+	protected static class ScannedClass implements Serializable
+	{
+		private static final long serialVersionUID = -4906282924553513716L;
+
+		private final String name;
+		private final String superClass;
+		private final String[] interfaces;
+		private final Set<String> annotations = new HashSet<String>();
+		
+		private ScannedClass(String name, String superClass, String[] interfaces)
+		{
+			this.name = name;
+			this.superClass = superClass;
+			this.interfaces = interfaces;
+		}
+	}
+	
+	/**
+	 * Classes parsed from an archive
+	 */
+	private static class ScannedArchive
+	{
+		private final URL url;
+		private final List<ScannedClass> classes;
+		private final Map<URL, ScannedClass> parsedClasses;
+		private final CachedArchive cachedArchive;
+		private final long scanTime;
+
+		private ScannedArchive(URL url, List<ScannedClass> classes, Map<URL, ScannedClass> parsedClasses, CachedArchive cachedArchive, long scanTime)
+		{
+			this.url = url;
+			this.classes = classes;
+			this.parsedClasses = parsedClasses;
+			this.cachedArchive = cachedArchive;
+			this.scanTime = scanTime;
+		}
+	}
+	
+	/**
+	 * Parses the class files of an archive. Jar files are opened only once for all its classes, and only 
+	 * if some of them is not found on the cached index.
+	 */
+	private class ArchiveScanTask implements Callable<ScannedArchive>
+	{
+		private final URL archiveURL;
+		private final List<URL> classes;
+		private final CachedArchive cachedArchive;
+
+		private ArchiveScanTask(URL archiveURL, List<URL> classes, CachedArchive cachedArchive)
+		{
+			this.archiveURL = archiveURL;
+			this.classes = classes;
+			this.cachedArchive = cachedArchive;
+		}
+
+		@Override
+		public ScannedArchive call() throws IOException
+		{
+			long start = System.currentTimeMillis();
+			List<ScannedClass> result = new ArrayList<ScannedClass>(classes.size());
+			Map<URL, ScannedClass> parsedClasses = new LinkedHashMap<URL, ScannedClass>();
+			JarFile jarFile = null;
+			boolean jarFileOpened = false;
+			try
+			{
+				String prefix = archiveURL.toString();
+				for (URL classURL : classes)
+				{
+					ScannedClass cachedClass = (cachedArchive != null)?cachedArchive.get(classURL):null;
+					if (cachedClass != null)
+					{
+						result.add(cachedClass);
+						continue;
+					}
+					if (!jarFileOpened)
+					{
+						jarFile = openJarFile();
+						jarFileOpened = true;
+					}
+					ScannedClass scannedClass;
+					String entryName = classURL.toString().substring(prefix.length());
+					ZipEntry entry = (jarFile != null && classURL.toString().startsWith(prefix))?jarFile.getEntry(entryName):null;
+					if (entry != null)
+					{
+						scannedClass = readClass(jarFile.getInputStream(entry));
+					}
+					else
+					{
+						URLStreamManager manager = new URLStreamManager(classURL);
+						try
+						{
+							scannedClass = readClass(manager.open());
+						}
+						finally
+						{
+							manager.close();
+						}
+					}
+					result.add(scannedClass);
+					parsedClasses.put(classURL, scannedClass);
+				}
+			}
+			finally
+			{
+				if (jarFile != null)
+				{
+					jarFile.close();
+				}
+			}
+			return new ScannedArchive(archiveURL, result, parsedClasses, cachedArchive, System.currentTimeMillis() - start);
+		}
+
+		private JarFile openJarFile()
+		{
+			if (isJarArchive(archiveURL))
+			{
+				String url = archiveURL.toString();
+				try
+				{
+					return new JarFile(new File(new URL(url.substring(4, url.length() - 2)).toURI()));
+				}
+				catch (Exception e)
+				{
+					// The classes will be read through their URLs
+					logger.debug("Can not open archive [" + url + "] as a jar file.", e);
+				}
+			}
+			return null;
+		}
+	}
 }
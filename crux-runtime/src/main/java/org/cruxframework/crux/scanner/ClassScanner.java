@@ -21,6 +21,7 @@ import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.cruxframework.crux.core.config.ConfigurationFactory;
 
 
 /**
@@ -77,6 +78,14 @@ public class ClassScanner
 			scannerDB.setScanFieldAnnotations(false);
 			scannerDB.setScanMethodAnnotations(false);
 			scannerDB.setScanParameterAnnotations(false);
+			try
+			{
+				scannerDB.setScanThreads(Integer.parseInt(ConfigurationFactory.getConfigurations().scanThreads()));
+			}
+			catch (Exception e)
+			{
+				logger.error("Invalid value for scanThreads property. Using the number of available processors.", e);
+			}
 			scannerInitialized = true;
 		}
     }
@@ -0,0 +1,364 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.scanner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cruxframework.crux.scanner.AnnotationDB.ScannedClass;
+
+/**
+ * Persists the classes parsed by {@link AnnotationDB} for each classpath entry, so they do not need
+ * to be parsed again by the next scan. Jar files are identified by their path, size and last modification
+ * date. Classes inside directories are checked individually, so only the modified class files are parsed
+ * again. Entries for classes and archives that no longer exist are dropped from the index.
+ */
+class ScannerIndexCache
+{
+	private static final Log logger = LogFactory.getLog(ScannerIndexCache.class);
+	private static final String CACHE_FILE_SUFFIX = ".idx";
+
+	private final File cacheDir;
+	private final String scanSettings;
+
+	/**
+	 * @param cacheDir directory where the index files are stored
+	 * @param scanSettings describes the scanner options used to parse the classes. Cached entries created
+	 * with different options are discarded.
+	 */
+	ScannerIndexCache(File cacheDir, String scanSettings)
+	{
+		this.cacheDir = cacheDir;
+		this.scanSettings = scanSettings;
+	}
+
+	/**
+	 * Load the cached index for the given archive.
+	 * @param archiveURL
+	 * @return the cached index or an empty index if no valid cache was found
+	 */
+	CachedArchive load(URL archiveURL)
+	{
+		File archiveFile = getArchiveFile(archiveURL);
+		if (archiveFile == null)
+		{
+			return null;
+		}
+		CachedArchive archive = new CachedArchive(archiveURL, archiveFile, scanSettings);
+		File cacheFile = getCacheFile(archiveURL);
+		if (cacheFile.exists())
+		{
+			ObjectInputStream in = null;
+			try
+			{
+				in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+				in.readUTF();
+				CachedArchive cached = (CachedArchive) in.readObject();
+				if (cached.isValidFor(archive))
+				{
+					return cached;
+				}
+			}
+			catch (Exception e)
+			{
+				logger.debug("Discarding invalid scanner index file [" + cacheFile.getAbsolutePath() + "].", e);
+			}
+			finally
+			{
+				close(in);
+			}
+		}
+		return archive;
+	}
+
+	/**
+	 * Store the index of an archive.
+	 * @param archive
+	 */
+	void store(CachedArchive archive)
+	{
+		File cacheFile = getCacheFile(archive.url);
+		File tempFile = new File(cacheDir, cacheFile.getName() + "." + Thread.currentThread().getId() + ".tmp");
+		ObjectOutputStream out = null;
+		try
+		{
+			if (!cacheDir.exists() && !cacheDir.mkdirs())
+			{
+				throw new IOException("Can not create directory [" + cacheDir.getAbsolutePath() + "].");
+			}
+			out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+			// The archive path comes first, so removeDeletedArchives can check it without reading the index
+			out.writeUTF(archive.path);
+			out.writeObject(archive);
+			out.close();
+			out = null;
+			// Other processes can be using the same cache. Only complete files are exposed to them
+			if (!tempFile.renameTo(cacheFile))
+			{
+				cacheFile.delete();
+				if (!tempFile.renameTo(cacheFile))
+				{
+					throw new IOException("Can not write file [" + cacheFile.getAbsolutePath() + "].");
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			logger.info("Error writing scanner index file for [" + archive.url + "].", e);
+		}
+		finally
+		{
+			close(out);
+			tempFile.delete();
+		}
+	}
+
+	/**
+	 * Remove the index files of archives that were deleted from the file system.
+	 */
+	void removeDeletedArchives()
+	{
+		File[] cacheFiles = cacheDir.listFiles();
+		if (cacheFiles == null)
+		{
+			return;
+		}
+		for (File cacheFile : cacheFiles)
+		{
+			if (!cacheFile.getName().endsWith(CACHE_FILE_SUFFIX))
+			{
+				continue;
+			}
+			String archivePath = null;
+			ObjectInputStream in = null;
+			try
+			{
+				in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+				archivePath = in.readUTF();
+			}
+			catch (IOException e)
+			{
+				logger.debug("Can not read scanner index file [" + cacheFile.getAbsolutePath() + "].", e);
+			}
+			finally
+			{
+				close(in);
+			}
+			if (archivePath != null && !new File(archivePath).exists())
+			{
+				cacheFile.delete();
+			}
+		}
+	}
+
+	private File getCacheFile(URL archiveURL)
+	{
+		return new File(cacheDir, hash(archiveURL.toString()) + CACHE_FILE_SUFFIX);
+	}
+
+	private static String hash(String value)
+	{
+		try
+		{
+			byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes("UTF-8"));
+			StringBuilder result = new StringBuilder(digest.length * 2);
+			for (byte b : digest)
+			{
+				result.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return result.toString();
+		}
+		catch (Exception e)
+		{
+			return Integer.toHexString(value.hashCode());
+		}
+	}
+
+	private static void close(Closeable stream)
+	{
+		if (stream != null)
+		{
+			try
+			{
+				stream.close();
+			}
+			catch (IOException e)
+			{
+				// Nothing to do
+			}
+		}
+	}
+
+	/**
+	 * Retrieve the file or directory referenced by the archive URL
+	 * @param archiveURL
+	 * @return the file or null if the archive is not stored on the local file system
+	 */
+	static File getArchiveFile(URL archiveURL)
+	{
+		String url = archiveURL.toString();
+		try
+		{
+			if (url.startsWith("jar:file:") && url.indexOf("!/") == url.length() - 2)
+			{
+				return new File(new URL(url.substring(4, url.length() - 2)).toURI());
+			}
+			if (url.startsWith("file:"))
+			{
+				return new File(archiveURL.toURI());
+			}
+		}
+		catch (Exception e)
+		{
+			logger.debug("Can not resolve the file for archive [" + url + "].", e);
+		}
+		return null;
+	}
+
+	/**
+	 * The cached index of an archive (a jar file or a directory)
+	 */
+	static class CachedArchive implements Serializable
+	{
+		private static final long serialVersionUID = -2683406599512315312L;
+
+		private final URL url;
+		private final String path;
+		private final boolean directory;
+		private final long size;
+		private final long lastModified;
+		private final String scanSettings;
+		private final Map<String, CachedClass> classes = new HashMap<String, CachedClass>();
+
+		private CachedArchive(URL url, File file, String scanSettings)
+		{
+			this.url = url;
+			this.path = file.getAbsolutePath();
+			this.directory = file.isDirectory();
+			this.size = directory ? 0 : file.length();
+			this.lastModified = directory ? 0 : file.lastModified();
+			this.scanSettings = scanSettings;
+		}
+
+		/**
+		 * Retrieve a cached class, if it is still up to date
+		 * @param classURL
+		 * @return
+		 */
+		ScannedClass get(URL classURL)
+		{
+			CachedClass cached = classes.get(getEntryName(classURL));
+			if (cached == null)
+			{
+				return null;
+			}
+			if (directory)
+			{
+				File classFile = getArchiveFile(classURL);
+				if (classFile == null || classFile.length() != cached.size || classFile.lastModified() != cached.lastModified)
+				{
+					return null;
+				}
+			}
+			return cached.scannedClass;
+		}
+
+		/**
+		 * Add a class to the index.
+		 * @param classURL
+		 * @param scannedClass
+		 */
+		void put(URL classURL, ScannedClass scannedClass)
+		{
+			long classSize = 0;
+			long classLastModified = 0;
+			if (directory)
+			{
+				File classFile = getArchiveFile(classURL);
+				if (classFile != null)
+				{
+					classSize = classFile.length();
+					classLastModified = classFile.lastModified();
+				}
+			}
+			classes.put(getEntryName(classURL), new CachedClass(classSize, classLastModified, scannedClass));
+		}
+
+		/**
+		 * Remove from the index the classes that are not present on the archive anymore.
+		 * @param classURLs all classes found on the archive
+		 * @return true if some class was removed
+		 */
+		boolean retain(Collection<URL> classURLs)
+		{
+			Set<String> entryNames = new HashSet<String>();
+			for (URL classURL : classURLs)
+			{
+				entryNames.add(getEntryName(classURL));
+			}
+			return classes.keySet().retainAll(entryNames);
+		}
+
+		private boolean isValidFor(CachedArchive current)
+		{
+			return path.equals(current.path) && directory == current.directory && size == current.size
+				&& lastModified == current.lastModified && scanSettings.equals(current.scanSettings);
+		}
+
+		private String getEntryName(URL classURL)
+		{
+			String classPath = classURL.toString();
+			String archivePath = url.toString();
+			return classPath.startsWith(archivePath) ? classPath.substring(archivePath.length()) : classPath;
+		}
+	}
+
+	/**
+	 * A class parsed from an archive
+	 */
+	private static class CachedClass implements Serializable
+	{
+		private static final long serialVersionUID = 5204776432917052329L;
+
+		private final long size;
+		private final long lastModified;
+		private final ScannedClass scannedClass;
+
+		private CachedClass(long size, long lastModified, ScannedClass scannedClass)
+		{
+			this.size = size;
+			this.lastModified = lastModified;
+			this.scannedClass = scannedClass;
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.rest.core.dispatch;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the per call overhead of each {@link MethodCaller} created by {@link MethodCallerFactory}:
+ * the class generated for public signatures, the method handle used for the other methods and the plain
+ * reflection call used before. Arguments are passed as the boxed array built by the {@link ValueInjector}s.
+ *
+ * mvn test -Pbenchmark -Dbenchmark=MethodCallerBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MethodCallerBenchmark
+{
+	@Param({"generated", "methodHandle", "reflection"})
+	public String caller;
+
+	private MethodCaller methodCaller;
+	private Resource target;
+	private Object[] args;
+
+	@Setup
+	public void setup() throws Exception
+	{
+		Method method = Resource.class.getMethod("find", long.class, String.class);
+		if ("generated".equals(caller))
+		{
+			methodCaller = MethodCallerFactory.createCaller(Resource.class, method);
+		}
+		else if ("methodHandle".equals(caller))
+		{
+			methodCaller = MethodCallerFactory.createMethodHandleCaller(method);
+		}
+		else
+		{
+			methodCaller = MethodCallerFactory.createReflectionCaller(method);
+		}
+		target = new Resource();
+		args = new Object[]{Long.valueOf(42), "name"};
+	}
+
+	@Benchmark
+	public Object invoke() throws Exception
+	{
+		return methodCaller.invoke(target, args);
+	}
+
+	public static class Resource
+	{
+		public Object find(long id, String name)
+		{
+			return name;
+		}
+	}
+}
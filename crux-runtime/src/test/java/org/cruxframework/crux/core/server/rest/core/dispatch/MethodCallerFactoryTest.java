@@ -0,0 +1,148 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.rest.core.dispatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MethodCallerFactoryTest
+{
+	@Test
+	public void publicMethod() throws Exception
+	{
+		for (MethodCaller caller : callers(PublicResource.class, "sum", int.class, Long.class, int[].class))
+		{
+			assertEquals(Long.valueOf(10), caller.invoke(new PublicResource(), new Object[]{1, 2L, new int[]{3, 4}}));
+		}
+	}
+
+	@Test
+	public void nonPublicMethod() throws Exception
+	{
+		for (MethodCaller caller : callers(HiddenResource.class, "concat", String.class, boolean.class))
+		{
+			assertEquals("a:true", caller.invoke(new HiddenResource(), new Object[]{"a", true}));
+		}
+	}
+
+	@Test
+	public void staticAndVoidMethods() throws Exception
+	{
+		for (MethodCaller caller : callers(PublicResource.class, "twice", String.class))
+		{
+			assertEquals("xx", caller.invoke(null, new Object[]{"x"}));
+		}
+		for (MethodCaller caller : callers(PublicResource.class, "nothing"))
+		{
+			PublicResource target = new PublicResource();
+			assertNull(caller.invoke(target, null));
+			assertNull(caller.invoke(target, new Object[0]));
+			assertEquals(2, target.calls);
+		}
+	}
+
+	@Test
+	public void exceptionsAreWrapped() throws Exception
+	{
+		for (MethodCaller caller : callers(PublicResource.class, "fail", String.class))
+		{
+			try
+			{
+				caller.invoke(new PublicResource(), new Object[]{"error"});
+				fail("Exception expected");
+			}
+			catch (InvocationTargetException e)
+			{
+				assertSame(IllegalStateException.class, e.getCause().getClass());
+				assertEquals("error", e.getCause().getMessage());
+			}
+		}
+	}
+
+	@Test
+	public void invalidArgumentsAreNotWrapped() throws Exception
+	{
+		Object[][] invalidArgs = {{"1", 2L, new int[]{3, 4}}, {null, 2L, new int[]{3, 4}}};
+		for (MethodCaller caller : callers(PublicResource.class, "sum", int.class, Long.class, int[].class))
+		{
+			for (Object[] args : invalidArgs)
+			{
+				try
+				{
+					caller.invoke(new PublicResource(), args);
+					fail("Exception expected");
+				}
+				catch (InvocationTargetException e)
+				{
+					fail("Argument errors must not be reported as thrown by the resource method: " + caller.getClass());
+				}
+				catch (RuntimeException e)
+				{
+					// ClassCastException or NullPointerException (IllegalArgumentException for reflection)
+				}
+			}
+		}
+	}
+
+	private List<MethodCaller> callers(Class<?> resourceClass, String name, Class<?>... parameterTypes) throws Exception
+	{
+		Method method = resourceClass.getDeclaredMethod(name, parameterTypes);
+		return Arrays.asList(MethodCallerFactory.createCaller(resourceClass, method),
+			MethodCallerFactory.createMethodHandleCaller(method), MethodCallerFactory.createReflectionCaller(method));
+	}
+
+	public static class PublicResource
+	{
+		int calls;
+
+		public long sum(int a, Long b, int[] c)
+		{
+			return a + b + c[0] + c[1];
+		}
+
+		public void nothing()
+		{
+			calls++;
+		}
+
+		public String fail(String message)
+		{
+			throw new IllegalStateException(message);
+		}
+
+		public static String twice(String value)
+		{
+			return value + value;
+		}
+	}
+
+	static class HiddenResource
+	{
+		String concat(String a, boolean b)
+		{
+			return a + ":" + b;
+		}
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.rest.core.dispatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RefreshFlightTest
+{
+	private static final String KEY = "http://localhost/rest/items/1";
+
+	@Test
+	public void onlyTheFirstCallerLeads() throws InterruptedException
+	{
+		RefreshFlight flight = RefreshFlight.start(KEY);
+		assertNotNull(flight);
+		try
+		{
+			// The thread that started a background refresh can serve other requests for the same resource
+			assertNull(RefreshFlight.start(KEY));
+			assertSame(flight, RefreshFlight.get(KEY));
+			assertFalse(flight.await(10));
+		}
+		finally
+		{
+			flight.complete();
+		}
+		assertTrue(flight.await(10));
+		assertNull(RefreshFlight.get(KEY));
+
+		RefreshFlight next = RefreshFlight.start(KEY);
+		assertNotNull(next);
+		next.complete();
+	}
+
+	@Test
+	public void responseIsOnlySharedWithTheSameVariant()
+	{
+		RefreshFlight flight = RefreshFlight.start(KEY);
+		try
+		{
+			assertNull(flight.getResponse(1000, "en\n"));
+			flight.setResponse("{\"id\":1}", 1000, "en\n");
+			assertEquals("{\"id\":1}", flight.getResponse(1000, "en\n"));
+			assertNull(flight.getResponse(1000, "pt\n"));
+			assertNull(flight.getResponse(2000, "en\n"));
+		}
+		finally
+		{
+			flight.complete();
+		}
+	}
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.rest.core.dispatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.Thread.State;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+
+import org.cruxframework.crux.core.server.rest.core.dispatch.ResourceMethod.MethodReturn;
+import org.cruxframework.crux.core.server.rest.core.registry.RestServiceFactory;
+import org.cruxframework.crux.core.server.rest.core.registry.RestServiceFactoryInitializer;
+import org.cruxframework.crux.core.server.rest.spi.HttpRequest;
+import org.cruxframework.crux.core.server.rest.spi.HttpUtil;
+import org.cruxframework.crux.core.server.rest.state.ResourceStateConfig;
+import org.cruxframework.crux.core.server.rest.state.ResourceStateHandler;
+import org.cruxframework.crux.core.shared.rest.annotation.GET;
+import org.cruxframework.crux.core.shared.rest.annotation.GET.RefreshCoalescing;
+import org.junit.Test;
+
+public class StateHandlerTest
+{
+	private static final String ETAG = "3a7f9c";
+	private static final String URI = "/rest/items/1";
+	private static final int REQUESTS = 8;
+
+	@Test
+	public void strongEtags()
+	{
+		assertTrue(StateHandler.containsEtag("\"3a7f9c\"", ETAG));
+		assertTrue(StateHandler.containsEtag("\"1\", \"3a7f9c\"", ETAG));
+		assertTrue(StateHandler.containsEtag("\"1\",\"2\" ,  \"3a7f9c\"  ", ETAG));
+		assertTrue(StateHandler.containsEtag("3a7f9c", ETAG));
+		assertFalse(StateHandler.containsEtag("\"3a7f9\"", ETAG));
+		assertFalse(StateHandler.containsEtag("\"3a7f9c0\"", ETAG));
+		assertFalse(StateHandler.containsEtag("\"1\", \"2\"", ETAG));
+		assertFalse(StateHandler.containsEtag("", ETAG));
+		assertFalse(StateHandler.containsEtag(" , ,", ETAG));
+	}
+
+	@Test
+	public void weakEtagsNeverMatch()
+	{
+		assertFalse(StateHandler.containsEtag("W/\"3a7f9c\"", ETAG));
+		assertFalse(StateHandler.containsEtag("\"1\", W/\"3a7f9c\"", ETAG));
+		assertTrue(StateHandler.containsEtag("W/\"3a7f9c\", \"3a7f9c\"", ETAG));
+	}
+
+	@Test
+	public void wildcard()
+	{
+		assertTrue(StateHandler.containsEtag("*", ETAG));
+		assertTrue(StateHandler.containsEtag(" * ", ETAG));
+		assertTrue(StateHandler.containsEtag("\"1\", *", ETAG));
+		assertFalse(StateHandler.containsEtag("**", ETAG));
+	}
+
+	@Test
+	public void modifiedSinceUsesSecondPrecision()
+	{
+		// Sun, 06 Nov 1994 08:49:37 GMT, plus 500 ms
+		long lastModified = 784111777500L;
+		assertFalse(StateHandler.ifModifiedSince("Sun, 06 Nov 1994 08:49:37 GMT", lastModified));
+		assertFalse(StateHandler.ifModifiedSince("Sun, 06 Nov 1994 08:49:38 GMT", lastModified));
+		assertTrue(StateHandler.ifModifiedSince("Sun, 06 Nov 1994 08:49:36 GMT", lastModified));
+		assertFalse(StateHandler.ifModifiedSince("Sun Nov  6 08:49:37 1994", lastModified));
+
+		assertTrue(StateHandler.ifUnmodifiedSince("Sun, 06 Nov 1994 08:49:37 GMT", lastModified));
+		assertTrue(StateHandler.ifUnmodifiedSince("Sun, 06 Nov 1994 08:49:38 GMT", lastModified));
+		assertFalse(StateHandler.ifUnmodifiedSince("Sun, 06 Nov 1994 08:49:36 GMT", lastModified));
+	}
+
+	@Test
+	public void concurrentRefreshInvokesMethodOnce() throws Exception
+	{
+		final ItemResource service = new ItemResource();
+		RestServiceFactoryInitializer.registerServiceFactory(new SingletonServiceFactory(service));
+		ResourceStateHandler resourceStateHandler = ResourceStateConfig.getResourceStateHandler();
+		String key = createRequest().getUri().getRequestUri().toString();
+		// The response body cache is disabled, so only the refreshed response can answer the waiting requests
+		resourceStateHandler.add(key, System.currentTimeMillis() - 120000, System.currentTimeMillis() - 60000, null);
+		ExecutorService executor = Executors.newFixedThreadPool(REQUESTS);
+		try
+		{
+			final ResourceMethod resourceMethod = new ResourceMethod(ItemResource.class, ItemResource.class.getMethod("get"), "GET");
+			List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+			List<Future<MethodReturn>> results = new ArrayList<Future<MethodReturn>>();
+			for (int i = 0; i < REQUESTS; i++)
+			{
+				results.add(executor.submit(new RequestTask(resourceMethod, threads)));
+			}
+
+			// Let the first request finish the refresh only when all other requests are waiting for it
+			long deadline = System.currentTimeMillis() + 10000;
+			while (countWaiting(threads) < REQUESTS - 1 && System.currentTimeMillis() < deadline)
+			{
+				Thread.sleep(10);
+			}
+			service.release.countDown();
+
+			for (Future<MethodReturn> result : results)
+			{
+				assertEquals("{\"id\":1}", result.get(10, TimeUnit.SECONDS).getReturn());
+			}
+			assertEquals(1, service.invocations.get());
+		}
+		finally
+		{
+			service.release.countDown();
+			executor.shutdownNow();
+			resourceStateHandler.remove(key);
+			RestServiceFactoryInitializer.registerServiceFactory(null);
+		}
+	}
+
+	/**
+	 * Requests that joined the refresh wait for it with a timeout. The leader waits for the service, without it.
+	 */
+	private int countWaiting(List<Thread> threads)
+	{
+		int count = 0;
+		synchronized (threads)
+		{
+			for (Thread thread : threads)
+			{
+				if (thread.getState() == State.TIMED_WAITING)
+				{
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	private static HttpRequest createRequest()
+	{
+		HttpServletRequest servletRequest = (HttpServletRequest) Proxy.newProxyInstance(StateHandlerTest.class.getClassLoader(), 
+			new Class<?>[]{HttpServletRequest.class}, new InvocationHandler()
+		{
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args)
+			{
+				String name = method.getName();
+				if (name.equals("getRequestURI"))
+				{
+					return URI;
+				}
+				if (name.equals("getRequestURL"))
+				{
+					return new StringBuffer("http://localhost" + URI);
+				}
+				if (name.equals("getContextPath") || name.equals("getServletPath"))
+				{
+					return "";
+				}
+				if (name.equals("getMethod"))
+				{
+					return "GET";
+				}
+				if (method.getReturnType().equals(java.util.Enumeration.class))
+				{
+					return Collections.enumeration(Collections.emptyList());
+				}
+				return method.getReturnType().equals(boolean.class) ? Boolean.FALSE : null;
+			}
+		});
+		return new HttpRequest(servletRequest, HttpUtil.extractHttpHeaders(servletRequest), HttpUtil.extractUriInfo(servletRequest), "GET");
+	}
+
+	private static class RequestTask implements Callable<MethodReturn>
+	{
+		private final ResourceMethod resourceMethod;
+		private final List<Thread> threads;
+
+		private RequestTask(ResourceMethod resourceMethod, List<Thread> threads)
+		{
+			this.resourceMethod = resourceMethod;
+			this.threads = threads;
+		}
+
+		@Override
+		public MethodReturn call() throws Exception
+		{
+			threads.add(Thread.currentThread());
+			return new StateHandler(resourceMethod, createRequest(), null).handledByCache();
+		}
+	}
+
+	public static class ItemResource
+	{
+		private final AtomicInteger invocations = new AtomicInteger();
+		private final CountDownLatch release = new CountDownLatch(1);
+
+		@GET(cacheTime = 60, refreshCoalescing = RefreshCoalescing.WAIT)
+		public Item get() throws InterruptedException
+		{
+			invocations.incrementAndGet();
+			release.await();
+			return new Item(1);
+		}
+	}
+
+	public static class Item
+	{
+		private int id;
+
+		public Item(int id)
+		{
+			this.id = id;
+		}
+
+		public int getId()
+		{
+			return id;
+		}
+	}
+
+	private static class SingletonServiceFactory implements RestServiceFactory
+	{
+		private final Object service;
+
+		private SingletonServiceFactory(Object service)
+		{
+			this.service = service;
+		}
+
+		@Override
+		public Object getService(Class<?> serviceClass)
+		{
+			return service;
+		}
+
+		@Override
+		public void initialize(ServletContext context)
+		{
+		}
+
+		@Override
+		public Iterator<String> iterateRestServices()
+		{
+			return null;
+		}
+
+		@Override
+		public Class<?> getServiceClass(String serviceName)
+		{
+			return null;
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.rest.core.registry;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the routing match of a path expression made of default {param} segments, done by walking
+ * the path, with the regular expression match used before (and still used for custom regex params).
+ * Each invocation tries the expressions of a resource in the same order as {@link RootSegment}, so the
+ * first ones do not match.
+ *
+ * mvn test -Pbenchmark -Dbenchmark=PathParamSegmentBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathParamSegmentBenchmark
+{
+	private static final String[] EXPRESSIONS = {"{id}/items/{item}/history", "{id}/items/{item}", "{id}/payments", "{id}"};
+	private static final String PREFIX = "rest/orders/";
+
+	@Param({"simple", "regex"})
+	public String matcher;
+
+	@Param({"12345/items/42", "12345"})
+	public String path;
+
+	private PathParamSegment[] segments;
+	private String fullPath;
+
+	@Setup
+	public void setup()
+	{
+		segments = new PathParamSegment[EXPRESSIONS.length];
+		for (int i = 0; i < EXPRESSIONS.length; i++)
+		{
+			String expression = EXPRESSIONS[i];
+			if ("regex".equals(matcher))
+			{
+				expression = expression.replaceAll("\\{(\\w+)\\}", "{$1:[^/]+}");
+			}
+			segments[i] = new PathParamSegment(expression);
+		}
+		fullPath = PREFIX + path;
+	}
+
+	@Benchmark
+	public PathParamSegment match()
+	{
+		for (PathParamSegment segment : segments)
+		{
+			if (segment.matches(fullPath, PREFIX.length()))
+			{
+				return segment;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.rest.core.registry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class PathParamSegmentTest
+{
+	private static final String[] EXPRESSIONS = {"{id}", "{id}/items", "{id}/items/{item}", "orders/{id}",
+		"{a}/{b}/{c}", "{id}/"};
+
+	private static final String[] PATHS = {"", "/", "1", "12", "1/", "1/items", "1/items/", "1/items/2", "1/items/2/3",
+		"1//items", "1/item", "1/itemss", "orders/1", "orders/", "orders", "a/b/c", "a/b/c/", "a//c", "/a/b",
+		"1?x=y", "1/items?x=y"};
+
+	@Test
+	public void defaultParamsAreMatchedWithoutRegex()
+	{
+		for (String expression : EXPRESSIONS)
+		{
+			assertNotNull(expression, new PathParamSegment(expression).simpleSegments);
+		}
+		assertNull(new PathParamSegment("{id:[0-9]+}").simpleSegments);
+		assertNull(new PathParamSegment("v{version}").simpleSegments);
+	}
+
+	@Test
+	public void simpleMatchIsEquivalentToRegex()
+	{
+		for (String expression : EXPRESSIONS)
+		{
+			PathParamSegment simple = new PathParamSegment(expression);
+			// A custom regex param with the default expression forces the regex match
+			PathParamSegment regex = new PathParamSegment(expression.replaceAll("\\{(\\w+)\\}", "{$1:[^/]+}"));
+			assertNull(regex.simpleSegments);
+			for (String path : PATHS)
+			{
+				for (String prefix : new String[]{"", "rest/"})
+				{
+					String fullPath = prefix + path;
+					assertEquals(expression + " x " + fullPath, regex.matches(fullPath, prefix.length()),
+						simple.matches(fullPath, prefix.length()));
+				}
+			}
+		}
+	}
+}
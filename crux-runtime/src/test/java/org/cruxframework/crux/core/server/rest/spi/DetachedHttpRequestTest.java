@@ -0,0 +1,120 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.rest.spi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Test;
+
+public class DetachedHttpRequestTest
+{
+	@Test
+	public void uriInfoIsCopied()
+	{
+		HttpRequest request = createRequest("/rest/orders/12", "x=1");
+		UriInfo uri = request.getUri();
+		uri.addEncodedPathParameter("id", "12");
+		uri.pushMatchedURI("orders/12", "orders/12");
+
+		DetachedHttpRequest detached = new DetachedHttpRequest(request);
+		uri.addEncodedPathParameter("item", "3");
+		uri.getQueryParameters().add("y", "2");
+		uri.pushMatchedURI("orders/12/items/3", "orders/12/items/3");
+
+		UriInfo detachedUri = detached.getUri();
+		assertTrue(detachedUri != uri);
+		assertEquals("http://localhost/rest/orders/12?x=1", detachedUri.getRequestUri().toString());
+		assertEquals("/rest/orders/12", detachedUri.getPath());
+		assertEquals(Collections.singleton("id"), detachedUri.getPathParameters().keySet());
+		assertEquals("12", detachedUri.getPathParameters().getFirst("id"));
+		assertEquals(Collections.singleton("x"), detachedUri.getQueryParameters().keySet());
+		assertEquals(Arrays.asList("orders/12"), detachedUri.getMatchedURIs());
+	}
+
+	@Test
+	public void userRolesAreNotAvailable()
+	{
+		DetachedHttpRequest detached = new DetachedHttpRequest(createRequest("/rest/orders", null));
+		try
+		{
+			detached.isUserInRole("admin");
+			fail("Roles can only be checked by the container inside the request");
+		}
+		catch (UnsupportedOperationException e)
+		{
+			// expected
+		}
+	}
+
+	private HttpRequest createRequest(final String requestUri, final String queryString)
+	{
+		HttpServletRequest servletRequest = (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(), 
+			new Class<?>[]{HttpServletRequest.class}, new InvocationHandler()
+		{
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args)
+			{
+				String name = method.getName();
+				if (name.equals("getRequestURI"))
+				{
+					return requestUri;
+				}
+				if (name.equals("getRequestURL"))
+				{
+					return new StringBuffer("http://localhost" + requestUri);
+				}
+				if (name.equals("getQueryString"))
+				{
+					return queryString;
+				}
+				if (name.equals("getContextPath") || name.equals("getServletPath"))
+				{
+					return "";
+				}
+				if (name.equals("getMethod"))
+				{
+					return "GET";
+				}
+				if (method.getReturnType().equals(Enumeration.class))
+				{
+					return Collections.enumeration(Collections.emptyList());
+				}
+				if (method.getReturnType().equals(Map.class))
+				{
+					return Collections.emptyMap();
+				}
+				if (method.getReturnType().equals(int.class))
+				{
+					return 0;
+				}
+				return method.getReturnType().equals(boolean.class) ? Boolean.FALSE : null;
+			}
+		});
+		return new HttpRequest(servletRequest, HttpUtil.extractHttpHeaders(servletRequest), HttpUtil.extractUriInfo(servletRequest), "GET");
+	}
+}
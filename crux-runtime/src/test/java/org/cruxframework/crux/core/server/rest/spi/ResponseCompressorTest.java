@@ -0,0 +1,147 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.rest.spi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.cruxframework.crux.core.server.rest.spi.ResponseCompressor.CompressingOutputStream;
+import org.cruxframework.crux.core.server.rest.spi.ResponseCompressor.Encoding;
+import org.cruxframework.crux.core.shared.rest.annotation.GET.Compression;
+import org.junit.Test;
+
+public class ResponseCompressorTest
+{
+	@Test
+	public void gzipRoundTrip() throws IOException
+	{
+		for (byte[] content : contents())
+		{
+			byte[] compressed = ResponseCompressor.compress(content, content.length, Encoding.GZIP, Deflater.DEFAULT_COMPRESSION);
+			assertArrayEquals(content, readAll(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+		}
+	}
+
+	@Test
+	public void deflateRoundTrip() throws IOException
+	{
+		for (byte[] content : contents())
+		{
+			byte[] compressed = ResponseCompressor.compress(content, content.length, Encoding.DEFLATE, Deflater.BEST_SPEED);
+			assertArrayEquals(content, readAll(new InflaterInputStream(new ByteArrayInputStream(compressed))));
+		}
+	}
+
+	@Test
+	public void streamedGzipRoundTrip() throws IOException
+	{
+		Random random = new Random(7);
+		for (byte[] content : contents())
+		{
+			ByteArrayOutputStream target = new ByteArrayOutputStream();
+			CompressingOutputStream out = ResponseCompressor.createOutputStream(target, Encoding.GZIP, Deflater.DEFAULT_COMPRESSION);
+			int pos = 0;
+			while (pos < content.length)
+			{
+				if (random.nextBoolean())
+				{
+					out.write(content[pos++]);
+				}
+				else
+				{
+					int len = Math.min(random.nextInt(20000), content.length - pos);
+					out.write(content, pos, len);
+					pos += len;
+				}
+			}
+			out.finish();
+			assertArrayEquals(content, readAll(new GZIPInputStream(new ByteArrayInputStream(target.toByteArray()))));
+		}
+	}
+
+	@Test
+	public void releasedStreamRejectsWrites() throws IOException
+	{
+		CompressingOutputStream out = ResponseCompressor.createOutputStream(new ByteArrayOutputStream(), Encoding.GZIP, Deflater.DEFAULT_COMPRESSION);
+		out.write(new byte[]{1, 2, 3});
+		out.release();
+		try
+		{
+			out.write(new byte[]{4});
+			fail("Released stream must not use its deflater");
+		}
+		catch (IOException e)
+		{
+			// expected
+		}
+
+		// The pooled deflater is reset before being reused
+		byte[] content = "{\"id\": 1}".getBytes("UTF-8");
+		byte[] compressed = ResponseCompressor.compress(content, content.length, Encoding.GZIP, Deflater.DEFAULT_COMPRESSION);
+		assertArrayEquals(content, readAll(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+	}
+
+	@Test
+	public void negotiate()
+	{
+		assertEquals(Encoding.GZIP, ResponseCompressor.negotiate("gzip, deflate", Compression.AUTO));
+		assertEquals(Encoding.DEFLATE, ResponseCompressor.negotiate("gzip;q=0.5, deflate", Compression.AUTO));
+		assertEquals(Encoding.GZIP, ResponseCompressor.negotiate("*", Compression.AUTO));
+		assertEquals(Encoding.DEFLATE, ResponseCompressor.negotiate("gzip, deflate", Compression.DEFLATE));
+		assertNull(ResponseCompressor.negotiate("gzip;q=0", Compression.AUTO));
+		assertNull(ResponseCompressor.negotiate("identity", Compression.AUTO));
+		assertNull(ResponseCompressor.negotiate("gzip", Compression.NONE));
+		assertNull(ResponseCompressor.negotiate(null, Compression.AUTO));
+	}
+
+	private byte[][] contents() throws IOException
+	{
+		Random random = new Random(42);
+		byte[] randomBytes = new byte[100000];
+		random.nextBytes(randomBytes);
+		StringBuilder json = new StringBuilder("[");
+		for (int i = 0; i < 5000; i++)
+		{
+			json.append("{\"id\": ").append(i).append(", \"name\": \"item ").append(random.nextInt(100)).append("\"},");
+		}
+		json.append("{}]");
+		return new byte[][]{new byte[0], "x".getBytes("UTF-8"), json.toString().getBytes("UTF-8"), randomBytes};
+	}
+
+	private byte[] readAll(InputStream in) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = in.read(buffer)) > 0)
+		{
+			out.write(buffer, 0, read);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+}
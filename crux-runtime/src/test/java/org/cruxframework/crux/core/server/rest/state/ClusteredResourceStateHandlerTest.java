@@ -0,0 +1,54 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.rest.state;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.cruxframework.crux.core.server.rest.state.ClusteredResourceStateHandler.CacheEntry;
+import org.junit.Test;
+
+public class ClusteredResourceStateHandlerTest
+{
+	@Test
+	public void entityTagIsBuiltWhenEntryIsReceived() throws Exception
+	{
+		CacheEntry entry = new CacheEntry(1000, 2000, "3a7f9c");
+		assertEquals("3a7f9c", entry.getEntityTag().getValue());
+		assertSame(entry.getEntityTag(), entry.getEntityTag());
+
+		CacheEntry received = copy(entry);
+		assertEquals(1000, received.getDateModified());
+		assertEquals(2000, received.getExpires());
+		assertEquals(entry.getEntityTag(), received.getEntityTag());
+		assertNull(copy(new CacheEntry(1000, 2000, null)).getEntityTag());
+	}
+
+	private CacheEntry copy(CacheEntry entry) throws Exception
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(entry);
+		out.close();
+		return (CacheEntry) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.rest.state;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the resource state maps used by {@link NoClusteredResourceStateHandler}: the
+ * {@link ConcurrentLRUMap} and the synchronized {@link NoClusteredResourceStateHandler.LRUMap}.
+ * The workload reads 90% of the time and writes 10% of the time, over twice as many keys as the
+ * map can hold.
+ *
+ * Run it with different thread counts to compare the contention:
+ * mvn test -Pbenchmark -Dbenchmark="ConcurrentLRUMapBenchmark -t 8"
+ * (repeat with -t 1, 8, 32 and 64)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentLRUMapBenchmark
+{
+	private static final int MAX_ENTRIES = 10000;
+	private static final int KEY_COUNT = MAX_ENTRIES * 2;
+
+	@Param({NoClusteredResourceStateHandler.MAP_TYPE_CONCURRENT, NoClusteredResourceStateHandler.MAP_TYPE_SYNCHRONIZED})
+	public String mapType;
+
+	private Map<String, Integer> map;
+	private String[] keys;
+
+	@Setup
+	public void setup()
+	{
+		if (NoClusteredResourceStateHandler.MAP_TYPE_SYNCHRONIZED.equals(mapType))
+		{
+			map = Collections.synchronizedMap(new NoClusteredResourceStateHandler.LRUMap<String, Integer>(MAX_ENTRIES));
+		}
+		else
+		{
+			map = new ConcurrentLRUMap<String, Integer>(MAX_ENTRIES);
+		}
+		keys = new String[KEY_COUNT];
+		for (int i = 0; i < KEY_COUNT; i++)
+		{
+			keys[i] = "/rest/orders/" + i;
+			if (i < MAX_ENTRIES)
+			{
+				map.put(keys[i], i);
+			}
+		}
+	}
+
+	@Benchmark
+	public Object readMostly()
+	{
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int index = random.nextInt(KEY_COUNT);
+		if (random.nextInt(10) == 0)
+		{
+			return map.put(keys[index], index);
+		}
+		return map.get(keys[index]);
+	}
+}
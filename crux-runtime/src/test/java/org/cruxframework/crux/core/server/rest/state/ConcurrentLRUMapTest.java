@@ -0,0 +1,154 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.rest.state;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class ConcurrentLRUMapTest
+{
+	@Test
+	public void putAndGet()
+	{
+		ConcurrentLRUMap<String, Integer> map = new ConcurrentLRUMap<String, Integer>(10);
+		assertNull(map.put("a", 1));
+		assertEquals(Integer.valueOf(1), map.put("a", 2));
+		assertEquals(Integer.valueOf(2), map.get("a"));
+		assertEquals(1, map.size());
+		assertNull(map.get("b"));
+	}
+
+	@Test
+	public void sizeIsBoundedAndEvictionsAreNotified()
+	{
+		final Map<String, Integer> evicted = new ConcurrentHashMap<String, Integer>();
+		ConcurrentLRUMap<String, Integer> map = new ConcurrentLRUMap<String, Integer>(100)
+		{
+			@Override
+			protected void onEviction(String key, Integer value)
+			{
+				evicted.put(key, value);
+			}
+		};
+		for (int i = 0; i < 1000; i++)
+		{
+			map.put("key" + i, i);
+		}
+
+		assertEquals(100, map.size());
+		assertEquals(900, evicted.size());
+		for (Map.Entry<String, Integer> entry : evicted.entrySet())
+		{
+			assertFalse(map.containsKey(entry.getKey()));
+			assertEquals("key" + entry.getValue(), entry.getKey());
+		}
+	}
+
+	@Test
+	public void recentlyReadEntryIsNotEvicted()
+	{
+		ConcurrentLRUMap<String, Integer> map = new ConcurrentLRUMap<String, Integer>(50);
+		map.put("hot", -1);
+		for (int i = 0; i < 500; i++)
+		{
+			map.put("key" + i, i);
+			map.get("hot");
+		}
+
+		assertEquals(50, map.size());
+		assertEquals(Integer.valueOf(-1), map.get("hot"));
+	}
+
+	@Test
+	public void removeAndClearUpdateSize()
+	{
+		ConcurrentLRUMap<String, Integer> map = new ConcurrentLRUMap<String, Integer>(10);
+		for (int i = 0; i < 5; i++)
+		{
+			map.put("key" + i, i);
+		}
+		assertEquals(Integer.valueOf(0), map.remove("key0"));
+		assertNull(map.remove("key0"));
+		assertEquals(4, map.size());
+
+		Iterator<Map.Entry<String, Integer>> iterator = map.entrySet().iterator();
+		iterator.next();
+		iterator.remove();
+		assertEquals(3, map.size());
+
+		map.clear();
+		assertEquals(0, map.size());
+		assertTrue(map.isEmpty());
+	}
+
+	@Test
+	public void concurrentWritersRespectTheBound() throws InterruptedException
+	{
+		final int threads = 8;
+		final int maxEntries = 1000;
+		final ConcurrentLRUMap<String, Integer> map = new ConcurrentLRUMap<String, Integer>(maxEntries);
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] writers = new Thread[threads];
+		for (int t = 0; t < threads; t++)
+		{
+			final int id = t;
+			writers[t] = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						start.await();
+					}
+					catch (InterruptedException e)
+					{
+						return;
+					}
+					for (int i = 0; i < 20000; i++)
+					{
+						map.put(id + ":" + i, i);
+						map.get(id + ":" + (i / 2));
+					}
+				}
+			};
+			writers[t].start();
+		}
+		start.countDown();
+		for (Thread writer : writers)
+		{
+			writer.join();
+		}
+
+		// A writer that finds another thread evicting does not wait for it, so each writer can leave one extra entry
+		assertTrue("size: " + map.size(), map.size() <= maxEntries + threads);
+		int count = 0;
+		for (Iterator<String> iterator = map.keySet().iterator(); iterator.hasNext(); iterator.next())
+		{
+			count++;
+		}
+		assertEquals(map.size(), count);
+	}
+}
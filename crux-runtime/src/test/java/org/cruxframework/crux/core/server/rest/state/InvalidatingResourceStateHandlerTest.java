@@ -0,0 +1,156 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.rest.state;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jgroups.JChannel;
+import org.jgroups.protocols.PING;
+import org.jgroups.protocols.SHARED_LOOPBACK;
+import org.jgroups.protocols.UNICAST2;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Runs several nodes on the same JVM, connected through an in-memory protocol stack
+ */
+public class InvalidatingResourceStateHandlerTest
+{
+	private static final long FLUSH_INTERVAL = 20;
+	private static final long TIMEOUT = 10000;
+
+	private final List<JChannel> channels = new ArrayList<JChannel>();
+	private final List<InvalidatingResourceStateHandler> nodes = new ArrayList<InvalidatingResourceStateHandler>();
+
+	@After
+	public void closeNodes()
+	{
+		for (InvalidatingResourceStateHandler node : nodes)
+		{
+			node.close();
+		}
+	}
+
+	@Test
+	public void invalidationsAreAppliedByOtherNodes() throws Exception
+	{
+		InvalidatingResourceStateHandler node1 = createNode("invalidations");
+		InvalidatingResourceStateHandler node2 = createNode("invalidations");
+		InvalidatingResourceStateHandler node3 = createNode("invalidations");
+		awaitMembers(3);
+		for (InvalidatingResourceStateHandler node : nodes)
+		{
+			addStates(node, "/orders/1", "/orders/2", "/orders/3", "/customers/1");
+		}
+
+		node1.remove("/orders/1");
+		awaitRemoved("/orders/1");
+		assertNotNull(node2.get("/orders/2"));
+		assertNotNull(node3.get("/customers/1"));
+
+		node2.removeSegments("/orders/");
+		awaitRemoved("/orders/2", "/orders/3");
+		assertNotNull(node1.get("/customers/1"));
+
+		node3.clear();
+		awaitRemoved("/customers/1");
+
+		assertTrue(node1.getSentBatchCount() >= 1);
+		assertTrue(node1.getReceivedBatchCount() >= 2);
+	}
+
+	@Test
+	public void closedNodeLeavesTheCluster() throws Exception
+	{
+		InvalidatingResourceStateHandler node1 = createNode("close");
+		InvalidatingResourceStateHandler node2 = createNode("close");
+		awaitMembers(2);
+		addStates(node1, "/orders/1", "/orders/2");
+		addStates(node2, "/orders/1", "/orders/2");
+
+		node1.remove("/orders/1");
+		awaitRemoved("/orders/1");
+		node1.close();
+		assertTrue(channels.get(0).isClosed());
+		channels.remove(0);
+		awaitMembers(1);
+
+		// Invalidations made after close are only applied locally
+		long sentBatches = node1.getSentBatchCount();
+		node1.remove("/orders/2");
+		assertNull(node1.get("/orders/2"));
+		Thread.sleep(FLUSH_INTERVAL * 5);
+		assertEquals(sentBatches, node1.getSentBatchCount());
+		assertNotNull(node2.get("/orders/2"));
+	}
+
+	private InvalidatingResourceStateHandler createNode(String clusterName) throws Exception
+	{
+		PING ping = new PING();
+		ping.setTimeout(500);
+		JChannel channel = new JChannel(new SHARED_LOOPBACK(), ping, new NAKACK2(), new UNICAST2(), new STABLE(), new GMS());
+		channels.add(channel);
+		InvalidatingResourceStateHandler node = new InvalidatingResourceStateHandler(channel, clusterName, FLUSH_INTERVAL);
+		nodes.add(node);
+		return node;
+	}
+
+	private void awaitMembers(int members) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		for (JChannel channel : channels)
+		{
+			while (channel.getView().size() < members && System.currentTimeMillis() < deadline)
+			{
+				Thread.sleep(10);
+			}
+			assertEquals(members, channel.getView().size());
+		}
+	}
+
+	private void addStates(InvalidatingResourceStateHandler node, String... uris)
+	{
+		for (String uri : uris)
+		{
+			node.add(uri, System.currentTimeMillis(), System.currentTimeMillis() + 60000, "\"1\"");
+		}
+	}
+
+	private void awaitRemoved(String... uris) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		for (InvalidatingResourceStateHandler node : nodes)
+		{
+			for (String uri : uris)
+			{
+				while (node.get(uri) != null && System.currentTimeMillis() < deadline)
+				{
+					Thread.sleep(10);
+				}
+				assertNull(uri, node.get(uri));
+			}
+		}
+	}
+}
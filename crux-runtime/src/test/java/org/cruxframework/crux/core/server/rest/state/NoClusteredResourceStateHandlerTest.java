@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.rest.state;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.cruxframework.crux.core.server.rest.state.NoClusteredResourceStateHandler.CacheEntry;
+import org.junit.Test;
+
+public class NoClusteredResourceStateHandlerTest
+{
+	@Test
+	public void removalBeforeIndexingLeavesNoIndexEntry()
+	{
+		final NoClusteredResourceStateHandler[] handler = new NoClusteredResourceStateHandler[1];
+		handler[0] = new NoClusteredResourceStateHandler(new ConcurrentLRUMap<String, CacheEntry>(100)
+		{
+			@Override
+			public CacheEntry put(String key, CacheEntry value)
+			{
+				CacheEntry previous = super.put(key, value);
+				// A concurrent request removes the state after it is cached, but before it is indexed
+				handler[0].remove(key);
+				return previous;
+			}
+		});
+		handler[0].add("/orders/1", System.currentTimeMillis(), System.currentTimeMillis() + 60000, null);
+		assertNull(handler[0].get("/orders/1"));
+		assertEquals(0, handler[0].index.size());
+	}
+
+	@Test
+	public void concurrentAddsAndRemovalsKeepTheIndexConsistent() throws InterruptedException
+	{
+		final NoClusteredResourceStateHandler handler = new NoClusteredResourceStateHandler(new ConcurrentLRUMap<String, CacheEntry>(1000));
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++)
+		{
+			final int seed = t;
+			threads[t] = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					for (int i = 0; i < 20000; i++)
+					{
+						String uri = "/orders/" + ((i * 7 + seed) % 16);
+						if ((i + seed) % 3 == 0)
+						{
+							handler.remove(uri);
+						}
+						else if (i % 97 == 0)
+						{
+							handler.removeSegments("/orders/1");
+						}
+						else
+						{
+							handler.add(uri, i, System.currentTimeMillis() + 60000, null);
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+		{
+			thread.join();
+		}
+
+		Set<String> cached = new HashSet<String>();
+		for (int i = 0; i < 16; i++)
+		{
+			if (handler.get("/orders/" + i) != null)
+			{
+				cached.add("/orders/" + i);
+			}
+		}
+		assertEquals(cached, new HashSet<String>(handler.index.getUris()));
+	}
+}
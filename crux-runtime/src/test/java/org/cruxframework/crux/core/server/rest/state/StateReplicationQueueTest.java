@@ -0,0 +1,269 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.rest.state;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.cruxframework.crux.core.server.rest.state.ClusteredResourceStateHandler.CacheEntry;
+import org.junit.After;
+import org.junit.Test;
+
+public class StateReplicationQueueTest
+{
+	private final BlockingQueue<String> replicated = new LinkedBlockingQueue<String>();
+	private final BlockingQueue<String> removed = new LinkedBlockingQueue<String>();
+	private final CountDownLatch replicating = new CountDownLatch(1);
+	private final CountDownLatch release = new CountDownLatch(1);
+	private final List<StateReplicationQueue> queues = new ArrayList<StateReplicationQueue>();
+
+	@After
+	public void closeQueues()
+	{
+		release.countDown();
+		for (StateReplicationQueue queue : queues)
+		{
+			queue.close();
+		}
+	}
+
+	@Test
+	public void fullQueueDropsUpdates() throws InterruptedException
+	{
+		StateReplicationQueue queue = createBlockedQueue(2);
+		assertTrue(queue.offer("/b", entry()));
+		assertTrue(queue.offer("/c", entry()));
+		assertFalse(queue.offer("/d", entry()));
+		assertEquals(1, queue.getDroppedCount());
+		assertNull(queue.getPending("/d"));
+
+		CacheEntry newer = entry();
+		assertTrue(queue.offer("/b", newer));
+		assertEquals(1, queue.getCoalescedCount());
+		assertSame(newer, queue.getPending("/b"));
+		// "/a" is still pending while it is sent
+		assertEquals(3, queue.getPendingCount());
+
+		release.countDown();
+		assertEquals(Arrays.asList("/a", "/b", "/c"), take(3));
+		awaitNoPending(queue);
+	}
+
+	@Test
+	public void discardedUpdatesReleaseTheirSlots() throws InterruptedException
+	{
+		StateReplicationQueue queue = createBlockedQueue(2);
+		assertTrue(queue.offer("/orders/1", entry()));
+		assertTrue(queue.offer("/orders/2", entry()));
+		queue.discard("/orders/1");
+		assertNull(queue.getPending("/orders/1"));
+		assertTrue(queue.offer("/customers/1", entry()));
+		assertFalse(queue.offer("/customers/2", entry()));
+
+		queue.discardPrefix("/orders/");
+		assertEquals(2, queue.getPendingCount());
+		assertTrue(queue.offer("/orders/3", entry()));
+
+		queue.clear();
+		assertEquals(0, queue.getPendingCount());
+		assertTrue(queue.offer("/x", entry()));
+		assertTrue(queue.offer("/y", entry()));
+
+		release.countDown();
+		assertEquals(Arrays.asList("/a", "/x", "/y"), take(3));
+		assertNull(replicated.poll(100, TimeUnit.MILLISECONDS));
+		// "/a" was cleared while it was sent
+		assertEquals("/a", removed.poll(5, TimeUnit.SECONDS));
+		assertNull(removed.poll(100, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void updatesAreVisibleWhileSent() throws InterruptedException
+	{
+		StateReplicationQueue queue = createBlockedQueue(2);
+		assertTrue(queue.getPending("/a") != null);
+		CacheEntry newer = entry();
+		assertTrue(queue.offer("/a", newer));
+		assertEquals(1, queue.getCoalescedCount());
+		assertSame(newer, queue.getPending("/a"));
+
+		// The newer state is sent after the one that was being sent
+		release.countDown();
+		assertEquals(Arrays.asList("/a", "/a"), take(2));
+		awaitNoPending(queue);
+		assertNull(removed.poll(100, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void discardedUpdatesAreNotRestoredBySend() throws InterruptedException
+	{
+		StateReplicationQueue queue = createBlockedQueue(2);
+		queue.discard("/a");
+		assertNull(queue.getPending("/a"));
+		release.countDown();
+		assertEquals(Arrays.asList("/a"), take(1));
+		assertEquals("/a", removed.poll(5, TimeUnit.SECONDS));
+		awaitNoPending(queue);
+	}
+
+	@Test
+	public void concurrentOffersLeaveNoPendingUpdates() throws InterruptedException
+	{
+		final StateReplicationQueue queue = createQueue(new StateReplicationQueue.Replicator()
+		{
+			@Override
+			public void replicate(String uri, CacheEntry entry)
+			{
+			}
+
+			@Override
+			public void remove(String uri)
+			{
+			}
+		}, 4, 2);
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++)
+		{
+			final int seed = t;
+			threads[t] = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					for (int i = 0; i < 20000; i++)
+					{
+						String uri = "/" + ((i + seed) % 8);
+						if (i % 50 == 0)
+						{
+							queue.discard(uri);
+						}
+						else
+						{
+							queue.offer(uri, entry());
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+		{
+			thread.join();
+		}
+		awaitNoPending(queue);
+	}
+
+	@Test
+	public void closedQueueRejectsUpdates() throws InterruptedException
+	{
+		StateReplicationQueue queue = createBlockedQueue(2);
+		assertTrue(queue.offer("/b", entry()));
+		release.countDown();
+		queue.close();
+		assertEquals(0, queue.getPendingCount());
+		assertFalse(queue.offer("/c", entry()));
+		assertEquals(0, queue.getDroppedCount());
+		// Queues created by other tests are closed after each test
+		for (Thread thread : Thread.getAllStackTraces().keySet())
+		{
+			assertFalse(thread.getName().equals("ClusteredResourceStateHandler replication") && thread.isAlive());
+		}
+	}
+
+	/**
+	 * Creates a queue whose flusher is blocked replicating "/a", so the queue slots are only used by the
+	 * updates offered by the test
+	 */
+	private StateReplicationQueue createBlockedQueue(int capacity) throws InterruptedException
+	{
+		StateReplicationQueue queue = createQueue(new StateReplicationQueue.Replicator()
+		{
+			@Override
+			public void replicate(String uri, CacheEntry entry)
+			{
+				replicating.countDown();
+				try
+				{
+					release.await();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+				replicated.add(uri);
+			}
+
+			@Override
+			public void remove(String uri)
+			{
+				removed.add(uri);
+			}
+		}, capacity, 1);
+		assertTrue(queue.offer("/a", entry()));
+		assertTrue(replicating.await(5, TimeUnit.SECONDS));
+		return queue;
+	}
+
+	private StateReplicationQueue createQueue(StateReplicationQueue.Replicator replicator, int capacity, int flushSize)
+	{
+		StateReplicationQueue queue = new StateReplicationQueue(replicator, capacity, flushSize, 1);
+		queues.add(queue);
+		return queue;
+	}
+
+	/**
+	 * Updates are only completed after their state is sent
+	 */
+	private void awaitNoPending(StateReplicationQueue queue) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + 5000;
+		while (queue.getPendingCount() > 0 && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(10);
+		}
+		assertEquals(0, queue.getPendingCount());
+	}
+
+	private List<String> take(int count) throws InterruptedException
+	{
+		List<String> result = new ArrayList<String>();
+		for (int i = 0; i < count; i++)
+		{
+			String uri = replicated.poll(5, TimeUnit.SECONDS);
+			if (uri != null)
+			{
+				result.add(uri);
+			}
+		}
+		return result;
+	}
+
+	private static CacheEntry entry()
+	{
+		return new CacheEntry(System.currentTimeMillis(), System.currentTimeMillis() + 60000, "\"1\"");
+	}
+}
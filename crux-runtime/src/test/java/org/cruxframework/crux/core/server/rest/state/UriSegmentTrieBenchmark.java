@@ -0,0 +1,119 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.rest.state;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the cost of removing one subtree of resource states (as done by
+ * {@link ResourceStateHandler#removeSegments(String...)}) using an {@link UriSegmentTrie} and using
+ * a scan of all keys with {@link String#startsWith(String)}, as it was done before the index was added.
+ *
+ * mvn test -Pbenchmark -Dbenchmark=UriSegmentTrieBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UriSegmentTrieBenchmark
+{
+	private static final int ITEMS_PER_ORDER = 100;
+
+	@Param({"10000", "500000"})
+	public int entries;
+
+	private UriSegmentTrie trie;
+	private Set<String> keys;
+	private String prefix;
+	private List<String> removedKeys;
+
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		trie = new UriSegmentTrie();
+		keys = new HashSet<String>();
+		for (int i = 0; i < entries; i++)
+		{
+			String key = uri(i / ITEMS_PER_ORDER, i % ITEMS_PER_ORDER);
+			trie.add(key);
+			keys.add(key);
+		}
+		removedKeys = new ArrayList<String>();
+	}
+
+	@Setup(Level.Invocation)
+	public void chooseSubtree()
+	{
+		// Restore the subtree removed by the previous invocation
+		for (String key : removedKeys)
+		{
+			trie.add(key);
+			keys.add(key);
+		}
+		int order = ThreadLocalRandom.current().nextInt(entries / ITEMS_PER_ORDER);
+		prefix = "/rest/orders/" + order + "/";
+	}
+
+	@Benchmark
+	public List<String> trie()
+	{
+		removedKeys = trie.removePrefix(prefix);
+		return removedKeys;
+	}
+
+	@Benchmark
+	public List<String> scan()
+	{
+		List<String> result = new ArrayList<String>();
+		for (Iterator<String> iterator = keys.iterator(); iterator.hasNext();)
+		{
+			String key = iterator.next();
+			if (key.startsWith(prefix))
+			{
+				iterator.remove();
+				result.add(key);
+			}
+		}
+		removedKeys = result;
+		return result;
+	}
+
+	private static String uri(int order, int item)
+	{
+		return "/rest/orders/" + order + "/items/" + item;
+	}
+}
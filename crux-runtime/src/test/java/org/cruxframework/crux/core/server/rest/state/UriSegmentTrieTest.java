@@ -0,0 +1,143 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.rest.state;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class UriSegmentTrieTest
+{
+	private static final String[] URIS = {
+		"/orders", "/orders/", "/orders/1", "/orders/12", "/orders/12/items", "/orders/1?x=y",
+		"/orders/1/items/3", "/orders2", "/customers/1", "orders/relative", "/", ""};
+
+	@Test
+	public void addAndRemove()
+	{
+		UriSegmentTrie trie = new UriSegmentTrie();
+		trie.add("/orders/1");
+		trie.add("/orders/1");
+		trie.add("/orders/1/items");
+		assertEquals(2, trie.size());
+
+		assertTrue(trie.remove("/orders/1"));
+		assertFalse(trie.remove("/orders/1"));
+		assertFalse(trie.remove("/orders"));
+		assertEquals(Arrays.asList("/orders/1/items"), trie.getUris());
+
+		trie.clear();
+		assertEquals(0, trie.size());
+		assertTrue(trie.getUris().isEmpty());
+	}
+
+	@Test
+	public void removePrefixMatchesStartsWith()
+	{
+		String[] prefixes = {"", "/", "/orders", "/orders/", "/orders/1", "/orders/1/", "/orders/12/items",
+			"/orders/1?", "/orders/3", "/ord", "orders", "/customers/", "/missing/segment/"};
+		for (String prefix : prefixes)
+		{
+			UriSegmentTrie trie = new UriSegmentTrie();
+			Set<String> expected = new HashSet<String>();
+			Set<String> remaining = new HashSet<String>();
+			for (String uri : URIS)
+			{
+				trie.add(uri);
+				if (uri.startsWith(prefix))
+				{
+					expected.add(uri);
+				}
+				else
+				{
+					remaining.add(uri);
+				}
+			}
+
+			List<String> removed = trie.removePrefix(prefix);
+			assertEquals("prefix: " + prefix, expected, new HashSet<String>(removed));
+			assertEquals("prefix: " + prefix, expected.size(), removed.size());
+			assertEquals("prefix: " + prefix, remaining, new HashSet<String>(trie.getUris()));
+			assertEquals("prefix: " + prefix, remaining.size(), trie.size());
+		}
+	}
+
+	@Test
+	public void randomRemovalsMatchStartsWith()
+	{
+		Random random = new Random(42);
+		UriSegmentTrie trie = new UriSegmentTrie();
+		Set<String> reference = new HashSet<String>();
+		for (int i = 0; i < 20000; i++)
+		{
+			String uri = randomUri(random);
+			trie.add(uri);
+			reference.add(uri);
+		}
+
+		for (int i = 0; i < 500; i++)
+		{
+			String prefix = randomUri(random);
+			prefix = prefix.substring(0, random.nextInt(prefix.length() + 1));
+
+			Set<String> expected = new HashSet<String>();
+			for (Iterator<String> iterator = reference.iterator(); iterator.hasNext();)
+			{
+				String uri = iterator.next();
+				if (uri.startsWith(prefix))
+				{
+					expected.add(uri);
+					iterator.remove();
+				}
+			}
+			assertEquals("prefix: " + prefix, expected, new HashSet<String>(trie.removePrefix(prefix)));
+			assertEquals(reference.size(), trie.size());
+
+			if (i % 10 == 0)
+			{
+				assertEquals(reference, new HashSet<String>(trie.getUris()));
+			}
+		}
+	}
+
+	private String randomUri(Random random)
+	{
+		StringBuilder uri = new StringBuilder();
+		int segments = 1 + random.nextInt(4);
+		for (int i = 0; i < segments; i++)
+		{
+			uri.append('/').append("abc".charAt(random.nextInt(3))).append(random.nextInt(20));
+		}
+		if (random.nextInt(5) == 0)
+		{
+			uri.append('/');
+		}
+		else if (random.nextInt(5) == 0)
+		{
+			uri.append("?q=").append(random.nextInt(3));
+		}
+		return uri.toString();
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.core.server.rest.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Date;
+import java.util.Random;
+
+import org.cruxframework.crux.core.server.rest.util.DateUtil.DateParseException;
+import org.junit.Test;
+
+public class HttpDateCodecTest
+{
+	// Sun, 06 Nov 1994 08:49:37 GMT
+	private static final long DATE = 784111777000L;
+
+	@Test
+	public void formatMatchesDateUtil()
+	{
+		assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", HttpDateCodec.format(DATE));
+		assertEquals("Thu, 01 Jan 1970 00:00:00 GMT", HttpDateCodec.format(0));
+		assertEquals("Tue, 29 Feb 2000 23:59:59 GMT", HttpDateCodec.format(951868799999L));
+		Random random = new Random(42);
+		for (int i = 0; i < 10000; i++)
+		{
+			long date = (long) (random.nextDouble() * 4102444800000L); // up to 2100
+			assertEquals(DateUtil.formatDate(new Date(date)), HttpDateCodec.format(date));
+			// Cached by second
+			assertEquals(DateUtil.formatDate(new Date(date)), HttpDateCodec.format(date / 1000 * 1000 + 999));
+		}
+	}
+
+	@Test
+	public void parseRfc1123()
+	{
+		assertEquals(DATE, HttpDateCodec.parse("Sun, 06 Nov 1994 08:49:37 GMT"));
+		assertEquals(951868799000L, HttpDateCodec.parse("Tue, 29 Feb 2000 23:59:59 GMT"));
+		Random random = new Random(7);
+		for (int i = 0; i < 10000; i++)
+		{
+			long date = (long) (random.nextDouble() * 4102444800000L);
+			String text = HttpDateCodec.format(date);
+			assertEquals(text, DateUtil.parseDate(text).getTime(), HttpDateCodec.parse(text));
+			assertEquals(text, date / 1000 * 1000, HttpDateCodec.parse(text));
+		}
+	}
+
+	@Test
+	public void parseRfc850()
+	{
+		// Two digit years are placed from 2000 on
+		assertEquals(DATE + 20L * 365 * 86400000 + 5L * 86400000, HttpDateCodec.parse("Thursday, 06-Nov-14 08:49:37 GMT"));
+	}
+
+	@Test
+	public void parseAsctime()
+	{
+		assertEquals(DATE, HttpDateCodec.parse("Sun Nov  6 08:49:37 1994"));
+		assertEquals(DATE + 4L * 86400000, HttpDateCodec.parse("Thu Nov 10 08:49:37 1994"));
+	}
+
+	@Test
+	public void invalidDates()
+	{
+		String[] dates = {"", "yesterday", "Sun, 06 Nov 1994 08:49", "Sun, 32 Foo 1994 08:49:37 GMT", "06/11/1994"};
+		for (String date : dates)
+		{
+			try
+			{
+				HttpDateCodec.parse(date);
+				fail("Invalid date parsed: " + date);
+			}
+			catch (DateParseException e)
+			{
+				// expected
+			}
+		}
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2014 cruxframework.org.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.cruxframework.crux.scanner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+
+import org.cruxframework.crux.scanner.ScannerIndexCache.CachedArchive;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ScannerIndexCacheTest
+{
+	private File workDir;
+	private File cacheDir;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		workDir = File.createTempFile("scanner", "");
+		workDir.delete();
+		workDir.mkdirs();
+		cacheDir = new File(workDir, "cache");
+	}
+
+	@After
+	public void tearDown()
+	{
+		delete(workDir);
+	}
+
+	@Test
+	public void classesNotFoundAreDropped() throws IOException
+	{
+		File jar = createFile("lib.jar");
+		URL archiveURL = getArchiveURL(jar);
+		ScannerIndexCache indexCache = new ScannerIndexCache(cacheDir, "");
+		CachedArchive archive = indexCache.load(archiveURL);
+		URL kept = new URL(archiveURL, "a/Kept.class");
+		URL deleted = new URL(archiveURL, "a/Deleted.class");
+		archive.put(kept, null);
+		archive.put(deleted, null);
+		indexCache.store(archive);
+
+		archive = indexCache.load(archiveURL);
+		assertTrue(archive.retain(Arrays.asList(kept)));
+		assertFalse(archive.retain(Arrays.asList(kept)));
+	}
+
+	@Test
+	public void indexFilesOfDeletedArchivesAreRemoved() throws IOException
+	{
+		File keptJar = createFile("kept.jar");
+		File deletedJar = createFile("deleted.jar");
+		ScannerIndexCache indexCache = new ScannerIndexCache(cacheDir, "");
+		indexCache.store(indexCache.load(getArchiveURL(keptJar)));
+		indexCache.store(indexCache.load(getArchiveURL(deletedJar)));
+		assertEquals(2, cacheDir.list().length);
+
+		deletedJar.delete();
+		indexCache.removeDeletedArchives();
+		assertEquals(1, cacheDir.list().length);
+		indexCache.removeDeletedArchives();
+		assertEquals(1, cacheDir.list().length);
+	}
+
+	private File createFile(String name) throws IOException
+	{
+		File file = new File(workDir, name);
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(1);
+		out.close();
+		return file;
+	}
+
+	private static URL getArchiveURL(File jar) throws IOException
+	{
+		return new URL("jar:" + jar.toURI().toURL() + "!/");
+	}
+
+	private static void delete(File file)
+	{
+		File[] children = file.listFiles();
+		if (children != null)
+		{
+			for (File child : children)
+			{
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}